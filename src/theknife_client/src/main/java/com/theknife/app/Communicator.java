@@ -4,6 +4,12 @@ import javax.swing.*;
 import java.io.*;
 import java.net.Socket;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Gestisce la comunicazione client–server tramite socket TCP, fornendo
@@ -21,6 +27,16 @@ import java.nio.charset.StandardCharsets;
  * <p>Formato di comunicazione:</p>
  * Ogni messaggio viene inviato come singola riga terminata da newline,
  * e il server risponde anch'esso con righe testuali singole.
+ * Alla connessione viene negoziato il protocollo v2 multiplexato ({@link ProtocolV2}):
+ * se il server lo supporta, le righe inviate vengono raccolte e spedite in un
+ * unico frame binario alla prima lettura, e la risposta arriva in un unico frame.
+ * In questa modalità {@link #submit(int, String...)} permette di inviare più
+ * richieste senza attendere le risposte, che il server completa in parallelo:
+ * una schermata che ne richiede diverse paga un solo round-trip.
+ *
+ * <p>Se il server è sovraccarico risponde {@code busy} al posto della prima riga
+ * di risposta, scartando la richiesta: in tal caso la richiesta viene reinviata
+ * automaticamente dopo una breve attesa crescente, in modo trasparente per i controller.</p>
  *
  * <p>Questa classe è utilizzata da tutti i controller UI e dagli handler di rete
  * per eseguire operazioni sulle risorse lato server.</p>
@@ -29,10 +45,14 @@ import java.nio.charset.StandardCharsets;
 public class Communicator {
     /** Socket TCP per la comunicazione col server. */
     private static Socket socket;
-    /** Reader per la lettura UTF-8 dal server. */
-    private static BufferedReader reader;
-    /** Writer UTF-8 per l'invio dei messaggi. */
-    private static BufferedWriter writer;
+    /** Stream di lettura dal server. */
+    private static InputStream in;
+    /** Stream di scrittura verso il server. */
+    private static OutputStream out;
+    /** Canale multiplexato, se negoziato con il server; {@code null} in v1. */
+    private static volatile Multiplexer mux;
+    /** Righe dell'ultima risposta v2 non ancora lette. */
+    private static final ArrayDeque<String> pendingResponse = new ArrayDeque<>();
     /** Indirizzo IP del server. */
     private static String ip;
     /** Porta TCP del server. */
@@ -40,6 +60,16 @@ public class Communicator {
     /** Stato di raggiungibilità del server. */
     private static boolean serverReachable = false;
 
+    /** Risposta del server quando scarta una richiesta per sovraccarico. */
+    private static final String BUSY = "busy";
+    /** Numero massimo di reinvii di una richiesta respinta con {@code busy}. */
+    private static final int BUSY_RETRIES = 5;
+    /** Attesa prima del primo reinvio, raddoppiata ad ogni tentativo. */
+    private static final long BUSY_BACKOFF_MS = 100;
+
+    /** Righe inviate dall'ultima lettura, reinviate se il server risponde {@code busy}. */
+    private static final List<String> pendingRequest = new ArrayList<>();
+
     /**
      * Costruttore privato.
      *
@@ -77,8 +107,11 @@ public class Communicator {
     }
 
     /**
-     * Tenta l'apertura della connessione TCP con il server e inizializza
-     * i flussi I/O per la comunicazione.
+     * Tenta l'apertura della connessione TCP con il server, inizializza
+     * i flussi I/O per la comunicazione e negozia la versione del protocollo.
+     *
+     * <p>Se l'utente era autenticato, il login viene ripristinato con il
+     * token di sessione ({@link User#resumeSession()}).</p>
      *
      * <p>In caso di fallimento:</p>
      * <ul>
@@ -92,14 +125,20 @@ public class Communicator {
         try {
             socket = new Socket(ip, port);
 
-            reader = new BufferedReader(
-                    new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8)
-            );
-            writer = new BufferedWriter(
-                    new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8)
-            );
+            in = new BufferedInputStream(socket.getInputStream());
+            out = new BufferedOutputStream(socket.getOutputStream());
+            pendingRequest.clear();
+            pendingResponse.clear();
+
+            // un server solo v1 risponde unkown_command e si prosegue in v1
+            writeTextLine(ProtocolV2.HANDSHAKE_MUX);
+            boolean multiplexed = ProtocolV2.HANDSHAKE_MUX_OK.equals(readTextLine());
+            mux = multiplexed ? new Multiplexer(in, out, Communicator::connectionLost) : null;
+            ClientLogger.getInstance().info("Communicator.connect() - Protocollo " + (multiplexed ? "v2 multiplexato" : "v1"));
 
             serverReachable = true;
+            // dopo una caduta della connessione ripristina il login senza password
+            User.resumeSession();
             return true;
 
         } catch (IOException e) {
@@ -115,8 +154,10 @@ public class Communicator {
     /**
      * Invia una stringa terminata da {@code \n} al server.
      *
-     * <p>Il metodo esegue automaticamente il flush del writer,
-     * poiché la comunicazione avviene con messaggi discreti.</p>
+     * <p>In v1 il metodo esegue automaticamente il flush del writer,
+     * poiché la comunicazione avviene con messaggi discreti; in v2 la riga
+     * viene accodata e spedita con le altre della richiesta alla lettura
+     * successiva.</p>
      *
      * @param msg messaggio da inviare
      * @return {@code true} se l'invio è andato a buon fine, {@code false} se si verifica errore
@@ -129,8 +170,10 @@ public class Communicator {
         try {
             String escapeMsg = msg.replace("\n", " /$%/ ");
             ClientLogger.getInstance().info("Communicator.send() - Sending: " + escapeMsg);
-            writer.write(escapeMsg + "\n");
-            writer.flush();
+            if (mux == null) {
+                writeTextLine(escapeMsg);
+            }
+            pendingRequest.add(msg);
             return true;
         } catch (IOException e) {
             ClientLogger.getInstance().error("Communicator.send() - Error: " + e.getMessage());
@@ -149,17 +192,72 @@ public class Communicator {
      * <ul>
      *     <li>Se viene restituito {@code null}, significa che il server ha chiuso la connessione</li>
      *     <li>In caso di errore viene chiusa la connessione locale</li>
+     *     <li>Se la prima riga di risposta è {@code busy}, la richiesta viene
+     *         reinviata fino a {@value #BUSY_RETRIES} volte con attesa crescente;
+     *         esauriti i tentativi viene restituito {@code null}, come per un
+     *         server non raggiungibile</li>
      * </ul>
      *
-     * @return stringa letta dal server oppure {@code null} se il server è disconnesso
+     * @return stringa letta dal server oppure {@code null} se il server è disconnesso o occupato
     */
     public static String read() {
+        List<String> request = new ArrayList<>(pendingRequest);
+        pendingRequest.clear();
+
+        if (mux != null) {
+            if (!request.isEmpty()) {
+                pendingResponse.clear();
+                List<String> lines = exchange(request).join();
+                if (lines == null) {
+                    return null;
+                }
+                pendingResponse.addAll(lines);
+            }
+            String msg = pendingResponse.poll();
+            ClientLogger.getInstance().info("Communicator.read() - Received: " + msg);
+            return msg;
+        }
+
+        String msg = readLine();
+        long backoff = BUSY_BACKOFF_MS;
+        for (int attempt = 0; BUSY.equals(msg) && !request.isEmpty() && attempt < BUSY_RETRIES; attempt++) {
+            ClientLogger.getInstance().alert("Communicator.read() - Server occupato, nuovo tentativo tra " + backoff + " ms");
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+            backoff *= 2;
+
+            for (String s : request) {
+                if (!send(s)) {
+                    return null;
+                }
+            }
+            pendingRequest.clear();
+            msg = readLine();
+        }
+        if (BUSY.equals(msg) && !request.isEmpty()) {
+            // i chiamanti non gestiscono busy: seguono il percorso di errore
+            ClientLogger.getInstance().alert("Communicator.read() - Server occupato, tentativi esauriti");
+            return null;
+        }
+        return msg;
+    }
+
+    /**
+     * Legge una singola riga dal server con il protocollo testuale.
+     *
+     * @return riga letta oppure {@code null} se il server è disconnesso
+     */
+    private static String readLine() {
         if (!serverReachable) {
             return null;
         }
         
         try {
-            String msg = reader.readLine();
+            String msg = readTextLine();
             if (msg == null) {
                 serverReachable = false;
                 close();
@@ -211,6 +309,125 @@ public class Communicator {
     }
 
 
+    /**
+     * Invia una richiesta senza attenderne la risposta.
+     *
+     * <p>Con il canale multiplexato la richiesta parte subito e più richieste
+     * possono essere in corso contemporaneamente; con il protocollo testuale
+     * viene eseguita in modo sincrono, leggendo {@code responseLines} righe.</p>
+     *
+     * <pre>
+     * CompletableFuture&lt;List&lt;String&gt;&gt; info = submit(12, "getRestaurantInfo", "42");
+     * CompletableFuture&lt;List&lt;String&gt;&gt; fav  = submit(1, "isFavourite", "42");
+     * </pre>
+     *
+     * @param responseLines righe della risposta, usate solo con il protocollo testuale
+     * @param args comando e parametri
+     * @return righe della risposta; {@code null} se il server non è raggiungibile
+     */
+    public static CompletableFuture<List<String>> submit(int responseLines, String... args) {
+        if (!serverReachable) {
+            return CompletableFuture.completedFuture(null);
+        }
+        if (mux != null) {
+            for (String s : args) {
+                ClientLogger.getInstance().info("Communicator.submit() - Sending: " + s.replace("\n", " /$%/ "));
+            }
+            return exchange(Arrays.asList(args));
+        }
+
+        for (String s : args) {
+            if (!send(s)) {
+                return CompletableFuture.completedFuture(null);
+            }
+        }
+        List<String> lines = new ArrayList<>(responseLines);
+        for (int i = 0; i < responseLines; i++) {
+            String line = read();
+            if (line == null) {
+                return CompletableFuture.completedFuture(null);
+            }
+            lines.add(line);
+        }
+        return CompletableFuture.completedFuture(lines);
+    }
+
+    /**
+     * Invia una richiesta sul canale multiplexato, reinviandola con attesa
+     * crescente se il server risponde {@code busy}.
+     *
+     * @param request comando e parametri
+     * @return righe della risposta; {@code null} se la connessione si interrompe
+     *         o se il server è ancora occupato dopo {@value #BUSY_RETRIES} tentativi
+     */
+    private static CompletableFuture<List<String>> exchange(List<String> request) {
+        Multiplexer m = mux;
+        if (m == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return exchange(m, request, 0, BUSY_BACKOFF_MS).exceptionally(e -> null);
+    }
+
+    private static CompletableFuture<List<String>> exchange(Multiplexer m, List<String> request,
+                                                            int attempt, long backoff) {
+        return m.submit(request).thenCompose(lines -> {
+            if (lines.isEmpty() || !BUSY.equals(lines.get(0))) {
+                return CompletableFuture.completedFuture(lines);
+            }
+            if (attempt >= BUSY_RETRIES) {
+                ClientLogger.getInstance().alert("Communicator - Server occupato, tentativi esauriti");
+                return CompletableFuture.completedFuture(null);
+            }
+            ClientLogger.getInstance().alert("Communicator - Server occupato, nuovo tentativo tra " + backoff + " ms");
+            return CompletableFuture
+                    .runAsync(() -> { }, CompletableFuture.delayedExecutor(backoff, TimeUnit.MILLISECONDS))
+                    .thenCompose(x -> exchange(m, request, attempt + 1, backoff * 2));
+        });
+    }
+
+    /**
+     * Gestisce la perdita della connessione rilevata dal canale multiplexato.
+     */
+    private static void connectionLost() {
+        serverReachable = false;
+        close();
+        notifyServerOffline();
+    }
+
+    /**
+     * Legge una riga v1 terminata da {@code \n}.
+     *
+     * @return riga letta oppure {@code null} a fine stream
+     * @throws IOException errori di rete
+     */
+    private static String readTextLine() throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+        int b;
+        while ((b = in.read()) != -1 && b != '\n') {
+            line.write(b);
+        }
+        if (b == -1 && line.size() == 0) {
+            return null;
+        }
+
+        byte[] bytes = line.toByteArray();
+        int len = bytes.length;
+        if (len > 0 && bytes[len - 1] == '\r') len--;
+        return new String(bytes, 0, len, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Invia una riga v1 ed esegue il flush.
+     *
+     * @param line riga da inviare, senza terminatore
+     * @throws IOException errori di rete
+     */
+    private static void writeTextLine(String line) throws IOException {
+        out.write(line.getBytes(StandardCharsets.UTF_8));
+        out.write('\n');
+        out.flush();
+    }
+
      /**
      * Chiude completamente la connessione verso il server,
      * includendo socket e flussi.
@@ -218,8 +435,11 @@ public class Communicator {
      * <p>Il metodo è idempotente e tollera chiamate multiple.</p>
      */
     public static void close() {
-        try { if (reader != null) reader.close(); } catch (Exception ignored) {}
-        try { if (writer != null) writer.close(); } catch (Exception ignored) {}
+        Multiplexer m = mux;
+        mux = null;
+        if (m != null) m.close();
+        try { if (in != null) in.close(); } catch (Exception ignored) {}
+        try { if (out != null) out.close(); } catch (Exception ignored) {}
         try { if (socket != null && !socket.isClosed()) socket.close(); } catch (Exception ignored) {}
 
         serverReachable = false;
@@ -1,6 +1,8 @@
 package com.theknife.app;
 
 import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Gestisce lo stato del ristorante attualmente selezionato nell'applicazione lato client.
@@ -19,6 +21,10 @@ import java.io.IOException;
  * <p>Il metodo {@link #setEditing(int)} interroga il server e aggiorna
  * le informazioni locali del ristorante. Tutte le successive letture
  * vengono effettuate da memoria locale tramite {@link #getInfo()}.</p>
+ *
+ * <p>Per la schermata di visualizzazione, {@link #setViewing(int)} invia
+ * insieme le richieste dei dettagli e dello stato "preferito": con il
+ * canale multiplexato le due risposte arrivano in un solo round-trip.</p>
  */
 public class EditingRestaurant {
     /** Identificativo del ristorante attualmente selezionato (o -1 se nessuno). */    
@@ -29,6 +35,8 @@ public class EditingRestaurant {
     private static String name, nation, city, address, latitude, longitude;
     private static String avg_price, has_delivery, has_online;
     private static String avg_stars, n_reviews, categories;
+    /** Stato "preferito" richiesto da {@link #setViewing(int)}, o {@code null} se non disponibile. */
+    private static Boolean favourite;
 
     /**
      * Costruttore privato.
@@ -59,6 +67,7 @@ public class EditingRestaurant {
     */
     public static void setEditing(int id) throws IOException {
         editing_id = id;
+        favourite = null;
 
         Communicator.send("getRestaurantInfo");
         Communicator.send(Integer.toString(id));
@@ -77,6 +86,70 @@ public class EditingRestaurant {
         n_reviews    = Communicator.read();
     }
 
+    /**
+     * Come {@link #setEditing(int)}, ma se l'utente è autenticato richiede
+     * nello stesso momento anche lo stato "preferito" del ristorante,
+     * poi disponibile tramite {@link #takeFavourite()}.
+     *
+     * <p>Le due richieste vengono inviate senza attendere la prima risposta:</p>
+     * <pre>
+     * getRestaurantInfo    isFavourite
+     * id                   id
+     * </pre>
+     *
+     * @param id identificativo del ristorante
+     * @throws IOException se la connessione fallisce o il server non risponde
+     */
+    public static void setViewing(int id) throws IOException {
+        editing_id = id;
+        favourite = null;
+
+        String restaurant = Integer.toString(id);
+        CompletableFuture<List<String>> infoReq = Communicator.submit(12, "getRestaurantInfo", restaurant);
+        CompletableFuture<List<String>> favReq = User.getInfo() != null
+                ? Communicator.submit(1, "isFavourite", restaurant)
+                : CompletableFuture.completedFuture(null);
+
+        List<String> info = infoReq.join();
+        String[] fields = new String[12];
+        if (info != null) {
+            for (int i = 0; i < fields.length && i < info.size(); i++) {
+                fields[i] = info.get(i);
+            }
+        }
+        name         = fields[0];
+        nation       = fields[1];
+        city         = fields[2];
+        address      = fields[3];
+        latitude     = fields[4];
+        longitude    = fields[5];
+        avg_price    = fields[6];
+        categories   = fields[7];
+        has_delivery = fields[8];
+        has_online   = fields[9];
+        avg_stars    = fields[10];
+        n_reviews    = fields[11];
+
+        List<String> fav = favReq.join();
+        if (fav != null && !fav.isEmpty()) {
+            favourite = "y".equals(fav.get(0));
+        }
+    }
+
+    /**
+     * Restituisce lo stato "preferito" ottenuto da {@link #setViewing(int)}.
+     *
+     * <p>Il valore è consumato alla prima lettura: se la schermata viene
+     * riaperta in seguito, lo stato va richiesto di nuovo al server.</p>
+     *
+     * @return {@code true}/{@code false}, oppure {@code null} se non disponibile
+     */
+    public static Boolean takeFavourite() {
+        Boolean value = favourite;
+        favourite = null;
+        return value;
+    }
+
     /**
      * Annulla lo stato attuale, eliminando riferimenti a ristorante
      * e a eventuali recensioni selezionate.
@@ -86,6 +159,7 @@ public class EditingRestaurant {
     public static void reset() {
         editing_id = -1;
         review_id = -1;
+        favourite = null;
     }
 
     /**
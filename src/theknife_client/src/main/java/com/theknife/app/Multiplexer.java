@@ -0,0 +1,140 @@
+package com.theknife.app;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Canale multiplexato verso il server (protocollo v2 con identificativi di richiesta).
+ *
+ * <p>
+ * Ogni richiesta riceve un identificativo e viene inviata subito, senza
+ * attendere le risposte alle precedenti. Un thread dedicato legge le
+ * risposte nell'ordine in cui il server le completa e le consegna alla
+ * richiesta corrispondente tramite il suo {@link CompletableFuture}.
+ * </p>
+ *
+ * <p>
+ * Se la connessione si interrompe, tutte le richieste in attesa vengono
+ * completate con errore e viene invocata la callback di perdita connessione.
+ * </p>
+ */
+final class Multiplexer {
+
+    private final InputStream in;
+    private final OutputStream out;
+    private final Runnable onConnectionLost;
+
+    private final AtomicInteger nextId = new AtomicInteger();
+    private final Map<Integer, CompletableFuture<List<String>>> inFlight = new ConcurrentHashMap<>();
+
+    /** {@code true} dopo una chiusura volontaria, per non segnalarla come perdita di connessione. */
+    private volatile boolean closed = false;
+
+    /**
+     * {@code true} quando il canale non consegnerà più risposte, per chiusura
+     * volontaria o perdita della connessione; impostato prima di {@link #failAll}.
+     */
+    private volatile boolean terminated = false;
+
+    /**
+     * Avvia il canale sugli stream di una connessione già negoziata.
+     *
+     * @param in stream di input dal server
+     * @param out stream di output verso il server
+     * @param onConnectionLost azione eseguita se il server chiude la connessione
+     */
+    Multiplexer(InputStream in, OutputStream out, Runnable onConnectionLost) {
+        this.in = in;
+        this.out = out;
+        this.onConnectionLost = onConnectionLost;
+
+        Thread reader = new Thread(this::readLoop, "CommunicatorReader");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Invia una richiesta senza attenderne la risposta.
+     *
+     * @param request comando e parametri
+     * @return righe della risposta, disponibili quando il server la completa;
+     *         completato con errore se il canale è chiuso
+     */
+    CompletableFuture<List<String>> submit(List<String> request) {
+        int id = nextId.incrementAndGet();
+        CompletableFuture<List<String>> response = new CompletableFuture<>();
+        inFlight.put(id, response);
+
+        // inserita dopo failAll: nessuno completerebbe più la richiesta
+        if (terminated) {
+            inFlight.remove(id);
+            response.completeExceptionally(new IOException("Connessione chiusa"));
+            return response;
+        }
+
+        try {
+            byte[] payload = ProtocolV2.encodeRequest(id, request);
+            synchronized (out) {
+                ProtocolV2.writeFrame(out, payload);
+                out.flush();
+            }
+        } catch (IOException e) {
+            inFlight.remove(id);
+            response.completeExceptionally(e);
+        }
+        return response;
+    }
+
+    /**
+     * Chiude il canale; le richieste in attesa vengono completate con errore.
+     */
+    void close() {
+        closed = true;
+        terminated = true;
+        failAll(new IOException("Connessione chiusa"));
+    }
+
+    /**
+     * Legge le risposte e le consegna alle richieste corrispondenti.
+     */
+    private void readLoop() {
+        IOException cause = null;
+        try {
+            byte[] frame;
+            while ((frame = ProtocolV2.readFrame(in)) != null) {
+                int id = ProtocolV2.readRequestId(frame);
+                CompletableFuture<List<String>> response = inFlight.remove(id);
+                if (response != null) {
+                    response.complete(ProtocolV2.decodeResponse(frame));
+                } else {
+                    ClientLogger.getInstance().warning("Multiplexer - Risposta a richiesta sconosciuta: " + id);
+                }
+            }
+        } catch (IOException e) {
+            cause = e;
+        }
+
+        terminated = true;
+        failAll(cause != null ? cause : new IOException("Connessione chiusa dal server"));
+        if (!closed) {
+            ClientLogger.getInstance().error("Multiplexer - Connessione persa"
+                    + (cause != null ? ": " + cause.getMessage() : ""));
+            onConnectionLost.run();
+        }
+    }
+
+    private void failAll(IOException cause) {
+        for (Integer id : inFlight.keySet()) {
+            CompletableFuture<List<String>> response = inFlight.remove(id);
+            if (response != null) {
+                response.completeExceptionally(cause);
+            }
+        }
+    }
+}
@@ -0,0 +1,298 @@
+package com.theknife.app;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Codifica binaria della versione 2 del protocollo client-server, lato client.
+ *
+ * <p>
+ * Ogni richiesta (comando e parametri) viene inviata in un unico frame con
+ * prefisso di lunghezza, e ogni risposta arriva in un unico frame; i campi
+ * non richiedono l'escape dei ritorni a capo. Il formato è descritto nella
+ * classe omonima del server, con cui questa deve restare allineata:
+ * </p>
+ * <pre>
+ * frame      := lunghezza:int32 payload
+ * richiesta  := idRichiesta:int32 idComando:uint16 numeroCampi:varint campo*
+ * risposta   := idRichiesta:int32 numeroCampi:varint campo*
+ * campo      := 0x00 lunghezza:varint byteUtf8 | 0x01 int32 | 0x02 float64
+ * </pre>
+ *
+ * <p>
+ * Il client usa la modalità multiplexata: alla riga {@value #HANDSHAKE_MUX}
+ * un server che la supporta risponde {@value #HANDSHAKE_MUX_OK}, e da quel
+ * momento ogni frame è preceduto da un identificativo di richiesta
+ * ({@code idRichiesta:int32}) che il server riporta nella risposta
+ * ({@link Multiplexer}). In caso contrario {@link Communicator} prosegue
+ * con il protocollo testuale.
+ * </p>
+ */
+final class ProtocolV2 {
+
+    /** Riga inviata per richiedere la v2 multiplexata. */
+    static final String HANDSHAKE_MUX = "THEKNIFE/2 mux";
+
+    /** Risposta del server che conferma la v2 multiplexata. */
+    static final String HANDSHAKE_MUX_OK = "THEKNIFE/2 mux ok";
+
+    /** Dimensione massima di un frame, in byte. */
+    private static final int MAX_FRAME_BYTES = 4 * 1024 * 1024;
+
+    private static final int TYPE_STRING = 0;
+    private static final int TYPE_INT = 1;
+    private static final int TYPE_DOUBLE = 2;
+
+    /** Identificativi dei comandi, uguali a quelli del CommandCatalog del server. */
+    private static final Map<String, Integer> COMMAND_IDS = new HashMap<>();
+
+    static {
+        String[] commands = {
+                "login", "register", "logout", "getUserInfo",
+                "getRestaurants", "getRestaurantsCursor", "getRestaurantInfo",
+                "addRestaurant", "editRestaurant", "deleteRestaurant",
+                "getMyRestaurantsPages", "getMyRestaurants",
+                "getReviewsPages", "getReviewsPageCount", "getReviews", "getMyReview",
+                "addReview", "editReview", "removeReview", "getMyReviewsPages", "getMyReviews",
+                "getResponse", "addResponse", "editResponse", "removeResponse",
+                "isFavourite", "addFavourite", "removeFavourite", "getFavourites",
+                "quit", "getStats", "getSessionToken", "resumeSession"
+        };
+        for (int i = 0; i < commands.length; i++) {
+            COMMAND_IDS.put(commands[i], i + 1);
+        }
+    }
+
+    private ProtocolV2() { }
+
+    /**
+     * Restituisce gli identificativi dei comandi, che devono coincidere con
+     * quelli registrati nel {@code CommandCatalog} del server.
+     *
+     * @return mappa non modificabile nome del comando → identificativo
+     */
+    static Map<String, Integer> commandIds() {
+        return Collections.unmodifiableMap(COMMAND_IDS);
+    }
+
+    /**
+     * Codifica una richiesta: la prima riga è il comando, le altre i parametri.
+     *
+     * <p>Un comando senza identificativo viene inviato con id {@code 0},
+     * a cui il server risponde {@code unkown_command} come in v1.</p>
+     *
+     * @param requestId identificativo della richiesta
+     * @param lines comando e parametri, come li invierebbe la v1 (senza escape)
+     * @return payload del frame
+     */
+    static byte[] encodeRequest(int requestId, List<String> lines) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(68 + lines.size() * 16);
+        writeInt(out, requestId);
+        int id = COMMAND_IDS.getOrDefault(lines.get(0), 0);
+        out.write(id >>> 8);
+        out.write(id);
+        writeVarint(out, lines.size() - 1);
+        for (int i = 1; i < lines.size(); i++) {
+            writeField(out, lines.get(i));
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Legge l'identificativo di richiesta di una risposta.
+     *
+     * @param payload payload del frame
+     * @return identificativo della richiesta
+     * @throws IOException se il frame è troppo corto
+     */
+    static int readRequestId(byte[] payload) throws IOException {
+        if (payload.length < 4) {
+            throw new IOException("Frame v2 multiplexato troncato");
+        }
+        return ByteBuffer.wrap(payload).getInt();
+    }
+
+    /**
+     * Decodifica le righe di una risposta multiplexata.
+     *
+     * @param payload payload del frame, identificativo di richiesta incluso
+     * @return righe della risposta
+     * @throws IOException se il frame è malformato
+     */
+    static List<String> decodeResponse(byte[] payload) throws IOException {
+        try {
+            ByteBuffer buf = ByteBuffer.wrap(payload, 4, payload.length - 4);
+            int n = readVarint(buf);
+            if (n > buf.remaining()) {
+                throw new IOException("Frame v2 con numero di campi non valido: " + n);
+            }
+
+            List<String> lines = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                int type = buf.get();
+                switch (type) {
+                    case TYPE_STRING -> {
+                        int len = readVarint(buf);
+                        if (len > buf.remaining()) {
+                            throw new IOException("Campo v2 troncato");
+                        }
+                        lines.add(new String(buf.array(), buf.position(), len, StandardCharsets.UTF_8));
+                        buf.position(buf.position() + len);
+                    }
+                    case TYPE_INT -> lines.add(Integer.toString(buf.getInt()));
+                    case TYPE_DOUBLE -> lines.add(Double.toString(buf.getDouble()));
+                    default -> throw new IOException("Tipo di campo v2 sconosciuto: " + type);
+                }
+            }
+            return lines;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Frame v2 troncato", e);
+        }
+    }
+
+    /**
+     * Legge un frame completo.
+     *
+     * @param in stream di input dal server
+     * @return payload del frame, oppure {@code null} se il server ha chiuso la connessione
+     * @throws IOException errori di rete o frame di lunghezza non valida
+     */
+    static byte[] readFrame(InputStream in) throws IOException {
+        DataInputStream din = new DataInputStream(in);
+        int len;
+        try {
+            len = din.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        if (len < 0 || len > MAX_FRAME_BYTES) {
+            throw new IOException("Frame v2 di lunghezza non valida: " + len);
+        }
+        byte[] payload = new byte[len];
+        din.readFully(payload);
+        return payload;
+    }
+
+    /**
+     * Scrive un frame completo (senza flush).
+     *
+     * @param out stream di output verso il server
+     * @param payload contenuto del frame
+     * @throws IOException errori di rete
+     */
+    static void writeFrame(OutputStream out, byte[] payload) throws IOException {
+        int len = payload.length;
+        out.write(len >>> 24);
+        out.write(len >>> 16);
+        out.write(len >>> 8);
+        out.write(len);
+        out.write(payload);
+    }
+
+    /**
+     * Scrive un campo scegliendo la codifica più compatta che restituisca
+     * al server esattamente la stessa stringa.
+     */
+    private static void writeField(ByteArrayOutputStream out, String value) {
+        // un int32 occupa 5 byte, un float64 9: convengono solo sulle stringhe più lunghe
+        if (value.length() > 3 && isCanonicalInt(value)) {
+            out.write(TYPE_INT);
+            writeInt(out, Integer.parseInt(value));
+            return;
+        }
+        if (value.length() > 7 && isCanonicalDouble(value)) {
+            long v = Double.doubleToLongBits(Double.parseDouble(value));
+            out.write(TYPE_DOUBLE);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                out.write((int) (v >>> shift));
+            }
+            return;
+        }
+
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.write(TYPE_STRING);
+        writeVarint(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Indica se la forma canonica dell'intero coincide con la stringa
+     * (es. non {@code "007"} o {@code "-0"}); stessa regola del server.
+     */
+    private static boolean isCanonicalInt(String s) {
+        int len = s.length();
+        if (len == 0 || len > 11) {
+            return false;
+        }
+        for (int k = 0; k < len; k++) {
+            char c = s.charAt(k);
+            if ((c < '0' || c > '9') && !(k == 0 && c == '-' && len > 1)) {
+                return false;
+            }
+        }
+        try {
+            return Integer.toString(Integer.parseInt(s)).equals(s);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Indica se {@link Double#toString(double)}, usato dal server per
+     * decodificare il campo, restituisce esattamente la stringa.
+     */
+    private static boolean isCanonicalDouble(String s) {
+        int len = s.length();
+        for (int k = 0; k < len; k++) {
+            char c = s.charAt(k);
+            if ((c < '0' || c > '9') && c != '.' && !(k == 0 && c == '-' && len > 1)) {
+                return false;
+            }
+        }
+        try {
+            return Double.toString(Double.parseDouble(s)).equals(s);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int v) {
+        out.write(v >>> 24);
+        out.write(v >>> 16);
+        out.write(v >>> 8);
+        out.write(v);
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarint(ByteBuffer buf) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = buf.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                if (value < 0) break;
+                return value;
+            }
+        }
+        throw new IOException("Varint v2 non valido");
+    }
+}
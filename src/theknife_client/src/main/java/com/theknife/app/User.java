@@ -1,6 +1,7 @@
 package com.theknife.app;
 
 import java.io.IOException;
+import java.util.List;
 
 /**
  * Classe statica che gestisce lo stato dell'utente attualmente autenticato nel client.
@@ -20,6 +21,11 @@ import java.io.IOException;
  * <p>Lo stato mantenuto non includes un identificativo numerico univoco,
  * in quanto la sessione viene gestita dal server in base al socket corrente.</p>
  *
+ * <p>Dopo il login viene conservato il token di sessione emesso dal server:
+ * se la connessione cade, {@link Communicator#connect()} lo presenta alla
+ * riconnessione con {@link #resumeSession()} e il login viene ripristinato
+ * senza reinviare la password.</p>
+ *
  * @see Communicator
  */
 
@@ -32,6 +38,8 @@ public class User{
     private static boolean loggedIn = false;
     /** Indica se l'utente autenticato è un ristoratore. */
     private static boolean isRestaurateur = false;
+    /** Token con cui ripristinare il login dopo una riconnessione, {@code null} se assente. */
+    private static String sessionToken;
 
     /**
      * Costruttore
@@ -95,6 +103,10 @@ public class User{
             ClientLogger.getInstance().info("User.login() - Received isRestaurateur: " + isRest);
             isRestaurateur = isRest.equals("y");
 
+            Communicator.send("getSessionToken");
+            String token = Communicator.read();
+            sessionToken = token == null || token.isEmpty() ? null : token;
+
             loggedIn = true;
             ClientLogger.getInstance().info("User.login() - Login completed successfully");
         } else {
@@ -124,6 +136,7 @@ public class User{
 
         if (res != null && res.equals("ok")) {
             loggedIn = false;
+            sessionToken = null;
             name = null;
             surname = null;
             isRestaurateur = false;
@@ -146,11 +159,34 @@ public class User{
      */
     public static void panic() {
         loggedIn = false;
+        sessionToken = null;
         name = null;
         surname = null;
         isRestaurateur = false;
     }
 
+    /**
+     * Ripristina il login sulla connessione appena aperta presentando il token
+     * di sessione. Se il server lo rifiuta (token scaduto o revocato, oppure
+     * utente autenticato altrove) lo stato locale viene azzerato con {@link #panic()}.
+     */
+    static void resumeSession() {
+        String token = sessionToken;
+        if (!loggedIn || token == null) {
+            return;
+        }
+
+        List<String> res = Communicator.submit(2, "resumeSession", token).join();
+        if (res != null && res.size() == 2 && res.get(0).equals("ok")) {
+            sessionToken = res.get(1);
+            ClientLogger.getInstance().info("User.resumeSession() - Session restored");
+        } else {
+            ClientLogger.getInstance().warning("User.resumeSession() - Session not restored: "
+                    + (res == null ? "no response" : res));
+            panic();
+        }
+    }
+
     /**
      * Restituisce le informazioni dell’utente attualmente loggato.
      *
@@ -175,7 +175,7 @@ public class FavouriteController implements OnlineChecker {
         int index = favourites_list.getSelectionModel().getSelectedIndex();
         if (index < 0) return;
 
-        EditingRestaurant.setEditing(Integer.parseInt(fav_ids[index]));
+        EditingRestaurant.setViewing(Integer.parseInt(fav_ids[index]));
         SceneManager.setPreviousNavigation("Favorites");
         SceneManager.changeScene("ViewRestaurantInfo");
     }
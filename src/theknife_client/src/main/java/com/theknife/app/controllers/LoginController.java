@@ -132,6 +132,11 @@ public class LoginController implements OnlineChecker {
                 setNotification("Utente già connesso da un altro client. Disconnettersi dall'altro client per potersi collegare");
                 return;
 
+            case "throttled":
+                ClientLogger.getInstance().warning("Login failed: too many attempts - " + username.getText());
+                setNotification("Troppi tentativi falliti. Riprovare tra qualche minuto");
+                return;
+
             default:
                 ClientLogger.getInstance().error("Unexpected login response: " + response);
                 setNotification("Errore imprevisto: " + response);
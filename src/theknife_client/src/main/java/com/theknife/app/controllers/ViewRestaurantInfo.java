@@ -107,17 +107,22 @@ public class ViewRestaurantInfo implements OnlineChecker {
             if (!checkOnline()) {
                 fav_btn.setVisible(false);
             } else {
-                Communicator.send("isFavourite");
-                Communicator.send(Integer.toString(EditingRestaurant.getId()));
-
-                String favResp = Communicator.read();
-                if (favResp == null) {
-                    fallback();
-                    return;
+                Boolean prefetched = EditingRestaurant.takeFavourite();
+                if (prefetched != null) {
+                    is_favourite = prefetched;
+                } else {
+                    Communicator.send("isFavourite");
+                    Communicator.send(Integer.toString(EditingRestaurant.getId()));
+
+                    String favResp = Communicator.read();
+                    if (favResp == null) {
+                        fallback();
+                        return;
+                    }
+
+                    is_favourite = favResp.equals("y");
                 }
 
-                is_favourite = favResp.equals("y");
-
                 if (is_favourite)
                     fav_btn.setText("Rimuovi dai preferiti");
             }
@@ -307,7 +307,7 @@ public class ViewRestaurants implements OnlineChecker {
         int index = restaurants_listview.getSelectionModel().getSelectedIndex();
         if (index < 0) return;
 
-        EditingRestaurant.setEditing(Integer.parseInt(restaurants_ids[index]));
+        EditingRestaurant.setViewing(Integer.parseInt(restaurants_ids[index]));
         SceneManager.setPreviousNavigation("ViewRestaurants");
         SceneManager.changeScene("ViewRestaurantInfo");
     }
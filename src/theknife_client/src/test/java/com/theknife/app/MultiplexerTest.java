@@ -0,0 +1,89 @@
+package com.theknife.app;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Verifica che nessuna richiesta del {@link Multiplexer} resti in attesa
+ * per sempre dopo la chiusura del canale.
+ */
+class MultiplexerTest {
+
+    @Test
+    void submitAfterCloseFailsImmediately() throws IOException {
+        PipedOutputStream server = new PipedOutputStream();
+        Multiplexer m = new Multiplexer(new PipedInputStream(server), new ByteArrayOutputStream(), () -> { });
+
+        m.close();
+        CompletableFuture<List<String>> response = m.submit(List.of("getUserInfo"));
+
+        assertTrue(response.isDone());
+        assertThrows(CompletionException.class, response::join);
+        server.close();
+    }
+
+    @Test
+    void submitAfterConnectionLostFailsImmediately() throws Exception {
+        PipedOutputStream server = new PipedOutputStream();
+        CompletableFuture<Void> lost = new CompletableFuture<>();
+        Multiplexer m = new Multiplexer(new PipedInputStream(server), new ByteArrayOutputStream(),
+                () -> lost.complete(null));
+
+        server.close();
+        lost.get(5, TimeUnit.SECONDS);
+        CompletableFuture<List<String>> response = m.submit(List.of("getUserInfo"));
+
+        assertTrue(response.isDone());
+        assertThrows(CompletionException.class, response::join);
+    }
+
+    @Test
+    void responseIsDeliveredToItsRequest() throws Exception {
+        PipedOutputStream server = new PipedOutputStream();
+        Multiplexer m = new Multiplexer(new PipedInputStream(server), new ByteArrayOutputStream(), () -> { });
+
+        CompletableFuture<List<String>> response = m.submit(List.of("getUserInfo"));
+        // idRichiesta 1, due campi stringa
+        ProtocolV2.writeFrame(server, new byte[] {0, 0, 0, 1, 2, 0, 1, 'a', 0, 1, 'b'});
+        server.flush();
+
+        assertEquals(List.of("a", "b"), response.get(5, TimeUnit.SECONDS));
+        m.close();
+        server.close();
+    }
+
+    @Test
+    void responsesInReverseOrderReachTheirRequests() throws Exception {
+        PipedOutputStream server = new PipedOutputStream();
+        Multiplexer m = new Multiplexer(new PipedInputStream(server), new ByteArrayOutputStream(), () -> { });
+
+        CompletableFuture<List<String>> first = m.submit(List.of("getUserInfo"));
+        CompletableFuture<List<String>> second = m.submit(List.of("getUserInfo"));
+        // risponde prima alla richiesta 2, poi alla 1
+        ProtocolV2.writeFrame(server, new byte[] {0, 0, 0, 2, 1, 0, 1, '2'});
+        server.flush();
+
+        assertEquals(List.of("2"), second.get(5, TimeUnit.SECONDS));
+        assertFalse(first.isDone());
+
+        ProtocolV2.writeFrame(server, new byte[] {0, 0, 0, 1, 1, 0, 1, '1'});
+        server.flush();
+
+        assertEquals(List.of("1"), first.get(5, TimeUnit.SECONDS));
+        m.close();
+        server.close();
+    }
+}
@@ -0,0 +1,149 @@
+package com.theknife.app;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Verifica la codifica v2 lato client. I vettori di byte sono gli stessi
+ * fissati dal {@code ProtocolV2Test} del server: se uno dei due test cambia,
+ * client e server non sono più compatibili.
+ */
+class ProtocolV2Test {
+
+    private static final HexFormat HEX = HexFormat.of();
+
+    /** Comandi in ordine di identificativo, a partire da 1: non vanno mai riassegnati. */
+    private static final List<String> COMMANDS = List.of(
+            "login", "register", "logout", "getUserInfo",
+            "getRestaurants", "getRestaurantsCursor", "getRestaurantInfo",
+            "addRestaurant", "editRestaurant", "deleteRestaurant",
+            "getMyRestaurantsPages", "getMyRestaurants",
+            "getReviewsPages", "getReviewsPageCount", "getReviews", "getMyReview",
+            "addReview", "editReview", "removeReview", "getMyReviewsPages", "getMyReviews",
+            "getResponse", "addResponse", "editResponse", "removeResponse",
+            "isFavourite", "addFavourite", "removeFavourite", "getFavourites",
+            "quit", "getStats", "getSessionToken", "resumeSession");
+
+    /**
+     * Richiesta 42 di un comando sconosciuto con i campi
+     * {@code "prima\nseconda", " /$%/ ", "007", "1234", "-0", "45.4642035", ""}.
+     */
+    private static final String REQUEST = "0000002a" + "0000" + "07"
+            + "000d7072696d610a7365636f6e6461" + "0006202f24252f20" + "0003303037"
+            + "01000004d2" + "00022d30" + "024046bb6b05319829" + "0000";
+
+    /** Richiesta 7: {@code login} con {@code "mario", "2024"}. */
+    private static final String LOGIN = "00000007" + "0001" + "02" + "00056d6172696f" + "01000007e8";
+
+    /**
+     * Risposta 42 con le righe v1
+     * {@code "ok", "prima /$%/ seconda", " /$%/ ", "007", "1234", "-0", "2147483647", ""}.
+     */
+    private static final String RESPONSE = "0000002a" + "08" + "00026f6b"
+            + "000d7072696d610a7365636f6e6461" + "00010a" + "0003303037"
+            + "01000004d2" + "00022d30" + "017fffffff" + "0000";
+
+    /** Tipo del primo parametro di una richiesta con un solo parametro. */
+    private static int fieldType(String value) {
+        byte[] payload = ProtocolV2.encodeRequest(1, List.of("getRestaurantInfo", value));
+        // idRichiesta:int32 idComando:uint16 numeroCampi:varint
+        return payload[7];
+    }
+
+    @Test
+    void numbersAreEncodedOnlyWhenCanonical() {
+        assertEquals(1, fieldType("1234"));
+        assertEquals(1, fieldType("-1234"));
+        assertEquals(2, fieldType("45.4642035"));
+
+        for (String s : new String[] {"", "-", "-0", "007", "0123", "+1234", "2147483648",
+                                      "0.10000000", "1.0E10", "NaN", "-0000000.0"}) {
+            assertEquals(0, fieldType(s), "\"" + s + "\" deve restare una stringa");
+        }
+    }
+
+    @Test
+    void unknownCommandUsesIdZero() {
+        byte[] payload = ProtocolV2.encodeRequest(5, List.of("comandoInesistente"));
+        assertEquals(0, payload[4]);
+        assertEquals(0, payload[5]);
+    }
+
+    @Test
+    void commandIdsArePinned() {
+        Map<String, Integer> expected = new HashMap<>();
+        for (int i = 0; i < COMMANDS.size(); i++) {
+            expected.put(COMMANDS.get(i), i + 1);
+        }
+        assertEquals(expected, ProtocolV2.commandIds());
+    }
+
+    @Test
+    void requestEncodesToPinnedBytes() {
+        List<String> request = List.of("comandoInesistente",
+                "prima\nseconda", " /$%/ ", "007", "1234", "-0", "45.4642035", "");
+
+        assertEquals(REQUEST, HEX.formatHex(ProtocolV2.encodeRequest(42, request)));
+        assertEquals(LOGIN, HEX.formatHex(ProtocolV2.encodeRequest(7, List.of("login", "mario", "2024"))));
+    }
+
+    @Test
+    void responseDecodesToPinnedLines() throws IOException {
+        byte[] payload = HEX.parseHex(RESPONSE);
+
+        // il server invia i ritorni a capo v1 come caratteri '\n'
+        assertEquals(42, ProtocolV2.readRequestId(payload));
+        assertEquals(List.of("ok", "prima\nseconda", "\n", "007", "1234", "-0", "2147483647", ""),
+                ProtocolV2.decodeResponse(payload));
+        assertEquals(List.of(), ProtocolV2.decodeResponse(HEX.parseHex("0000000300")));
+    }
+
+    @Test
+    void lengthsUseMultiByteVarints() throws IOException {
+        // 128 byte: varint 80 01
+        byte[] request = ProtocolV2.encodeRequest(1, List.of("getRestaurantInfo", "x".repeat(128)));
+        assertEquals("00000001" + "0007" + "01" + "008001", HEX.formatHex(request, 0, 10));
+        assertEquals(10 + 128, request.length);
+
+        // 300 byte: varint ac 02
+        String s = "x".repeat(300);
+        byte[] header = HEX.parseHex("00000001" + "01" + "00ac02");
+        byte[] response = new byte[header.length + 300];
+        System.arraycopy(header, 0, response, 0, header.length);
+        System.arraycopy(s.getBytes(), 0, response, header.length, 300);
+        assertEquals(List.of(s), ProtocolV2.decodeResponse(response));
+    }
+
+    @Test
+    void framesRoundTrip() throws IOException {
+        byte[] payload = {0, 0, 0, 9, 1, 0, 0};
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ProtocolV2.writeFrame(out, payload);
+        ProtocolV2.writeFrame(out, new byte[0]);
+
+        ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+        assertArrayEquals(payload, ProtocolV2.readFrame(in));
+        assertArrayEquals(new byte[0], ProtocolV2.readFrame(in));
+        assertNull(ProtocolV2.readFrame(in));
+    }
+
+    @Test
+    void truncatedResponseIsRejected() {
+        // idRichiesta, un campo stringa di 5 byte con soli 2 byte presenti
+        byte[] payload = {0, 0, 0, 1, 1, 0, 5, 'a', 'b'};
+        assertThrows(IOException.class, () -> ProtocolV2.decodeResponse(payload));
+    }
+}
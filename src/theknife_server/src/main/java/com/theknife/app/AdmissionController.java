@@ -0,0 +1,125 @@
+package com.theknife.app;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Controllo di ammissione dei comandi che accedono al database.
+ *
+ * <p>
+ * Limita il numero di comandi eseguiti contemporaneamente, qualunque sia il
+ * motore di rete e il numero di client connessi. I comandi oltre il limite
+ * attendono in una coda di dimensione limitata per al massimo il tempo
+ * configurato; se la coda è piena o l'attesa scade il comando viene
+ * respinto e al client viene risposto {@code busy}.
+ * </p>
+ *
+ * <p>
+ * In questo modo un picco di richieste non si traduce in una corsa alle
+ * connessioni verso PostgreSQL: i comandi ammessi mantengono latenze
+ * regolari e quelli in eccesso ricevono subito una risposta esplicita.
+ * </p>
+ */
+final class AdmissionController {
+
+    private final int maxActive;
+    private final int maxQueued;
+    private final long queueTimeoutMs;
+
+    /** Permessi di esecuzione; l'ordine FIFO evita che i comandi in coda vengano scavalcati. */
+    private final Semaphore permits;
+
+    /** Comandi in attesa di un permesso. */
+    private final AtomicInteger queued = new AtomicInteger();
+
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder rejectedQueueFull = new LongAdder();
+    private final LongAdder rejectedTimeout = new LongAdder();
+
+    /**
+     * Crea il controllo di ammissione.
+     *
+     * @param maxActive comandi eseguibili contemporaneamente
+     * @param maxQueued comandi che possono attendere un permesso
+     * @param queueTimeoutMs attesa massima in coda, in millisecondi
+     */
+    AdmissionController(int maxActive, int maxQueued, long queueTimeoutMs) {
+        this.maxActive = maxActive;
+        this.maxQueued = maxQueued;
+        this.queueTimeoutMs = queueTimeoutMs;
+        this.permits = new Semaphore(maxActive, true);
+    }
+
+    /**
+     * Richiede il permesso di eseguire un comando, attendendo in coda se necessario.
+     * Ogni chiamata che restituisce {@code true} va bilanciata da {@link #release()}.
+     *
+     * @return {@code true} se il comando è ammesso, {@code false} se va respinto
+     * @throws InterruptedException se il thread viene interrotto durante l'attesa
+     */
+    boolean acquire() throws InterruptedException {
+        if (queued.get() == 0 && permits.tryAcquire()) {
+            admitted.increment();
+            return true;
+        }
+
+        if (queued.incrementAndGet() > maxQueued) {
+            queued.decrementAndGet();
+            rejectedQueueFull.increment();
+            return false;
+        }
+
+        try {
+            if (permits.tryAcquire(queueTimeoutMs, TimeUnit.MILLISECONDS)) {
+                admitted.increment();
+                return true;
+            }
+            rejectedTimeout.increment();
+            return false;
+        } finally {
+            queued.decrementAndGet();
+        }
+    }
+
+    /**
+     * Restituisce il permesso ottenuto con {@link #acquire()}.
+     */
+    void release() {
+        permits.release();
+    }
+
+    /** @return comandi in esecuzione */
+    int getActive() {
+        return maxActive - permits.availablePermits();
+    }
+
+    /** @return comandi in attesa di un permesso */
+    int getQueued() {
+        return queued.get();
+    }
+
+    /** @return comandi ammessi dall'avvio */
+    long getAdmitted() {
+        return admitted.sum();
+    }
+
+    /** @return comandi respinti dall'avvio, per coda piena o attesa scaduta */
+    long getRejected() {
+        return rejectedQueueFull.sum() + rejectedTimeout.sum();
+    }
+
+    /**
+     * Descrive lo stato corrente per la console amministrativa.
+     *
+     * @return riepilogo di carico e contatori
+     */
+    String describe() {
+        return "attivi " + getActive() + "/" + maxActive
+                + ", in coda " + getQueued() + "/" + maxQueued
+                + ", ammessi " + getAdmitted()
+                + ", respinti " + rejectedQueueFull.sum() + " (coda piena) + "
+                + rejectedTimeout.sum() + " (attesa > " + queueTimeoutMs + " ms)";
+    }
+}
@@ -0,0 +1,175 @@
+package com.theknife.app;
+
+import java.sql.SQLException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pool dedicato alle operazioni di autenticazione (login e registrazione).
+ *
+ * <p>
+ * Le verifiche e gli hash BCrypt sono volutamente costosi in CPU: eseguiti
+ * sui thread di sessione, un picco di login (o un attacco di credential
+ * stuffing) occuperebbe tutti i core a scapito delle ricerche. Il pool ha un
+ * numero fisso di thread ({@code auth_workers}) e una coda limitata
+ * ({@code auth_max_queued}); oltre la coda le richieste vengono respinte e
+ * il client riceve {@code busy}, che reinvia con attesa crescente.
+ * </p>
+ *
+ * <p>
+ * Il thread di sessione attende il risultato senza consumare CPU. L'attesa
+ * in coda è registrata in {@link LatencyStats#AUTH} con il nome {@code queue}.
+ * </p>
+ *
+ * <p>Pattern utilizzato: <b>Singleton</b></p>
+ */
+public final class AuthWorkerPool {
+
+    /**
+     * Operazione da eseguire nel pool.
+     *
+     * @param <T> tipo del risultato
+     */
+    @FunctionalInterface
+    public interface Task<T> {
+
+        /**
+         * Esegue l'operazione.
+         *
+         * @return risultato dell'operazione
+         * @throws SQLException errori di accesso ai dati
+         * @throws InterruptedException gestione concorrenza
+         */
+        T run() throws SQLException, InterruptedException;
+    }
+
+    /** Thread di default: metà dei core, così che l'autenticazione non possa saturare la CPU. */
+    static final int DEFAULT_WORKERS = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+
+    /** Richieste in coda di default. */
+    static final int DEFAULT_MAX_QUEUED = 64;
+
+    private static AuthWorkerPool instance = null;
+
+    /**
+     * Restituisce l'unica istanza del pool.
+     *
+     * @return istanza singleton del pool
+     */
+    public static synchronized AuthWorkerPool getInstance() {
+        if (instance == null)
+            instance = new AuthWorkerPool();
+        return instance;
+    }
+
+    private final AtomicInteger threadIds = new AtomicInteger();
+    private final LongAdder rejected = new LongAdder();
+    private final LatencyHistogram queueLatency = LatencyStats.AUTH.histogram("queue");
+
+    private volatile ThreadPoolExecutor executor;
+
+    private AuthWorkerPool() {
+        executor = create(DEFAULT_WORKERS, DEFAULT_MAX_QUEUED);
+    }
+
+    /**
+     * Ridimensiona il pool; le operazioni già accettate vengono completate
+     * dal pool precedente.
+     *
+     * @param workers thread del pool
+     * @param maxQueued richieste che possono attendere un thread libero
+     */
+    synchronized void configure(int workers, int maxQueued) {
+        ThreadPoolExecutor previous = executor;
+        executor = create(workers, maxQueued);
+        previous.shutdown();
+    }
+
+    private ThreadPoolExecutor create(int workers, int maxQueued) {
+        return new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(maxQueued),
+                r -> {
+                    Thread t = new Thread(r, "AuthWorker-" + threadIds.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Esegue un'operazione nel pool e ne attende il risultato.
+     *
+     * @param task operazione da eseguire
+     * @param <T> tipo del risultato
+     * @return risultato dell'operazione
+     * @throws RejectedExecutionException se la coda del pool è piena
+     * @throws SQLException errori di accesso ai dati sollevati dall'operazione
+     * @throws InterruptedException se il thread chiamante viene interrotto durante l'attesa
+     */
+    public <T> T execute(Task<T> task) throws SQLException, InterruptedException {
+        long submitted = System.nanoTime();
+        Future<T> future;
+        try {
+            future = executor.submit(() -> {
+                queueLatency.record(System.nanoTime() - submitted);
+                return task.run();
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            throw e;
+        }
+
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            throw e;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException sql) throw sql;
+            if (cause instanceof InterruptedException ie) throw ie;
+            if (cause instanceof RuntimeException re) throw re;
+            if (cause instanceof Error err) throw err;
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /** @return thread del pool */
+    public int getWorkers() {
+        return executor.getCorePoolSize();
+    }
+
+    /** @return operazioni in esecuzione */
+    public int getActive() {
+        return executor.getActiveCount();
+    }
+
+    /** @return operazioni in attesa di un thread libero */
+    public int getQueued() {
+        return executor.getQueue().size();
+    }
+
+    /** @return operazioni respinte per coda piena */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * Descrive lo stato del pool per la console amministrativa.
+     *
+     * @return thread attivi, coda e operazioni respinte
+     */
+    public String describe() {
+        ThreadPoolExecutor e = executor;
+        return "attivi " + e.getActiveCount() + "/" + e.getCorePoolSize()
+                + ", in coda " + e.getQueue().size()
+                + ", completati " + e.getCompletedTaskCount()
+                + ", respinti " + rejected.sum();
+    }
+}
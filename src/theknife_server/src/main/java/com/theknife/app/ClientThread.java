@@ -1,27 +1,40 @@
 package com.theknife.app;
 
-import com.theknife.app.Handler.AuthHandler;
 import com.theknife.app.Handler.ClientContext;
+import com.theknife.app.Handler.CommandCatalog;
 import com.theknife.app.Handler.CommandHandler;
-import com.theknife.app.Handler.DisconnectHandler;
-import com.theknife.app.Handler.FavouriteHandler;
-import com.theknife.app.Handler.RestaurantHandler;
 
 import java.io.IOException;
 import java.net.Socket;
-import java.net.SocketTimeoutException;
 import java.sql.SQLException;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
 
 /**
- * Thread dedicato alla gestione di un singolo client connesso al server.
+ * Sessione di un singolo client connesso al server, eseguita in un thread dedicato.
  *
  * <p>Ogni istanza viene avviata alla connessione del client
  * e gestisce comunicazione, comandi e chiusura della sessione.</p>
  *
- * <p>La gestione dei comandi è delegata a una lista ordinata di
- * {@link CommandHandler}, inoltrando i comandi finché uno li riconosce.</p>
+ * <p>Il thread viene creato dal {@link Thread.Builder} indicato all'avvio:
+ * un thread di piattaforma ({@code server_engine=thread}) oppure un
+ * virtual thread ({@code server_engine=virtual}). In entrambi i casi la
+ * lettura dei comandi è bloccante e senza timeout: un client inattivo
+ * non provoca risvegli periodici, e l'arresto avviene chiudendo il socket.</p>
+ *
+ * <p>Se il client negozia la modalità multiplexata del protocollo v2, le sue
+ * richieste vengono eseguite in parallelo (fino a {@value #MAX_IN_FLIGHT}
+ * per connessione) dall'esecutore condiviso da tutte le sessioni, e le
+ * risposte inviate nell'ordine di completamento. I comandi che modificano la sessione (login, logout, quit)
+ * attendono le richieste in corso e vengono eseguiti da soli.</p>
+ *
+ * <p>La gestione dei comandi è delegata al {@link CommandDispatcher},
+ * che risolve ogni comando nel metodo registrato dal relativo
+ * {@link CommandHandler}.</p>
+ *
+ * <p>È il motore di rete predefinito ({@code server_engine=thread});
+ * in alternativa è disponibile {@link NioServerEngine}.</p>
  *
  * Lato server ogni client:
  * <ul>
@@ -34,7 +47,7 @@ import java.util.List;
  * @author Erica Faccio
  * @author Giovanni Isgrò
  */
-public class ClientThread extends Thread {
+public class ClientThread implements Runnable {
 
     /** Socket associato alla sessione del client. */
     private final Socket socket;
@@ -42,42 +55,99 @@ public class ClientThread extends Thread {
     /** Contesto per comunicazione e stato sessione. */
     private final ClientContext ctx;
 
-    /** Lista ordinata di handler registrati per l'elaborazione dei comandi. */
-    private final List<CommandHandler> handlers = new ArrayList<>();
+    /**
+     * Esecuzione di un comando ricevuto dal client; in produzione è
+     * {@link CommandDispatcher#dispatch(String, String, ClientContext)}.
+     */
+    @FunctionalInterface
+    interface Dispatch {
+        /**
+         * @param peer indirizzo del client
+         * @param cmd comando ricevuto
+         * @param ctx contesto della sessione o della richiesta multiplexata
+         * @throws IOException errori di rete
+         * @throws SQLException errori sul database lato handler
+         * @throws InterruptedException gestione operazioni concorrenti
+         */
+        void dispatch(String peer, String cmd, ClientContext ctx)
+                throws IOException, SQLException, InterruptedException;
+    }
+
+    /** Esecuzione dei comandi, delegata alla catena degli handler. */
+    private final Dispatch dispatcher;
 
-    private static final int READ_TIMEOUT = 1000;
+    /** Logger del server. */
+    private final ServerLogger log = ServerLogger.getInstance();
+
+    /** Richieste multiplexate eseguibili contemporaneamente per connessione. */
+    static final int MAX_IN_FLIGHT = 8;
+
+    /** Thread che esegue la sessione, assegnato da {@link #start(Thread.Builder, Executor)}. */
+    private volatile Thread thread;
+
+    /** Esecutore delle richieste multiplexate, condiviso da tutte le sessioni. */
+    private Executor requestExecutor;
 
     private volatile boolean running = true;
 
     /**
-     * Costruisce una nuova istanza del thread client,
-     * associandola al socket ricevuto.
-     *
-     * <p>Inizializza il {@link ClientContext} e registra gli handler,
-     * rispettando l’ordine di priorità:</p>
+     * Costruisce una nuova sessione associata al socket ricevuto.
      *
-     * <ol>
-     *     <li>{@link AuthHandler} → autenticazione</li>
-     *     <li>{@link RestaurantHandler} → ristoranti e recensioni</li>
-     *     <li>{@link DisconnectHandler} → disconnessione client</li>
-     * </ol>
-     *
-     * <p>Il thread viene avviato automaticamente tramite {@link #start()}.</p>
+     * <p>Inizializza il {@link ClientContext} della sessione; l'esecuzione
+     * inizia con {@link #start(Thread.Builder, Executor)}.</p>
      *
      * @param socket socket della connessione stabilita dal client
      * @throws IOException se fallisce la creazione del contesto
      */
     public ClientThread(Socket socket) throws IOException {
+        this(socket, new ClientContext(socket), CommandDispatcher.getInstance()::dispatch, null);
+    }
+
+    /**
+     * Costruisce una sessione con contesto ed esecuzione dei comandi indicati.
+     *
+     * @param socket socket della connessione
+     * @param ctx contesto della sessione
+     * @param dispatcher esecuzione dei comandi
+     * @param requestExecutor esecutore delle richieste multiplexate, {@code null} fino a
+     *                        {@link #start(Thread.Builder, Executor)}
+     */
+    ClientThread(Socket socket, ClientContext ctx, Dispatch dispatcher, Executor requestExecutor) {
         this.socket = socket;
-        this.socket.setSoTimeout(READ_TIMEOUT);
-        this.ctx = new ClientContext(socket);
+        this.ctx = ctx;
+        this.dispatcher = dispatcher;
+        this.requestExecutor = requestExecutor;
+    }
 
-        handlers.add(AuthHandler.getInstance());
-        handlers.add(RestaurantHandler.getInstance());
-        handlers.add(DisconnectHandler.getInstance());
-        handlers.add(FavouriteHandler.getInstance());
+    /**
+     * Avvia la sessione in un nuovo thread creato dal builder indicato.
+     *
+     * @param builder builder di thread di piattaforma o virtuali
+     * @param requestExecutor esecutore delle richieste multiplexate
+     */
+    public void start(Thread.Builder builder, Executor requestExecutor) {
+        this.requestExecutor = requestExecutor;
+        thread = builder.start(this);
+    }
+
+    /**
+     * Verifica se il thread della sessione è ancora in esecuzione.
+     *
+     * @return {@code true} se la sessione è stata avviata e non è terminata
+     */
+    public boolean isAlive() {
+        Thread t = thread;
+        return t != null && t.isAlive();
+    }
 
-        start();
+    /**
+     * Interrompe il thread della sessione.
+     */
+    public void interrupt() {
+        Thread t = thread;
+        if (t != null) {
+            t.interrupt();
+        }
     }
 
     /**
@@ -93,23 +163,22 @@ public class ClientThread extends Thread {
      */
     @Override
     public void run() {
-        System.out.println("[Client " + socket.getInetAddress() + "] Connected");
+        log.debug("[Client " + socket.getInetAddress() + "] Connected");
         try {
             loop();
         } catch (InterruptedException e) {
             // Thread interrotto esplicitamente
             Thread.currentThread().interrupt(); // Ripristina il flag
         } catch (Exception e) {
-            System.out.println("[Client " + socket.getInetAddress() + "] Disconnected - " + e.getClass().getSimpleName());
+            log.info("[Client " + socket.getInetAddress() + "] Disconnected - " + e.getClass().getSimpleName());
         } finally {
             try {
-                DisconnectHandler.getInstance().handle("handler disconnesso", ctx);
-            } catch (Exception ignored) {
+                CommandDispatcher.getInstance().disconnected(ctx);
             } finally {
                 close();
                 // Rimuovi questo client dalla lista del server
                 ServerApplication.getInstance().removeClient(this);
-                System.out.println("[Client " + socket.getInetAddress() + "] Cleaned up");
+                log.debug("[Client " + socket.getInetAddress() + "] Cleaned up");
             }
         }
     }
@@ -134,28 +203,70 @@ public class ClientThread extends Thread {
      */
     private void loop() throws IOException, SQLException, InterruptedException {
         while(running && ctx.isActive()){
-            String cmd = null;
-            try{
-                cmd = ctx.read();
-            }catch(SocketTimeoutException e){
-                continue;
-            }
+            String cmd = ctx.read();
             if(cmd == null){
                 break;
             }
+            if(ctx.isMultiplexed()){
+                multiplexedLoop();
+                break;
+            }
+
+            dispatcher.dispatch(socket.getInetAddress().toString(), cmd, ctx);
+        }
+    }
 
-            System.out.println("[Client " + socket.getInetAddress() + " IN] " + cmd);
-            boolean handled = false;
-            for(CommandHandler h : handlers){
-                if(h.handle(cmd, ctx)){
-                    handled = true;
+    /**
+     * Loop della modalità multiplexata: legge le richieste man mano che
+     * arrivano e le esegue in parallelo, limitando quelle in corso a
+     * {@value #MAX_IN_FLIGHT}. Termina attendendo le richieste ancora in corso.
+     *
+     * @throws IOException errori di rete
+     * @throws SQLException errori sul database lato handler
+     * @throws InterruptedException gestione operazioni concorrenti
+     */
+    void multiplexedLoop() throws IOException, SQLException, InterruptedException {
+        String peer = socket.getInetAddress().toString();
+        Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+
+        try {
+            while(running && ctx.isActive()){
+                ClientContext request = ctx.nextRequest();
+                if(request == null){
+                    break;
+                }
+                String cmd = request.read();
+
+                if(CommandCatalog.changesSession(cmd)){
+                    inFlight.acquire(MAX_IN_FLIGHT);
+                    try {
+                        dispatcher.dispatch(peer, cmd, request);
+                    } finally {
+                        inFlight.release(MAX_IN_FLIGHT);
+                    }
+                    continue;
+                }
+
+                inFlight.acquire();
+                try {
+                    requestExecutor.execute(() -> {
+                        try {
+                            dispatcher.dispatch(peer, cmd, request);
+                        } catch (Exception e) {
+                            log.info("[Client " + peer + "] Disconnected - " + e.getClass().getSimpleName());
+                            shutdown();
+                        } finally {
+                            inFlight.release();
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    // esecutore arrestato: il server è in chiusura
+                    inFlight.release();
                     break;
                 }
             }
-            if(!handled){
-                ctx.write("unkown_command");
-                continue;
-            }
+        } finally {
+            inFlight.acquireUninterruptibly(MAX_IN_FLIGHT);
         }
     }
 
@@ -184,6 +295,8 @@ public class ClientThread extends Thread {
      * <p>
      * L'operazione imposta il flag {@code running} a {@code false} e chiude il socket associato,
      * causando lo sblocco di eventuali operazioni di lettura bloccanti ({@link ClientContext#read()}).
+     * Gli stream del {@link ClientContext} vengono rilasciati dal thread della sessione
+     * stesso, dato che la chiusura del reader attenderebbe la lettura in corso.
      * </p>
      * 
      * <p>
@@ -192,13 +305,8 @@ public class ClientThread extends Thread {
      */
     public void shutdown() {
         running = false;
-        // Imposta un timeout molto breve per sbloccare la lettura
         try {
-            socket.setSoTimeout(100);
-        } catch (IOException ignored) {
-        }
-        // Interrompi il thread
-        this.interrupt();
-        close();
+            socket.close();
+        } catch (IOException ignored) {}
     }
 }
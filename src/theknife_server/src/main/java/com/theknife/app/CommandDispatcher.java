@@ -0,0 +1,237 @@
+package com.theknife.app;
+
+import com.theknife.app.Handler.AuthHandler;
+import com.theknife.app.Handler.ClientContext;
+import com.theknife.app.Handler.CommandCatalog;
+import com.theknife.app.Handler.CommandHandler;
+import com.theknife.app.Handler.CommandRegistry;
+import com.theknife.app.Handler.DisconnectHandler;
+import com.theknife.app.Handler.RestaurantHandler;
+import com.theknife.app.Handler.StatsHandler;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Instradamento dei comandi condiviso dai motori di rete.
+ *
+ * <p>
+ * Alla creazione ogni {@link CommandHandler} registra i propri comandi in un
+ * {@link CommandRegistry}; ogni comando ricevuto viene poi risolto con una
+ * sola ricerca ed eseguito, registrandone errori e durata.
+ * Se nessun handler lo gestisce il client riceve {@code unkown_command}.
+ * Gli handler sono singleton senza stato di sessione, quindi lo stesso
+ * registro può servire contemporaneamente tutti i client.
+ * </p>
+ *
+ * <p>
+ * I comandi che accedono al database passano prima per l'{@link AdmissionController}
+ * configurato all'avvio: se il server è saturo il comando viene scartato,
+ * insieme alle sue righe di parametri, e il client riceve {@code busy}.
+ * </p>
+ *
+ * <p>Pattern utilizzato: <b>Command</b></p>
+ */
+public final class CommandDispatcher {
+
+    /** Istanza singleton del dispatcher. */
+    private static CommandDispatcher instance;
+
+    /**
+     * Handler dei comandi:
+     * <ul>
+     *     <li>{@link AuthHandler} → autenticazione</li>
+     *     <li>{@link RestaurantHandler} → ristoranti, recensioni, risposte e preferiti</li>
+     *     <li>{@link DisconnectHandler} → disconnessione client</li>
+     *     <li>{@link StatsHandler} → latenze per gli operatori</li>
+     * </ul>
+     */
+    private final List<CommandHandler> handlers = List.of(
+            AuthHandler.getInstance(),
+            RestaurantHandler.getInstance(),
+            DisconnectHandler.getInstance(),
+            StatsHandler.getInstance()
+    );
+
+    /** Comandi registrati dagli handler, con i relativi contatori. */
+    private final CommandRegistry registry = new CommandRegistry();
+
+    /** Logger del server; ogni comando ricevuto è tracciato a livello DEBUG. */
+    private final ServerLogger log = ServerLogger.getInstance();
+
+    /** Controllo di ammissione in uso; {@code null} se disattivato. */
+    private volatile AdmissionController admission;
+
+    /**
+     * Costruttore privato: registra i comandi di tutti gli handler.
+     *
+     * @throws IllegalStateException se due handler registrano lo stesso comando
+     */
+    private CommandDispatcher() {
+        for (CommandHandler h : handlers) {
+            h.registerCommands(registry);
+        }
+    }
+
+    /**
+     * Restituisce l'unica istanza del dispatcher.
+     *
+     * @return istanza singleton
+     */
+    public static synchronized CommandDispatcher getInstance() {
+        if (instance == null)
+            instance = new CommandDispatcher();
+        return instance;
+    }
+
+    /**
+     * Esegue un comando ricevuto da un client.
+     *
+     * @param peer indirizzo del client, usato nei messaggi di log
+     * @param cmd comando ricevuto (prima riga della richiesta)
+     * @param ctx contesto di sessione del client
+     * @throws IOException errori di rete
+     * @throws SQLException errori sul database lato handler
+     * @throws InterruptedException gestione operazioni concorrenti
+     */
+    public void dispatch(String peer, String cmd, ClientContext ctx)
+            throws IOException, SQLException, InterruptedException {
+
+        if (log.isDebugEnabled()) {
+            log.debug("[Client " + peer + " IN] " + cmd);
+        }
+        ctx.touch();
+
+        admitAndHandle(cmd, ctx);
+        ctx.endCommand();
+    }
+
+    /**
+     * Applica il controllo di ammissione, se previsto per il comando, e lo esegue.
+     *
+     * @param cmd comando ricevuto
+     * @param ctx contesto di sessione del client
+     * @throws IOException errori di rete
+     * @throws SQLException errori sul database lato handler
+     * @throws InterruptedException gestione operazioni concorrenti
+     */
+    private void admitAndHandle(String cmd, ClientContext ctx)
+            throws IOException, SQLException, InterruptedException {
+
+        AdmissionController adm = admission;
+        if (adm == null || !CommandCatalog.needsAdmission(cmd)) {
+            handle(cmd, ctx);
+            return;
+        }
+
+        if (!adm.acquire()) {
+            discardParameters(cmd, ctx);
+            ctx.write("busy");
+            return;
+        }
+        try {
+            handle(cmd, ctx);
+        } finally {
+            adm.release();
+        }
+    }
+
+    /**
+     * Esegue il metodo registrato per il comando.
+     *
+     * @param cmd comando ricevuto
+     * @param ctx contesto di sessione del client
+     * @throws IOException errori di rete
+     * @throws SQLException errori sul database lato handler
+     * @throws InterruptedException gestione operazioni concorrenti
+     */
+    private void handle(String cmd, ClientContext ctx)
+            throws IOException, SQLException, InterruptedException {
+
+        CommandRegistry.Command command = registry.lookup(cmd);
+        if (command == null) {
+            ctx.write("unkown_command");
+            return;
+        }
+        command.invoke(ctx);
+    }
+
+    /**
+     * Legge e scarta le righe di parametri di un comando respinto,
+     * così che non vengano interpretate come comandi successivi.
+     *
+     * @param cmd comando respinto
+     * @param ctx contesto di sessione del client
+     * @throws IOException errori di rete
+     */
+    private void discardParameters(String cmd, ClientContext ctx) throws IOException {
+        int n = CommandCatalog.parameterLines(cmd);
+        for (int i = 0; i < n; i++) {
+            if (ctx.read() == null) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Imposta il controllo di ammissione dei comandi che accedono al database.
+     *
+     * @param admission controllo da applicare, {@code null} per disattivarlo
+     */
+    void setAdmission(AdmissionController admission) {
+        this.admission = admission;
+    }
+
+    /** @return controllo di ammissione attivo, oppure {@code null} se disattivato */
+    AdmissionController getAdmission() {
+        return admission;
+    }
+
+    /** @return registro dei comandi, per l'esportazione delle metriche */
+    CommandRegistry getRegistry() {
+        return registry;
+    }
+
+    /**
+     * Descrive lo stato del controllo di ammissione per la console amministrativa.
+     *
+     * @return riepilogo di carico, oppure un avviso se il controllo è disattivato
+     */
+    public String describeAdmission() {
+        AdmissionController adm = admission;
+        return adm == null ? "disattivato" : adm.describe();
+    }
+
+    /**
+     * Descrive gli errori dei comandi per la console amministrativa;
+     * le latenze sono in {@link LatencyStats#COMMANDS}.
+     *
+     * @return comandi terminati con errore e comandi sconosciuti ricevuti
+     */
+    public String describeErrors() {
+        return registry.describeErrors();
+    }
+
+    /**
+     * Azzera latenze ed errori di comandi, database e autenticazione.
+     * Unico punto di azzeramento, usato sia dalla console ({@code stats reset})
+     * sia dal comando {@code getStats}.
+     */
+    public void resetStats() {
+        LatencyStats.COMMANDS.reset();
+        LatencyStats.DATABASE.reset();
+        LatencyStats.AUTH.reset();
+        registry.resetErrors();
+    }
+
+    /**
+     * Rilascia lo stato globale associato a una sessione terminata,
+     * anche se il client si è disconnesso senza eseguire il logout.
+     *
+     * @param ctx contesto della sessione terminata
+     */
+    public void disconnected(ClientContext ctx) {
+        AuthHandler.handleClientDisconnect(ctx);
+    }
+}
@@ -90,6 +90,16 @@ public abstract class ConfigurationPersistenceManager {
             pw.println("jdbc_url=jdbc:postgresql://" + host + ":5432/" + db);
             pw.println("username=" + user);
             pw.println("password=" + pass);
+            pw.println();
+            pw.println("# Pool di connessioni (opzionale)");
+            pw.println("pool_min_size=" + ConnectionPool.DEFAULT_MIN_SIZE);
+            pw.println("pool_max_size=" + ConnectionPool.DEFAULT_MAX_SIZE);
+            pw.println("pool_borrow_timeout_ms=" + ConnectionPool.DEFAULT_BORROW_TIMEOUT_MS);
+            pw.println("pool_validation_timeout_s=" + ConnectionPool.DEFAULT_VALIDATION_TIMEOUT_S);
+            pw.println("pool_idle_timeout_ms=" + ConnectionPool.DEFAULT_IDLE_TIMEOUT_MS);
+            pw.println("pool_max_lifetime_ms=" + ConnectionPool.DEFAULT_MAX_LIFETIME_MS);
+            pw.println("pool_leak_detection_ms=" + ConnectionPool.DEFAULT_LEAK_DETECTION_MS);
+            pw.println("pool_statement_cache_size=" + ConnectionPool.DEFAULT_STATEMENT_CACHE_SIZE);
 
             System.out.println("[CONFIG] connection.ini creato in:");
             System.out.println("         " + iniFile.getAbsolutePath());
@@ -3,7 +3,6 @@ package com.theknife.app;
 import java.io.File;
 import java.io.FileInputStream;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.util.Properties;
 
@@ -18,7 +17,10 @@ import java.util.Properties;
  *
  * <p>
  * Il componente espone un'interfaccia semplificata per l'ottenimento e
- * il rilascio delle connessioni al database.
+ * il rilascio delle connessioni al database. Le connessioni sono gestite
+ * da un {@link ConnectionPool} limitato: i CRUD continuano a chiudere la
+ * connessione a fine utilizzo, ma la chiusura la restituisce al pool
+ * invece di terminare la sessione PostgreSQL.
  * </p>
  *
  * <p>
@@ -36,6 +38,9 @@ public final class ConnectionManager {
 
     private File iniFile;
 
+    /** Pool delle connessioni fisiche verso il database. */
+    private ConnectionPool pool;
+
     /**
      * Costruttore privato.
      *
@@ -164,27 +169,109 @@ public final class ConnectionManager {
         if (jdbcUrl == null || username == null || password == null || password.isBlank()) {
             throw new RuntimeException("connection.ini non valido.");
         }
+
+        pool = new ConnectionPool(jdbcUrl, username, password, prop);
     }
 
     /**
      * Fornisce una connessione JDBC attiva verso il database configurato.
      *
+     * <p>
+     * La connessione è prelevata dal pool; la sua chiusura
+     * (anche tramite try-with-resources) la restituisce al pool.
+     * </p>
+     *
      * @return connessione JDBC aperta
      * @throws SQLException
-     *         se il database non è raggiungibile o le credenziali non sono valide
+     *         se il database non è raggiungibile, le credenziali non sono valide
+     *         o nessuna connessione si libera entro il timeout configurato
      */
     public Connection getConnection() throws SQLException {
-        return DriverManager.getConnection(jdbcUrl, username, password);
+        return pool.borrow();
     }
 
     /**
-     * Rilascia una connessione JDBC precedentemente ottenuta.
+     * Rilascia una connessione JDBC precedentemente ottenuta,
+     * restituendola al pool.
      *
-     * @param c connessione da chiudere; può essere {@code null}
+     * @param c connessione da rilasciare; può essere {@code null}
      */
     public void releaseConnection(Connection c) {
         if (c != null) {
             try { c.close(); } catch (SQLException ignored) {}
         }
     }
+
+    /**
+     * Chiude il pool e tutte le connessioni fisiche inattive.
+     * Invocato in fase di arresto del server.
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    /**
+     * Restituisce il numero di connessioni attualmente prestate ai CRUD.
+     *
+     * @return connessioni in uso
+     */
+    public int getActiveConnections() {
+        return pool.getActiveCount();
+    }
+
+    /**
+     * Restituisce il numero di connessioni inattive disponibili nel pool.
+     *
+     * @return connessioni inattive
+     */
+    public int getIdleConnections() {
+        return pool.getIdleCount();
+    }
+
+    /**
+     * Restituisce il numero di connessioni fisiche aperte verso il database.
+     *
+     * @return connessioni fisiche aperte
+     */
+    public int getTotalConnections() {
+        return pool.getTotalCount();
+    }
+
+    /**
+     * Restituisce il numero di thread in attesa di una connessione.
+     *
+     * @return thread in attesa
+     */
+    public int getWaitingThreads() {
+        return pool.getWaitingCount();
+    }
+
+    /**
+     * Restituisce la dimensione massima configurata del pool.
+     *
+     * @return numero massimo di connessioni
+     */
+    public int getMaxConnections() {
+        return pool.getMaxSize();
+    }
+
+    /**
+     * Restituisce il numero di prepared statement riusati dalla cache
+     * delle connessioni.
+     *
+     * @return riusi della cache degli statement
+     */
+    public long getStatementCacheHits() {
+        return pool.getStatementCacheHits();
+    }
+
+    /**
+     * Restituisce il numero di prepared statement preparati ex novo
+     * perché assenti dalla cache delle connessioni.
+     *
+     * @return mancati riusi della cache degli statement
+     */
+    public long getStatementCacheMisses() {
+        return pool.getStatementCacheMisses();
+    }
 }
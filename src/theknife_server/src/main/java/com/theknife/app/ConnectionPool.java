@@ -0,0 +1,624 @@
+package com.theknife.app;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pool limitato di connessioni JDBC utilizzato internamente dal {@link ConnectionManager}.
+ *
+ * <p>
+ * Il pool mantiene un insieme di connessioni fisiche verso PostgreSQL
+ * e le presta ai livelli CRUD sotto forma di proxy: la chiamata a
+ * {@link Connection#close()} sul proxy non chiude la connessione fisica,
+ * ma la restituisce al pool.
+ * </p>
+ *
+ * <p>
+ * Funzionalità offerte:
+ * </p>
+ * <ul>
+ *     <li>dimensione minima e massima del pool</li>
+ *     <li>timeout di attesa in fase di prelievo</li>
+ *     <li>validazione della connessione al prelievo</li>
+ *     <li>rimozione delle connessioni inattive oltre la soglia configurata</li>
+ *     <li>durata massima di vita di ogni connessione fisica</li>
+ *     <li>rilevamento delle connessioni non restituite (leak detection)</li>
+ *     <li>cache LRU dei prepared statement per connessione ({@link StatementCache})</li>
+ * </ul>
+ *
+ * <p>
+ * I parametri vengono letti dal file {@code connection.ini}; le chiavi
+ * assenti assumono i valori di default indicati nelle costanti della classe.
+ * </p>
+ */
+final class ConnectionPool {
+
+    /** Dimensione minima di default del pool. */
+    static final int DEFAULT_MIN_SIZE = 2;
+
+    /** Dimensione massima di default del pool. */
+    static final int DEFAULT_MAX_SIZE = 10;
+
+    /** Attesa massima di default per ottenere una connessione (ms). */
+    static final long DEFAULT_BORROW_TIMEOUT_MS = 5_000;
+
+    /** Timeout di default della validazione al prelievo (secondi). */
+    static final int DEFAULT_VALIDATION_TIMEOUT_S = 2;
+
+    /** Inattività massima di default prima della rimozione (ms). */
+    static final long DEFAULT_IDLE_TIMEOUT_MS = 600_000;
+
+    /** Durata massima di default di una connessione fisica (ms). */
+    static final long DEFAULT_MAX_LIFETIME_MS = 1_800_000;
+
+    /** Soglia di default oltre la quale un prestito è considerato un leak (ms). */
+    static final long DEFAULT_LEAK_DETECTION_MS = 60_000;
+
+    /** Numero di default di prepared statement mantenuti per connessione (0 disattiva la cache). */
+    static final int DEFAULT_STATEMENT_CACHE_SIZE = 64;
+
+    /**
+     * Le connessioni restituite da meno di questo intervallo non vengono
+     * rivalidate al prelievo: evita un round-trip per le connessioni appena usate.
+     */
+    private static final long VALIDATION_GRACE_MS = 500;
+
+    private final ServerLogger log = ServerLogger.getInstance();
+
+    private final String jdbcUrl;
+    private final String username;
+    private final String password;
+
+    private final int minSize;
+    private final int maxSize;
+    private final long borrowTimeoutMs;
+    private final int validationTimeoutS;
+    private final long idleTimeoutMs;
+    private final long maxLifetimeMs;
+    private final long leakDetectionMs;
+    private final int statementCacheSize;
+
+    /** Riusi di statement già preparati, su tutte le connessioni. */
+    private final LongAdder statementHits = new LongAdder();
+
+    /** Statement preparati ex novo, su tutte le connessioni. */
+    private final LongAdder statementMisses = new LongAdder();
+
+    /** Connessioni inattive; gestite in modalità LIFO per riusare le più "calde". */
+    private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+
+    /** Connessioni attualmente prestate. */
+    private final Set<PooledConnection> borrowed = ConcurrentHashMap.newKeySet();
+
+    /** Permessi di prestito: limita il numero di connessioni prestate contemporaneamente. */
+    private final Semaphore permits;
+
+    /** Numero di connessioni fisiche aperte (inattive + prestate). */
+    private final AtomicInteger total = new AtomicInteger();
+
+    /** Thread di manutenzione (eviction, leak detection, riempimento minimo). */
+    private final ScheduledExecutorService housekeeper;
+
+    private volatile boolean closed = false;
+
+    /**
+     * Crea il pool leggendo i parametri dalle proprietà di {@code connection.ini}.
+     *
+     * @param jdbcUrl URL JDBC del database
+     * @param username utente del database
+     * @param password password del database
+     * @param prop proprietà lette da {@code connection.ini}
+     * @throws RuntimeException se uno dei parametri del pool non è valido
+     */
+    ConnectionPool(String jdbcUrl, String username, String password, Properties prop) {
+        this.jdbcUrl  = jdbcUrl;
+        this.username = username;
+        this.password = password;
+
+        this.minSize            = (int) readLong(prop, "pool_min_size", DEFAULT_MIN_SIZE, 0);
+        this.maxSize            = (int) readLong(prop, "pool_max_size", DEFAULT_MAX_SIZE, 1);
+        this.borrowTimeoutMs    = readLong(prop, "pool_borrow_timeout_ms", DEFAULT_BORROW_TIMEOUT_MS, 1);
+        this.validationTimeoutS = (int) readLong(prop, "pool_validation_timeout_s", DEFAULT_VALIDATION_TIMEOUT_S, 1);
+        this.idleTimeoutMs      = readLong(prop, "pool_idle_timeout_ms", DEFAULT_IDLE_TIMEOUT_MS, 0);
+        this.maxLifetimeMs      = readLong(prop, "pool_max_lifetime_ms", DEFAULT_MAX_LIFETIME_MS, 0);
+        this.leakDetectionMs    = readLong(prop, "pool_leak_detection_ms", DEFAULT_LEAK_DETECTION_MS, 0);
+        this.statementCacheSize = (int) readLong(prop, "pool_statement_cache_size", DEFAULT_STATEMENT_CACHE_SIZE, 0);
+
+        if (minSize > maxSize) {
+            throw new RuntimeException("connection.ini non valido: pool_min_size > pool_max_size.");
+        }
+
+        this.permits = new Semaphore(maxSize, true);
+
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "ConnectionPool-Housekeeper");
+            t.setDaemon(true);
+            return t;
+        });
+
+        long period = 30_000;
+        if (leakDetectionMs > 0) {
+            period = Math.max(1_000, Math.min(period, leakDetectionMs / 2));
+        }
+        housekeeper.scheduleWithFixedDelay(this::housekeep, period, period, TimeUnit.MILLISECONDS);
+
+        fill();
+        log.info("Pool connessioni inizializzato (min " + minSize + ", max " + maxSize + ")");
+    }
+
+    /**
+     * Preleva una connessione dal pool, attendendo al massimo il timeout configurato.
+     *
+     * <p>
+     * Se non è disponibile una connessione inattiva e il pool non ha raggiunto
+     * la dimensione massima, viene aperta una nuova connessione fisica.
+     * Le connessioni inattive da più di {@value #VALIDATION_GRACE_MS} ms
+     * vengono validate prima di essere consegnate.
+     * </p>
+     *
+     * @return proxy della connessione; {@link Connection#close()} la restituisce al pool
+     * @throws SQLException se il timeout scade, il pool è chiuso o il database non è raggiungibile
+     */
+    Connection borrow() throws SQLException {
+        if (closed) {
+            throw new SQLException("Pool di connessioni chiuso.");
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(borrowTimeoutMs);
+
+        try {
+            if (!permits.tryAcquire(borrowTimeoutMs, TimeUnit.MILLISECONDS)) {
+                throw timeout();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Attesa di una connessione interrotta.", e);
+        }
+
+        try {
+            PooledConnection pc = acquire(deadline);
+            pc.borrowedAt = System.currentTimeMillis();
+            pc.borrowSite = leakDetectionMs > 0 ? new Throwable("prelievo connessione") : null;
+            pc.leakReported = false;
+            borrowed.add(pc);
+            return pc.newLease();
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Individua una connessione utilizzabile: inattiva e valida, oppure nuova.
+     *
+     * @param deadline istante limite (nanoTime) per l'attesa
+     * @return connessione fisica pronta per il prestito
+     * @throws SQLException in caso di timeout o errore di apertura
+     */
+    private PooledConnection acquire(long deadline) throws SQLException {
+        while (true) {
+            PooledConnection pc = idle.pollFirst();
+
+            if (pc == null) {
+                if (reserveSlot(maxSize)) {
+                    return open();
+                }
+                // il pool è al massimo: si attende una restituzione
+                long remaining = deadline - System.nanoTime();
+                try {
+                    pc = remaining > 0 ? idle.pollFirst(remaining, TimeUnit.NANOSECONDS) : null;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new SQLException("Attesa di una connessione interrotta.", e);
+                }
+                if (pc == null) {
+                    throw timeout();
+                }
+            }
+
+            if (isUsable(pc)) {
+                return pc;
+            }
+            destroy(pc);
+        }
+    }
+
+    /**
+     * Restituisce una connessione al pool.
+     *
+     * <p>
+     * La connessione viene riportata allo stato iniziale (auto-commit attivo,
+     * eventuale transazione pendente annullata). Se risulta chiusa, scaduta
+     * o se il pool è in chiusura, la connessione fisica viene distrutta.
+     * </p>
+     *
+     * @param pc connessione da restituire
+     */
+    private void release(PooledConnection pc) {
+        if (!borrowed.remove(pc)) {
+            return;
+        }
+
+        try {
+            if (!closed && reset(pc) && !isExpired(pc, System.currentTimeMillis())) {
+                pc.lastReturnedAt = System.currentTimeMillis();
+                pc.borrowSite = null;
+                idle.offerFirst(pc);
+            } else {
+                destroy(pc);
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Ripristina lo stato della connessione dopo l'uso.
+     *
+     * @param pc connessione da ripristinare
+     * @return {@code true} se la connessione è ancora utilizzabile
+     */
+    private boolean reset(PooledConnection pc) {
+        try {
+            Connection c = pc.physical;
+            if (c.isClosed()) {
+                return false;
+            }
+            if (!c.getAutoCommit()) {
+                c.rollback();
+                c.setAutoCommit(true);
+            }
+            c.clearWarnings();
+            return true;
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Verifica se una connessione inattiva può essere prestata.
+     *
+     * @param pc connessione da verificare
+     * @return {@code true} se la connessione non è scaduta ed è valida
+     */
+    private boolean isUsable(PooledConnection pc) {
+        long now = System.currentTimeMillis();
+        if (isExpired(pc, now)) {
+            return false;
+        }
+        if (now - pc.lastReturnedAt < VALIDATION_GRACE_MS) {
+            return true;
+        }
+        try {
+            return pc.physical.isValid(validationTimeoutS);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private boolean isExpired(PooledConnection pc, long now) {
+        return maxLifetimeMs > 0 && now - pc.createdAt >= maxLifetimeMs;
+    }
+
+    /**
+     * Riserva atomicamente uno slot per una nuova connessione fisica.
+     *
+     * @param limit numero massimo di connessioni fisiche ammesse
+     * @return {@code true} se lo slot è stato riservato
+     */
+    private boolean reserveSlot(int limit) {
+        while (true) {
+            int current = total.get();
+            if (current >= limit) {
+                return false;
+            }
+            if (total.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Apre una nuova connessione fisica su uno slot già riservato.
+     *
+     * @return connessione fisica incapsulata
+     * @throws SQLException se il database non è raggiungibile
+     */
+    private PooledConnection open() throws SQLException {
+        try {
+            Connection c = DriverManager.getConnection(jdbcUrl, username, password);
+            return new PooledConnection(c);
+        } catch (SQLException | RuntimeException e) {
+            total.decrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * Chiude una connessione fisica e libera il relativo slot.
+     *
+     * @param pc connessione da distruggere
+     */
+    private void destroy(PooledConnection pc) {
+        total.decrementAndGet();
+        if (pc.statements != null) {
+            pc.statements.clear();
+        }
+        try { pc.physical.close(); } catch (SQLException ignored) {}
+    }
+
+    /**
+     * Porta il numero di connessioni fisiche alla dimensione minima configurata.
+     */
+    private void fill() {
+        while (!closed && reserveSlot(minSize)) {
+            try {
+                PooledConnection pc = open();
+                idle.offerLast(pc);
+            } catch (SQLException e) {
+                log.warning("Pool: impossibile aprire una connessione: " + e.getMessage());
+                return;
+            }
+        }
+    }
+
+    /**
+     * Ciclo periodico di manutenzione del pool.
+     *
+     * <ul>
+     *     <li>rimuove le connessioni inattive oltre {@code pool_idle_timeout_ms}
+     *         mantenendo la dimensione minima</li>
+     *     <li>rimuove le connessioni inattive oltre {@code pool_max_lifetime_ms}</li>
+     *     <li>segnala i prestiti più lunghi di {@code pool_leak_detection_ms}</li>
+     *     <li>ripristina la dimensione minima</li>
+     * </ul>
+     */
+    private void housekeep() {
+        try {
+            long now = System.currentTimeMillis();
+
+            for (PooledConnection pc : idle) {
+                boolean idleTooLong = idleTimeoutMs > 0
+                        && now - pc.lastReturnedAt >= idleTimeoutMs
+                        && total.get() > minSize;
+
+                if ((idleTooLong || isExpired(pc, now)) && idle.remove(pc)) {
+                    destroy(pc);
+                }
+            }
+
+            if (leakDetectionMs > 0) {
+                for (PooledConnection pc : borrowed) {
+                    Throwable site = pc.borrowSite;
+                    if (!pc.leakReported && site != null && now - pc.borrowedAt >= leakDetectionMs) {
+                        pc.leakReported = true;
+                        log.warning("Pool: possibile leak, connessione prestata da "
+                                + (now - pc.borrowedAt) + " ms. Prelevata in: " + describe(site));
+                    }
+                }
+            }
+
+            fill();
+        } catch (RuntimeException e) {
+            log.error("Pool: errore durante la manutenzione: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Riduce lo stack del punto di prelievo ai frame applicativi più rilevanti.
+     *
+     * @param site eccezione catturata al momento del prelievo
+     * @return descrizione compatta dello stack
+     */
+    private static String describe(Throwable site) {
+        StringBuilder sb = new StringBuilder();
+        int shown = 0;
+        for (StackTraceElement el : site.getStackTrace()) {
+            if (el.getClassName().startsWith(ConnectionPool.class.getName())
+                    || el.getClassName().startsWith(ConnectionManager.class.getName())) {
+                continue;
+            }
+            if (shown > 0) sb.append(" <- ");
+            sb.append(el.getClassName()).append('.').append(el.getMethodName())
+              .append(':').append(el.getLineNumber());
+            if (++shown == 6) break;
+        }
+        return sb.toString();
+    }
+
+    private SQLException timeout() {
+        return new SQLTransientConnectionException(
+                "Nessuna connessione disponibile entro " + borrowTimeoutMs + " ms "
+                        + "(attive " + borrowed.size() + "/" + maxSize + ").");
+    }
+
+    /**
+     * Chiude il pool: le connessioni inattive vengono chiuse subito,
+     * quelle prestate alla loro restituzione.
+     */
+    void shutdown() {
+        closed = true;
+        housekeeper.shutdownNow();
+
+        PooledConnection pc;
+        while ((pc = idle.pollFirst()) != null) {
+            destroy(pc);
+        }
+        log.info("Pool connessioni chiuso.");
+    }
+
+    /** @return numero di connessioni attualmente prestate */
+    int getActiveCount() {
+        return borrowed.size();
+    }
+
+    /** @return numero di connessioni inattive disponibili */
+    int getIdleCount() {
+        return idle.size();
+    }
+
+    /** @return numero di connessioni fisiche aperte */
+    int getTotalCount() {
+        return total.get();
+    }
+
+    /** @return numero di thread in attesa di una connessione */
+    int getWaitingCount() {
+        return permits.getQueueLength();
+    }
+
+    /** @return dimensione massima configurata */
+    int getMaxSize() {
+        return maxSize;
+    }
+
+    /** @return numero di prepared statement riusati dalla cache */
+    long getStatementCacheHits() {
+        return statementHits.sum();
+    }
+
+    /** @return numero di prepared statement preparati ex novo */
+    long getStatementCacheMisses() {
+        return statementMisses.sum();
+    }
+
+    /**
+     * Legge un parametro numerico opzionale da {@code connection.ini}.
+     *
+     * @param prop proprietà lette
+     * @param key chiave del parametro
+     * @param def valore di default se la chiave è assente
+     * @param min valore minimo ammesso
+     * @return valore letto o di default
+     * @throws RuntimeException se il valore non è numerico o è inferiore al minimo
+     */
+    private static long readLong(Properties prop, String key, long def, long min) {
+        String raw = prop.getProperty(key);
+        if (raw == null || raw.isBlank()) {
+            return def;
+        }
+        try {
+            long v = Long.parseLong(raw.trim());
+            if (v < min) throw new NumberFormatException();
+            return v;
+        } catch (NumberFormatException e) {
+            throw new RuntimeException("connection.ini non valido: " + key + "=" + raw);
+        }
+    }
+
+    /**
+     * Connessione fisica gestita dal pool, con i metadati necessari
+     * a validazione, eviction e leak detection.
+     */
+    private final class PooledConnection {
+
+        private final Connection physical;
+        private final long createdAt = System.currentTimeMillis();
+
+        /** Cache degli statement; {@code null} se disattivata. */
+        private final StatementCache statements;
+
+        private volatile long lastReturnedAt = createdAt;
+        private volatile long borrowedAt;
+        private volatile Throwable borrowSite;
+        private volatile boolean leakReported;
+
+        private PooledConnection(Connection physical) {
+            this.physical = physical;
+            this.statements = statementCacheSize > 0
+                    ? new StatementCache(physical, statementCacheSize, statementHits, statementMisses)
+                    : null;
+        }
+
+        /**
+         * Crea il proxy consegnato al chiamante per un singolo prestito.
+         *
+         * @return proxy {@link Connection} legato a questo prestito
+         */
+        private Connection newLease() {
+            return (Connection) Proxy.newProxyInstance(
+                    Connection.class.getClassLoader(),
+                    new Class<?>[]{ Connection.class },
+                    new Lease(this)
+            );
+        }
+    }
+
+    /**
+     * Gestore del proxy di un singolo prestito.
+     *
+     * <p>
+     * Intercetta {@code close()} per restituire la connessione al pool e
+     * impedisce l'uso del proxy dopo la restituzione, così che un chiamante
+     * non possa operare su una connessione già prestata ad altri.
+     * Le chiamate a {@code prepareStatement(String)} passano dalla
+     * {@link StatementCache} della connessione.
+     * </p>
+     */
+    private final class Lease implements InvocationHandler {
+
+        private final PooledConnection pc;
+        private volatile boolean returned = false;
+
+        private Lease(PooledConnection pc) {
+            this.pc = pc;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close" -> {
+                    if (!returned) {
+                        returned = true;
+                        release(pc);
+                    }
+                    return null;
+                }
+                case "isClosed" -> {
+                    if (returned) return true;
+                }
+                case "equals" -> {
+                    return proxy == args[0];
+                }
+                case "hashCode" -> {
+                    return System.identityHashCode(proxy);
+                }
+                case "toString" -> {
+                    return "PooledConnection[" + pc.physical + "]";
+                }
+                default -> { }
+            }
+
+            if (returned) {
+                throw new SQLException("Connessione già restituita al pool.");
+            }
+
+            if (pc.statements != null && "prepareStatement".equals(method.getName())
+                    && args != null && args.length == 1) {
+                return pc.statements.prepare((String) args[0], (Connection) proxy);
+            }
+
+            try {
+                return method.invoke(pc.physical, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
@@ -2,10 +2,11 @@ package com.theknife.app.Handler;
 
 import java.io.IOException;
 import java.sql.SQLException;
-import java.util.Collections;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 
+import com.theknife.app.AuthWorkerPool;
 import com.theknife.app.User;
 
 /**
@@ -19,6 +20,8 @@ import com.theknife.app.User;
  *     <li>{@code register} — registrazione nuovo utente</li>
  *     <li>{@code logout} — invalidazione sessione corrente</li>
  *     <li>{@code getUserInfo} — restituzione delle informazioni dell'utente autenticato</li>
+ *     <li>{@code getSessionToken} — emissione di un token per ripristinare il login</li>
+ *     <li>{@code resumeSession} — ripristino del login su una nuova connessione tramite token</li>
  * </ul>
  *
  * <p>
@@ -30,6 +33,22 @@ import com.theknife.app.User;
  * </ul>
  * 
  * <p>
+ * Login e registrazione calcolano BCrypt e vengono quindi eseguiti
+ * nell'{@link AuthWorkerPool}: se la sua coda è piena la risposta è
+ * {@code busy}. I login falliti sono limitati da {@link LoginThrottle}.
+ * </p>
+ *
+ * <p>
+ * Ogni utente autenticato è associato alla sessione che detiene il suo login
+ * (lease). Il lease scade se la sessione resta inattiva oltre
+ * {@code session_lease_s} o si chiude: in tal caso un nuovo login, o un
+ * ripristino con token, lo riassegna invece di rispondere
+ * {@code already_logged_in}, e la sessione precedente perde l'autenticazione.
+ * Un ripristino con il token della stessa sessione la riassegna sempre,
+ * perché proviene dal client che l'aveva aperta.
+ * </p>
+ *
+ * <p>
  * La classe è un singleton e deve essere recuperata tramite {@link #getInstance()}.
  * </p>
  */
@@ -39,7 +58,19 @@ public class AuthHandler implements CommandHandler {
     /** Istanza singleton dell'AuthHandler. */
     private static AuthHandler instance = null;
 
-    private static final Set<Integer> loggedInUserIds = Collections.synchronizedSet(new HashSet<>());
+    /** Inattività di default oltre la quale un lease può essere riassegnato, in secondi. */
+    public static final int DEFAULT_LEASE_SECONDS = 300;
+
+    /**
+     * Sessione che detiene il login di un utente.
+     *
+     * @param owner contesto della sessione
+     * @param sessionId identificativo del login, riportato nei token emessi
+     */
+    private record Lease(ClientContext owner, long sessionId) { }
+
+    /** Lease per id utente; protetto dal proprio monitor. */
+    private static final Map<Integer, Lease> leases = new HashMap<>();
 
     /**
      * Restituisce l'unica istanza dell'handler.
@@ -63,46 +94,46 @@ public class AuthHandler implements CommandHandler {
      */
     private final User userService = User.getInstance();
 
+    /** Pool in cui vengono eseguiti login e registrazioni. */
+    private final AuthWorkerPool authPool = AuthWorkerPool.getInstance();
+
+    /** Limite ai login falliti per username e indirizzo. */
+    private final LoginThrottle throttle = LoginThrottle.getInstance();
+
+    /** Emissione e verifica dei token di sessione. */
+    private final SessionTokens tokens = SessionTokens.getInstance();
+
+    /** Inattività oltre la quale un lease può essere riassegnato, in millisecondi. */
+    private volatile long leaseMs = DEFAULT_LEASE_SECONDS * 1000L;
+
     /**
      * Costruttore privato, utilizzato dal pattern Singleton.
      */
     private AuthHandler() {}
-    
+
     /**
-     * Gestisce un comando testuale fornito dal client.
-     *
-     * <p>Mappa i comandi supportati ai relativi metodi privati di gestione.
-     * In particolare:</p>
-     *
-     * <ul>
-     *     <li><code>login</code> → {@link #handleLogin(ClientContext)}</li>
-     *     <li><code>register</code> → {@link #handleRegister(ClientContext)}</li>
-     *     <li><code>logout</code> → {@link #handleLogout(ClientContext)}</li>
-     *     <li><code>getUserInfo</code> → {@link #handleGetUserInfo(ClientContext)}</li>
-     * </ul>
+     * Imposta l'inattività oltre la quale il login di una sessione può
+     * essere riassegnato a un'altra.
      *
-     * @param cmd comando ricevuto dal client
-     * @param ctx contesto di sessione, incapsula lettura/scrittura su socket
-     * @return {@code true} se il comando è stato gestito, {@code false} altrimenti
+     * @param seconds durata del lease, in secondi
+     */
+    public void setLeaseSeconds(int seconds) {
+        this.leaseMs = seconds * 1000L;
+    }
+    
+    /**
+     * Registra i comandi di autenticazione e gestione della sessione utente.
      *
-     * @throws IOException se si verificano problemi di I/O sulla socket
-     * @throws SQLException se si verificano errori DB lato service
-     * @throws InterruptedException se si verifica un'interruzione del thread handler
+     * @param registry registro dei comandi del server
      */
     @Override
-    public boolean handle(String cmd, ClientContext ctx)
-            throws IOException, SQLException, InterruptedException {
-
-
-        switch (cmd) {
-            case "login"       -> handleLogin(ctx);
-            case "register"    -> handleRegister(ctx);
-            case "logout"      -> handleLogout(ctx);
-            case "getUserInfo" -> handleGetUserInfo(ctx);
-            default -> { return false; }
-        }
-
-        return true;
+    public void registerCommands(CommandRegistry registry) {
+        registry.register("login", this::handleLogin);
+        registry.register("register", this::handleRegister);
+        registry.register("logout", this::handleLogout);
+        registry.register("getUserInfo", this::handleGetUserInfo);
+        registry.register("getSessionToken", this::handleGetSessionToken);
+        registry.register("resumeSession", this::handleResumeSession);
     }
 
      /**
@@ -121,6 +152,8 @@ public class AuthHandler implements CommandHandler {
      *     <li>{@code ok} → credenziali accettate</li>
      *     <li>{@code username} → utente non trovato</li>
      *     <li>{@code password} → password errata</li>
+     *     <li>{@code throttled} → troppi tentativi falliti per lo username o l'indirizzo</li>
+     *     <li>{@code busy} → pool di autenticazione saturo</li>
      * </ul>
      *
      * Se login riuscito → il contesto viene marcato come autenticato.
@@ -132,30 +165,151 @@ public class AuthHandler implements CommandHandler {
 
         String username = ctx.read();
         String password = ctx.read();
+        if (username == null || password == null) {
+            return;
+        }
 
-        int id = userService.loginUser(username, password);
+        String address = ctx.getPeer();
+        if (throttle.isThrottled(username, address)) {
+            ctx.write("throttled");
+            return;
+        }
 
-        if (id == -1) {
-            ctx.write("username");
+        // il tentativo è già contato come fallito: va annullato se non viene eseguito
+        int id;
+        boolean completed = false;
+        try {
+            id = authPool.execute(() -> userService.loginUser(username, password));
+            completed = true;
+        } catch (RejectedExecutionException e) {
+            ctx.write("busy");
             return;
+        } finally {
+            if (!completed) {
+                throttle.release(username, address);
+            }
         }
 
         if (id <= 0) {
-            ctx.write("password");
+            ctx.write(id == -1 ? "username" : "password");
             return;
         }
+        throttle.recordSuccess(username, address);
 
-        synchronized(loggedInUserIds){
-            if(loggedInUserIds.contains(id)){
-                ctx.write("already_logged_in");
-                return;
-            }
+        // la risposta viene scritta fuori dal blocco sincronizzato, per non
+        // trattenere il lock (e, con i virtual thread, il carrier) durante l'I/O
+        if (!acquireLease(ctx, id, 0)) {
+            ctx.write("already_logged_in");
+            return;
+        }
+        ctx.write("ok");
+    }
 
-            loggedInUserIds.add(id);
+    /**
+     * Gestisce il comando {@code getSessionToken}.
+     * <p>
+     * Risponde con un token firmato che il client può presentare con
+     * {@code resumeSession} dopo una riconnessione, oppure con una riga
+     * vuota se la sessione non è autenticata.
+     * </p>
+     *
+     * @param ctx contesto di sessione
+     * @throws IOException errori di comunicazione
+     */
+    private void handleGetSessionToken(ClientContext ctx) throws IOException {
+        int id = ctx.getLoggedUserId();
+        long sessionId = ctx.getSessionId();
+        ctx.write(id > 0 && sessionId != 0 ? tokens.issue(id, sessionId) : "");
+    }
+
+    /**
+     * Gestisce il comando {@code resumeSession}.
+     * <p>
+     * Verifica il token con un HMAC, senza database né BCrypt, e autentica
+     * la sessione come l'utente del token. Il token presentato viene
+     * revocato e sostituito da uno nuovo.
+     * </p>
+     *
+     * <p>Risposta: esito e nuovo token (vuoto se l'esito non è {@code ok}).</p>
+     * <ul>
+     *     <li>{@code ok} → sessione ripristinata</li>
+     *     <li>{@code invalid} → token malformato, contraffatto o revocato</li>
+     *     <li>{@code expired} → token scaduto</li>
+     *     <li>{@code already_logged_in} → l'utente è autenticato in un'altra sessione attiva,
+     *         oppure questa sessione è già autenticata</li>
+     * </ul>
+     *
+     * @param ctx contesto di sessione
+     * @throws IOException errori di comunicazione
+     */
+    private void handleResumeSession(ClientContext ctx) throws IOException {
+        String token = ctx.read();
+        if (token == null) {
+            return;
         }
 
-        ctx.setLoggedUserId(id);
-        ctx.write("ok");
+        SessionTokens.Claims claims = tokens.verify(token);
+        String result;
+        if (claims == null) {
+            result = "invalid";
+        } else if (claims.isExpired()) {
+            result = "expired";
+        } else if (ctx.getLoggedUserId() > 0 || !acquireLease(ctx, claims.userId(), claims.sessionId())) {
+            result = "already_logged_in";
+        } else {
+            tokens.revoke(claims.sessionId());
+            ctx.write("ok");
+            ctx.write(tokens.issue(claims.userId(), ctx.getSessionId()));
+            return;
+        }
+        ctx.write(result);
+        ctx.write("");
+    }
+
+    /**
+     * Assegna il login di un utente alla sessione, se non è detenuto da
+     * un'altra sessione attiva. In caso di riassegnazione la sessione
+     * precedente perde l'autenticazione.
+     *
+     * @param ctx contesto della sessione che si autentica
+     * @param userId utente autenticato
+     * @param resumedSessionId login ripristinato tramite token, {@code 0} per un login con password
+     * @return {@code true} se la sessione è ora autenticata come {@code userId}
+     */
+    private boolean acquireLease(ClientContext ctx, int userId, long resumedSessionId) {
+        long sessionId = tokens.newSessionId();
+        long now = System.currentTimeMillis();
+        synchronized (leases) {
+            Lease current = leases.get(userId);
+            if (current != null) {
+                boolean stale = !current.owner().isActive()
+                        || now - current.owner().getLastActive() > leaseMs;
+                if (current.sessionId() != resumedSessionId && !stale) {
+                    return false;
+                }
+                current.owner().setLoggedUserId(-1);
+                current.owner().setSessionId(0);
+            }
+            leases.put(userId, new Lease(ctx, sessionId));
+            ctx.setLoggedUserId(userId);
+            ctx.setSessionId(sessionId);
+        }
+        return true;
+    }
+
+    /**
+     * Rilascia il lease di un utente, se detenuto dal login indicato.
+     *
+     * @param userId utente autenticato
+     * @param sessionId identificativo del login che rilascia il lease
+     */
+    private static void releaseLease(int userId, long sessionId) {
+        synchronized (leases) {
+            Lease current = leases.get(userId);
+            if (current != null && current.sessionId() == sessionId) {
+                leases.remove(userId);
+            }
+        }
     }
 
     /**
@@ -174,6 +328,7 @@ public class AuthHandler implements CommandHandler {
      *     <li>{@code missing}</li>
      *     <li>{@code credentials} (username già esistente)</li>
      *     <li>{@code password} (non rispetta policy)</li>
+     *     <li>{@code busy} (pool di autenticazione saturo)</li>
      * </ul>
      */
     private void handleRegister(ClientContext ctx)
@@ -188,10 +343,15 @@ public class AuthHandler implements CommandHandler {
         String lonStr   = ctx.read();
         boolean rist    = "y".equals(ctx.read());
 
-        String esito = userService.registerUser(
-                nome, cognome, username, password,
-                nascita, latStr, lonStr, rist
-        );
+        String esito;
+        try {
+            esito = authPool.execute(() -> userService.registerUser(
+                    nome, cognome, username, password,
+                    nascita, latStr, lonStr, rist
+            ));
+        } catch (RejectedExecutionException e) {
+            esito = "busy";
+        }
 
         ctx.write(esito);
     }
@@ -202,14 +362,15 @@ public class AuthHandler implements CommandHandler {
     */
     private void handleLogout(ClientContext ctx) throws IOException {
         int userId = ctx.getLoggedUserId();
+        long sessionId = ctx.getSessionId();
 
         if(userId > 0){
-            synchronized (loggedInUserIds){
-                loggedInUserIds.remove(userId);
-            }
+            releaseLease(userId, sessionId);
+            tokens.revoke(sessionId);
         }
         
         ctx.setLoggedUserId(-1);
+        ctx.setSessionId(0);
         ctx.write("ok");
     }
 
@@ -260,14 +421,15 @@ public class AuthHandler implements CommandHandler {
     }
     /**
      * Metodo statico per gestire disconnessioni improvvise,
-     * richiamato quando un client si disconnette senza fare logout
-     * @param userId Id dell'utente attualmente loggato
+     * richiamato quando un client si disconnette senza fare logout.
+     * Il token della sessione resta valido, così che il client possa
+     * ripristinarla dopo la riconnessione.
+     * @param ctx contesto della sessione terminata
      */
-    public static void handleClientDisconnect(int userId){
+    public static void handleClientDisconnect(ClientContext ctx){
+        int userId = ctx.getLoggedUserId();
         if(userId > 0){
-            synchronized(loggedInUserIds){
-                loggedInUserIds.remove(userId);
-            }
+            releaseLease(userId, ctx.getSessionId());
         }
     }
 
@@ -276,8 +438,8 @@ public class AuthHandler implements CommandHandler {
      * @return il numero di utenti che hanno effettuato il login
      */
     public static int getLoggedInUsersCount(){
-        synchronized(loggedInUserIds){
-            return loggedInUserIds.size();
+        synchronized(leases){
+            return leases.size();
         }
     }
 }
@@ -3,6 +3,11 @@ package com.theknife.app.Handler;
 import java.io.*;
 import java.net.Socket;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Rappresenta il contesto di sessione associato ad un singolo client connesso al server.
@@ -29,33 +34,36 @@ import java.nio.charset.StandardCharsets;
  * fornendo un accesso thread-safe agli stream e allo stato utente.
  * </p>
  *
+ * <p>
+ * Le righe del protocollo transitano attraverso un {@link ClientTransport}:
+ * con il costruttore che riceve il socket vengono usati gli stream bloccanti
+ * della connessione, mentre il motore NIO fornisce un proprio trasporto.
+ * Il trasporto su stream supporta sia il protocollo testuale sia i frame
+ * binari della v2 ({@link ProtocolV2}), negoziati con la prima riga inviata dal client.
+ * </p>
+ *
+ * <p>
+ * Le righe scritte con {@link #write(String)} compongono la risposta del
+ * comando corrente e vengono inviate tutte insieme da {@link #endCommand()},
+ * con un'unica scrittura sul socket invece che una per riga.
+ * </p>
+ *
  * <p><b>Nota:</b> Una sessione viene considerata attiva fino a quando
  * il socket è aperto e non è stato invocato.</p>
  */
 public class ClientContext {
 
-    /** Reader usato per ricevere messaggi testuali dal client. */
-    private final BufferedReader in;
-    
-    /** Writer usato per inviare messaggi testuali al client. */
-    private final BufferedWriter out;
+    /** Righe di risposta scritte dagli handler dall'avvio. */
+    private static final LongAdder linesWritten = new LongAdder();
 
-    /**
-     * Identificatore utente della sessione corrente.
-     * <p>
-     * Valori speciali:
-     * <ul>
-     *     <li>{@code -1} → nessun utente autenticato</li>
-     *     <li>{@code > 0} → id utente autenticato lato DB</li>
-     * </ul>
-     */    
-    private int loggedUserId = -1;
-    
-    /**
-     * Flag che indica se la connessione è ancora attiva.
-     * Utilizzato dagli handler per interrompere elaborazioni future.
-     */
-    private volatile boolean active = true;
+    /** Risposte inviate dall'avvio, ciascuna con un'unica scrittura. */
+    private static final LongAdder responsesSent = new LongAdder();
+
+    /** Canale usato per ricevere e inviare messaggi testuali. */
+    private final ClientTransport transport;
+
+    /** Stato della sessione, condiviso con i contesti delle singole richieste multiplexate. */
+    private final Session session;
 
     /**
      * Costruisce un nuovo contesto sessione per un client.
@@ -64,12 +72,22 @@ public class ClientContext {
      * @throws IOException se non è possibile ottenere gli stream di I/O
      */
     public ClientContext(Socket socket) throws IOException {
-        this.in = new BufferedReader(
-                new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8)
-        );
-        this.out = new BufferedWriter(
-                new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8)
-        );
+        this(new StreamTransport(socket));
+        session.peer = socket.getInetAddress().getHostAddress();
+    }
+
+    /**
+     * Costruisce un nuovo contesto sessione su un trasporto già esistente.
+     *
+     * @param transport canale testuale verso il client
+     */
+    public ClientContext(ClientTransport transport) {
+        this(transport, new Session());
+    }
+
+    private ClientContext(ClientTransport transport, Session session) {
+        this.transport = transport;
+        this.session = session;
     }
 
     /**
@@ -78,7 +96,7 @@ public class ClientContext {
      * @return id utente oppure {@code -1} se non autenticato
      */
     public int getLoggedUserId() {
-        return loggedUserId;
+        return session.loggedUserId;
     }
 
     /**
@@ -87,7 +105,59 @@ public class ClientContext {
      * @param loggedUserId id utente ottenuto dal database
      */
     public void setLoggedUserId(int loggedUserId) {
-        this.loggedUserId = loggedUserId;
+        session.loggedUserId = loggedUserId;
+    }
+
+    /**
+     * Restituisce l'identificativo del login corrente, riportato nei token di sessione.
+     *
+     * @return identificativo del login, {@code 0} se la sessione non è autenticata
+     */
+    public long getSessionId() {
+        return session.sessionId;
+    }
+
+    /**
+     * Imposta l'identificativo del login corrente.
+     *
+     * @param sessionId identificativo del login, {@code 0} al logout
+     */
+    public void setSessionId(long sessionId) {
+        session.sessionId = sessionId;
+    }
+
+    /**
+     * Registra l'attività della sessione, che rinnova il lease del login.
+     */
+    public void touch() {
+        session.lastActive = System.currentTimeMillis();
+    }
+
+    /**
+     * Restituisce l'istante dell'ultimo comando ricevuto dalla sessione.
+     *
+     * @return millisecondi dall'epoch
+     */
+    public long getLastActive() {
+        return session.lastActive;
+    }
+
+    /**
+     * Restituisce l'indirizzo del client, usato per limitare i tentativi di login.
+     *
+     * @return indirizzo IP del client, vuoto se non noto
+     */
+    public String getPeer() {
+        return session.peer;
+    }
+
+    /**
+     * Imposta l'indirizzo del client, per i trasporti che non usano un {@link Socket}.
+     *
+     * @param peer indirizzo IP del client
+     */
+    public void setPeer(String peer) {
+        session.peer = peer;
     }
 
      /**
@@ -96,7 +166,7 @@ public class ClientContext {
      * @return {@code true} se attivo, {@code false} dopo chiusura/disconnessione
      */
     public boolean isActive() {
-        return active;
+        return session.active;
     }
 
     /**
@@ -107,7 +177,7 @@ public class ClientContext {
      * </p>
      */
     public void deactivate() {
-        active = false;
+        session.active = false;
     }
 
     /**
@@ -120,25 +190,51 @@ public class ClientContext {
      * @throws IOException se si verificano errori di I/O sul socket
      */
     public String read() throws IOException {
-        if(!active){
+        if(!session.active){
             return null;
         }
-        return in.readLine();
+        return transport.readLine();
     }
 
      /**
-     * Invia un messaggio testuale al client seguito da newline.
+     * Aggiunge una riga alla risposta del comando corrente.
+     * <p>
+     * La riga viene inviata al client, insieme alle altre della stessa
+     * risposta, alla chiamata di {@link #endCommand()}.
+     * </p>
      *
      * @param msg testo da inviare
      * @throws IOException se non è possibile scrivere sul socket
      */
     public void write(String msg) throws IOException {
-        if(!active){
+        if(!session.active){
             return;
         }
-        out.write(msg);
-        out.write("\n");
-        out.flush();
+        transport.writeLine(msg);
+        linesWritten.increment();
+    }
+
+    /**
+     * Segnala la fine del comando corrente e invia al client, con un'unica
+     * scrittura, tutte le righe scritte dall'handler.
+     *
+     * @throws IOException se non è possibile scrivere sul socket
+     */
+    public void endCommand() throws IOException {
+        transport.endCommand();
+        responsesSent.increment();
+    }
+
+    /**
+     * Descrive le scritture effettuate verso i client, per la console amministrativa.
+     *
+     * @return righe scritte, risposte inviate e righe medie per scrittura
+     */
+    public static String describeWrites() {
+        long lines = linesWritten.sum();
+        long responses = responsesSent.sum();
+        return "righe " + lines + ", scritture " + responses
+                + (responses > 0 ? String.format(", %.1f righe per scrittura", (double) lines / responses) : "");
     }
 
      /**
@@ -154,8 +250,278 @@ public class ClientContext {
      * </p>
      */
     public void close() {
-        active = false;
-        try { in.close(); } catch (Exception ignored) {}
-        try { out.close(); } catch (Exception ignored) {}
+        session.active = false;
+        transport.close();
+    }
+
+    /**
+     * Indica se il client ha negoziato la modalità multiplexata.
+     *
+     * @return {@code true} se le richieste vanno lette con {@link #nextRequest()}
+     */
+    public boolean isMultiplexed() {
+        return transport.isMultiplexed();
+    }
+
+    /**
+     * Legge la richiesta successiva in modalità multiplexata e restituisce
+     * un contesto dedicato, che condivide con questo lo stato della sessione
+     * (utente autenticato e attività) ma ha una propria risposta.
+     *
+     * @return contesto della richiesta, oppure {@code null} se il client ha chiuso la connessione
+     * @throws IOException errori di rete o frame malformato
+     */
+    public ClientContext nextRequest() throws IOException {
+        ClientTransport request = transport.nextRequest();
+        return request == null ? null : new ClientContext(request, session);
+    }
+
+    /**
+     * Stato di una sessione client.
+     */
+    private static final class Session {
+
+        /**
+         * Identificatore utente della sessione corrente.
+         * <p>
+         * Valori speciali:
+         * <ul>
+         *     <li>{@code -1} → nessun utente autenticato</li>
+         *     <li>{@code > 0} → id utente autenticato lato DB</li>
+         * </ul>
+         */
+        private volatile int loggedUserId = -1;
+
+        /**
+         * Flag che indica se la connessione è ancora attiva.
+         * Utilizzato dagli handler per interrompere elaborazioni future.
+         */
+        private volatile boolean active = true;
+
+        /** Indirizzo IP del client. */
+        private volatile String peer = "";
+
+        /** Identificativo del login corrente, {@code 0} se non autenticato. */
+        private volatile long sessionId;
+
+        /** Istante dell'ultimo comando ricevuto, in millisecondi dall'epoch. */
+        private volatile long lastActive = System.currentTimeMillis();
+    }
+
+    /**
+     * Trasporto basato sugli stream bloccanti di un socket,
+     * usato dai motori con un thread per client.
+     *
+     * <p>
+     * Parte in v1 (una riga UTF-8 per campo). Se la prima riga ricevuta è
+     * {@link ProtocolV2#HANDSHAKE} conferma e passa ai frame binari: ogni
+     * richiesta viene letta in un colpo solo.
+     * </p>
+     *
+     * <p>
+     * In entrambi i casi le righe scritte dall'handler restano nel buffer di
+     * uscita, riutilizzato per tutta la connessione, e vengono inviate
+     * insieme a {@link #endCommand()}.
+     * </p>
+     */
+    private static final class StreamTransport implements ClientTransport {
+
+        /** Stream usato per ricevere messaggi dal client. */
+        private final InputStream in;
+
+        /** Stream usato per inviare messaggi al client. */
+        private final OutputStream out;
+
+        /** Dimensione del buffer di uscita: contiene per intero quasi tutte le risposte. */
+        private static final int OUTPUT_BUFFER_BYTES = 16 * 1024;
+
+        /** Buffer di composizione delle righe v1. */
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+
+        /** {@code true} finché non è stata ricevuta la prima riga. */
+        private boolean firstLine = true;
+
+        /** {@code true} dopo la negoziazione del protocollo v2. */
+        private boolean v2 = false;
+
+        /** {@code true} dopo la negoziazione della v2 multiplexata. */
+        private volatile boolean multiplexed = false;
+
+        /** Comando v2 in corso: righe della richiesta non ancora lette. */
+        private ArrayDeque<String> request;
+
+        /** Comando v2 in corso: righe della risposta da inviare. */
+        private final List<String> response = new ArrayList<>();
+
+        /**
+         * Serializza le scritture delle richieste multiplexate. Un lock esplicito,
+         * a differenza di un blocco {@code synchronized}, non vincola il virtual
+         * thread al proprio carrier mentre attende il socket.
+         */
+        private final ReentrantLock writeLock = new ReentrantLock();
+
+        private StreamTransport(Socket socket) throws IOException {
+            this.in = new BufferedInputStream(socket.getInputStream());
+            this.out = new BufferedOutputStream(socket.getOutputStream(), OUTPUT_BUFFER_BYTES);
+        }
+
+        @Override
+        public String readLine() throws IOException {
+            if (v2) {
+                return readFromFrame();
+            }
+
+            String s = readTextLine();
+            if (firstLine) {
+                firstLine = false;
+                if (ProtocolV2.HANDSHAKE.equals(s)) {
+                    writeTextLine(ProtocolV2.HANDSHAKE_OK);
+                    out.flush();
+                    v2 = true;
+                    return readFromFrame();
+                }
+                if (ProtocolV2.HANDSHAKE_MUX.equals(s)) {
+                    // da qui in poi le richieste si leggono con nextRequest()
+                    writeTextLine(ProtocolV2.HANDSHAKE_MUX_OK);
+                    out.flush();
+                    multiplexed = true;
+                }
+            }
+            return s;
+        }
+
+        @Override
+        public void writeLine(String line) throws IOException {
+            if (v2) {
+                response.add(line);
+                return;
+            }
+            writeTextLine(line);
+        }
+
+        @Override
+        public void endCommand() throws IOException {
+            if (v2) {
+                ProtocolV2.writeFrame(out, ProtocolV2.encodeResponse(response));
+                response.clear();
+                request = null;
+            }
+            out.flush();
+        }
+
+        @Override
+        public boolean isMultiplexed() {
+            return multiplexed;
+        }
+
+        @Override
+        public ClientTransport nextRequest() throws IOException {
+            if (!multiplexed) {
+                return ClientTransport.super.nextRequest();
+            }
+            byte[] frame = ProtocolV2.readFrame(in);
+            if (frame == null) {
+                return null;
+            }
+            int id = ProtocolV2.readRequestId(frame);
+            return new RequestTransport(id, ProtocolV2.decodeRequest(frame, 4));
+        }
+
+        @Override
+        public void close() {
+            try { in.close(); } catch (Exception ignored) {}
+            try { out.close(); } catch (Exception ignored) {}
+        }
+
+        /**
+         * Trasporto di una singola richiesta multiplexata: la risposta viene
+         * inviata in un frame con l'identificativo della richiesta, serializzando
+         * le scritture delle richieste eseguite in parallelo.
+         */
+        private final class RequestTransport implements ClientTransport {
+
+            private final int id;
+            private final ArrayDeque<String> request;
+            private final List<String> response = new ArrayList<>();
+
+            private RequestTransport(int id, List<String> lines) {
+                this.id = id;
+                this.request = new ArrayDeque<>(lines);
+            }
+
+            @Override
+            public String readLine() {
+                return request.poll();
+            }
+
+            @Override
+            public void writeLine(String line) {
+                response.add(line);
+            }
+
+            @Override
+            public void endCommand() throws IOException {
+                byte[] payload = ProtocolV2.encodeResponse(id, response);
+                writeLock.lock();
+                try {
+                    ProtocolV2.writeFrame(out, payload);
+                    out.flush();
+                } finally {
+                    writeLock.unlock();
+                }
+                response.clear();
+                request.clear();
+            }
+
+            @Override
+            public void close() {
+                // le risorse appartengono alla connessione
+            }
+        }
+
+        /**
+         * Restituisce la riga successiva del comando v2 in corso; se non ce n'è
+         * uno, legge il frame successivo e ne restituisce il nome del comando.
+         */
+        private String readFromFrame() throws IOException {
+            if (request != null) {
+                return request.poll();
+            }
+            byte[] frame = ProtocolV2.readFrame(in);
+            if (frame == null) {
+                return null;
+            }
+            request = new ArrayDeque<>(ProtocolV2.decodeRequest(frame));
+            return request.poll();
+        }
+
+        /**
+         * Legge una riga v1 terminata da {@code \n}, senza l'eventuale {@code \r} finale.
+         *
+         * @return riga letta, oppure {@code null} a fine stream
+         */
+        private String readTextLine() throws IOException {
+            line.reset();
+            int b;
+            while ((b = in.read()) != -1 && b != '\n') {
+                line.write(b);
+            }
+            if (b == -1 && line.size() == 0) {
+                return null;
+            }
+
+            byte[] bytes = line.toByteArray();
+            int len = bytes.length;
+            if (len > 0 && bytes[len - 1] == '\r') len--;
+            return new String(bytes, 0, len, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Accoda una riga v1 nel buffer di uscita, senza flush.
+         */
+        private void writeTextLine(String s) throws IOException {
+            out.write(s.getBytes(StandardCharsets.UTF_8));
+            out.write('\n');
+        }
     }
 }
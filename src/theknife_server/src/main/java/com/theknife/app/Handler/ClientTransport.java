@@ -0,0 +1,80 @@
+package com.theknife.app.Handler;
+
+import java.io.IOException;
+
+/**
+ * Canale testuale a righe tra il server e un singolo client.
+ *
+ * <p>
+ * Astrae il modo in cui le righe del protocollo vengono ricevute e inviate,
+ * così che lo stesso {@link ClientContext} e gli stessi {@link CommandHandler}
+ * funzionino sia con il motore a thread dedicato (stream bloccanti del socket)
+ * sia con il motore NIO (righe già ricevute dal selector).
+ * </p>
+ */
+public interface ClientTransport {
+
+    /**
+     * Legge la riga successiva inviata dal client.
+     *
+     * @return riga senza terminatore, oppure {@code null} se non ci sono altre righe
+     * @throws IOException se si verificano errori di I/O
+     */
+    String readLine() throws IOException;
+
+    /**
+     * Aggiunge una riga alla risposta del comando corrente; il terminatore
+     * viene aggiunto dal trasporto. L'invio può essere rimandato fino a
+     * {@link #endCommand()}.
+     *
+     * @param line riga da inviare
+     * @throws IOException se non è possibile scrivere sul canale
+     */
+    void writeLine(String line) throws IOException;
+
+    /**
+     * Segnala che l'handler ha terminato il comando corrente.
+     *
+     * <p>
+     * I trasporti raggruppano le righe della risposta e le inviano qui con
+     * un'unica scrittura; quelli a frame (protocollo v2) scartano anche
+     * eventuali parametri non letti. Per default non fa nulla.
+     * </p>
+     *
+     * @throws IOException se non è possibile scrivere sul canale
+     */
+    default void endCommand() throws IOException { }
+
+    /**
+     * Indica se il client ha negoziato la modalità multiplexata, in cui le
+     * richieste vanno lette con {@link #nextRequest()} e possono essere
+     * eseguite in parallelo.
+     *
+     * @return {@code true} in modalità multiplexata
+     */
+    default boolean isMultiplexed() {
+        return false;
+    }
+
+    /**
+     * Legge la richiesta successiva in modalità multiplexata.
+     *
+     * <p>
+     * Restituisce un trasporto dedicato alla sola richiesta: le letture
+     * restituiscono comando e parametri, le scritture compongono la risposta,
+     * inviata con l'identificativo della richiesta a {@link #endCommand()}.
+     * Trasporti di richieste diverse possono essere usati da thread diversi.
+     * </p>
+     *
+     * @return trasporto della richiesta, oppure {@code null} se il client ha chiuso la connessione
+     * @throws IOException errori di rete, frame malformato o modalità non negoziata
+     */
+    default ClientTransport nextRequest() throws IOException {
+        throw new IOException("Modalità multiplexata non negoziata");
+    }
+
+    /**
+     * Rilascia le risorse del trasporto.
+     */
+    void close();
+}
@@ -0,0 +1,162 @@
+package com.theknife.app.Handler;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Elenco dei comandi del protocollo con il numero di righe di parametri
+ * che il client invia dopo la riga del comando.
+ *
+ * <p>
+ * Il protocollo testuale non delimita esplicitamente la fine di una richiesta:
+ * sono gli handler a leggere, una riga alla volta, i parametri attesi.
+ * Il motore NIO usa questo elenco per attendere che una richiesta sia
+ * arrivata per intero prima di affidarla a un worker, così che le letture
+ * dell'handler non debbano mai attendere la rete.
+ * </p>
+ *
+ * <p>
+ * Ogni comando ha inoltre un identificativo numerico stabile, usato al posto
+ * del nome dai frame del protocollo v2 ({@link ProtocolV2}).
+ * </p>
+ *
+ * <p>
+ * Un nuovo comando va registrato qui, con il primo identificativo libero,
+ * oltre che nel relativo {@link CommandHandler}.
+ * </p>
+ */
+public final class CommandCatalog {
+
+    /** Righe di parametri per ciascun comando. */
+    private static final Map<String, Integer> PARAMETER_LINES = new HashMap<>();
+
+    /** Nomi dei comandi per identificativo numerico, usato dal protocollo v2. */
+    private static final Map<Integer, String> NAMES_BY_ID = new HashMap<>();
+
+    static {
+        // AuthHandler
+        register(1, "login", 2);
+        register(2, "register", 8);
+        register(3, "logout", 0);
+        register(4, "getUserInfo", 0);
+
+        // RestaurantQueryHandler: pagina o cursore, modalità e 11 righe di filtri
+        register(5, "getRestaurants", 13);
+        register(6, "getRestaurantsCursor", 13);
+        register(7, "getRestaurantInfo", 1);
+
+        // RestaurantCRUDHandler
+        register(8, "addRestaurant", 10);
+        register(9, "editRestaurant", 11);
+        register(10, "deleteRestaurant", 1);
+        register(11, "getMyRestaurantsPages", 0);
+        register(12, "getMyRestaurants", 1);
+
+        // ReviewHandler
+        register(13, "getReviewsPages", 1);
+        register(14, "getReviewsPageCount", 1);
+        register(15, "getReviews", 2);
+        register(16, "getMyReview", 1);
+        register(17, "addReview", 3);
+        register(18, "editReview", 3);
+        register(19, "removeReview", 1);
+        register(20, "getMyReviewsPages", 0);
+        register(21, "getMyReviews", 1);
+
+        // ResponseHandler
+        register(22, "getResponse", 1);
+        register(23, "addResponse", 2);
+        register(24, "editResponse", 2);
+        register(25, "removeResponse", 1);
+
+        // FavouriteHandler
+        register(26, "isFavourite", 1);
+        register(27, "addFavourite", 1);
+        register(28, "removeFavourite", 1);
+        register(29, "getFavourites", 1);
+
+        // DisconnectHandler
+        register(30, "quit", 0);
+
+        // StatsHandler: token di accesso e modalità
+        register(31, "getStats", 2);
+
+        // AuthHandler: ripristino del login con token di sessione
+        register(32, "getSessionToken", 0);
+        register(33, "resumeSession", 1);
+    }
+
+    /**
+     * Registra un comando.
+     *
+     * @param id identificativo usato dal protocollo v2; non va mai riassegnato
+     * @param cmd nome del comando
+     * @param lines righe di parametri
+     */
+    private static void register(int id, String cmd, int lines) {
+        PARAMETER_LINES.put(cmd, lines);
+        NAMES_BY_ID.put(id, cmd);
+    }
+
+    /** Comandi che non accedono al database. */
+    private static final Set<String> NO_DATABASE = Set.of("logout", "quit", "getStats",
+            "getSessionToken", "resumeSession");
+
+    /** Comandi di autenticazione, limitati dal pool dedicato invece che dal controllo di ammissione. */
+    private static final Set<String> AUTHENTICATION = Set.of("login", "register");
+
+    /** Comandi che modificano lo stato della sessione (utente autenticato o connessione). */
+    private static final Set<String> SESSION_CHANGING = Set.of("login", "logout", "quit", "resumeSession");
+
+    private CommandCatalog() { }
+
+    /**
+     * Restituisce il numero di righe di parametri di un comando.
+     *
+     * @param cmd nome del comando
+     * @return righe di parametri, oppure {@code -1} se il comando non è noto
+     */
+    public static int parameterLines(String cmd) {
+        Integer n = PARAMETER_LINES.get(cmd);
+        return n == null ? -1 : n;
+    }
+
+    /**
+     * Restituisce il nome del comando associato a un identificativo del protocollo v2.
+     *
+     * @param id identificativo del comando
+     * @return nome del comando, oppure {@code null} se l'identificativo non è assegnato
+     */
+    public static String commandName(int id) {
+        return NAMES_BY_ID.get(id);
+    }
+
+    /**
+     * Indica se un comando va sottoposto al controllo di ammissione del server.
+     * Login e registrazione ne sono esclusi: vengono eseguiti nel pool di
+     * autenticazione, così che i comandi in attesa di BCrypt non occupino i
+     * permessi destinati alle altre richieste.
+     *
+     * @param cmd nome del comando
+     * @return {@code true} per i comandi noti che interrogano o modificano il
+     *         database, esclusi quelli di autenticazione
+     */
+    public static boolean needsAdmission(String cmd) {
+        return PARAMETER_LINES.containsKey(cmd) && !NO_DATABASE.contains(cmd)
+                && !AUTHENTICATION.contains(cmd);
+    }
+
+    /**
+     * Indica se un comando modifica lo stato della sessione. In modalità
+     * multiplexata questi comandi non vengono eseguiti in parallelo ad altri
+     * della stessa connessione, così che ogni richiesta veda un utente
+     * autenticato coerente con l'ordine di invio.
+     *
+     * @param cmd nome del comando
+     * @return {@code true} per login, ripristino, logout e chiusura della connessione
+     */
+    public static boolean changesSession(String cmd) {
+        return SESSION_CHANGING.contains(cmd);
+    }
+}
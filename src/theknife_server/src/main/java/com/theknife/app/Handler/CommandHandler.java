@@ -1,8 +1,5 @@
 package com.theknife.app.Handler;
 
-import java.io.IOException;
-import java.sql.SQLException;
-
 /**
  * Interfaccia che definisce il ruolo per gli handler deputati alla gestione
  * dei comandi testuali inviati dal client.
@@ -12,37 +9,31 @@ import java.sql.SQLException;
  * </p>
  *
  * <ul>
- *     <li>riconoscere un sottoinsieme di comandi specifico (es. login, register, ecc.)</li>
+ *     <li>registrare un sottoinsieme di comandi specifico (es. login, register, ecc.)
+ *         nel {@link CommandRegistry}</li>
  *     <li>interpretare parametri aggiuntivi ricevuti attraverso il {@link ClientContext}</li>
  *     <li>produrre una risposta corretta secondo il protocollo applicativo</li>
  * </ul>
  * @see ClientContext
+ * @see CommandRegistry
  */
 public interface CommandHandler {
 
     /**
-     * Elabora il comando ricevuto dal client.
+     * Registra i comandi gestiti da questo handler.
      *
-     * <p>Flusso tipico:</p>
+     * <p>Ogni comando viene associato al metodo che lo gestisce, il quale:</p>
      * <ol>
-     *     <li>verifica che il comando {@code cmd} sia supportato dall'handler</li>
      *     <li>legge eventuali parametri aggiuntivi tramite {@link ClientContext#read()}</li>
      *     <li>invoca i servizi di dominio opportuni</li>
      *     <li>scrive la risposta tramite {@link ClientContext#write(String)}</li>
      * </ol>
      *
-     * <p>Il metodo <strong>non solleva direttamente eccezioni applicative</strong>,
-     * ma notifica errori tramite eccezioni tecniche o messaggi sul canale di output.</p>
-     *
-     * @param cmd comando ricevuto dal client (prima riga del protocollo)
-     * @param ctx contesto di comunicazione associato alla sessione client
-     *
-     * @return {@code true} se il comando è stato gestito correttamente da questo handler,
-     *         {@code false} se il comando non rientra tra quelli supportati
+     * <p>I metodi di gestione <strong>non sollevano direttamente eccezioni applicative</strong>,
+     * ma notificano errori tramite eccezioni tecniche o messaggi sul canale di output.</p>
      *
-     * @throws IOException se avvengono errori di I/O sulla socket
-     * @throws SQLException se avvengono errori nelle operazioni sul database
-     * @throws InterruptedException se il thread di gestione viene interrotto
+     * @param registry registro in cui associare ogni comando al proprio metodo
+     * @throws IllegalStateException se un comando è già registrato da un altro handler
      */
-    boolean handle(String cmd, ClientContext ctx) throws IOException, SQLException, InterruptedException;
+    void registerCommands(CommandRegistry registry);
 }
@@ -0,0 +1,189 @@
+package com.theknife.app.Handler;
+
+import com.theknife.app.LatencyHistogram;
+import com.theknife.app.LatencyStats;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Registro dei comandi del protocollo applicativo.
+ *
+ * <p>
+ * All'avvio ogni {@link CommandHandler} associa i propri comandi ai metodi
+ * che li gestiscono; da quel momento un comando ricevuto viene risolto con
+ * una sola ricerca nella mappa, invece di interrogare gli handler uno alla volta.
+ * </p>
+ *
+ * <p>
+ * La registrazione rifiuta comandi già registrati o assenti dal
+ * {@link CommandCatalog}, così che un errore di configurazione emerga
+ * all'avvio invece che come comando gestito dall'handler sbagliato.
+ * </p>
+ *
+ * <p>
+ * Per ogni comando vengono registrati gli errori e la durata di ogni
+ * esecuzione, quest'ultima nell'istogramma del comando in
+ * {@link LatencyStats#COMMANDS}.
+ * </p>
+ */
+public final class CommandRegistry {
+
+    /**
+     * Metodo di gestione di un comando: legge i parametri dal contesto
+     * e scrive la risposta.
+     */
+    @FunctionalInterface
+    public interface Action {
+
+        /**
+         * Esegue il comando.
+         *
+         * @param ctx contesto di sessione del client
+         * @throws IOException errori di comunicazione
+         * @throws SQLException errori di accesso ai dati
+         * @throws InterruptedException gestione concorrenza
+         */
+        void execute(ClientContext ctx) throws IOException, SQLException, InterruptedException;
+    }
+
+    /** Comandi registrati, in ordine di registrazione per la console. */
+    private final Map<String, Command> commands = new HashMap<>();
+    private final List<Command> ordered = new ArrayList<>();
+
+    /** Comandi ricevuti ma non registrati. */
+    private final LongAdder unknown = new LongAdder();
+
+    /**
+     * Associa un comando al metodo che lo gestisce.
+     *
+     * @param name nome del comando, come definito in {@link CommandCatalog}
+     * @param action metodo di gestione
+     * @throws IllegalStateException se il comando è già registrato o non è nel catalogo
+     */
+    public void register(String name, Action action) {
+        if (CommandCatalog.parameterLines(name) < 0) {
+            throw new IllegalStateException("Comando non presente nel catalogo: " + name);
+        }
+        Command command = new Command(name, action);
+        if (commands.putIfAbsent(name, command) != null) {
+            throw new IllegalStateException("Comando registrato due volte: " + name);
+        }
+        ordered.add(command);
+    }
+
+    /**
+     * Restituisce il comando registrato con il nome indicato.
+     *
+     * @param name nome del comando
+     * @return comando, oppure {@code null} se nessun handler lo gestisce
+     */
+    public Command lookup(String name) {
+        Command command = commands.get(name);
+        if (command == null) {
+            unknown.increment();
+        }
+        return command;
+    }
+
+    /**
+     * Restituisce i comandi registrati, nell'ordine di registrazione.
+     *
+     * @return elenco non modificabile dei comandi
+     */
+    public List<Command> commands() {
+        return Collections.unmodifiableList(ordered);
+    }
+
+    /** @return comandi ricevuti ma non registrati */
+    public long getUnknown() {
+        return unknown.sum();
+    }
+
+    /**
+     * Descrive gli errori dei comandi per la console amministrativa.
+     *
+     * @return comandi terminati con errore e comandi sconosciuti ricevuti
+     */
+    public String describeErrors() {
+        StringBuilder sb = new StringBuilder();
+        for (Command c : ordered) {
+            long n = c.getErrors();
+            if (n > 0) {
+                sb.append(c.getName()).append(' ').append(n).append(", ");
+            }
+        }
+        if (sb.length() == 0) {
+            sb.append("nessuno, ");
+        }
+        sb.append("comandi sconosciuti ").append(unknown.sum());
+        return sb.toString();
+    }
+
+    /**
+     * Azzera i contatori degli errori.
+     */
+    public void resetErrors() {
+        for (Command c : ordered) {
+            c.errors.reset();
+        }
+        unknown.reset();
+    }
+
+    /**
+     * Comando registrato, con i contatori delle sue esecuzioni.
+     */
+    public static final class Command {
+
+        private final String name;
+        private final Action action;
+
+        private final LatencyHistogram latency;
+        private final LongAdder errors = new LongAdder();
+
+        private Command(String name, Action action) {
+            this.name = name;
+            this.action = action;
+            this.latency = LatencyStats.COMMANDS.histogram(name);
+        }
+
+        /**
+         * Esegue il comando aggiornandone i contatori. Un'eccezione
+         * propagata dal metodo di gestione viene contata come errore.
+         *
+         * @param ctx contesto di sessione del client
+         * @throws IOException errori di comunicazione
+         * @throws SQLException errori di accesso ai dati
+         * @throws InterruptedException gestione concorrenza
+         */
+        public void invoke(ClientContext ctx) throws IOException, SQLException, InterruptedException {
+            boolean ok = false;
+            long start = System.nanoTime();
+            try {
+                action.execute(ctx);
+                ok = true;
+            } finally {
+                latency.record(System.nanoTime() - start);
+                if (!ok) {
+                    errors.increment();
+                }
+            }
+        }
+
+        /** @return nome del comando */
+        public String getName() {
+            return name;
+        }
+
+        /** @return esecuzioni terminate con un'eccezione */
+        public long getErrors() {
+            return errors.sum();
+        }
+    }
+}
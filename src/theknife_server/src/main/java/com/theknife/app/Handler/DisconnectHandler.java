@@ -1,7 +1,6 @@
 package com.theknife.app.Handler;
 
 import java.io.IOException;
-import java.sql.SQLException;
 
 /**
  * Handler responsabile della gestione del comando {@code quit},
@@ -50,31 +49,25 @@ public class DisconnectHandler implements CommandHandler {
      */
     private DisconnectHandler() {}
 
+    /**
+     * Registra il comando {@code quit}.
+     *
+     * @param registry registro dei comandi del server
+     */
+    @Override
+    public void registerCommands(CommandRegistry registry) {
+        registry.register("quit", this::handleQuit);
+    }
+
      /**
      * Gestisce il comando {@code "quit"} terminando la sessione del client.
      *
-     * <p>
-     * Se il comando non corrisponde, l'handler non effettua alcuna operazione
-     * e ritorna {@code false}, delegando la gestione ad altri handler.
-     * </p>
-     *
-     * @param cmd comando ricevuto dal client
      * @param ctx contesto di sessione del client
      *
-     * @return {@code true} se il comando è stato gestito, {@code false} altrimenti
-     *
      * @throws IOException se si verificano errori durante la comunicazione
-     * @throws SQLException non utilizzata in questo handler ma dichiarata per coerenza con la firma
      */
-    @Override
-    public boolean handle(String cmd, ClientContext ctx)
-            throws IOException, SQLException {
-
-        if (!cmd.equals("quit"))
-            return false;
-
+    private void handleQuit(ClientContext ctx) throws IOException {
         ctx.write("bye");
         ctx.deactivate();
-        return true;
     }
 }
@@ -51,33 +51,16 @@ public class FavouriteHandler implements CommandHandler {
     private FavouriteHandler() {}
 
     /**
-     * Gestisce i comandi relativi ai ristoranti preferiti.
+     * Registra i comandi relativi ai ristoranti preferiti.
      *
-     * <p>
-     * In base al comando ricevuto, il metodo delega
-     * l'elaborazione al metodo specifico corrispondente.
-     * </p>
-     *
-     * @param cmd comando ricevuto dal client
-     * @param ctx contesto di sessione del client
-     * @return {@code true} se il comando è stato gestito,
-     *         {@code false} altrimenti
-     *
-     * @throws IOException errori di comunicazione
-     * @throws SQLException errori di accesso ai dati
-     * @throws InterruptedException gestione concorrenza
+     * @param registry registro dei comandi del server
      */
     @Override
-    public boolean handle(String cmd, ClientContext ctx)
-            throws IOException, SQLException, InterruptedException {
-
-        switch (cmd) {
-            case "isFavourite"     -> { handleIsFavourite(ctx); return true; }
-            case "addFavourite"    -> { handleAddFavourite(ctx); return true; }
-            case "removeFavourite" -> { handleRemoveFavourite(ctx); return true; }
-            case "getFavourites" -> {handleGetFavourites(ctx); return true;}
-            default -> { return false; }
-        }
+    public void registerCommands(CommandRegistry registry) {
+        registry.register("isFavourite", this::handleIsFavourite);
+        registry.register("addFavourite", this::handleAddFavourite);
+        registry.register("removeFavourite", this::handleRemoveFavourite);
+        registry.register("getFavourites", this::handleGetFavourites);
     }
 
     /**
@@ -0,0 +1,187 @@
+package com.theknife.app.Handler;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limite ai tentativi di login falliti, per username e per indirizzo del client.
+ *
+ * <p>
+ * Ogni chiave conta i fallimenti in una finestra che parte dal primo
+ * fallimento; raggiunto il massimo, i login successivi vengono respinti con
+ * {@code throttled} senza interrogare il database né calcolare BCrypt, fino
+ * alla scadenza della finestra. Un login riuscito azzera il conteggio dello
+ * username, non quello dell'indirizzo.
+ * </p>
+ *
+ * <p>
+ * Ogni tentativo viene contato come fallito già prima della verifica, in
+ * modo atomico con il controllo del limite: i tentativi concorrenti non
+ * possono quindi superare il massimo mentre BCrypt è in corso. Il conteggio
+ * viene poi annullato se il login riesce o se il tentativo non viene
+ * eseguito.
+ * </p>
+ *
+ * <p>
+ * Il limite per username protegge il singolo account da tentativi distribuiti
+ * su più indirizzi; quello per indirizzo rallenta chi prova molti username
+ * dallo stesso client.
+ * </p>
+ *
+ * <p>Pattern utilizzato: <b>Singleton</b></p>
+ */
+public final class LoginThrottle {
+
+    /** Fallimenti di default per username. */
+    public static final int DEFAULT_MAX_USER_FAILURES = 5;
+
+    /** Fallimenti di default per indirizzo. */
+    public static final int DEFAULT_MAX_ADDRESS_FAILURES = 20;
+
+    /** Durata di default della finestra, in secondi. */
+    public static final int DEFAULT_WINDOW_SECONDS = 900;
+
+    /** Chiavi oltre le quali le finestre scadute vengono eliminate. */
+    private static final int PURGE_THRESHOLD = 100_000;
+
+    /** Fallimenti registrati tra una pulizia e la successiva, oltre la soglia. */
+    private static final int PURGE_INTERVAL = 1024;
+
+    private static LoginThrottle instance = null;
+
+    /**
+     * Restituisce l'unica istanza del limite.
+     *
+     * @return istanza singleton
+     */
+    public static synchronized LoginThrottle getInstance() {
+        if (instance == null)
+            instance = new LoginThrottle();
+        return instance;
+    }
+
+    /** Fallimenti di una chiave nella finestra corrente. */
+    private record Window(long start, int failures) { }
+
+    private final Map<String, Window> users = new ConcurrentHashMap<>();
+    private final Map<String, Window> addresses = new ConcurrentHashMap<>();
+    private final LongAdder throttled = new LongAdder();
+    private final AtomicInteger purgeTicks = new AtomicInteger();
+
+    private volatile int maxUserFailures = DEFAULT_MAX_USER_FAILURES;
+    private volatile int maxAddressFailures = DEFAULT_MAX_ADDRESS_FAILURES;
+    private volatile long windowMs = DEFAULT_WINDOW_SECONDS * 1000L;
+
+    private LoginThrottle() { }
+
+    /**
+     * Imposta i limiti.
+     *
+     * @param maxUserFailures fallimenti consentiti per username, {@code 0} per nessun limite
+     * @param maxAddressFailures fallimenti consentiti per indirizzo, {@code 0} per nessun limite
+     * @param windowSeconds durata della finestra, in secondi
+     */
+    public void configure(int maxUserFailures, int maxAddressFailures, int windowSeconds) {
+        this.maxUserFailures = maxUserFailures;
+        this.maxAddressFailures = maxAddressFailures;
+        this.windowMs = windowSeconds * 1000L;
+    }
+
+    /**
+     * Verifica se un tentativo di login va respinto. Se non lo è, il
+     * tentativo viene contato come fallito finché non viene chiamato
+     * {@link #recordSuccess} o {@link #release}; se lo è, viene contato
+     * solo tra i tentativi respinti.
+     *
+     * @param username username del tentativo
+     * @param address indirizzo del client
+     * @return {@code true} se username o indirizzo hanno raggiunto il limite
+     */
+    public boolean isThrottled(String username, String address) {
+        long now = System.currentTimeMillis();
+        if (!reserve(users, username, maxUserFailures, now)) {
+            throttled.increment();
+            return true;
+        }
+        if (!reserve(addresses, address, maxAddressFailures, now)) {
+            release(users, username);
+            throttled.increment();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Registra un login riuscito, azzerando i fallimenti dello username e
+     * annullando il tentativo contato per l'indirizzo.
+     *
+     * @param username username autenticato
+     * @param address indirizzo del client
+     */
+    public void recordSuccess(String username, String address) {
+        users.remove(username);
+        release(addresses, address);
+    }
+
+    /**
+     * Annulla un tentativo contato da {@link #isThrottled} e non eseguito,
+     * ad esempio perché il pool di autenticazione era saturo.
+     *
+     * @param username username del tentativo
+     * @param address indirizzo del client
+     */
+    public void release(String username, String address) {
+        release(users, username);
+        release(addresses, address);
+    }
+
+    /** @return tentativi respinti dall'avvio */
+    public long getThrottled() {
+        return throttled.sum();
+    }
+
+    /**
+     * Descrive lo stato del limite per la console amministrativa.
+     *
+     * @return chiavi tracciate e tentativi respinti
+     */
+    public String describe() {
+        return "username tracciati " + users.size() + ", indirizzi tracciati " + addresses.size()
+                + ", tentativi respinti " + throttled.sum();
+    }
+
+    /**
+     * Conta un tentativo per la chiave, se il limite non è già stato raggiunto.
+     *
+     * @return {@code false} se il limite è raggiunto e il tentativo non è stato contato
+     */
+    private boolean reserve(Map<String, Window> map, String key, int max, long now) {
+        if (max == 0) {
+            return true;
+        }
+        long window = windowMs;
+        boolean[] reserved = {true};
+        map.compute(key, (k, w) -> {
+            if (w == null || now - w.start() >= window) {
+                return new Window(now, 1);
+            }
+            if (w.failures() >= max) {
+                reserved[0] = false;
+                return w;
+            }
+            return new Window(w.start(), w.failures() + 1);
+        });
+        if (map.size() > PURGE_THRESHOLD && purgeTicks.incrementAndGet() % PURGE_INTERVAL == 0) {
+            map.values().removeIf(w -> now - w.start() >= window);
+        }
+        return reserved[0];
+    }
+
+    private static void release(Map<String, Window> map, String key) {
+        map.computeIfPresent(key, (k, w) -> w.failures() <= 1
+                ? null
+                : new Window(w.start(), w.failures() - 1));
+    }
+}
@@ -0,0 +1,312 @@
+package com.theknife.app.Handler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Codifica binaria della versione 2 del protocollo client-server.
+ *
+ * <p>
+ * Il protocollo testuale (v1) invia ogni campo su una riga separata e
+ * sostituisce i ritorni a capo con {@value #V1_NEWLINE}. La v2 trasporta
+ * invece ogni richiesta e ogni risposta in un unico frame con prefisso di
+ * lunghezza, riducendo byte inviati, parsing e chiamate di sistema.
+ * </p>
+ *
+ * <p>
+ * Negoziazione: come prima riga il client invia {@value #HANDSHAKE}; un server
+ * che supporta la v2 risponde {@value #HANDSHAKE_OK} e da quel momento entrambi
+ * usano i frame binari. Qualunque altra risposta (ad esempio {@code unkown_command}
+ * da un server o un motore di rete solo v1) indica al client di proseguire in v1.
+ * </p>
+ *
+ * <p>Formato dei frame (interi big-endian):</p>
+ * <pre>
+ * frame      := lunghezza:int32 payload
+ * richiesta  := idComando:uint16 numeroCampi:varint campo*
+ * risposta   := numeroCampi:varint campo*
+ * campo      := 0x00 lunghezza:varint byteUtf8     (stringa)
+ *             | 0x01 valore:int32                   (intero)
+ *             | 0x02 valore:float64                 (decimale)
+ * </pre>
+ *
+ * <p>
+ * Modalità multiplexata: se la prima riga è {@value #HANDSHAKE_MUX} e il server
+ * risponde {@value #HANDSHAKE_MUX_OK}, ogni frame è preceduto da un
+ * identificativo di richiesta scelto dal client ({@code idRichiesta:int32}).
+ * Il client può inviare più richieste senza attendere le risposte; il server
+ * le esegue in parallelo e risponde nell'ordine di completamento, riportando
+ * lo stesso identificativo.
+ * </p>
+ *
+ * <p>
+ * Gli identificativi dei comandi sono quelli di {@link CommandCatalog}.
+ * I campi vengono convertiti nella stessa forma testuale della v1, così che
+ * handler e dati salvati non dipendano dalla versione usata dal client.
+ * </p>
+ */
+public final class ProtocolV2 {
+
+    /** Riga inviata dal client per richiedere la v2. */
+    public static final String HANDSHAKE = "THEKNIFE/2";
+
+    /** Riga con cui il server conferma il passaggio alla v2. */
+    public static final String HANDSHAKE_OK = "THEKNIFE/2 ok";
+
+    /** Riga inviata dal client per richiedere la v2 multiplexata. */
+    public static final String HANDSHAKE_MUX = "THEKNIFE/2 mux";
+
+    /** Riga con cui il server conferma la v2 multiplexata. */
+    public static final String HANDSHAKE_MUX_OK = "THEKNIFE/2 mux ok";
+
+    /** Sequenza con cui la v1 rappresenta i ritorni a capo all'interno di un campo. */
+    static final String V1_NEWLINE = " /$%/ ";
+
+    /** Dimensione massima di un frame, in byte. */
+    static final int MAX_FRAME_BYTES = 4 * 1024 * 1024;
+
+    static final int TYPE_STRING = 0;
+    static final int TYPE_INT = 1;
+    static final int TYPE_DOUBLE = 2;
+
+    private ProtocolV2() { }
+
+    /**
+     * Legge un frame completo.
+     *
+     * @param in stream di input del client
+     * @return payload del frame, oppure {@code null} se il client ha chiuso la connessione
+     * @throws IOException errori di rete o frame di lunghezza non valida
+     */
+    static byte[] readFrame(InputStream in) throws IOException {
+        DataInputStream din = new DataInputStream(in);
+        int len;
+        try {
+            len = din.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        if (len < 0 || len > MAX_FRAME_BYTES) {
+            throw new IOException("Frame v2 di lunghezza non valida: " + len);
+        }
+        byte[] payload = new byte[len];
+        din.readFully(payload);
+        return payload;
+    }
+
+    /**
+     * Scrive un frame completo (senza flush).
+     *
+     * @param out stream di output del client
+     * @param payload contenuto del frame
+     * @throws IOException errori di rete
+     */
+    static void writeFrame(OutputStream out, byte[] payload) throws IOException {
+        int len = payload.length;
+        out.write(len >>> 24);
+        out.write(len >>> 16);
+        out.write(len >>> 8);
+        out.write(len);
+        out.write(payload);
+    }
+
+    /**
+     * Decodifica una richiesta nelle righe che l'avrebbero rappresentata in v1:
+     * il nome del comando seguito dai parametri.
+     *
+     * <p>
+     * Un identificativo sconosciuto produce un nome che nessun handler
+     * riconosce, così che il client riceva {@code unkown_command} come in v1.
+     * </p>
+     *
+     * @param payload payload del frame
+     * @return nome del comando e parametri
+     * @throws IOException se il frame è malformato o il numero di campi non
+     *         corrisponde a quello previsto dal comando
+     */
+    static List<String> decodeRequest(byte[] payload) throws IOException {
+        return decodeRequest(payload, 0);
+    }
+
+    /**
+     * Decodifica una richiesta che inizia alla posizione indicata del payload.
+     *
+     * @param payload payload del frame
+     * @param offset posizione del primo byte della richiesta
+     * @return nome del comando e parametri
+     * @throws IOException se il frame è malformato
+     * @see #decodeRequest(byte[])
+     */
+    static List<String> decodeRequest(byte[] payload, int offset) throws IOException {
+        try {
+            ByteBuffer buf = ByteBuffer.wrap(payload, offset, payload.length - offset);
+            int id = buf.getShort() & 0xFFFF;
+            String cmd = CommandCatalog.commandName(id);
+
+            List<String> lines = decodeFields(buf);
+            if (cmd == null) {
+                cmd = "#" + id;
+            } else if (lines.size() != CommandCatalog.parameterLines(cmd)) {
+                throw new IOException("Frame v2 con " + lines.size() + " campi per il comando " + cmd);
+            }
+
+            lines.add(0, cmd);
+            return lines;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Frame v2 troncato", e);
+        }
+    }
+
+    /**
+     * Codifica le righe di risposta di un comando in un unico payload.
+     *
+     * @param lines righe scritte dagli handler, in forma v1
+     * @return payload del frame di risposta
+     */
+    static byte[] encodeResponse(List<String> lines) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64 + lines.size() * 16);
+        writeResponse(out, lines);
+        return out.toByteArray();
+    }
+
+    /**
+     * Codifica la risposta a una richiesta multiplexata.
+     *
+     * @param requestId identificativo della richiesta
+     * @param lines righe scritte dagli handler, in forma v1
+     * @return payload del frame di risposta
+     */
+    static byte[] encodeResponse(int requestId, List<String> lines) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(68 + lines.size() * 16);
+        writeInt(out, requestId);
+        writeResponse(out, lines);
+        return out.toByteArray();
+    }
+
+    /**
+     * Legge l'identificativo di una richiesta multiplexata.
+     *
+     * @param payload payload del frame
+     * @return identificativo della richiesta
+     * @throws IOException se il frame è troppo corto
+     */
+    static int readRequestId(byte[] payload) throws IOException {
+        if (payload.length < 4) {
+            throw new IOException("Frame v2 multiplexato troncato");
+        }
+        return ByteBuffer.wrap(payload).getInt();
+    }
+
+    private static void writeResponse(ByteArrayOutputStream out, List<String> lines) {
+        writeVarint(out, lines.size());
+        for (String line : lines) {
+            writeField(out, line);
+        }
+    }
+
+    private static List<String> decodeFields(ByteBuffer buf) throws IOException {
+        int n = readVarint(buf);
+        if (n > buf.remaining()) {
+            throw new IOException("Frame v2 con numero di campi non valido: " + n);
+        }
+
+        List<String> fields = new ArrayList<>(n + 1);
+        for (int i = 0; i < n; i++) {
+            int type = buf.get();
+            switch (type) {
+                case TYPE_STRING -> {
+                    int len = readVarint(buf);
+                    if (len > buf.remaining()) {
+                        throw new IOException("Campo v2 troncato");
+                    }
+                    String s = new String(buf.array(), buf.position(), len, StandardCharsets.UTF_8);
+                    buf.position(buf.position() + len);
+                    fields.add(s.replace("\n", V1_NEWLINE));
+                }
+                case TYPE_INT -> fields.add(Integer.toString(buf.getInt()));
+                case TYPE_DOUBLE -> fields.add(Double.toString(buf.getDouble()));
+                default -> throw new IOException("Tipo di campo v2 sconosciuto: " + type);
+            }
+        }
+        return fields;
+    }
+
+    /**
+     * Scrive un campo scegliendo la codifica più compatta che restituisca
+     * esattamente la stessa stringa.
+     */
+    private static void writeField(ByteArrayOutputStream out, String value) {
+        // un int32 occupa 5 byte: conviene solo da 4 cifre in su
+        Integer i = value.length() > 3 ? canonicalInt(value) : null;
+        if (i != null) {
+            out.write(TYPE_INT);
+            writeInt(out, i);
+            return;
+        }
+
+        byte[] bytes = value.replace(V1_NEWLINE, "\n").getBytes(StandardCharsets.UTF_8);
+        out.write(TYPE_STRING);
+        writeVarint(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Restituisce il valore intero di una stringa solo se la sua forma
+     * canonica coincide con la stringa stessa (es. non {@code "007"} o {@code "+1"}).
+     */
+    private static Integer canonicalInt(String s) {
+        int len = s.length();
+        if (len == 0 || len > 11) {
+            return null;
+        }
+        for (int k = 0; k < len; k++) {
+            char c = s.charAt(k);
+            if ((c < '0' || c > '9') && !(k == 0 && c == '-' && len > 1)) {
+                return null;
+            }
+        }
+        try {
+            int v = Integer.parseInt(s);
+            return Integer.toString(v).equals(s) ? v : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int v) {
+        out.write(v >>> 24);
+        out.write(v >>> 16);
+        out.write(v >>> 8);
+        out.write(v);
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarint(ByteBuffer buf) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = buf.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                if (value < 0) break;
+                return value;
+            }
+        }
+        throw new IOException("Varint v2 non valido");
+    }
+}
@@ -53,33 +53,16 @@ public class ResponseHandler implements CommandHandler {
     private ResponseHandler() {}
 
     /**
-     * Gestisce i comandi relativi alle risposte alle recensioni.
+     * Registra i comandi relativi alle risposte alle recensioni.
      *
-     * <p>
-     * In base al comando ricevuto, il metodo delega
-     * l'elaborazione al metodo specifico corrispondente.
-     * </p>
-     *
-     * @param cmd comando ricevuto dal client
-     * @param ctx contesto di sessione del client
-     * @return {@code true} se il comando è stato gestito,
-     *         {@code false} altrimenti
-     *
-     * @throws IOException errori di comunicazione
-     * @throws SQLException errori di accesso ai dati
-     * @throws InterruptedException gestione concorrenza
+     * @param registry registro dei comandi del server
      */
     @Override
-    public boolean handle(String cmd, ClientContext ctx)
-            throws IOException, SQLException, InterruptedException {
-
-        switch (cmd) {
-            case "getResponse"    -> { handleGetResponse(ctx); return true; }
-            case "addResponse"    -> { handleAddResponse(ctx); return true; }
-            case "editResponse"   -> { handleEditResponse(ctx); return true; }
-            case "removeResponse" -> { handleRemoveResponse(ctx); return true; }
-            default -> { return false; }
-        }
+    public void registerCommands(CommandRegistry registry) {
+        registry.register("getResponse", this::handleGetResponse);
+        registry.register("addResponse", this::handleAddResponse);
+        registry.register("editResponse", this::handleEditResponse);
+        registry.register("removeResponse", this::handleRemoveResponse);
     }
 
     /**
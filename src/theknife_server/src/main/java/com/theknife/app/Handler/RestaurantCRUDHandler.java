@@ -54,36 +54,17 @@ public class RestaurantCRUDHandler implements CommandHandler {
     private RestaurantCRUDHandler() {}
 
     /**
-     * Gestisce i comandi relativi alla gestione dei ristoranti.
+     * Registra i comandi relativi alla gestione dei ristoranti.
      *
-     * <p>
-     * In base al comando ricevuto, il metodo delega
-     * l'elaborazione al metodo specifico corrispondente.
-     * </p>
-     *
-     * @param cmd comando ricevuto dal client
-     * @param ctx contesto di sessione del client
-     * @return {@code true} se il comando è stato gestito,
-     *         {@code false} altrimenti
-     *
-     * @throws IOException errori di comunicazione
-     * @throws SQLException errori di accesso ai dati
-     * @throws InterruptedException gestione concorrenza
+     * @param registry registro dei comandi del server
      */
     @Override
-    public boolean handle(String cmd, ClientContext ctx)
-            throws IOException, SQLException, InterruptedException {
-
-        switch (cmd) {
-            case "addRestaurant"         -> { handleAddRestaurant(ctx); return true; }
-            case "editRestaurant"        -> { handleEditRestaurant(ctx); return true; }
-            case "deleteRestaurant"      -> { handleDeleteRestaurant(ctx); return true; }
-
-            case "getMyRestaurantsPages" -> { handleGetMyRestaurantsPages(ctx); return true; }
-            case "getMyRestaurants"      -> { handleGetMyRestaurants(ctx); return true; }
-
-            default -> { return false; }
-        }
+    public void registerCommands(CommandRegistry registry) {
+        registry.register("addRestaurant", this::handleAddRestaurant);
+        registry.register("editRestaurant", this::handleEditRestaurant);
+        registry.register("deleteRestaurant", this::handleDeleteRestaurant);
+        registry.register("getMyRestaurantsPages", this::handleGetMyRestaurantsPages);
+        registry.register("getMyRestaurants", this::handleGetMyRestaurants);
     }
 
     /**
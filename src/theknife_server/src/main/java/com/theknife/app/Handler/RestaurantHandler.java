@@ -1,21 +1,18 @@
 package com.theknife.app.Handler;
 
-import java.io.IOException;
-import java.sql.SQLException;
-
 /**
- * Dispatcher centrale per tutti i comandi relativi a ristoranti,
+ * Raggruppa tutti i comandi relativi a ristoranti,
  * recensioni, risposte e preferiti.
  *
  * <p>
  * Questa classe 
- * delega la gestione dei comandi a una sequenza ordinata di
+ * registra nel {@link CommandRegistry} i comandi di una serie di
  * handler specializzati, ciascuno responsabile di un sottoinsieme
  * del protocollo applicativo.
  * </p>
  *
  * <p>
- * Gli handler delegati includono:
+ * Gli handler raggruppati includono:
  * </p>
  * <ul>
  *     <li>{@link RestaurantCRUDHandler}</li>
@@ -25,11 +22,6 @@ import java.sql.SQLException;
  *     <li>{@link FavouriteHandler}</li>
  * </ul>
  *
- * <p>
- * Il primo handler che riconosce il comando ne gestisce
- * completamente l'elaborazione.
- * </p>
- *
  * Pattern utilizzato:
  *   <p>Singleton</p>
  * 
@@ -41,7 +33,7 @@ public class RestaurantHandler implements CommandHandler {
     /**
      * Restituisce l'unica istanza del {@code RestaurantHandler}.
      *
-     * @return istanza singleton del dispatcher
+     * @return istanza singleton dell'handler
      */
     public static synchronized RestaurantHandler getInstance() {
         if (instance == null)
@@ -60,30 +52,14 @@ public class RestaurantHandler implements CommandHandler {
     private RestaurantHandler() {}
 
     /**
-     * Instrada il comando ricevuto verso l'handler specializzato appropriato.
+     * Registra i comandi di tutti gli handler specializzati.
      *
-     * <p>
-     * Il metodo itera sugli handler registrati e delega
-     * l'elaborazione al primo che riconosce il comando.
-     * </p>
-     *
-     * @param cmd comando ricevuto dal client
-     * @param ctx contesto di sessione del client
-     * @return {@code true} se il comando è stato gestito,
-     *         {@code false} altrimenti
-     *
-     * @throws IOException errori di comunicazione
-     * @throws SQLException errori di accesso ai dati
-     * @throws InterruptedException gestione concorrenza
+     * @param registry registro dei comandi del server
      */
     @Override
-    public boolean handle(String cmd, ClientContext ctx)
-            throws IOException, SQLException, InterruptedException {
-
+    public void registerCommands(CommandRegistry registry) {
         for (CommandHandler h : handlers) {
-            if (h.handle(cmd, ctx))
-                return true;
+            h.registerCommands(registry);
         }
-        return false;
     }
 }
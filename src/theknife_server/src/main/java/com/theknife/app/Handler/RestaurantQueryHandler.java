@@ -1,9 +1,12 @@
 package com.theknife.app.Handler;
 
 import com.theknife.app.Server.DBHandler;
+import com.theknife.app.Server.RestaurantFilter;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.sql.SQLException;
+import java.util.Base64;
 
 /**
  * Handler responsabile della ricerca dei ristoranti e del recupero
@@ -20,6 +23,7 @@ import java.sql.SQLException;
  * </p>
  * <ul>
  *     <li>{@code getRestaurants}</li>
+ *     <li>{@code getRestaurantsCursor}</li>
  *     <li>{@code getRestaurantInfo}</li>
  * </ul>
  *
@@ -48,34 +52,26 @@ public class RestaurantQueryHandler implements CommandHandler {
 
     private final DBHandler db = DBHandler.getInstance();
 
+    /**
+     * Filtro restituito da {@link #readFilter} per la modalità {@code invalid}:
+     * la ricerca va risposta con un risultato vuoto senza interrogare il database.
+     */
+    private static final RestaurantFilter NO_RESULTS = new RestaurantFilter(
+            null, null, null, null, null, null, null,
+            false, false, null, null, -1, null);
+
     private RestaurantQueryHandler() {}
 
     /**
-     * Gestisce i comandi relativi alla ricerca e consultazione dei ristoranti.
+     * Registra i comandi relativi alla ricerca e consultazione dei ristoranti.
      *
-     * <p>
-     * In base al comando ricevuto, il metodo delega
-     * l'elaborazione al metodo specifico corrispondente.
-     * </p>
-     *
-     * @param cmd comando ricevuto dal client
-     * @param ctx contesto di sessione del client
-     * @return {@code true} se il comando è stato gestito,
-     *         {@code false} altrimenti
-     *
-     * @throws IOException errori di comunicazione
-     * @throws SQLException errori di accesso ai dati
-     * @throws InterruptedException gestione concorrenza
+     * @param registry registro dei comandi del server
      */
     @Override
-    public boolean handle(String cmd, ClientContext ctx)
-            throws IOException, SQLException, InterruptedException {
-
-        switch (cmd) {
-            case "getRestaurants"    -> { handleGetRestaurants(ctx); return true; }
-            case "getRestaurantInfo" -> { handleGetRestaurantInfo(ctx); return true; }
-            default -> { return false; }
-        }
+    public void registerCommands(CommandRegistry registry) {
+        registry.register("getRestaurants", this::handleGetRestaurants);
+        registry.register("getRestaurantsCursor", this::handleGetRestaurantsCursor);
+        registry.register("getRestaurantInfo", this::handleGetRestaurantInfo);
     }
 
     /**
@@ -91,7 +87,7 @@ public class RestaurantQueryHandler implements CommandHandler {
      *     <li>fascia di prezzo</li>
      *     <li>servizi disponibili</li>
      *     <li>valutazione media</li>
-     *     <li>categoria</li>
+     *     <li>categoria: una o più cucine separate da virgola, tutte richieste</li>
      *     <li>preferiti dell'utente</li>
      * </ul>
      *
@@ -99,6 +95,15 @@ public class RestaurantQueryHandler implements CommandHandler {
      * I risultati vengono restituiti in forma paginata.
      * </p>
      *
+     * <p>
+     * Con la modalità {@code nearest} (prima e seconda riga: latitudine e
+     * longitudine) i ristoranti vengono ordinati per distanza crescente
+     * invece che per nome, ed eventualmente limitati dal raggio. Ogni
+     * ristorante è inviato come id, nome e distanza in km. Il numero di
+     * pagine non è calcolato per intero: vale {@code page + 2} se esistono
+     * altri ristoranti dopo la pagina corrente, {@code page + 1} altrimenti.
+     * </p>
+     *
      * @param ctx contesto di sessione del client
      * @throws IOException errori di comunicazione
      * @throws SQLException errori di accesso ai dati
@@ -115,8 +120,174 @@ public class RestaurantQueryHandler implements CommandHandler {
             return;
         }
 
+        String mode = ctx.read();
+
+        RestaurantFilter filter = readFilter(ctx, mode);
+        if (filter == null) {
+            return;
+        }
+
+        if (filter == NO_RESULTS) {
+            ctx.write("ok");
+            ctx.write("1");
+            ctx.write("0");
+            return;
+        }
+
+        if ("nearest".equals(mode)) {
+            writeNearest(ctx, page, filter);
+            return;
+        }
+
+        String[][] data = db.getRestaurantsWithFilter(
+                page,
+                filter.getNation(), filter.getCity(),
+                filter.getLat(), filter.getLon(), filter.getRangeKm(),
+                filter.getPriceMin(), filter.getPriceMax(),
+                filter.isDelivery(), filter.isOnline(),
+                filter.getStarsMin(), filter.getStarsMax(),
+                filter.getFavouriteUserId(),
+                filter.getCategory()
+        );
+
+        ctx.write("ok");
+        ctx.write(data[0][0]); // pages
+        ctx.write(data[0][1]); // size
+
+        for (int i = 1; i < data.length; i++) {
+            ctx.write(data[i][0]); // id
+            ctx.write(data[i][1]); // nome
+        }
+    }
+
+    /**
+     * Gestisce il comando {@code getRestaurantsCursor}.
+     *
+     * <p>
+     * Variante a cursore di {@code getRestaurants}: riceve un cursore opaco
+     * (oppure {@code "-"} per la prima pagina) seguito dagli stessi parametri
+     * di filtro. Risponde con {@code ok}, il cursore della pagina successiva
+     * ({@code "-"} se non ce ne sono altre), il numero di elementi e le coppie
+     * id/nome. Non viene calcolato il numero totale di pagine.
+     * </p>
+     *
+     * <p>
+     * Il cursore codifica nome e id dell'ultimo ristorante restituito,
+     * così che il database possa posizionarsi direttamente tramite indice
+     * invece di scorrere e scartare le pagine precedenti.
+     * </p>
+     *
+     * @param ctx contesto di sessione del client
+     * @throws IOException errori di comunicazione
+     * @throws SQLException errori di accesso ai dati
+     * @throws InterruptedException gestione concorrenza
+     */
+    private void handleGetRestaurantsCursor(ClientContext ctx)
+            throws IOException, SQLException, InterruptedException {
+
+        String cursor = ctx.read();
+        String mode   = ctx.read();
+
+        RestaurantFilter filter = readFilter(ctx, mode);
+        if (filter == null) {
+            return;
+        }
+
+        // l'ordinamento per distanza non è compatibile con il cursore (nome, id)
+        if ("nearest".equals(mode)) {
+            ctx.write("invalid");
+            return;
+        }
+
+        if (filter == NO_RESULTS) {
+            ctx.write("ok");
+            ctx.write("-");
+            ctx.write("0");
+            return;
+        }
+
+        String afterName = null;
+        int afterId = 0;
+
+        if (!"-".equals(cursor)) {
+            String[] decoded = decodeCursor(cursor);
+            if (decoded == null) {
+                ctx.write("cursor");
+                return;
+            }
+            afterId = Integer.parseInt(decoded[0]);
+            afterName = decoded[1];
+        }
+
+        String[][] data = db.getRestaurantsAfter(filter, afterName, afterId);
+
+        int size = data.length - 1;
+        boolean hasMore = "y".equals(data[0][0]);
+
+        ctx.write("ok");
+        ctx.write(hasMore && size > 0
+                ? encodeCursor(data[size][0], data[size][1])
+                : "-");
+        ctx.write(Integer.toString(size));
+
+        for (int i = 1; i < data.length; i++) {
+            ctx.write(data[i][0]); // id
+            ctx.write(data[i][1]); // nome
+        }
+    }
+
+    /**
+     * Invia al client una pagina di ristoranti ordinati per distanza.
+     *
+     * @param ctx contesto di sessione del client
+     * @param page pagina richiesta
+     * @param filter filtri della ricerca, con latitudine e longitudine del punto
+     * @throws IOException errori di comunicazione
+     */
+    private void writeNearest(ClientContext ctx, int page, RestaurantFilter filter)
+            throws IOException {
+
+        if (page < 0) {
+            ctx.write("invalid");
+            return;
+        }
+
+        String[][] data = db.getNearestRestaurants(page, filter, filter.getLat(), filter.getLon());
+
+        boolean hasMore = "y".equals(data[0][0]);
+
+        ctx.write("ok");
+        ctx.write(Integer.toString(hasMore ? page + 2 : page + 1)); // pages
+        ctx.write(data[0][1]); // size
+
+        for (int i = 1; i < data.length; i++) {
+            ctx.write(data[i][0]); // id
+            ctx.write(data[i][1]); // nome
+            ctx.write(data[i][2]); // distanza (km)
+        }
+    }
+
+    /**
+     * Legge dal client i parametri di filtro comuni ai comandi di ricerca,
+     * successivi alla riga della modalità.
+     *
+     * <p>
+     * Vengono sempre consumate tutte le 11 righe restanti del protocollo, anche in
+     * caso di errore, così da non lasciare parametri non letti sul canale.
+     * In caso di parametro non valido viene inviato al client il relativo
+     * codice di errore ({@code invalid}, {@code coordinates}, {@code location},
+     * {@code price}, {@code stars}).
+     * </p>
+     *
+     * @param ctx contesto di sessione del client
+     * @param mode modalità di ricerca: all | location | coordinates | nearest | invalid
+     * @return filtri letti, {@link #NO_RESULTS} per la modalità {@code invalid},
+     *         oppure {@code null} se è già stato inviato un errore
+     * @throws IOException errori di comunicazione
+     */
+    private RestaurantFilter readFilter(ClientContext ctx, String mode) throws IOException {
+
         // ---- PROTOCOLLO DAL CLIENT ----
-        String mode        = ctx.read();  // all | location | coordinates | invalid
         String first       = ctx.read();
         String second      = ctx.read();
         String rangeStr    = ctx.read();
@@ -144,19 +315,16 @@ public class RestaurantQueryHandler implements CommandHandler {
             case "all" -> { /* no filters */ }
 
             case "invalid" -> {
-                ctx.write("ok");
-                ctx.write("1");
-                ctx.write("0");
-                return;
+                return NO_RESULTS;
             }
 
-            case "coordinates" -> {
+            case "coordinates", "nearest" -> {
                 try {
                     lat = Double.parseDouble(first);
                     lon = Double.parseDouble(second);
                 } catch (NumberFormatException e) {
                     ctx.write("coordinates");
-                    return;
+                    return null;
                 }
             }
 
@@ -166,13 +334,13 @@ public class RestaurantQueryHandler implements CommandHandler {
 
                 if (nation == null || nation.isBlank() || city == null || city.isBlank()) {
                     ctx.write("location");
-                    return;
+                    return null;
                 }
             }
 
             default -> {
                 ctx.write("invalid");
-                return;
+                return null;
             }
         }
 
@@ -182,12 +350,12 @@ public class RestaurantQueryHandler implements CommandHandler {
                 if (rangeKm <= 0) throw new NumberFormatException();
             } catch (NumberFormatException e) {
                 ctx.write("coordinates");
-                return;
+                return null;
             }
 
-            if (!"coordinates".equals(mode)) {
+            if (!"coordinates".equals(mode) && !"nearest".equals(mode)) {
                 ctx.write("coordinates");
-                return;
+                return null;
             }
         }
 
@@ -197,14 +365,14 @@ public class RestaurantQueryHandler implements CommandHandler {
             if (!"-".equals(priceMaxStr)) priceMax = Integer.parseInt(priceMaxStr);
         } catch (NumberFormatException e) {
             ctx.write("price");
-            return;
+            return null;
         }
 
         if ((priceMin != null && priceMin < 0) ||
             (priceMax != null && priceMax < 0) ||
             (priceMin != null && priceMax != null && priceMin > priceMax)) {
             ctx.write("price");
-            return;
+            return null;
         }
 
         Double starsMin = null, starsMax = null;
@@ -213,14 +381,14 @@ public class RestaurantQueryHandler implements CommandHandler {
             if (!"-".equals(starsMaxStr)) starsMax = Double.parseDouble(starsMaxStr);
         } catch (NumberFormatException e) {
             ctx.write("stars");
-            return;
+            return null;
         }
 
         if ((starsMin != null && (starsMin < 0 || starsMin > 5)) ||
             (starsMax != null && (starsMax < 0 || starsMax > 5)) ||
             (starsMin != null && starsMax != null && starsMin > starsMax)) {
             ctx.write("stars");
-            return;
+            return null;
         }
 
         boolean delivery = "y".equals(deliveryStr);
@@ -231,8 +399,7 @@ public class RestaurantQueryHandler implements CommandHandler {
             category = categoryStr.trim();
         }
 
-        String[][] data = db.getRestaurantsWithFilter(
-                page,
+        return new RestaurantFilter(
                 nation, city,
                 lat, lon, rangeKm,
                 priceMin, priceMax,
@@ -241,14 +408,36 @@ public class RestaurantQueryHandler implements CommandHandler {
                 favUserId,
                 category
         );
+    }
 
-        ctx.write("ok");
-        ctx.write(data[0][0]); // pages
-        ctx.write(data[0][1]); // size
+    /**
+     * Codifica la posizione dell'ultimo ristorante in un cursore opaco.
+     *
+     * @param id id del ristorante
+     * @param name nome del ristorante
+     * @return cursore in Base64 URL-safe
+     */
+    private static String encodeCursor(String id, String name) {
+        String raw = id + ":" + name;
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
 
-        for (int i = 1; i < data.length; i++) {
-            ctx.write(data[i][0]); // id
-            ctx.write(data[i][1]); // nome
+    /**
+     * Decodifica un cursore prodotto da {@link #encodeCursor}.
+     *
+     * @param cursor cursore ricevuto dal client
+     * @return coppia {id, nome}, oppure {@code null} se il cursore non è valido
+     */
+    private static String[] decodeCursor(String cursor) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int sep = raw.indexOf(':');
+            if (sep <= 0) return null;
+            Integer.parseInt(raw.substring(0, sep));
+            return new String[]{ raw.substring(0, sep), raw.substring(sep + 1) };
+        } catch (IllegalArgumentException e) {
+            return null;
         }
     }
 
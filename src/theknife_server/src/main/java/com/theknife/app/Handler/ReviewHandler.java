@@ -45,42 +45,21 @@ public class ReviewHandler implements CommandHandler {
     private ReviewHandler() {}
 
     /**
-     * Gestisce i comandi relativi alle recensioni.
+     * Registra i comandi relativi alle recensioni.
      *
-     * <p>
-     * In base al comando ricevuto, il metodo delega
-     * l'elaborazione al metodo di gestione specifico.
-     * </p>
-     *
-     * @param cmd comando ricevuto dal client
-     * @param ctx contesto di sessione del client
-     * @return {@code true} se il comando è stato gestito,
-     *         {@code false} altrimenti
-     *
-     * @throws IOException errori di comunicazione
-     * @throws SQLException errori di accesso ai dati
-     * @throws InterruptedException gestione concorrenza
+     * @param registry registro dei comandi del server
      */
     @Override
-    public boolean handle(String cmd, ClientContext ctx)
-            throws IOException, SQLException, InterruptedException {
-
-        switch (cmd) {
-            case "getReviewsPages"     -> { handleGetReviewsPages(ctx); return true; }
-            case "getReviewsPageCount" -> { handleGetReviewsPages(ctx); return true; }
-
-            case "getReviews"          -> { handleGetReviews(ctx); return true; }
-            case "getMyReview"         -> { handleGetMyReview(ctx); return true; }
-
-            case "addReview"           -> { handleAddReview(ctx); return true; }
-            case "editReview"          -> { handleEditReview(ctx); return true; }
-            case "removeReview"        -> { handleRemoveReview(ctx); return true; }
-
-            case "getMyReviewsPages"   -> { handleGetMyReviewsPages(ctx); return true; }
-            case "getMyReviews"        -> { handleGetMyReviews(ctx); return true; }
-
-            default -> { return false; }
-        }
+    public void registerCommands(CommandRegistry registry) {
+        registry.register("getReviewsPages", this::handleGetReviewsPages);
+        registry.register("getReviewsPageCount", this::handleGetReviewsPages);
+        registry.register("getReviews", this::handleGetReviews);
+        registry.register("getMyReview", this::handleGetMyReview);
+        registry.register("addReview", this::handleAddReview);
+        registry.register("editReview", this::handleEditReview);
+        registry.register("removeReview", this::handleRemoveReview);
+        registry.register("getMyReviewsPages", this::handleGetMyReviewsPages);
+        registry.register("getMyReviews", this::handleGetMyReviews);
     }
 
     /**
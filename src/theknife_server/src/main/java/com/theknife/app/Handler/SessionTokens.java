@@ -0,0 +1,198 @@
+package com.theknife.app.Handler;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Emissione e verifica dei token di sessione, con cui un client che si
+ * riconnette ripristina il login senza reinviare la password.
+ *
+ * <p>
+ * Un token ha la forma {@code v1.<idUtente>.<idSessione>.<scadenza>.<firma>}:
+ * la firma è un HMAC-SHA256 dei campi precedenti con la chiave del server,
+ * quindi la verifica non richiede né il database né BCrypt. La scadenza è in
+ * secondi dall'epoch; l'identificativo di sessione, casuale, lega il token
+ * al login che lo ha emesso.
+ * </p>
+ *
+ * <p>
+ * La chiave deriva da {@code session_token_secret}; se il parametro è assente
+ * viene generata all'avvio, e i token emessi non sopravvivono a un riavvio.
+ * I token delle sessioni chiuse con {@code logout} vengono revocati fino
+ * alla loro scadenza.
+ * </p>
+ *
+ * <p>Pattern utilizzato: <b>Singleton</b></p>
+ */
+public final class SessionTokens {
+
+    /** Validità di default dei token, in secondi. */
+    public static final int DEFAULT_TTL_SECONDS = 24 * 60 * 60;
+
+    private static final String VERSION = "v1";
+    private static final String ALGORITHM = "HmacSHA256";
+
+    /** Revoche oltre le quali quelle scadute vengono eliminate. */
+    private static final int PURGE_THRESHOLD = 10_000;
+
+    private static SessionTokens instance = null;
+
+    /**
+     * Restituisce l'unica istanza del servizio.
+     *
+     * @return istanza singleton
+     */
+    public static synchronized SessionTokens getInstance() {
+        if (instance == null)
+            instance = new SessionTokens();
+        return instance;
+    }
+
+    /**
+     * Contenuto di un token con firma valida.
+     *
+     * @param userId utente autenticato
+     * @param sessionId identificativo del login che ha emesso il token
+     * @param expiresAt scadenza, in secondi dall'epoch
+     */
+    public record Claims(int userId, long sessionId, long expiresAt) {
+
+        /** @return {@code true} se il token è scaduto */
+        public boolean isExpired() {
+            return System.currentTimeMillis() / 1000 >= expiresAt;
+        }
+    }
+
+    private final SecureRandom random = new SecureRandom();
+
+    /** Identificativi di sessione revocati, con la scadenza dei rispettivi token. */
+    private final Map<Long, Long> revoked = new ConcurrentHashMap<>();
+
+    /** Prototipo da cui clonare un {@link Mac} per ogni operazione, essendo {@code Mac} non thread-safe. */
+    private volatile Mac prototype;
+    private volatile int ttlSeconds = DEFAULT_TTL_SECONDS;
+
+    private SessionTokens() {
+        byte[] key = new byte[32];
+        random.nextBytes(key);
+        prototype = createMac(key);
+    }
+
+    /**
+     * Imposta chiave e validità dei token.
+     *
+     * @param secret segreto da cui derivare la chiave; vuoto per una chiave casuale
+     * @param ttlSeconds validità dei token emessi, in secondi
+     */
+    public void configure(String secret, int ttlSeconds) {
+        if (secret != null && !secret.isEmpty()) {
+            try {
+                prototype = createMac(MessageDigest.getInstance("SHA-256")
+                        .digest(secret.getBytes(StandardCharsets.UTF_8)));
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("SHA-256 non disponibile", e);
+            }
+        }
+        this.ttlSeconds = ttlSeconds;
+    }
+
+    /**
+     * Genera un nuovo identificativo di sessione, mai nullo.
+     *
+     * @return identificativo casuale
+     */
+    public long newSessionId() {
+        long id;
+        do {
+            id = random.nextLong();
+        } while (id == 0);
+        return id;
+    }
+
+    /**
+     * Emette un token per un login.
+     *
+     * @param userId utente autenticato
+     * @param sessionId identificativo del login
+     * @return token firmato
+     */
+    public String issue(int userId, long sessionId) {
+        long expiresAt = System.currentTimeMillis() / 1000 + ttlSeconds;
+        String payload = VERSION + "." + userId + "." + Long.toHexString(sessionId) + "." + expiresAt;
+        return payload + "." + sign(payload);
+    }
+
+    /**
+     * Verifica firma e revoca di un token, senza controllarne la scadenza.
+     *
+     * @param token token presentato dal client
+     * @return contenuto del token, oppure {@code null} se malformato, contraffatto o revocato
+     */
+    public Claims verify(String token) {
+        if (token == null) {
+            return null;
+        }
+        int dot = token.lastIndexOf('.');
+        if (dot < 0) {
+            return null;
+        }
+        String payload = token.substring(0, dot);
+        byte[] expected = sign(payload).getBytes(StandardCharsets.US_ASCII);
+        if (!MessageDigest.isEqual(expected, token.substring(dot + 1).getBytes(StandardCharsets.US_ASCII))) {
+            return null;
+        }
+
+        String[] f = payload.split("\\.");
+        if (f.length != 4 || !VERSION.equals(f[0])) {
+            return null;
+        }
+        Claims claims;
+        try {
+            claims = new Claims(Integer.parseInt(f[1]), Long.parseUnsignedLong(f[2], 16), Long.parseLong(f[3]));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return revoked.containsKey(claims.sessionId()) ? null : claims;
+    }
+
+    /**
+     * Revoca i token di un login chiuso con {@code logout}.
+     *
+     * @param sessionId identificativo del login
+     */
+    public void revoke(long sessionId) {
+        long now = System.currentTimeMillis() / 1000;
+        revoked.put(sessionId, now + ttlSeconds);
+        if (revoked.size() > PURGE_THRESHOLD) {
+            revoked.values().removeIf(expiresAt -> expiresAt <= now);
+        }
+    }
+
+    private String sign(String payload) {
+        try {
+            Mac mac = (Mac) prototype.clone();
+            byte[] digest = mac.doFinal(payload.getBytes(StandardCharsets.UTF_8));
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(digest);
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException("HMAC non clonabile", e);
+        }
+    }
+
+    private static Mac createMac(byte[] key) {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(new SecretKeySpec(key, ALGORITHM));
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(ALGORITHM + " non disponibile", e);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.theknife.app.Handler;
+
+import com.theknife.app.CommandDispatcher;
+import com.theknife.app.LatencyHistogram;
+import com.theknife.app.LatencyStats;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Map;
+
+/**
+ * Handler del comando {@code getStats}, con cui un operatore autorizzato
+ * legge da remoto le latenze di comandi, database e autenticazione.
+ *
+ * <p>
+ * Il comando riceve il token di accesso configurato in {@code server_stats_token}
+ * e una modalità:
+ * </p>
+ * <ul>
+ *     <li>{@code all} → latenze cumulative</li>
+ *     <li>{@code interval} → latenze dall'ultima richiesta di intervallo</li>
+ *     <li>{@code reset} → latenze cumulative, poi azzerate insieme agli errori</li>
+ * </ul>
+ *
+ * <p>
+ * Risposta: {@code ok}, il numero di righe della tabella e, per ogni riga,
+ * gruppo ({@code command}, {@code db} o {@code auth}), nome, numero di misure e
+ * p50, p95, p99 e massimo in microsecondi. Se il token non è valido, o il
+ * comando non è configurato, la risposta è {@code unauthorized}.
+ * </p>
+ *
+ * <p>Pattern utilizzato: <b>Singleton</b></p>
+ */
+public class StatsHandler implements CommandHandler {
+
+    private static StatsHandler instance = null;
+
+    /**
+     * Restituisce l'unica istanza dello {@code StatsHandler}.
+     *
+     * @return istanza singleton dell'handler
+     */
+    public static synchronized StatsHandler getInstance() {
+        if (instance == null)
+            instance = new StatsHandler();
+        return instance;
+    }
+
+    /** Token di accesso; vuoto se il comando è disattivato. */
+    private volatile byte[] accessToken = new byte[0];
+
+    private StatsHandler() {}
+
+    /**
+     * Imposta il token richiesto dal comando {@code getStats}.
+     *
+     * @param token token di accesso, vuoto per disattivare il comando
+     */
+    public void setAccessToken(String token) {
+        this.accessToken = token == null ? new byte[0] : token.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Registra il comando {@code getStats}.
+     *
+     * @param registry registro dei comandi del server
+     */
+    @Override
+    public void registerCommands(CommandRegistry registry) {
+        registry.register("getStats", this::handleGetStats);
+    }
+
+    /**
+     * Gestisce il comando {@code getStats}.
+     *
+     * @param ctx contesto di sessione del client
+     * @throws IOException errori di comunicazione
+     */
+    private void handleGetStats(ClientContext ctx) throws IOException {
+        String token = ctx.read();
+        String mode = ctx.read();
+
+        byte[] expected = accessToken;
+        if (token == null || expected.length == 0
+                || !MessageDigest.isEqual(expected, token.getBytes(StandardCharsets.UTF_8))) {
+            ctx.write("unauthorized");
+            return;
+        }
+
+        Map<String, LatencyHistogram.Snapshot> commands;
+        Map<String, LatencyHistogram.Snapshot> database;
+        Map<String, LatencyHistogram.Snapshot> auth;
+        switch (mode == null ? "" : mode) {
+            case "all" -> {
+                commands = LatencyStats.COMMANDS.snapshot();
+                database = LatencyStats.DATABASE.snapshot();
+                auth = LatencyStats.AUTH.snapshot();
+            }
+            case "interval" -> {
+                commands = LatencyStats.COMMANDS.intervalSnapshot();
+                database = LatencyStats.DATABASE.intervalSnapshot();
+                auth = LatencyStats.AUTH.intervalSnapshot();
+            }
+            case "reset" -> {
+                commands = LatencyStats.COMMANDS.snapshot();
+                database = LatencyStats.DATABASE.snapshot();
+                auth = LatencyStats.AUTH.snapshot();
+                // lo stesso azzeramento del comando 'stats reset' della console
+                CommandDispatcher.getInstance().resetStats();
+            }
+            default -> {
+                ctx.write("error");
+                return;
+            }
+        }
+
+        commands.values().removeIf(s -> s.getCount() == 0);
+        database.values().removeIf(s -> s.getCount() == 0);
+        auth.values().removeIf(s -> s.getCount() == 0);
+
+        ctx.write("ok");
+        ctx.write(Integer.toString(commands.size() + database.size() + auth.size()));
+        writeRows(ctx, "command", commands);
+        writeRows(ctx, "db", database);
+        writeRows(ctx, "auth", auth);
+    }
+
+    private void writeRows(ClientContext ctx, String group, Map<String, LatencyHistogram.Snapshot> rows)
+            throws IOException {
+        for (Map.Entry<String, LatencyHistogram.Snapshot> e : rows.entrySet()) {
+            LatencyHistogram.Snapshot s = e.getValue();
+            ctx.write(group);
+            ctx.write(e.getKey());
+            ctx.write(Long.toString(s.getCount()));
+            ctx.write(Long.toString(s.getPercentile(50) / 1000));
+            ctx.write(Long.toString(s.getPercentile(95) / 1000));
+            ctx.write(Long.toString(s.getPercentile(99) / 1000));
+            ctx.write(Long.toString(s.getMax() / 1000));
+        }
+    }
+}
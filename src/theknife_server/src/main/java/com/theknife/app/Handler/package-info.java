@@ -1,15 +1,22 @@
 /**
  * Package responsabile della gestione dei comandi provenienti dal client,
- * instradati tramite {@link com.theknife.app.ClientThread}.
+ * instradati tramite {@link com.theknife.app.CommandDispatcher} dal motore di rete
+ * in uso ({@link com.theknife.app.ClientThread} oppure il motore NIO).
+ * Le righe del protocollo passano per un {@link com.theknife.app.Handler.ClientTransport};
+ * {@link com.theknife.app.Handler.CommandCatalog} elenca le righe di parametri di ogni comando.
  *
  * Ogni handler implementa {@link com.theknife.app.Handler.CommandHandler} e
- * gestisce un gruppo specifico di comandi.
+ * registra un gruppo specifico di comandi nel
+ * {@link com.theknife.app.Handler.CommandRegistry}, che associa ogni nome
+ * di comando al metodo che lo gestisce.
  *
  * <h2>Handler presenti</h2>
  * <ul>
- *     <li>{@link com.theknife.app.Handler.AuthHandler} — login/registrazione</li>
+ *     <li>{@link com.theknife.app.Handler.AuthHandler} — login/registrazione e ripristino
+ *         del login con i token di {@link com.theknife.app.Handler.SessionTokens}</li>
  *     <li>{@link com.theknife.app.Handler.RestaurantHandler} — gestione ristoranti</li>
  *     <li>{@link com.theknife.app.Handler.DisconnectHandler} — logout/disconnessione</li>
+ *     <li>{@link com.theknife.app.Handler.StatsHandler} — latenze del server per gli operatori</li>
  * </ul>
  *
  * <h2>Responsabilità</h2>
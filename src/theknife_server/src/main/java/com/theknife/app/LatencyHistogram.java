@@ -0,0 +1,183 @@
+package com.theknife.app;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Istogramma delle latenze con registrazione senza lock.
+ *
+ * <p>
+ * Segue lo schema di HdrHistogram: i valori, in nanosecondi, sono divisi in
+ * intervalli per potenze di due, ciascuno suddiviso in {@value #SUB_BUCKETS}
+ * sotto-intervalli lineari. L'errore relativo di percentili e massimo resta
+ * quindi sotto l'1,6% su tutta la scala, da pochi nanosecondi a oltre un
+ * minuto, con una dimensione fissa di circa 16 KB.
+ * </p>
+ *
+ * <p>
+ * La registrazione è un singolo incremento atomico, eseguibile da qualunque
+ * thread senza sincronizzazione. Le letture avvengono tramite
+ * {@link #snapshot()}, che copia i contatori in un {@link Snapshot} immutabile;
+ * la differenza tra due snapshot fornisce le latenze di un intervallo.
+ * </p>
+ */
+public final class LatencyHistogram {
+
+    /** Bit dei sotto-intervalli lineari di ogni potenza di due. */
+    private static final int SUB_BITS = 6;
+
+    /** Sotto-intervalli per ogni potenza di due. */
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    /** Valore massimo registrabile (circa 68 secondi); i valori oltre vengono troncati. */
+    private static final long MAX_VALUE = (1L << 36) - 1;
+
+    /** Numero di intervalli necessari a coprire {@link #MAX_VALUE}. */
+    private static final int BUCKETS = indexOf(MAX_VALUE) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    /**
+     * Registra una latenza.
+     *
+     * @param nanos durata in nanosecondi
+     */
+    public void record(long nanos) {
+        counts.incrementAndGet(indexOf(Math.max(0, Math.min(nanos, MAX_VALUE))));
+    }
+
+    /**
+     * Copia lo stato corrente dei contatori.
+     *
+     * @return snapshot immutabile
+     */
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+        }
+        return new Snapshot(copy);
+    }
+
+    /**
+     * Azzera i contatori. Le registrazioni concorrenti all'azzeramento
+     * possono essere conteggiate o perse.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+    }
+
+    private static int indexOf(long value) {
+        if (value < 2 * SUB_BUCKETS) {
+            return (int) value;
+        }
+        // value >>> shift cade in [SUB_BUCKETS, 2 * SUB_BUCKETS)
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    /** @return valore più alto rappresentato dall'intervallo indicato */
+    private static long highestValueOf(int index) {
+        if (index < 2 * SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long sub = index % SUB_BUCKETS + SUB_BUCKETS;
+        return ((sub + 1) << shift) - 1;
+    }
+
+    /** @return valore centrale dell'intervallo indicato */
+    private static long midValueOf(int index) {
+        if (index < 2 * SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long sub = index % SUB_BUCKETS + SUB_BUCKETS;
+        return (sub << shift) + (1L << shift) / 2;
+    }
+
+    /**
+     * Stato dei contatori in un dato istante, o in un intervallo se
+     * ottenuto con {@link #minus(Snapshot)}.
+     */
+    public static final class Snapshot {
+
+        private final long[] counts;
+        private final long total;
+
+        private Snapshot(long[] counts) {
+            this.counts = counts;
+            long sum = 0;
+            for (long c : counts) {
+                sum += c;
+            }
+            this.total = sum;
+        }
+
+        /**
+         * Calcola le latenze registrate tra uno snapshot precedente e questo.
+         *
+         * @param earlier snapshot precedente dello stesso istogramma
+         * @return snapshot dell'intervallo
+         */
+        public Snapshot minus(Snapshot earlier) {
+            long[] diff = new long[counts.length];
+            for (int i = 0; i < counts.length; i++) {
+                // dopo un azzeramento lo snapshot precedente può superare quello attuale
+                diff[i] = Math.max(0, counts[i] - earlier.counts[i]);
+            }
+            return new Snapshot(diff);
+        }
+
+        /** @return numero di latenze registrate */
+        public long getCount() {
+            return total;
+        }
+
+        /**
+         * Restituisce il percentile indicato.
+         *
+         * @param percentile percentile richiesto, tra 0 e 100
+         * @return latenza in nanosecondi, oppure {@code 0} se non ci sono registrazioni
+         */
+        public long getPercentile(double percentile) {
+            if (total == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * total));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return highestValueOf(i);
+                }
+            }
+            return getMax();
+        }
+
+        /** @return latenza massima in nanosecondi, oppure {@code 0} se non ci sono registrazioni */
+        public long getMax() {
+            for (int i = counts.length - 1; i >= 0; i--) {
+                if (counts[i] != 0) {
+                    return highestValueOf(i);
+                }
+            }
+            return 0;
+        }
+
+        /** @return latenza media in nanosecondi, oppure {@code 0} se non ci sono registrazioni */
+        public double getMean() {
+            if (total == 0) {
+                return 0;
+            }
+            double sum = 0;
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] != 0) {
+                    sum += (double) counts[i] * midValueOf(i);
+                }
+            }
+            return sum / total;
+        }
+    }
+}
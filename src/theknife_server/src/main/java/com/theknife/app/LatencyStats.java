@@ -0,0 +1,108 @@
+package com.theknife.app;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Gruppo di istogrammi delle latenze ({@link LatencyHistogram}), uno per
+ * ogni operazione misurata.
+ *
+ * <p>
+ * Il server ne mantiene tre: {@link #COMMANDS}, con la durata di ogni comando
+ * del protocollo, {@link #DATABASE}, con la durata di ogni metodo del
+ * {@code DBHandler}, e {@link #AUTH}, con i tempi di BCrypt e l'attesa nel
+ * pool di autenticazione. Gli istogrammi vengono creati alla prima registrazione.
+ * </p>
+ *
+ * <p>
+ * Oltre ai valori cumulativi, {@link #intervalSnapshot()} restituisce le
+ * latenze registrate dalla richiesta di intervallo precedente, così che la
+ * console possa mostrare l'andamento recente senza azzerare i totali.
+ * </p>
+ */
+public final class LatencyStats {
+
+    /** Latenze dei comandi del protocollo, per nome del comando. */
+    public static final LatencyStats COMMANDS = new LatencyStats();
+
+    /** Latenze dei metodi del {@code DBHandler}, per nome del metodo. */
+    public static final LatencyStats DATABASE = new LatencyStats();
+
+    /** Latenze dell'autenticazione: hash e verifiche BCrypt, attesa in coda del pool. */
+    public static final LatencyStats AUTH = new LatencyStats();
+
+    private final Map<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+
+    /** Snapshot all'inizio dell'intervallo corrente; protetto dal monitor dell'istanza. */
+    private Map<String, LatencyHistogram.Snapshot> intervalStart = Map.of();
+
+    private LatencyStats() { }
+
+    /**
+     * Restituisce l'istogramma di un'operazione, creandolo se necessario.
+     *
+     * @param name nome dell'operazione
+     * @return istogramma dell'operazione
+     */
+    public LatencyHistogram histogram(String name) {
+        LatencyHistogram h = histograms.get(name);
+        return h != null ? h : histograms.computeIfAbsent(name, k -> new LatencyHistogram());
+    }
+
+    /**
+     * Restituisce le latenze cumulative di tutte le operazioni.
+     *
+     * @return snapshot per nome dell'operazione, in ordine alfabetico
+     */
+    public Map<String, LatencyHistogram.Snapshot> snapshot() {
+        Map<String, LatencyHistogram.Snapshot> result = new TreeMap<>();
+        histograms.forEach((name, h) -> result.put(name, h.snapshot()));
+        return result;
+    }
+
+    /**
+     * Restituisce le latenze registrate dalla chiamata precedente
+     * (o dall'ultimo azzeramento) e avvia un nuovo intervallo.
+     *
+     * @return snapshot dell'intervallo per nome dell'operazione, in ordine alfabetico
+     */
+    public synchronized Map<String, LatencyHistogram.Snapshot> intervalSnapshot() {
+        Map<String, LatencyHistogram.Snapshot> now = snapshot();
+        Map<String, LatencyHistogram.Snapshot> result = new TreeMap<>();
+        now.forEach((name, s) -> {
+            LatencyHistogram.Snapshot start = intervalStart.get(name);
+            result.put(name, start == null ? s : s.minus(start));
+        });
+        intervalStart = now;
+        return result;
+    }
+
+    /**
+     * Azzera tutti gli istogrammi e l'intervallo corrente.
+     */
+    public synchronized void reset() {
+        histograms.values().forEach(LatencyHistogram::reset);
+        intervalStart = Map.of();
+    }
+
+    /**
+     * Formatta gli snapshot in una tabella per la console amministrativa.
+     *
+     * @param snapshots snapshot per nome dell'operazione
+     * @return una riga per ogni operazione con almeno una registrazione
+     */
+    public static String format(Map<String, LatencyHistogram.Snapshot> snapshots) {
+        StringBuilder sb = new StringBuilder(String.format("%-28s %9s %10s %10s %10s %10s%n",
+                "", "n", "p50 ms", "p95 ms", "p99 ms", "max ms"));
+        snapshots.forEach((name, s) -> {
+            if (s.getCount() == 0) {
+                return;
+            }
+            sb.append(String.format("%-28s %9d %10.3f %10.3f %10.3f %10.3f%n", name, s.getCount(),
+                    s.getPercentile(50) / 1e6, s.getPercentile(95) / 1e6,
+                    s.getPercentile(99) / 1e6, s.getMax() / 1e6));
+        });
+        return sb.toString().stripTrailing();
+    }
+}
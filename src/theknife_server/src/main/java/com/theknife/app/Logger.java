@@ -10,6 +10,21 @@ package com.theknife.app;
  */
 public interface Logger {
 
+    /**
+     * Registra un messaggio di livello DEBUG.
+     *
+     * @param msg messaggio da registrare
+     */
+    void debug(String msg);
+
+    /**
+     * Indica se i messaggi di livello DEBUG vengono registrati, così che il
+     * chiamante possa evitare di comporre messaggi che verrebbero scartati.
+     *
+     * @return {@code true} se il livello DEBUG è attivo
+     */
+    boolean isDebugEnabled();
+
     /**
      * Registra un messaggio di livello INFO.
      *
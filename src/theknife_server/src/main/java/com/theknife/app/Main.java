@@ -1,7 +1,16 @@
 package com.theknife.app;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
 import java.util.Scanner;
 
+import com.theknife.app.Handler.ClientContext;
+import com.theknife.app.Handler.LoginThrottle;
+import com.theknife.app.Server.DBHandler;
+import com.theknife.app.Server.SchemaMigrator;
+import com.theknife.app.Server.ServerException;
+
 /**
  * Entry-point dell'applicazione server.
  *
@@ -17,6 +26,7 @@ import java.util.Scanner;
  *     <li>verificare la presenza del file di configurazione {@code connection.ini}</li>
  *     <li>richiedere interattivamente le credenziali di accesso al database al primo avvio</li>
  *     <li>inizializzare il {@link ConnectionManager}</li>
+ *     <li>aggiornare lo schema del database tramite {@link SchemaMigrator}</li>
  *     <li>avviare l'applicazione server tramite {@link ServerApplication}</li>
  *     <li>gestire comandi amministrativi da console</li>
  * </ul>
@@ -57,6 +67,7 @@ public final class Main {
      * <ol>
      *     <li>verifica e/o crea il file {@code connection.ini}</li>
      *     <li>inizializza il {@link ConnectionManager}</li>
+ *     <li>applica le migrazioni dello schema mancanti</li>
      *     <li>avvia il server sulla porta TCP configurata</li>
      *     <li>rimane in ascolto di comandi amministrativi da console</li>
      * </ol>
@@ -88,14 +99,40 @@ public final class Main {
                 return;
             }
 
+            try {
+                SchemaMigrator.getInstance().migrate();
+            } catch (RuntimeException e) {
+                System.err.println("[MAIN] Errore migrazione schema DB: " + e.getMessage());
+                ConnectionManager.getInstance().shutdown();
+                return;
+            }
+
+            ServerConfig config;
+            try {
+                config = ServerConfig.load();
+            } catch (RuntimeException e) {
+                System.err.println("[MAIN] Errore configurazione server: " + e.getMessage());
+                ConnectionManager.getInstance().shutdown();
+                return;
+            }
+
+            configureLogging(config);
+
             ServerApplication server = ServerApplication.getInstance();
-            if (!server.start(port)) {
+            if (!server.start(port, config)) {
                 System.err.println("[MAIN] ERRORE: impossibile avviare il server.");
                 return;
             }
 
-            System.out.println("[MAIN] Server avviato sulla porta " + port);
+            System.out.println("[MAIN] Server avviato sulla porta " + port
+                    + " (motore " + config.getEngine().name().toLowerCase() + ")");
             System.out.println("[MAIN] Digita 'quit', 'exit' o 'stop' per arrestarlo.");
+            System.out.println("[MAIN] Digita 'rebuild-stats' per ricalcolare le statistiche delle recensioni.");
+            System.out.println("[MAIN] Digita 'cache-stats' per le statistiche delle cache.");
+            System.out.println("[MAIN] Digita 'load-stats' per il carico delle richieste.");
+            System.out.println("[MAIN] Digita 'stats' per le latenze di comandi, database e autenticazione"
+                    + " ('stats interval' dall'ultima richiesta, 'stats reset' per azzerarle).");
+            System.out.println("[MAIN] Digita 'log-level <debug|info|warning|error|alert>' per cambiare il livello di log.");
 
             while (true) {
                 String cmd = scanner.nextLine();
@@ -104,12 +141,119 @@ public final class Main {
                         || cmd.equalsIgnoreCase("stop")) {
                     break;
                 }
+                if (cmd.equalsIgnoreCase("rebuild-stats")) {
+                    rebuildStats();
+                    continue;
+                }
+                if (cmd.equalsIgnoreCase("cache-stats")) {
+                    System.out.println("[MAIN] Cache ricerche: " + DBHandler.getInstance().describeSearchCache());
+                    System.out.println("[MAIN] Cache schede:   " + DBHandler.getInstance().describeInfoCache());
+                    System.out.println("[MAIN] Filtro username: " + DBHandler.getInstance().describeUsernameFilter());
+                    continue;
+                }
+                if (cmd.toLowerCase().startsWith("stats")) {
+                    printLatencyStats(cmd.substring(5).trim());
+                    continue;
+                }
+                if (cmd.toLowerCase().startsWith("log-level")) {
+                    setLogLevel(cmd.substring(9).trim());
+                    continue;
+                }
+                if (cmd.equalsIgnoreCase("load-stats")) {
+                    System.out.println("[MAIN] Richieste: " + CommandDispatcher.getInstance().describeAdmission());
+                    System.out.println("[MAIN] Risposte: " + ClientContext.describeWrites());
+                    System.out.println("[MAIN] Autenticazione: " + AuthWorkerPool.getInstance().describe());
+                    System.out.println("[MAIN] Login falliti: " + LoginThrottle.getInstance().describe());
+                    System.out.println("[MAIN] BCrypt: work factor " + SecurityManager.getInstance().getStrength()
+                            + ", hash ricalcolati " + SecurityManager.getInstance().getRehashed());
+                    continue;
+                }
                 System.out.println("[MAIN] Comando sconosciuto: " + cmd);
             }
 
             System.out.println("[MAIN] Arresto del server...");
             server.stop();
+            ConnectionManager.getInstance().shutdown();
             System.out.println("[MAIN] Server terminato correttamente.");
+            ServerLogger.getInstance().shutdown();
+        }
+    }
+
+    /**
+     * Applica livello e file di log della configurazione. Se il file non può
+     * essere aperto il log resta sulla sola console.
+     *
+     * @param config configurazione del server
+     */
+    private static void configureLogging(ServerConfig config) {
+        ServerLogger logger = ServerLogger.getInstance();
+        logger.setLevel(config.getLogLevel());
+        if (config.getLogFile().isEmpty()) {
+            return;
+        }
+        try {
+            logger.setFile(new File(config.getLogFile()),
+                    config.getLogFileMaxMb() * 1024L * 1024L, config.getLogFileCount());
+        } catch (IOException e) {
+            System.err.println("[MAIN] Impossibile aprire il file di log: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Cambia il livello di log durante l'esecuzione.
+     *
+     * @param level nome del livello, senza distinzione tra maiuscole e minuscole
+     */
+    private static void setLogLevel(String level) {
+        try {
+            ServerLogger.getInstance().setLevel(ServerLogger.Level.valueOf(level.toUpperCase(Locale.ROOT)));
+            System.out.println("[MAIN] Livello di log: " + ServerLogger.getInstance().getLevel());
+        } catch (IllegalArgumentException e) {
+            System.out.println("[MAIN] Uso: log-level <debug|info|warning|error|alert>");
+        }
+    }
+
+    /**
+     * Ricalcola le statistiche delle recensioni di tutti i ristoranti
+     * e ne riporta l'esito su console.
+     */
+    private static void rebuildStats() {
+        try {
+            int n = DBHandler.getInstance().rebuildRestaurantStats();
+            System.out.println("[MAIN] Statistiche ricalcolate per " + n + " ristoranti.");
+        } catch (ServerException e) {
+            System.err.println("[MAIN] Errore ricalcolo statistiche: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Mostra su console le latenze di comandi e metodi del database.
+     *
+     * @param mode {@code ""} per i valori cumulativi, {@code interval} per quelli
+     *             dall'ultima richiesta di intervallo, {@code reset} per azzerarli
+     */
+    private static void printLatencyStats(String mode) {
+        CommandDispatcher dispatcher = CommandDispatcher.getInstance();
+        switch (mode.toLowerCase()) {
+            case "" -> {
+                System.out.println("[MAIN] Latenze comandi:\n" + LatencyStats.format(LatencyStats.COMMANDS.snapshot()));
+                System.out.println("[MAIN] Latenze database:\n" + LatencyStats.format(LatencyStats.DATABASE.snapshot()));
+                System.out.println("[MAIN] Latenze autenticazione:\n" + LatencyStats.format(LatencyStats.AUTH.snapshot()));
+                System.out.println("[MAIN] Errori: " + dispatcher.describeErrors());
+            }
+            case "interval" -> {
+                System.out.println("[MAIN] Latenze comandi (intervallo):\n"
+                        + LatencyStats.format(LatencyStats.COMMANDS.intervalSnapshot()));
+                System.out.println("[MAIN] Latenze database (intervallo):\n"
+                        + LatencyStats.format(LatencyStats.DATABASE.intervalSnapshot()));
+                System.out.println("[MAIN] Latenze autenticazione (intervallo):\n"
+                        + LatencyStats.format(LatencyStats.AUTH.intervalSnapshot()));
+            }
+            case "reset" -> {
+                dispatcher.resetStats();
+                System.out.println("[MAIN] Latenze ed errori azzerati.");
+            }
+            default -> System.out.println("[MAIN] Uso: stats [interval|reset]");
         }
     }
 }
@@ -0,0 +1,226 @@
+package com.theknife.app;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.theknife.app.Handler.AuthHandler;
+import com.theknife.app.Handler.CommandRegistry;
+import com.theknife.app.Handler.LoginThrottle;
+import com.theknife.app.Server.DBHandler;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Endpoint HTTP con le metriche del server nel formato testuale di Prometheus.
+ *
+ * <p>
+ * Espone su {@code /metrics}, alla porta indicata da {@code server_metrics_port}
+ * e per default solo su loopback ({@code server_metrics_bind}), dato che
+ * l'endpoint non richiede autenticazione:
+ * </p>
+ * <ul>
+ *     <li>client connessi e utenti autenticati</li>
+ *     <li>uso del pool di connessioni e della cache degli statement</li>
+ *     <li>stato del controllo di ammissione</li>
+ *     <li>esecuzioni, errori e latenze (p50, p95, p99) di ogni comando</li>
+ *     <li>esecuzioni e latenze di ogni metodo del {@link DBHandler}</li>
+ *     <li>pool di autenticazione, login respinti e durata di BCrypt</li>
+ *     <li>hit e miss delle cache di ricerche e schede</li>
+ * </ul>
+ *
+ * <p>
+ * I valori vengono letti solo alla richiesta di Prometheus dai contatori già
+ * mantenuti dai singoli componenti (contatori atomici e {@link LatencyHistogram}),
+ * così che l'endpoint non aggiunga lavoro all'esecuzione dei comandi. Sul
+ * percorso delle richieste (comandi, metodi del {@link DBHandler}, BCrypt)
+ * ogni misura è un incremento atomico su un istogramma risolto una sola
+ * volta, senza allocazioni né ricerche per nome. Le richieste HTTP sono
+ * servite da un unico thread dedicato.
+ * </p>
+ */
+final class MetricsHttpServer {
+
+    private final HttpServer http;
+    private final ExecutorService executor;
+
+    /**
+     * Avvia l'endpoint sull'indirizzo e sulla porta indicati.
+     *
+     * @param bind indirizzo in ascolto, ad esempio {@code 127.0.0.1}
+     * @param port porta TCP in ascolto
+     * @throws IOException se l'indirizzo non è valido o la porta non è disponibile
+     */
+    MetricsHttpServer(String bind, int port) throws IOException {
+        this.http = HttpServer.create(new InetSocketAddress(bind, port), 0);
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "MetricsHttp");
+            t.setDaemon(true);
+            return t;
+        });
+        http.createContext("/metrics", this::handle);
+        http.setExecutor(executor);
+        http.start();
+    }
+
+    /**
+     * Arresta l'endpoint.
+     */
+    void stop() {
+        http.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = collect().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+
+    /**
+     * Compone il testo delle metriche.
+     *
+     * @return metriche nel formato di esposizione di Prometheus
+     */
+    static String collect() {
+        StringBuilder sb = new StringBuilder(8192);
+
+        gauge(sb, "theknife_clients_connected", "Client connessi al server",
+                ServerApplication.getInstance().getClientCount());
+        gauge(sb, "theknife_users_logged_in", "Utenti autenticati",
+                AuthHandler.getLoggedInUsersCount());
+
+        ConnectionManager cm = ConnectionManager.getInstance();
+        header(sb, "theknife_db_pool_connections", "Connessioni del pool per stato", "gauge");
+        sample(sb, "theknife_db_pool_connections", "state", "active", cm.getActiveConnections());
+        sample(sb, "theknife_db_pool_connections", "state", "idle", cm.getIdleConnections());
+        gauge(sb, "theknife_db_pool_max_connections", "Dimensione massima del pool", cm.getMaxConnections());
+        gauge(sb, "theknife_db_pool_waiting_threads", "Thread in attesa di una connessione", cm.getWaitingThreads());
+        counter(sb, "theknife_db_statement_cache_hits_total", "Prepared statement riusati dalla cache",
+                cm.getStatementCacheHits());
+        counter(sb, "theknife_db_statement_cache_misses_total", "Prepared statement preparati ex novo",
+                cm.getStatementCacheMisses());
+
+        AdmissionController adm = CommandDispatcher.getInstance().getAdmission();
+        if (adm != null) {
+            gauge(sb, "theknife_admission_active", "Comandi ammessi in esecuzione", adm.getActive());
+            gauge(sb, "theknife_admission_queued", "Comandi in attesa di ammissione", adm.getQueued());
+            counter(sb, "theknife_admission_admitted_total", "Comandi ammessi", adm.getAdmitted());
+            counter(sb, "theknife_admission_rejected_total", "Comandi respinti con busy", adm.getRejected());
+        }
+
+        CommandRegistry registry = CommandDispatcher.getInstance().getRegistry();
+        header(sb, "theknife_command_errors_total", "Comandi terminati con un errore", "counter");
+        for (CommandRegistry.Command c : registry.commands()) {
+            sample(sb, "theknife_command_errors_total", "command", c.getName(), c.getErrors());
+        }
+        counter(sb, "theknife_unknown_commands_total", "Comandi sconosciuti ricevuti", registry.getUnknown());
+
+        summary(sb, "theknife_command_duration_seconds", "Durata dei comandi del protocollo",
+                "command", LatencyStats.COMMANDS.snapshot());
+        summary(sb, "theknife_db_duration_seconds", "Durata dei metodi del DBHandler",
+                "method", LatencyStats.DATABASE.snapshot());
+
+        AuthWorkerPool auth = AuthWorkerPool.getInstance();
+        gauge(sb, "theknife_auth_workers", "Thread del pool di autenticazione", auth.getWorkers());
+        gauge(sb, "theknife_auth_active", "Login e registrazioni in esecuzione", auth.getActive());
+        gauge(sb, "theknife_auth_queued", "Login e registrazioni in coda", auth.getQueued());
+        counter(sb, "theknife_auth_rejected_total", "Login e registrazioni respinti con busy", auth.getRejected());
+        counter(sb, "theknife_auth_throttled_total", "Login respinti per troppi tentativi falliti",
+                LoginThrottle.getInstance().getThrottled());
+        gauge(sb, "theknife_auth_bcrypt_cost", "Work factor BCrypt degli hash generati",
+                SecurityManager.getInstance().getStrength());
+        counter(sb, "theknife_auth_rehashed_total", "Hash ricalcolati al login con il work factor corrente",
+                SecurityManager.getInstance().getRehashed());
+        counter(sb, "theknife_auth_username_filter_rejected_total",
+                "Ricerche per username escluse dal filtro senza accedere al database",
+                DBHandler.getInstance().getUsernameFilterRejected());
+        summary(sb, "theknife_auth_duration_seconds", "Durata di BCrypt e attesa nel pool di autenticazione",
+                "operation", LatencyStats.AUTH.snapshot());
+
+        DBHandler db = DBHandler.getInstance();
+        header(sb, "theknife_cache_hits_total", "Letture servite dalla cache", "counter");
+        sample(sb, "theknife_cache_hits_total", "cache", "search", db.getSearchCacheHits());
+        sample(sb, "theknife_cache_hits_total", "cache", "info", db.getInfoCacheHits());
+        header(sb, "theknife_cache_misses_total", "Letture eseguite sul database", "counter");
+        sample(sb, "theknife_cache_misses_total", "cache", "search", db.getSearchCacheMisses());
+        sample(sb, "theknife_cache_misses_total", "cache", "info", db.getInfoCacheMisses());
+
+        return sb.toString();
+    }
+
+    private static void header(StringBuilder sb, String name, String help, String type) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void gauge(StringBuilder sb, String name, String help, long value) {
+        header(sb, name, help, "gauge");
+        sb.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void counter(StringBuilder sb, String name, String help, long value) {
+        header(sb, name, help, "counter");
+        sb.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void sample(StringBuilder sb, String name, String label, String labelValue, long value) {
+        sb.append(name).append('{').append(label).append("=\"");
+        escape(sb, labelValue);
+        sb.append("\"} ").append(value).append('\n');
+    }
+
+    /**
+     * Scrive le latenze come summary: quantili, somma (stimata dai valori
+     * centrali degli intervalli dell'istogramma) e numero di misure.
+     */
+    private static void summary(StringBuilder sb, String name, String help, String label,
+                                Map<String, LatencyHistogram.Snapshot> snapshots) {
+        header(sb, name, help, "summary");
+        snapshots.forEach((key, s) -> {
+            for (double q : new double[]{0.5, 0.95, 0.99}) {
+                sb.append(name).append('{').append(label).append("=\"");
+                escape(sb, key);
+                sb.append("\",quantile=\"").append(q).append("\"} ");
+                // senza misure i quantili non sono definiti
+                if (s.getCount() == 0) {
+                    sb.append("NaN");
+                } else {
+                    sb.append(s.getPercentile(q * 100) / 1e9);
+                }
+                sb.append('\n');
+            }
+            sb.append(name).append("_sum{").append(label).append("=\"");
+            escape(sb, key);
+            sb.append("\"} ").append(s.getMean() * s.getCount() / 1e9).append('\n');
+            sb.append(name).append("_count{").append(label).append("=\"");
+            escape(sb, key);
+            sb.append("\"} ").append(s.getCount()).append('\n');
+        });
+    }
+
+    private static void escape(StringBuilder sb, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\' -> sb.append("\\\\");
+                case '"' -> sb.append("\\\"");
+                case '\n' -> sb.append("\\n");
+                default -> sb.append(c);
+            }
+        }
+    }
+}
@@ -0,0 +1,580 @@
+package com.theknife.app;
+
+import com.theknife.app.Handler.ClientContext;
+import com.theknife.app.Handler.ClientTransport;
+import com.theknife.app.Handler.CommandCatalog;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Motore di rete non bloccante basato su {@link Selector}.
+ *
+ * <p>
+ * Un unico thread ({@code NioSelector}) accetta le connessioni, riceve i
+ * byte da tutti i client e li divide in righe. Quando una richiesta è
+ * arrivata per intero (riga del comando più il numero di righe di parametri
+ * indicato da {@link CommandCatalog}) viene affidata a un pool limitato di
+ * worker, che la esegue con la stessa catena di handler del motore a thread
+ * ({@link CommandDispatcher}). Le risposte vengono accumulate e inviate dal
+ * selector al termine del comando.
+ * </p>
+ *
+ * <p>
+ * In questo modo il numero di thread non dipende dal numero di client
+ * connessi: un client inattivo non occupa alcun thread e non provoca
+ * risvegli periodici.
+ * </p>
+ *
+ * <p>
+ * Per ogni client viene eseguito un solo comando alla volta, nell'ordine di
+ * arrivo. Se la coda dei worker è piena la richiesta resta in attesa sul
+ * selector e viene riproposta appena un worker si libera; se un client invia
+ * troppe righe senza attendere le risposte, la lettura dal suo socket viene
+ * sospesa finché non le ha smaltite.
+ * </p>
+ */
+final class NioServerEngine {
+
+    /** Lunghezza massima di una riga ricevuta, in byte. */
+    private static final int MAX_LINE_BYTES = 64 * 1024;
+
+    /** Righe ricevute e non ancora elaborate oltre le quali la lettura viene sospesa. */
+    private static final int MAX_PENDING_LINES = 1024;
+
+    private final ServerLogger log = ServerLogger.getInstance();
+    private final CommandDispatcher dispatcher = CommandDispatcher.getInstance();
+
+    private final int workers;
+    private final int workerQueue;
+
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private ThreadPoolExecutor pool;
+    private Thread selectorThread;
+
+    private volatile boolean running = false;
+
+    /** Connessioni aperte; usato solo dal thread del selector. */
+    private final Set<Connection> connections = new HashSet<>();
+
+    /** Numero di connessioni aperte, leggibile da altri thread. */
+    private final AtomicInteger connectionCount = new AtomicInteger();
+
+    /** Connessioni il cui comando è terminato, in attesa del selector. */
+    private final ConcurrentLinkedQueue<Connection> completed = new ConcurrentLinkedQueue<>();
+
+    /** Connessioni con una richiesta completa respinta per coda dei worker piena. */
+    private final ArrayDeque<Connection> backlog = new ArrayDeque<>();
+
+    /** Buffer di lettura condiviso, usato solo dal thread del selector. */
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(16 * 1024);
+
+    /**
+     * Crea il motore.
+     *
+     * @param workers numero di thread worker
+     * @param workerQueue richieste accodabili in attesa di un worker
+     */
+    NioServerEngine(int workers, int workerQueue) {
+        this.workers = workers;
+        this.workerQueue = workerQueue;
+    }
+
+    /**
+     * Apre il canale in ascolto e avvia il thread del selector.
+     *
+     * @param port porta TCP su cui accettare i client
+     * @return {@code true} se l'avvio è riuscito, {@code false} se la porta non è disponibile
+     */
+    boolean start(int port) {
+        try {
+            selector = Selector.open();
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(new InetSocketAddress(port));
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            log.error("Errore di bind sulla porta " + port + ": " + e.getMessage());
+            closeQuietly();
+            return false;
+        }
+
+        AtomicInteger n = new AtomicInteger();
+        pool = new ThreadPoolExecutor(
+                workers, workers,
+                0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(workerQueue),
+                r -> new Thread(r, "NioWorker-" + n.incrementAndGet())
+        );
+
+        running = true;
+        selectorThread = new Thread(this::selectLoop, "NioSelector");
+        selectorThread.start();
+
+        log.info("Motore NIO avviato (" + workers + " worker, coda " + workerQueue + ")");
+        return true;
+    }
+
+    /**
+     * Arresta il selector, chiude tutte le connessioni e termina i worker.
+     */
+    void stop() {
+        running = false;
+        selector.wakeup();
+
+        try {
+            selectorThread.join(3000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        pool.shutdown();
+        try {
+            if (!pool.awaitTermination(2, TimeUnit.SECONDS)) {
+                log.warning("Forzata interruzione dei worker NIO ancora attivi");
+                pool.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            pool.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** @return numero di client connessi */
+    int getConnectionCount() {
+        return connectionCount.get();
+    }
+
+    /**
+     * Ciclo del thread del selector: accetta, legge, scrive e
+     * raccoglie i comandi terminati dai worker.
+     */
+    private void selectLoop() {
+        log.info("Selector NIO avviato; attesa client...");
+
+        try {
+            while (running) {
+                selector.select();
+
+                processCompleted();
+                drainBacklog();
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+
+                    try {
+                        if (key.isAcceptable()) {
+                            accept();
+                            continue;
+                        }
+
+                        Connection c = (Connection) key.attachment();
+                        if (key.isReadable()) {
+                            read(c);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            write(c);
+                        }
+                    } catch (CancelledKeyException ignored) {
+                        // connessione chiusa durante l'elaborazione delle chiavi
+                    }
+                }
+            }
+        } catch (IOException e) {
+            if (running) {
+                log.error("Errore nel selector NIO: " + e.getMessage());
+            }
+        } finally {
+            log.info("Interruzione di " + connections.size() + " client...");
+            for (Connection c : new ArrayList<>(connections)) {
+                closeConnection(c);
+            }
+            closeQuietly();
+            log.info("Selector NIO terminato.");
+        }
+    }
+
+    /**
+     * Accetta una nuova connessione e la registra in lettura.
+     *
+     * @throws IOException errori sul canale in ascolto
+     */
+    private void accept() throws IOException {
+        SocketChannel ch = serverChannel.accept();
+        if (ch == null) {
+            return;
+        }
+
+        ch.configureBlocking(false);
+        ch.setOption(StandardSocketOptions.TCP_NODELAY, true);
+
+        InetSocketAddress remote = (InetSocketAddress) ch.getRemoteAddress();
+        String peer = String.valueOf(remote.getAddress());
+
+        SelectionKey key = ch.register(selector, SelectionKey.OP_READ);
+        Connection c = new Connection(ch, key, peer);
+        c.ctx.setPeer(remote.getAddress().getHostAddress());
+        key.attach(c);
+
+        connections.add(c);
+        connectionCount.incrementAndGet();
+
+        log.info("Client connesso: " + peer);
+        log.debug("[Client " + peer + "] Connected");
+    }
+
+    /**
+     * Legge i byte disponibili, li divide in righe e, se possibile,
+     * avvia l'esecuzione della richiesta successiva.
+     *
+     * @param c connessione leggibile
+     */
+    private void read(Connection c) {
+        readBuffer.clear();
+
+        int n;
+        try {
+            n = c.channel.read(readBuffer);
+        } catch (IOException e) {
+            n = -1;
+        }
+
+        if (n < 0) {
+            closeConnection(c);
+            return;
+        }
+
+        readBuffer.flip();
+        while (readBuffer.hasRemaining()) {
+            byte b = readBuffer.get();
+
+            if (b == '\n') {
+                int len = c.lineLen;
+                if (len > 0 && c.line[len - 1] == '\r') len--;
+                c.received.add(new String(c.line, 0, len, StandardCharsets.UTF_8));
+                c.lineLen = 0;
+                continue;
+            }
+
+            if (c.lineLen == MAX_LINE_BYTES) {
+                log.warning("Riga troppo lunga da " + c.peer + ": connessione chiusa");
+                closeConnection(c);
+                return;
+            }
+            if (c.lineLen == c.line.length) {
+                c.line = Arrays.copyOf(c.line, Math.min(MAX_LINE_BYTES, c.line.length * 2));
+            }
+            c.line[c.lineLen++] = b;
+        }
+
+        tryDispatch(c);
+    }
+
+    /**
+     * Affida a un worker la prossima richiesta completa della connessione,
+     * se non ne è già in esecuzione un'altra.
+     *
+     * @param c connessione da servire
+     */
+    private void tryDispatch(Connection c) {
+        if (c.busy || c.closed || c.closeAfterFlush || c.inBacklog) {
+            updateReadInterest(c);
+            return;
+        }
+
+        String cmd = c.received.peek();
+        int params = cmd == null ? 0 : Math.max(0, CommandCatalog.parameterLines(cmd));
+
+        if (cmd == null || c.received.size() < params + 1) {
+            updateReadInterest(c);
+            return;
+        }
+
+        ArrayDeque<String> frame = new ArrayDeque<>(params);
+        Iterator<String> it = c.received.iterator();
+        it.next();
+        for (int i = 0; i < params; i++) {
+            frame.add(it.next());
+        }
+
+        c.busy = true;
+        c.frame = frame;
+        try {
+            pool.execute(() -> execute(c, cmd));
+        } catch (RejectedExecutionException e) {
+            // coda dei worker piena: la richiesta resta sul selector e viene riproposta
+            c.busy = false;
+            c.frame = null;
+            c.inBacklog = true;
+            backlog.add(c);
+            updateReadInterest(c);
+            return;
+        }
+
+        for (int i = 0; i <= params; i++) {
+            c.received.poll();
+        }
+        updateReadInterest(c);
+    }
+
+    /**
+     * Esegue un comando nel thread worker e notifica il selector al termine.
+     *
+     * @param c connessione che ha inviato il comando
+     * @param cmd comando da eseguire
+     */
+    private void execute(Connection c, String cmd) {
+        try {
+            dispatcher.dispatch(c.peer, cmd, c.ctx);
+        } catch (Exception e) {
+            log.info("[Client " + c.peer + "] Disconnected - " + e.getClass().getSimpleName());
+            c.failed = true;
+        } finally {
+            completed.add(c);
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Raccoglie i comandi terminati: invia le risposte e passa alla
+     * richiesta successiva della stessa connessione.
+     */
+    private void processCompleted() {
+        Connection c;
+        while ((c = completed.poll()) != null) {
+            c.busy = false;
+            c.frame = null;
+
+            if (c.closed) {
+                finishClose(c);
+                continue;
+            }
+            if (c.failed) {
+                closeConnection(c);
+                continue;
+            }
+            if (!c.ctx.isActive()) {
+                c.closeAfterFlush = true;
+            }
+
+            write(c);
+            if (!c.closed) {
+                tryDispatch(c);
+            }
+        }
+    }
+
+    /**
+     * Ripropone ai worker le richieste respinte per coda piena.
+     */
+    private void drainBacklog() {
+        int n = backlog.size();
+        for (int i = 0; i < n; i++) {
+            Connection c = backlog.poll();
+            c.inBacklog = false;
+            tryDispatch(c);
+            if (c.inBacklog) {
+                break; // coda ancora piena
+            }
+        }
+    }
+
+    /**
+     * Invia le risposte in attesa finché il socket le accetta.
+     *
+     * @param c connessione da servire
+     */
+    private void write(Connection c) {
+        boolean empty;
+        try {
+            synchronized (c) {
+                while (!c.outgoing.isEmpty()) {
+                    ByteBuffer buf = c.outgoing.peek();
+                    c.channel.write(buf);
+                    if (buf.hasRemaining()) {
+                        break;
+                    }
+                    c.outgoing.poll();
+                }
+                empty = c.outgoing.isEmpty();
+            }
+        } catch (IOException e) {
+            closeConnection(c);
+            return;
+        }
+
+        if (empty) {
+            c.key.interestOps(c.key.interestOps() & ~SelectionKey.OP_WRITE);
+            if (c.closeAfterFlush) {
+                closeConnection(c);
+            }
+        } else {
+            c.key.interestOps(c.key.interestOps() | SelectionKey.OP_WRITE);
+        }
+    }
+
+    /**
+     * Sospende la lettura dal client se ha troppe righe in attesa di
+     * elaborazione, la riattiva quando sono state smaltite.
+     *
+     * @param c connessione da aggiornare
+     */
+    private void updateReadInterest(Connection c) {
+        if (c.closed) {
+            return;
+        }
+        int ops = c.key.interestOps();
+        if (c.received.size() >= MAX_PENDING_LINES) {
+            c.key.interestOps(ops & ~SelectionKey.OP_READ);
+        } else if (!c.closeAfterFlush) {
+            c.key.interestOps(ops | SelectionKey.OP_READ);
+        }
+    }
+
+    /**
+     * Chiude il socket di una connessione. Se un worker sta ancora eseguendo
+     * un suo comando, il rilascio della sessione avviene al termine di questo.
+     *
+     * @param c connessione da chiudere
+     */
+    private void closeConnection(Connection c) {
+        if (c.closed) {
+            return;
+        }
+        c.closed = true;
+        c.key.cancel();
+        try {
+            c.channel.close();
+        } catch (IOException ignored) {}
+
+        connections.remove(c);
+        connectionCount.decrementAndGet();
+
+        if (!c.busy) {
+            finishClose(c);
+        }
+    }
+
+    /**
+     * Rilascia lo stato della sessione di una connessione chiusa.
+     *
+     * @param c connessione chiusa
+     */
+    private void finishClose(Connection c) {
+        dispatcher.disconnected(c.ctx);
+        c.ctx.close();
+        log.debug("[Client " + c.peer + "] Cleaned up");
+    }
+
+    private void closeQuietly() {
+        try { if (serverChannel != null) serverChannel.close(); } catch (IOException ignored) {}
+        try { if (selector != null) selector.close(); } catch (IOException ignored) {}
+    }
+
+    /**
+     * Stato di un client connesso al motore NIO.
+     *
+     * <p>
+     * Funge anche da {@link ClientTransport} del suo {@link ClientContext}:
+     * durante l'esecuzione di un comando le letture dell'handler restituiscono
+     * le righe di parametri già ricevute, mentre le scritture vengono accodate
+     * e inviate dal selector.
+     * </p>
+     */
+    private final class Connection implements ClientTransport {
+
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private final String peer;
+        private final ClientContext ctx;
+
+        // ---- stato del selector ----
+
+        /** Byte della riga in ricezione. */
+        private byte[] line = new byte[256];
+        private int lineLen = 0;
+
+        /** Righe ricevute e non ancora affidate a un worker. */
+        private final ArrayDeque<String> received = new ArrayDeque<>();
+
+        private boolean busy = false;
+        private boolean inBacklog = false;
+        private boolean closed = false;
+        private boolean closeAfterFlush = false;
+
+        // ---- stato condiviso con il worker ----
+
+        /** Righe di parametri del comando in esecuzione. */
+        private volatile ArrayDeque<String> frame;
+
+        /** {@code true} se il comando in esecuzione è terminato con un errore. */
+        private volatile boolean failed = false;
+
+        /** Risposte in attesa di invio; protetto dal monitor della connessione. */
+        private final ArrayDeque<ByteBuffer> outgoing = new ArrayDeque<>();
+
+        /** Righe della risposta in composizione, usato solo dal worker e riutilizzato tra i comandi. */
+        private final ByteArrayOutputStream response = new ByteArrayOutputStream(1024);
+
+        private Connection(SocketChannel channel, SelectionKey key, String peer) {
+            this.channel = channel;
+            this.key = key;
+            this.peer = peer;
+            this.ctx = new ClientContext(this);
+        }
+
+        @Override
+        public String readLine() {
+            ArrayDeque<String> f = frame;
+            return f == null ? null : f.poll();
+        }
+
+        @Override
+        public void writeLine(String line) {
+            response.writeBytes(line.getBytes(StandardCharsets.UTF_8));
+            response.write('\n');
+        }
+
+        @Override
+        public void endCommand() {
+            if (response.size() == 0) {
+                return;
+            }
+            // una sola scrittura sul canale per l'intera risposta
+            ByteBuffer buf = ByteBuffer.wrap(response.toByteArray());
+            response.reset();
+            synchronized (this) {
+                outgoing.add(buf);
+            }
+        }
+
+        @Override
+        public void close() {
+            // il socket è gestito dal selector
+        }
+    }
+}
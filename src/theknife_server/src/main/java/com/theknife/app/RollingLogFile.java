@@ -0,0 +1,103 @@
+package com.theknife.app;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * File di log con rotazione per dimensione, usato dal {@link ServerLogger}.
+ *
+ * <p>
+ * Quando una scrittura porterebbe il file oltre la dimensione massima, il file
+ * corrente diventa {@code nome.1}, i precedenti scalano di una posizione e
+ * il più vecchio oltre {@code maxFiles} viene eliminato.
+ * </p>
+ *
+ * <p>
+ * Non è thread-safe: viene usato solo dal thread di scrittura del logger.
+ * </p>
+ */
+final class RollingLogFile {
+
+    private final File path;
+    private final long maxBytes;
+    private final int maxFiles;
+
+    private OutputStream out;
+    private long size;
+
+    /**
+     * Apre il file in aggiunta, creando le directory mancanti.
+     *
+     * @param path percorso del file di log
+     * @param maxBytes dimensione oltre la quale il file viene ruotato
+     * @param maxFiles file ruotati da conservare, almeno uno
+     * @throws IOException se il file non può essere aperto
+     */
+    RollingLogFile(File path, long maxBytes, int maxFiles) throws IOException {
+        this.path = path.getAbsoluteFile();
+        this.maxBytes = maxBytes;
+        this.maxFiles = maxFiles;
+        File dir = this.path.getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("impossibile creare " + dir);
+        }
+        open();
+    }
+
+    /**
+     * Scrive un blocco di righe, ruotando il file se necessario.
+     *
+     * @param text righe da scrivere
+     * @throws IOException errori di scrittura o di rotazione
+     */
+    void write(String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        if (size > 0 && size + bytes.length > maxBytes) {
+            rotate();
+        }
+        out.write(bytes);
+        out.flush();
+        size += bytes.length;
+    }
+
+    /**
+     * Chiude il file, ignorando eventuali errori.
+     */
+    void close() {
+        try {
+            out.close();
+        } catch (IOException ignored) {
+            // il log è già stato scritto; non c'è altro da fare
+        }
+    }
+
+    private void open() throws IOException {
+        out = new FileOutputStream(path, true);
+        size = path.length();
+    }
+
+    private void rotate() throws IOException {
+        out.close();
+        File oldest = sibling(maxFiles);
+        if (oldest.exists() && !oldest.delete()) {
+            throw new IOException("impossibile eliminare " + oldest);
+        }
+        for (int i = maxFiles - 1; i >= 1; i--) {
+            File f = sibling(i);
+            if (f.exists() && !f.renameTo(sibling(i + 1))) {
+                throw new IOException("impossibile rinominare " + f);
+            }
+        }
+        if (!path.renameTo(sibling(1))) {
+            throw new IOException("impossibile rinominare " + path);
+        }
+        open();
+    }
+
+    private File sibling(int index) {
+        return new File(path.getPath() + "." + index);
+    }
+}
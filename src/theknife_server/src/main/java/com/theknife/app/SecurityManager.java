@@ -1,5 +1,7 @@
 package com.theknife.app;
 
+import java.util.concurrent.atomic.LongAdder;
+
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 
 /**
@@ -13,6 +15,17 @@ import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
  *     <li>Validazione della robustezza di una password</li>
  * </ul>
  *
+ * <p>
+ * La durata di hash e verifiche è registrata in {@link LatencyStats#AUTH};
+ * i chiamanti le eseguono nell'{@link AuthWorkerPool}.
+ * </p>
+ *
+ * <p>
+ * Il work factor di BCrypt viene scelto all'avvio con {@link #configure(int, int)}:
+ * fisso, oppure calibrato misurando l'hardware in modo che una verifica duri
+ * circa il tempo indicato. Gli hash salvati con un work factor diverso
+ * vengono ricalcolati al primo login riuscito ({@link #needsRehash(String)}).
+ * </p>
  *
  * <p>Pattern utilizzato: Singleton</p>
  *
@@ -26,8 +39,23 @@ public class SecurityManager {
     /** Istanza singleton interna del SecurityManager. */
     private static SecurityManager instance = null;
     
+    /** Work factor di default, pari a quello della libreria; è anche il minimo scelto dalla calibrazione. */
+    public static final int DEFAULT_STRENGTH = 10;
+
+    /** Work factor massimo scelto dalla calibrazione. */
+    static final int MAX_CALIBRATED_STRENGTH = 16;
+
     /** Encoder BCrypt utilizzato per hashing e matching. */
-    private final BCryptPasswordEncoder encoder;
+    private volatile BCryptPasswordEncoder encoder;
+
+    /** Work factor degli hash generati da {@link #encoder}. */
+    private volatile int strength;
+
+    private final LatencyHistogram hashLatency = LatencyStats.AUTH.histogram("bcrypt.hash");
+    private final LatencyHistogram verifyLatency = LatencyStats.AUTH.histogram("bcrypt.verify");
+
+    /** Hash ricalcolati al login perché salvati con un work factor diverso. */
+    private final LongAdder rehashed = new LongAdder();
 
     /**
      * Costruttore privato che inizializza il BCryptPasswordEncoder.
@@ -36,7 +64,8 @@ public class SecurityManager {
      * </p>
      */
     private SecurityManager() {
-        encoder = new BCryptPasswordEncoder();
+        strength = DEFAULT_STRENGTH;
+        encoder = new BCryptPasswordEncoder(strength);
     }
 
     /**
@@ -53,6 +82,99 @@ public class SecurityManager {
         return instance;
     }
 
+    /**
+     * Imposta il work factor di BCrypt.
+     *
+     * <p>
+     * Con {@code fixedStrength} maggiore di zero viene usato quel valore.
+     * Altrimenti, se {@code targetMs} è maggiore di zero, il work factor viene
+     * calibrato: partendo da {@value #DEFAULT_STRENGTH} si misura la durata di
+     * un hash e si raddoppia il costo finché il successivo resta entro
+     * {@code targetMs}, fino a {@value #MAX_CALIBRATED_STRENGTH}. Con entrambi
+     * a zero resta il valore di default.
+     * </p>
+     *
+     * @param fixedStrength work factor da usare (4-31), {@code 0} per calibrarlo
+     * @param targetMs durata desiderata di una verifica, in millisecondi
+     * @return work factor scelto
+     */
+    public synchronized int configure(int fixedStrength, int targetMs) {
+        int chosen = fixedStrength > 0 ? fixedStrength
+                : targetMs > 0 ? calibrate(targetMs)
+                : DEFAULT_STRENGTH;
+        encoder = new BCryptPasswordEncoder(chosen);
+        strength = chosen;
+        return chosen;
+    }
+
+    /**
+     * Sceglie il work factor più alto la cui durata non supera il tempo indicato.
+     *
+     * @param targetMs durata desiderata di un hash, in millisecondi
+     * @return work factor calibrato, almeno {@value #DEFAULT_STRENGTH}
+     */
+    private static int calibrate(int targetMs) {
+        long target = targetMs * 1_000_000L;
+        // riscaldamento, così che la prima misura non includa la compilazione JIT
+        new BCryptPasswordEncoder(4).encode("calibration");
+
+        int cost = DEFAULT_STRENGTH;
+        long elapsed = measure(cost);
+        // ogni unità di work factor raddoppia la durata
+        while (cost < MAX_CALIBRATED_STRENGTH && elapsed * 2 <= target) {
+            cost++;
+            elapsed = measure(cost);
+        }
+        return cost;
+    }
+
+    private static long measure(int cost) {
+        BCryptPasswordEncoder e = new BCryptPasswordEncoder(cost);
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < 2; i++) {
+            long start = System.nanoTime();
+            e.encode("calibration");
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    /** @return work factor degli hash generati */
+    public int getStrength() {
+        return strength;
+    }
+
+    /**
+     * Indica se un hash salvato va ricalcolato perché generato con un work
+     * factor diverso da quello corrente.
+     *
+     * @param hash hash BCrypt salvato
+     * @return {@code true} se il work factor dell'hash differisce da quello corrente
+     */
+    public boolean needsRehash(String hash) {
+        // formato $2a$NN$...
+        if (hash == null || hash.length() < 7 || hash.charAt(0) != '$' || hash.charAt(6) != '$') {
+            return false;
+        }
+        try {
+            return Integer.parseInt(hash.substring(4, 6)) != strength;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Registra un hash ricalcolato al login.
+     */
+    public void recordRehash() {
+        rehashed.increment();
+    }
+
+    /** @return hash ricalcolati al login dall'avvio */
+    public long getRehashed() {
+        return rehashed.sum();
+    }
+
     /**
      * Genera l'hash BCrypt di una password in chiaro.
      *
@@ -63,7 +185,12 @@ public class SecurityManager {
      * @return stringa hash BCrypt che include salt e work factor
      */
     public String hashPassword(String raw) {
-        return encoder.encode(raw);
+        long start = System.nanoTime();
+        try {
+            return encoder.encode(raw);
+        } finally {
+            hashLatency.record(System.nanoTime() - start);
+        }
     }
 
     /**
@@ -78,7 +205,12 @@ public class SecurityManager {
      * @return {@code true} se {@code raw} corrisponde all'hash, {@code false} altrimenti
      */
     public boolean verifyPassword(String raw, String hash) {
-        return encoder.matches(raw, hash);
+        long start = System.nanoTime();
+        try {
+            return encoder.matches(raw, hash);
+        } finally {
+            verifyLatency.record(System.nanoTime() - start);
+        }
     }
 
     /**
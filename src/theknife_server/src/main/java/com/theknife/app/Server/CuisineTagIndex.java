@@ -0,0 +1,229 @@
+package com.theknife.app.Server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Indice in memoria dei tag di cucina dei ristoranti.
+ *
+ * <p>
+ * Per ogni tag viene mantenuto un {@link BitSet} indicizzato sull'id del
+ * ristorante: un filtro su più cucine si risolve con l'intersezione delle
+ * bitmap dei tag richiesti, senza scandire il testo libero
+ * {@code tipo_cucina}.
+ * </p>
+ *
+ * <p>
+ * I tag sono ottenuti dal testo libero con {@link #parse}, la stessa regola
+ * usata dalla migrazione V6 per popolare le tabelle {@code tag_cucina} e
+ * {@code ristoranti_tag}.
+ * </p>
+ *
+ * <p>
+ * L'indice viene caricato all'avvio da {@link DBHandler} e aggiornato da
+ * quest'ultimo dopo ogni inserimento, modifica o eliminazione di un
+ * ristorante. Letture concorrenti sono ammesse; le scritture sono esclusive.
+ * </p>
+ */
+final class CuisineTagIndex {
+
+    /** Lunghezza massima di un tag, pari alla colonna {@code tag_cucina.nome}. */
+    static final int MAX_TAG_LENGTH = 100;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /** Ristoranti associati a ciascun tag. */
+    private final Map<String, BitSet> restaurantsByTag = new HashMap<>();
+
+    /** Tag associati a ciascun ristorante, per aggiornamenti e rimozioni. */
+    private final Map<Integer, String[]> tagsById = new HashMap<>();
+
+    /**
+     * Separa e normalizza il testo libero delle cucine.
+     *
+     * <p>
+     * Il testo viene diviso su virgole e punti e virgola; ogni parte viene
+     * ridotta a spazi singoli, privata degli spazi esterni, convertita in
+     * minuscolo e troncata a {@value #MAX_TAG_LENGTH} caratteri.
+     * Le parti vuote e i duplicati vengono scartati.
+     * </p>
+     *
+     * @param text testo delle cucine, es. {@code "Italian, Pizza"}
+     * @return tag normalizzati nell'ordine di comparsa, vuota se {@code text} è {@code null}
+     */
+    static List<String> parse(String text) {
+        if (text == null) {
+            return List.of();
+        }
+
+        Set<String> tags = new LinkedHashSet<>();
+        for (String part : text.split("[,;]")) {
+            String tag = part.replaceAll("\\s+", " ").trim().toLowerCase(Locale.ROOT);
+            if (tag.length() > MAX_TAG_LENGTH) {
+                tag = tag.substring(0, MAX_TAG_LENGTH);
+            }
+            if (!tag.isEmpty()) {
+                tags.add(tag);
+            }
+        }
+        return new ArrayList<>(tags);
+    }
+
+    /**
+     * Sostituisce i tag di un ristorante.
+     *
+     * @param id id del ristorante
+     * @param tags tag normalizzati (vedi {@link #parse})
+     */
+    void put(int id, List<String> tags) {
+        lock.writeLock().lock();
+        try {
+            removeLocked(id);
+            for (String tag : tags) {
+                restaurantsByTag.computeIfAbsent(tag, k -> new BitSet()).set(id);
+            }
+            tagsById.put(id, tags.toArray(new String[0]));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Aggiunge un singolo tag a un ristorante; usato durante il caricamento iniziale.
+     *
+     * @param id id del ristorante
+     * @param tag tag normalizzato
+     */
+    void add(int id, String tag) {
+        lock.writeLock().lock();
+        try {
+            BitSet bits = restaurantsByTag.computeIfAbsent(tag, k -> new BitSet());
+            if (bits.get(id)) {
+                return;
+            }
+            bits.set(id);
+
+            String[] old = tagsById.get(id);
+            String[] tags = old == null ? new String[1] : Arrays.copyOf(old, old.length + 1);
+            tags[tags.length - 1] = tag;
+            tagsById.put(id, tags);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Rimuove un ristorante dall'indice.
+     *
+     * @param id id del ristorante
+     */
+    void remove(int id) {
+        lock.writeLock().lock();
+        try {
+            removeLocked(id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Restituisce i ristoranti associati a tutti i tag indicati.
+     *
+     * <p>
+     * Le bitmap vengono intersecate partendo dalla meno popolata;
+     * se un tag è sconosciuto il risultato è vuoto senza ulteriori calcoli.
+     * </p>
+     *
+     * @param tags tag normalizzati richiesti (almeno uno)
+     * @return id dei ristoranti in ordine crescente
+     */
+    int[] matchAll(List<String> tags) {
+        lock.readLock().lock();
+        try {
+            BitSet[] sets = new BitSet[tags.size()];
+            for (int i = 0; i < sets.length; i++) {
+                sets[i] = restaurantsByTag.get(tags.get(i));
+                if (sets[i] == null) {
+                    return new int[0];
+                }
+            }
+
+            int smallest = 0;
+            int smallestCard = Integer.MAX_VALUE;
+            for (int i = 0; i < sets.length; i++) {
+                int card = sets[i].cardinality();
+                if (card < smallestCard) {
+                    smallest = i;
+                    smallestCard = card;
+                }
+            }
+
+            BitSet out = (BitSet) sets[smallest].clone();
+            for (int i = 0; i < sets.length && !out.isEmpty(); i++) {
+                if (i != smallest) {
+                    out.and(sets[i]);
+                }
+            }
+            return out.stream().toArray();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Verifica se un ristorante possiede tutti i tag indicati.
+     *
+     * @param id id del ristorante
+     * @param tags tag normalizzati richiesti
+     * @return {@code true} se il ristorante li possiede tutti
+     */
+    boolean hasAll(int id, List<String> tags) {
+        lock.readLock().lock();
+        try {
+            for (String tag : tags) {
+                BitSet bits = restaurantsByTag.get(tag);
+                if (bits == null || !bits.get(id)) {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** @return numero di tag distinti indicizzati */
+    int tagCount() {
+        lock.readLock().lock();
+        try {
+            return restaurantsByTag.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void removeLocked(int id) {
+        String[] old = tagsById.remove(id);
+        if (old == null) {
+            return;
+        }
+        for (String tag : old) {
+            BitSet bits = restaurantsByTag.get(tag);
+            if (bits != null) {
+                bits.clear(id);
+                if (bits.isEmpty()) {
+                    restaurantsByTag.remove(tag);
+                }
+            }
+        }
+    }
+}
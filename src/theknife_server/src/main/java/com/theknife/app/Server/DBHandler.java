@@ -1,5 +1,11 @@
 package com.theknife.app.Server;
 
+import java.util.Arrays;
+
+import com.theknife.app.LatencyHistogram;
+import com.theknife.app.LatencyStats;
+import com.theknife.app.ServerLogger;
+
 /**
  * Facade centrale di accesso al database.
  *
@@ -18,6 +24,13 @@ package com.theknife.app.Server;
  *     <li>Centralizzare la gestione delle eccezioni SQL</li>
  *     <li>Wrappare ogni errore in {@link ServerException}</li>
  *     <li>Garantire coerenza e isolamento del layer DB</li>
+ *     <li>Mantenere gli indici in memoria dei ristoranti
+ *         ({@link RestaurantGeoIndex}, {@link CuisineTagIndex})
+ *         allineati alle scritture</li>
+ *     <li>Escludere senza query gli username non registrati ({@link UsernameFilter})</li>
+ *     <li>Memorizzare i risultati delle ricerche più frequenti e le schede
+ *         dei ristoranti, invalidandoli quando una scrittura li rende obsoleti</li>
+ *     <li>Registrare la durata di ogni operazione in {@link LatencyStats#DATABASE}</li>
  * </ul>
  *
  * <p>
@@ -39,15 +52,111 @@ public final class DBHandler {
     /** Istanza singleton del DBHandler. */
     private static DBHandler instance;
 
+    /*
+     * Istogrammi delle latenze in LatencyStats.DATABASE, uno per metodo,
+     * risolti una sola volta: la registrazione non alloca e non cerca per nome.
+     */
+    private final LatencyHistogram addRestaurantLatency = LatencyStats.DATABASE.histogram("addRestaurant");
+    private final LatencyHistogram editRestaurantLatency = LatencyStats.DATABASE.histogram("editRestaurant");
+    private final LatencyHistogram deleteRestaurantLatency = LatencyStats.DATABASE.histogram("deleteRestaurant");
+    private final LatencyHistogram getRestaurantInfoLatency = LatencyStats.DATABASE.histogram("getRestaurantInfo");
+    private final LatencyHistogram hasAccessLatency = LatencyStats.DATABASE.histogram("hasAccess");
+    private final LatencyHistogram getUserRestaurantsPagesLatency = LatencyStats.DATABASE.histogram("getUserRestaurantsPages");
+    private final LatencyHistogram getUserRestaurantsLatency = LatencyStats.DATABASE.histogram("getUserRestaurants");
+    private final LatencyHistogram getRestaurantsWithFilterLatency = LatencyStats.DATABASE.histogram("getRestaurantsWithFilter");
+    private final LatencyHistogram getRestaurantsAfterLatency = LatencyStats.DATABASE.histogram("getRestaurantsAfter");
+    private final LatencyHistogram getNearestRestaurantsLatency = LatencyStats.DATABASE.histogram("getNearestRestaurants");
+    private final LatencyHistogram getReviewsPageCountLatency = LatencyStats.DATABASE.histogram("getReviewsPageCount");
+    private final LatencyHistogram getReviewsLatency = LatencyStats.DATABASE.histogram("getReviews");
+    private final LatencyHistogram getMyReviewLatency = LatencyStats.DATABASE.histogram("getMyReview");
+    private final LatencyHistogram addReviewLatency = LatencyStats.DATABASE.histogram("addReview");
+    private final LatencyHistogram editReviewLatency = LatencyStats.DATABASE.histogram("editReview");
+    private final LatencyHistogram removeReviewLatency = LatencyStats.DATABASE.histogram("removeReview");
+    private final LatencyHistogram rebuildRestaurantStatsLatency = LatencyStats.DATABASE.histogram("rebuildRestaurantStats");
+    private final LatencyHistogram getUserReviewsPagesLatency = LatencyStats.DATABASE.histogram("getUserReviewsPages");
+    private final LatencyHistogram getUserReviewsLatency = LatencyStats.DATABASE.histogram("getUserReviews");
+    private final LatencyHistogram canRespondLatency = LatencyStats.DATABASE.histogram("canRespond");
+    private final LatencyHistogram getResponseLatency = LatencyStats.DATABASE.histogram("getResponse");
+    private final LatencyHistogram addResponseLatency = LatencyStats.DATABASE.histogram("addResponse");
+    private final LatencyHistogram editResponseLatency = LatencyStats.DATABASE.histogram("editResponse");
+    private final LatencyHistogram removeResponseLatency = LatencyStats.DATABASE.histogram("removeResponse");
+    private final LatencyHistogram isFavouriteLatency = LatencyStats.DATABASE.histogram("isFavourite");
+    private final LatencyHistogram addFavouriteLatency = LatencyStats.DATABASE.histogram("addFavourite");
+    private final LatencyHistogram removeFavouriteLatency = LatencyStats.DATABASE.histogram("removeFavourite");
+    private final LatencyHistogram addUserLatency = LatencyStats.DATABASE.histogram("addUser");
+    private final LatencyHistogram userExistsLatency = LatencyStats.DATABASE.histogram("userExists");
+    private final LatencyHistogram getUserLoginInfoLatency = LatencyStats.DATABASE.histogram("getUserLoginInfo");
+    private final LatencyHistogram updatePasswordHashLatency = LatencyStats.DATABASE.histogram("updatePasswordHash");
+    private final LatencyHistogram getUserInfoLatency = LatencyStats.DATABASE.histogram("getUserInfo");
+    private final LatencyHistogram getFavouritesPagesLatency = LatencyStats.DATABASE.histogram("getFavouritesPages");
+    private final LatencyHistogram getFavouritesLatency = LatencyStats.DATABASE.histogram("getFavourites");
+
     private final RestaurantCRUD restaurantCRUD;
     private final ReviewCRUD reviewCRUD;
     private final ResponseCRUD responseCRUD;
     private final FavouriteCRUD favouriteCRUD;
     private final UserCRUD userCRUD;
 
+    /** Indice spaziale delle coordinate dei ristoranti. */
+    private final RestaurantGeoIndex geoIndex = new RestaurantGeoIndex();
+
+    /**
+     * {@code true} se l'indice spaziale è stato caricato; in caso contrario
+     * le ricerche per raggio vengono risolte interamente dal database.
+     */
+    private final boolean geoIndexReady;
+
+    /** Indice dei tag di cucina dei ristoranti. */
+    private final CuisineTagIndex tagIndex = new CuisineTagIndex();
+
+    /**
+     * {@code true} se l'indice dei tag è stato caricato; in caso contrario
+     * i filtri per cucina vengono risolti interamente dal database.
+     */
+    private final boolean tagIndexReady;
+
+    /**
+     * Filtro degli username registrati, {@code null} se non è stato caricato:
+     * in tal caso ogni ricerca per username viene risolta dal database.
+     */
+    private final UsernameFilter usernameFilter;
+
+    /**
+     * {@code false} se il filtro degli username è stato disattivato dalla
+     * configurazione, ad esempio perché altre istanze del server registrano
+     * utenti sullo stesso database.
+     */
+    private volatile boolean usernameFilterEnabled = true;
+
+    /** Username registrabili dopo l'avvio senza degradare il filtro. */
+    private static final int USERNAME_FILTER_HEADROOM = 100_000;
+
+    /** Numero massimo di pagine di ricerca mantenute in cache. */
+    private static final int SEARCH_CACHE_SIZE = 1024;
+
+    /**
+     * Durata di una pagina di ricerca in cache, in millisecondi.
+     * Limita l'effetto delle modifiche al database eseguite da altre istanze del server.
+     */
+    private static final long SEARCH_CACHE_TTL_MS = 60_000;
+
+    /** Risultati di {@link #getRestaurantsWithFilter}, per filtri normalizzati e pagina. */
+    private final LruCache<SearchCacheKey, String[][]> searchCache =
+            new LruCache<>(SEARCH_CACHE_SIZE, SEARCH_CACHE_TTL_MS);
+
+    /** Numero massimo di schede di ristoranti mantenute in cache. */
+    private static final int INFO_CACHE_SIZE = 4096;
+
+    /** Durata di una scheda di ristorante in cache, in millisecondi. */
+    private static final long INFO_CACHE_TTL_MS = 60_000;
+
+    /** Risultati di {@link #getRestaurantInfo}, per id del ristorante. */
+    private final LruCache<Integer, String[]> infoCache =
+            new LruCache<>(INFO_CACHE_SIZE, INFO_CACHE_TTL_MS);
+
     /**
      * Costruttore privato.
-     * Inizializza i CRUD concreti.
+     * Inizializza i CRUD concreti e carica gli indici in memoria dei ristoranti.
      */
     private DBHandler() {
         this.restaurantCRUD = new RestaurantCRUD();
@@ -55,6 +164,41 @@ public final class DBHandler {
         this.responseCRUD   = new ResponseCRUD();
         this.favouriteCRUD  = new FavouriteCRUD();
         this.userCRUD       = new UserCRUD();
+
+        boolean ready = false;
+        try {
+            int n = restaurantCRUD.loadCoordinates(geoIndex);
+            ServerLogger.getInstance().info("Indice spaziale caricato (" + n + " ristoranti)");
+            ready = true;
+        } catch (Exception e) {
+            ServerLogger.getInstance().warning(
+                    "Indice spaziale non disponibile, ricerca per raggio su database: " + e.getMessage());
+        }
+        this.geoIndexReady = ready;
+
+        ready = false;
+        try {
+            restaurantCRUD.loadCuisineTags(tagIndex);
+            ServerLogger.getInstance().info("Indice cucine caricato (" + tagIndex.tagCount() + " tag)");
+            ready = true;
+        } catch (Exception e) {
+            ServerLogger.getInstance().warning(
+                    "Indice cucine non disponibile, filtro per cucina su database: " + e.getMessage());
+        }
+        this.tagIndexReady = ready;
+
+        UsernameFilter users = null;
+        try {
+            int expected = userCRUD.countUsers();
+            users = new UsernameFilter(expected * 2 + USERNAME_FILTER_HEADROOM);
+            int n = userCRUD.loadUsernames(users);
+            ServerLogger.getInstance().info("Filtro username caricato (" + n + " utenti)");
+        } catch (Exception e) {
+            users = null;
+            ServerLogger.getInstance().warning(
+                    "Filtro username non disponibile, ricerche per username su database: " + e.getMessage());
+        }
+        this.usernameFilter = users;
     }
 
     /**
@@ -93,20 +237,29 @@ public final class DBHandler {
                                  int price, String tipoCucina,
                                  boolean delivery, boolean online) {
 
+        long start = System.nanoTime();
         try {
-            return restaurantCRUD.addRestaurant(
+            int id = restaurantCRUD.insertRestaurant(
                     ownerId, name, nation, city, address,
                     lat, lon, price, tipoCucina, delivery, online
             );
+            if (id <= 0) return false;
+
+            geoIndex.put(id, lat, lon);
+            tagIndex.put(id, CuisineTagIndex.parse(tipoCucina));
+            searchCache.invalidateIf(k -> k.matchesLocation(nation, city));
+            return true;
         } catch (Exception e) {
             throw new ServerException("Errore addRestaurant", e);
+        } finally {
+            addRestaurantLatency.record(System.nanoTime() - start);
         }
     }
 
     /**
      * Modifica i dati di un ristorante esistente.
      * <p>
-     * delega l'operazione al metodo {@link RestaurantCRUD#editRestaurant}
+     * delega l'operazione al metodo {@link RestaurantCRUD#updateRestaurant}
      * </p>
      * @param restId id del ristorante
      * @param name nome del ristorante
@@ -127,30 +280,51 @@ public final class DBHandler {
                                   int price, String tipoCucina,
                                   boolean delivery, boolean online) {
 
+        long start = System.nanoTime();
         try {
-            return restaurantCRUD.editRestaurant(
+            String[] previous = restaurantCRUD.updateRestaurant(
                     restId, name, nation, city, address,
                     lat, lon, price, tipoCucina, delivery, online
             );
+            if (previous == null) return false;
+
+            geoIndex.put(restId, lat, lon);
+            tagIndex.put(restId, CuisineTagIndex.parse(tipoCucina));
+            infoCache.invalidate(restId);
+            searchCache.invalidateIf(k -> k.matchesLocation(previous[0], previous[1])
+                    || k.matchesLocation(nation, city));
+            return true;
         } catch (Exception e) {
             throw new ServerException("Errore editRestaurant", e);
+        } finally {
+            editRestaurantLatency.record(System.nanoTime() - start);
         }
     }
 
     /**
      * Elimina un ristorante dal sistema.
      * <p>
-     * delega l'operazione al metodo {@link RestaurantCRUD#deleteRestaurant}
+     * delega l'operazione al metodo {@link RestaurantCRUD#removeRestaurant}
      * </p>
      * @param restId id del ristorante
      * @return {@code true} se la rimozione ha successo
      * @throws ServerException in caso di errore di accesso ai dati
      */
     public boolean deleteRestaurant(int restId) {
+        long start = System.nanoTime();
         try {
-            return restaurantCRUD.deleteRestaurant(restId);
+            String[] previous = restaurantCRUD.removeRestaurant(restId);
+            if (previous == null) return false;
+
+            geoIndex.remove(restId);
+            tagIndex.remove(restId);
+            infoCache.invalidate(restId);
+            searchCache.invalidateIf(k -> k.matchesLocation(previous[0], previous[1]));
+            return true;
         } catch (Exception e) {
             throw new ServerException("Errore deleteRestaurant", e);
+        } finally {
+            deleteRestaurantLatency.record(System.nanoTime() - start);
         }
     }
 
@@ -159,15 +333,31 @@ public final class DBHandler {
      * <p>
      * delega l'operazione al metodo {@link RestaurantCRUD#getRestaurantInfo}
      * </p>
+     * <p>
+     * Le schede lette vengono mantenute in una cache LRU con scadenza,
+     * invalidata per id dalle modifiche al ristorante e dalle scritture
+     * delle sue recensioni. I ristoranti inesistenti non vengono memorizzati.
+     * </p>
      * @param restId id del ristorante
      * @return array di stringhe contenente i dati del ristorante
      * @throws ServerException in caso di errore di accesso ai dati
      */
     public String[] getRestaurantInfo(int restId) {
+        long start = System.nanoTime();
         try {
-            return restaurantCRUD.getRestaurantInfo(restId);
+            String[] cached = infoCache.get(restId);
+            if (cached != null) {
+                return cached;
+            }
+
+            long generation = infoCache.generation();
+            String[] info = restaurantCRUD.getRestaurantInfo(restId);
+            if (info != null) infoCache.put(restId, info, generation);
+            return info;
         } catch (Exception e) {
             throw new ServerException("Errore getRestaurantInfo", e);
+        } finally {
+            getRestaurantInfoLatency.record(System.nanoTime() - start);
         }
     }
 
@@ -182,10 +372,13 @@ public final class DBHandler {
      * @throws ServerException in caso di errore di accesso ai dati
      */
     public boolean hasAccess(int userId, int restId) {
+        long start = System.nanoTime();
         try {
             return restaurantCRUD.hasAccess(userId, restId);
         } catch (Exception e) {
             throw new ServerException("Errore hasAccess", e);
+        } finally {
+            hasAccessLatency.record(System.nanoTime() - start);
         }
     }
 
@@ -199,10 +392,13 @@ public final class DBHandler {
      * @throws ServerException in caso di errore di accesso ai dati
      */
     public int getUserRestaurantsPages(int userId) {
+        long start = System.nanoTime();
         try {
             return restaurantCRUD.getUserRestaurantsPages(userId);
         } catch (Exception e) {
             throw new ServerException("Errore getUserRestaurantsPages", e);
+        } finally {
+            getUserRestaurantsPagesLatency.record(System.nanoTime() - start);
         }
     }
 
@@ -220,10 +416,13 @@ public final class DBHandler {
      * @throws ServerException in caso di errore di accesso ai dati
      */
     public String[][] getUserRestaurants(int userId, int page) {
+        long start = System.nanoTime();
         try {
             return restaurantCRUD.getUserRestaurants(userId, page);
         } catch (Exception e) {
             throw new ServerException("Errore getUserRestaurants", e);
+        } finally {
+            getUserRestaurantsLatency.record(System.nanoTime() - start);
         }
     }
 
@@ -232,7 +431,15 @@ public final class DBHandler {
      *
      * <p>
      * Delega l'operazione al metodo
-     * {@link RestaurantCRUD#getRestaurantsWithFilter(int, String, String, Double, Double, Double, Integer, Integer, boolean, boolean, Double, Double, int, String)}.
+     * {@link RestaurantCRUD#getRestaurantsWithFilter(int, RestaurantFilter)}.
+     * Gli eventuali filtri per raggio e per cucina vengono risolti dagli indici in memoria.
+     * </p>
+     *
+     * <p>
+     * Il risultato viene memorizzato in una cache LRU con scadenza,
+     * indicizzata sui filtri normalizzati e sulla pagina
+     * ({@link SearchCacheKey}). Le scritture su ristoranti, recensioni e
+     * preferiti invalidano solo le ricerche di cui possono cambiare il risultato.
      * </p>
      *
      * @param page pagina richiesta
@@ -263,18 +470,267 @@ public final class DBHandler {
             int favouriteUserId,
             String category) {
 
+        RestaurantFilter filter = new RestaurantFilter(
+                nation, city,
+                lat, lon, rangeKm,
+                priceMin, priceMax,
+                delivery, online,
+                starsMin, starsMax,
+                favouriteUserId, category
+        );
+
+        long start = System.nanoTime();
         try {
-            return restaurantCRUD.getRestaurantsWithFilter(
-                    page, nation, city,
-                    lat, lon, rangeKm,
-                    priceMin, priceMax,
-                    delivery, online,
-                    starsMin, starsMax,
-                    favouriteUserId, category
-            );
+            SearchCacheKey key = new SearchCacheKey(page, filter);
+            String[][] cached = searchCache.get(key);
+            if (cached != null) {
+                return cached;
+            }
+
+            long generation = searchCache.generation();
+            String[][] data = restaurantCRUD.getRestaurantsWithFilter(page, resolveFilter(filter));
+            searchCache.put(key, data, generation);
+            return data;
         } catch (Exception e) {
             throw new ServerException("Errore getRestaurantsWithFilter", e);
+        } finally {
+            getRestaurantsWithFilterLatency.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Recupera la pagina di ristoranti successiva a una posizione
+     * (paginazione a cursore).
+     *
+     * <p>
+     * Delega l'operazione al metodo
+     * {@link RestaurantCRUD#getRestaurantsAfter(RestaurantFilter, String, int)}.
+     * Gli eventuali filtri per raggio e per cucina vengono risolti dagli indici in memoria.
+     * </p>
+     *
+     * @param filter filtri della ricerca
+     * @param afterName nome dell'ultimo ristorante ricevuto, {@code null} per la prima pagina
+     * @param afterId id dell'ultimo ristorante ricevuto
+     * @return intestazione e ristoranti della pagina
+     * @throws ServerException in caso di errore di accesso ai dati
+     */
+    public String[][] getRestaurantsAfter(RestaurantFilter filter, String afterName, int afterId) {
+        long start = System.nanoTime();
+        try {
+            return restaurantCRUD.getRestaurantsAfter(resolveFilter(filter), afterName, afterId);
+        } catch (Exception e) {
+            throw new ServerException("Errore getRestaurantsAfter", e);
+        } finally {
+            getRestaurantsAfterLatency.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Recupera una pagina di ristoranti ordinati per distanza da un punto
+     * (ricerca dei più vicini).
+     *
+     * <p>
+     * Se l'indice spaziale è disponibile, i candidati vengono estratti in
+     * ordine di distanza con {@link RestaurantGeoIndex#nearest} e il database
+     * applica gli altri filtri solo su questi. Poiché i filtri possono
+     * scartare parte dei candidati, ne viene richiesto il doppio del
+     * necessario; se non bastano a riempire la pagina, il numero viene
+     * quadruplicato finché l'indice non è esaurito.
+     * Senza indice la ricerca è delegata interamente a
+     * {@link RestaurantCRUD#getRestaurantsByDistance}.
+     * Il filtro per cucina, se l'indice dei tag è disponibile, viene
+     * applicato ai candidati prima di interrogare il database.
+     * </p>
+     *
+     * @param page pagina richiesta
+     * @param filter filtri della ricerca; il raggio, se presente, limita la distanza
+     * @param lat latitudine del punto di riferimento
+     * @param lon longitudine del punto di riferimento
+     * @return intestazione (altre pagine {@code y/n}, dimensione) e righe id, nome, distanza
+     * @throws ServerException in caso di errore di accesso ai dati
+     */
+    public String[][] getNearestRestaurants(int page, RestaurantFilter filter, double lat, double lon) {
+        long start = System.nanoTime();
+        try {
+            if (!geoIndexReady) {
+                return restaurantCRUD.getRestaurantsByDistance(page, filter, lat, lon);
+            }
+
+            boolean cuisines = tagIndexReady && filter.hasCuisines();
+            int[] tagged = cuisines ? tagIndex.matchAll(filter.getCuisines()) : null;
+
+            double maxKm = filter.hasRange() ? filter.getRangeKm() : Double.POSITIVE_INFINITY;
+
+            // ristoranti necessari per riempire la pagina e sapere se ne esiste un'altra
+            long needed = (long) (page + 1) * 10 + 1;
+            int k = (int) Math.min(Integer.MAX_VALUE, needed * 2);
+
+            while (true) {
+                int[] ids = geoIndex.nearest(lat, lon, k, maxKm);
+                int[] candidates = cuisines ? retainSorted(ids, tagged) : ids;
+                String[][] data = restaurantCRUD.getRestaurantsByDistance(
+                        page, filter.withCandidateIds(candidates, true, cuisines), lat, lon);
+
+                boolean pageFull = "y".equals(data[0][0]);
+                boolean exhausted = ids.length < k;
+                if (pageFull || exhausted || k == Integer.MAX_VALUE) {
+                    return data;
+                }
+                k = (int) Math.min(Integer.MAX_VALUE, (long) k * 4);
+            }
+        } catch (Exception e) {
+            throw new ServerException("Errore getNearestRestaurants", e);
+        } finally {
+            getNearestRestaurantsLatency.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Sostituisce i filtri per raggio e per cucina con l'elenco degli id che
+     * li soddisfano, calcolato dagli indici in memoria.
+     *
+     * <p>
+     * Le cucine sono risolte con l'intersezione delle bitmap dei tag; se è
+     * attivo anche il raggio, gli id entro il raggio vengono ristretti a
+     * quelli dell'intersezione.
+     * </p>
+     *
+     * @param filter filtri della ricerca
+     * @return filtri con raggio e/o cucine risolti, oppure {@code filter} se
+     *         nessuno dei due è attivo o i relativi indici non sono disponibili
+     */
+    private RestaurantFilter resolveFilter(RestaurantFilter filter) {
+        boolean range = geoIndexReady && filter.hasRange();
+        boolean cuisines = tagIndexReady && filter.hasCuisines();
+
+        if (!range && !cuisines) {
+            return filter;
+        }
+
+        int[] ids;
+        if (cuisines) {
+            ids = tagIndex.matchAll(filter.getCuisines());
+            if (range && ids.length > 0) {
+                ids = retainSorted(
+                        geoIndex.withinRadius(filter.getLat(), filter.getLon(), filter.getRangeKm()),
+                        ids);
+            }
+        } else {
+            ids = geoIndex.withinRadius(filter.getLat(), filter.getLon(), filter.getRangeKm());
         }
+        return filter.withCandidateIds(ids, range, cuisines);
+    }
+
+    /**
+     * Mantiene gli id presenti anche in un secondo insieme ordinato,
+     * conservando l'ordine del primo.
+     *
+     * @param ids id da filtrare
+     * @param sorted id ammessi, in ordine crescente
+     * @return id di {@code ids} contenuti in {@code sorted}
+     */
+    private static int[] retainSorted(int[] ids, int[] sorted) {
+        int[] out = new int[Math.min(ids.length, sorted.length)];
+        int n = 0;
+        for (int id : ids) {
+            if (n < out.length && Arrays.binarySearch(sorted, id) >= 0) {
+                out[n++] = id;
+            }
+        }
+        return n == out.length ? out : Arrays.copyOf(out, n);
+    }
+
+    /**
+     * Invalida i dati in cache che dipendono dalle recensioni di un ristorante:
+     * la sua scheda (media e numero di recensioni) e le ricerche per stelle.
+     *
+     * @param restId id del ristorante recensito
+     */
+    private void invalidateReviewStats(int restId) {
+        infoCache.invalidate(restId);
+        invalidateStarSearches();
+    }
+
+    /**
+     * Invalida le ricerche in cache che filtrano per valutazione media,
+     * le sole il cui risultato dipende dalle recensioni.
+     */
+    private void invalidateStarSearches() {
+        searchCache.invalidateIf(SearchCacheKey::hasStars);
+    }
+
+    /** @return numero di ricerche servite dalla cache */
+    public long getSearchCacheHits() {
+        return searchCache.getHits();
+    }
+
+    /** @return numero di ricerche eseguite sul database */
+    public long getSearchCacheMisses() {
+        return searchCache.getMisses();
+    }
+
+    /**
+     * Riassume lo stato della cache delle ricerche.
+     *
+     * @return statistiche in forma leggibile
+     */
+    public String describeSearchCache() {
+        return searchCache.describe();
+    }
+
+    /** @return numero di schede di ristoranti servite dalla cache */
+    public long getInfoCacheHits() {
+        return infoCache.getHits();
+    }
+
+    /** @return numero di schede di ristoranti lette dal database */
+    public long getInfoCacheMisses() {
+        return infoCache.getMisses();
+    }
+
+    /**
+     * Riassume lo stato della cache delle schede dei ristoranti.
+     *
+     * @return statistiche in forma leggibile
+     */
+    public String describeInfoCache() {
+        return infoCache.describe();
+    }
+
+    /**
+     * Attiva o disattiva il filtro degli username; se disattivato le
+     * ricerche per username vengono risolte dal database.
+     *
+     * @param enabled {@code true} per usare il filtro, se caricato
+     */
+    public void setUsernameFilterEnabled(boolean enabled) {
+        this.usernameFilterEnabled = enabled;
+    }
+
+    /** @return ricerche per username risolte dal filtro senza accedere al database */
+    public long getUsernameFilterRejected() {
+        return usernameFilter == null ? 0 : usernameFilter.getRejected();
+    }
+
+    /**
+     * Riassume lo stato del filtro degli username.
+     *
+     * @return statistiche in forma leggibile
+     */
+    public String describeUsernameFilter() {
+        if (usernameFilter == null) return "non caricato";
+        return usernameFilter.describe() + (usernameFilterEnabled ? "" : " (disattivato)");
+    }
+
+    /**
+     * Indica se uno username potrebbe essere registrato.
+     *
+     * @param username username da verificare
+     * @return {@code false} se il filtro esclude lo username
+     */
+    private boolean mightExist(String username) {
+        UsernameFilter f = usernameFilter;
+        return f == null || !usernameFilterEnabled || f.mightContain(username);
     }
 
     /**
@@ -290,10 +746,13 @@ public final class DBHandler {
      * @throws ServerException in caso di errore di accesso ai dati
      */
     public int getReviewsPageCount(int restId) {
+        long start = System.nanoTime();
         try {
             return reviewCRUD.getReviewsPageCount(restId);
         } catch (Exception e) {
             throw new ServerException("Errore getReviewsPageCount", e);
+        } finally {
+            getReviewsPageCountLatency.record(System.nanoTime() - start);
         }
     }
 
@@ -311,10 +770,13 @@ public final class DBHandler {
      * @throws ServerException in caso di errore di accesso ai dati
      */
     public String[][] getReviews(int restId, int page) {
+        long start = System.nanoTime();
         try {
             return reviewCRUD.getReviews(restId, page);
         } catch (Exception e) {
             throw new ServerException("Errore getReviews", e);
+        } finally {
+            getReviewsLatency.record(System.nanoTime() - start);
         }
     }
 
@@ -332,10 +794,13 @@ public final class DBHandler {
      * @throws ServerException in caso di errore di accesso ai dati
      */
     public String[] getMyReview(int userId, int restId) {
+        long start = System.nanoTime();
         try {
             return reviewCRUD.getMyReview(userId, restId);
         } catch (Exception e) {
             throw new ServerException("Errore getMyReview", e);
+        } finally {
+            getMyReviewLatency.record(System.nanoTime() - start);
         }
     }
 
@@ -355,10 +820,15 @@ public final class DBHandler {
      * @throws ServerException in caso di errore di accesso ai dati
      */
     public boolean addReview(int userId, int restId, int stars, String text) {
+        long start = System.nanoTime();
         try {
-            return reviewCRUD.addReview(userId, restId, stars, text);
+            boolean ok = reviewCRUD.addReview(userId, restId, stars, text);
+            if (ok) invalidateReviewStats(restId);
+            return ok;
         } catch (Exception e) {
             throw new ServerException("Errore addReview", e);
+        } finally {
+            addReviewLatency.record(System.nanoTime() - start);
         }
     }
 
@@ -378,10 +848,15 @@ public final class DBHandler {
      * @throws ServerException in caso di errore di accesso ai dati
      */
     public boolean editReview(int userId, int restId, int stars, String text) {
+        long start = System.nanoTime();
         try {
-            return reviewCRUD.editReview(userId, restId, stars, text);
+            boolean ok = reviewCRUD.editReview(userId, restId, stars, text);
+            if (ok) invalidateReviewStats(restId);
+            return ok;
         } catch (Exception e) {
             throw new ServerException("Errore editReview", e);
+        } finally {
+            editReviewLatency.record(System.nanoTime() - start);
         }
     }
 
@@ -399,10 +874,40 @@ public final class DBHandler {
      * @throws ServerException in caso di errore di accesso ai dati
      */
     public boolean removeReview(int userId, int restId) {
+        long start = System.nanoTime();
         try {
-            return reviewCRUD.removeReview(userId, restId);
+            boolean ok = reviewCRUD.removeReview(userId, restId);
+            if (ok) invalidateReviewStats(restId);
+            return ok;
         } catch (Exception e) {
             throw new ServerException("Errore removeReview", e);
+        } finally {
+            removeReviewLatency.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Ricalcola le statistiche delle recensioni di tutti i ristoranti.
+     *
+     * <p>
+     * Delega l'operazione al metodo
+     * {@link ReviewCRUD#rebuildRestaurantStats()}.
+     * </p>
+     *
+     * @return numero di ristoranti con almeno una recensione
+     * @throws ServerException in caso di errore di accesso ai dati
+     */
+    public int rebuildRestaurantStats() {
+        long start = System.nanoTime();
+        try {
+            int n = reviewCRUD.rebuildRestaurantStats();
+            infoCache.clear();
+            invalidateStarSearches();
+            return n;
+        } catch (Exception e) {
+            throw new ServerException("Errore rebuildRestaurantStats", e);
+        } finally {
+            rebuildRestaurantStatsLatency.record(System.nanoTime() - start);
         }
     }
 
@@ -419,10 +924,13 @@ public final class DBHandler {
      * @throws ServerException in caso di errore di accesso ai dati
      */
     public int getUserReviewsPages(int userId) {
+        long start = System.nanoTime();
         try {
             return userCRUD.getUserReviewsPages(userId);
         } catch (Exception e) {
             throw new ServerException("Errore getUserReviewsPages", e);
+        } finally {
+            getUserReviewsPagesLatency.record(System.nanoTime() - start);
         }
     }
 
@@ -440,10 +948,13 @@ public final class DBHandler {
      * @throws ServerException in caso di errore di accesso ai dati
      */
     public String[][] getUserReviews(int userId, int page) {
+        long start = System.nanoTime();
         try {
             return userCRUD.getUserReviews(userId, page);
         } catch (Exception e) {
             throw new ServerException("Errore getUserReviews", e);
+        } finally {
+            getUserReviewsLatency.record(System.nanoTime() - start);
         }
     }
 
@@ -461,10 +972,13 @@ public final class DBHandler {
      * @throws ServerException in caso di errore di accesso ai dati
      */
     public boolean canRespond(int userId, int reviewId) {
+        long start = System.nanoTime();
         try {
             return responseCRUD.canRespond(userId, reviewId);
         } catch (Exception e) {
             throw new ServerException("Errore canRespond", e);
+        } finally {
+            canRespondLatency.record(System.nanoTime() - start);
         }
     }
 
@@ -482,10 +996,13 @@ public final class DBHandler {
      */
 
     public String getResponse(int reviewId) {
+        long start = System.nanoTime();
         try {
             return responseCRUD.getResponse(reviewId);
         } catch (Exception e) {
             throw new ServerException("Errore getResponse", e);
+        } finally {
+            getResponseLatency.record(System.nanoTime() - start);
         }
     }
 
@@ -503,10 +1020,13 @@ public final class DBHandler {
      * @throws ServerException in caso di errore di accesso ai dati
      */
     public boolean addResponse(int reviewId, String text) {
+        long start = System.nanoTime();
         try {
             return responseCRUD.addResponse(reviewId, text);
         } catch (Exception e) {
             throw new ServerException("Errore addResponse", e);
+        } finally {
+            addResponseLatency.record(System.nanoTime() - start);
         }
     }
 
@@ -524,10 +1044,13 @@ public final class DBHandler {
      * @throws ServerException in caso di errore di accesso ai dati
      */
     public boolean editResponse(int reviewId, String text) {
+        long start = System.nanoTime();
         try {
             return responseCRUD.editResponse(reviewId, text);
         } catch (Exception e) {
             throw new ServerException("Errore editResponse", e);
+        } finally {
+            editResponseLatency.record(System.nanoTime() - start);
         }
     }
 
@@ -544,10 +1067,13 @@ public final class DBHandler {
      * @throws ServerException in caso di errore di accesso ai dati
      */
     public boolean removeResponse(int reviewId) {
+        long start = System.nanoTime();
         try {
             return responseCRUD.removeResponse(reviewId);
         } catch (Exception e) {
             throw new ServerException("Errore removeResponse", e);
+        } finally {
+            removeResponseLatency.record(System.nanoTime() - start);
         }
     }
 
@@ -565,10 +1091,13 @@ public final class DBHandler {
      * @throws ServerException in caso di errore di accesso ai dati
      */
     public boolean isFavourite(int userId, int restId) {
+        long start = System.nanoTime();
         try {
             return favouriteCRUD.isFavourite(userId, restId);
         } catch (Exception e) {
             throw new ServerException("Errore isFavourite", e);
+        } finally {
+            isFavouriteLatency.record(System.nanoTime() - start);
         }
     }
 
@@ -586,10 +1115,15 @@ public final class DBHandler {
      * @throws ServerException in caso di errore di accesso ai dati
      */
     public boolean addFavourite(int userId, int restId) {
+        long start = System.nanoTime();
         try {
-            return favouriteCRUD.addFavourite(userId, restId);
+            boolean ok = favouriteCRUD.addFavourite(userId, restId);
+            if (ok) searchCache.invalidateIf(k -> k.isFavouritesOf(userId));
+            return ok;
         } catch (Exception e) {
             throw new ServerException("Errore addFavourite", e);
+        } finally {
+            addFavouriteLatency.record(System.nanoTime() - start);
         }
     }
 
@@ -607,10 +1141,15 @@ public final class DBHandler {
      * @throws ServerException in caso di errore di accesso ai dati
      */
     public boolean removeFavourite(int userId, int restId) {
+        long start = System.nanoTime();
         try {
-            return favouriteCRUD.removeFavourite(userId, restId);
+            boolean ok = favouriteCRUD.removeFavourite(userId, restId);
+            if (ok) searchCache.invalidateIf(k -> k.isFavouritesOf(userId));
+            return ok;
         } catch (Exception e) {
             throw new ServerException("Errore removeFavourite", e);
+        } finally {
+            removeFavouriteLatency.record(System.nanoTime() - start);
         }
     }
 
@@ -630,21 +1169,56 @@ public final class DBHandler {
      * @param lat latitudine
      * @param lon longitudine
      * @param isRistoratore ruolo dell'utente
-     * @return {@code true} se l'inserimento ha successo
+     * @return {@code true} se l'inserimento ha successo,
+     *         {@code false} se lo username è già registrato
      * @throws ServerException in caso di errore di accesso ai dati
      */
     public boolean addUser(String nome, String cognome, String username,
                            String hashPassword, long birth,
                            double lat, double lon, boolean isRistoratore) {
 
+        boolean ok;
+        long start = System.nanoTime();
         try {
-            return userCRUD.addUser(
+            ok = userCRUD.addUser(
                     nome, cognome, username,
                     hashPassword, birth,
                     lat, lon, isRistoratore
             );
         } catch (Exception e) {
             throw new ServerException("Errore addUser", e);
+        } finally {
+            addUserLatency.record(System.nanoTime() - start);
+        }
+        if (ok && usernameFilter != null) {
+            usernameFilter.add(username);
+        }
+        return ok;
+    }
+
+    /**
+     * Verifica se uno username è già registrato.
+     *
+     * <p>
+     * Se il filtro degli username lo esclude la risposta è immediata;
+     * altrimenti delega al metodo {@link UserCRUD#userExists(String)}.
+     * </p>
+     *
+     * @param username username da verificare
+     * @return {@code true} se lo username è registrato
+     * @throws ServerException in caso di errore di accesso ai dati
+     */
+    public boolean userExists(String username) {
+        if (!mightExist(username)) {
+            return false;
+        }
+        long start = System.nanoTime();
+        try {
+            return userCRUD.userExists(username);
+        } catch (Exception e) {
+            throw new ServerException("Errore userExists", e);
+        } finally {
+            userExistsLatency.record(System.nanoTime() - start);
         }
     }
 
@@ -653,7 +1227,9 @@ public final class DBHandler {
      *
      * <p>
      * Delega l'operazione al metodo
-     * {@link UserCRUD#getUserLoginInfo(String)}.
+     * {@link UserCRUD#getUserLoginInfo(String)}, tranne quando il filtro
+     * degli username lo esclude: in tal caso restituisce {@code null} senza
+     * accedere al database.
      * </p>
      *
      * @param username username dell'utente
@@ -661,10 +1237,41 @@ public final class DBHandler {
      * @throws ServerException in caso di errore di accesso ai dati
      */
     public String[] getUserLoginInfo(String username) {
+        if (!mightExist(username)) {
+            return null;
+        }
+        long start = System.nanoTime();
         try {
             return userCRUD.getUserLoginInfo(username);
         } catch (Exception e) {
             throw new ServerException("Errore getUserLoginInfo", e);
+        } finally {
+            getUserLoginInfoLatency.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Aggiorna l'hash della password di un utente.
+     *
+     * <p>
+     * Delega l'operazione al metodo
+     * {@link UserCRUD#updatePasswordHash(int, String, String)}.
+     * </p>
+     *
+     * @param id id dell'utente
+     * @param oldHash hash attualmente salvato
+     * @param newHash nuovo hash
+     * @return {@code true} se l'hash è stato aggiornato
+     * @throws ServerException in caso di errore di accesso ai dati
+     */
+    public boolean updatePasswordHash(int id, String oldHash, String newHash) {
+        long start = System.nanoTime();
+        try {
+            return userCRUD.updatePasswordHash(id, oldHash, newHash);
+        } catch (Exception e) {
+            throw new ServerException("Errore updatePasswordHash", e);
+        } finally {
+            updatePasswordHashLatency.record(System.nanoTime() - start);
         }
     }
 
@@ -681,10 +1288,13 @@ public final class DBHandler {
      * @throws ServerException in caso di errore di accesso ai dati
      */
     public String[] getUserInfo(int id) {
+        long start = System.nanoTime();
         try {
             return userCRUD.getUserInfo(id);
         } catch (Exception e) {
             throw new ServerException("Errore getUserInfo", e);
+        } finally {
+            getUserInfoLatency.record(System.nanoTime() - start);
         }
     }
      /**
@@ -700,10 +1310,13 @@ public final class DBHandler {
      * @throws ServerException in caso di errore di accesso ai dati
      */
     public int getFavouritesPages(int userId){
-        try{
+        long start = System.nanoTime();
+        try {
             return favouriteCRUD.getFavouritesPages(userId);
         }catch(Exception e){
             throw new ServerException("Errore getFavouritesPages", e);
+        } finally {
+            getFavouritesPagesLatency.record(System.nanoTime() - start);
         }
     }
      /**
@@ -720,10 +1333,13 @@ public final class DBHandler {
      * @throws ServerException in caso di errore di accesso ai dati
      */
     public String[][] getFavourites(int userId, int page) {
+        long start = System.nanoTime();
         try {
             return favouriteCRUD.getFavourites(userId, page);
         } catch (Exception e) {
             throw new ServerException("Errore getFavourites", e);
+        } finally {
+            getFavouritesLatency.record(System.nanoTime() - start);
         }
     }
 }
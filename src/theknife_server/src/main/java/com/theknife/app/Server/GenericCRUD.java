@@ -1,5 +1,6 @@
 package com.theknife.app.Server;
 
+import java.sql.Connection;
 import java.sql.SQLException;
 
 import com.theknife.app.ConnectionManager;
@@ -11,6 +12,7 @@ import com.theknife.app.ConnectionManager;
  * <ul>
  *     <li>Accesso al {@link ConnectionManager} per la gestione delle connessioni</li>
  *     <li>Metodi di utilità comuni ai livelli CRUD superiori</li>
+ *     <li>Esecuzione di più istruzioni in un'unica transazione</li>
  * </ul>
  * 
  * Questa classe è astratta e non viene istanziata direttamente.
@@ -43,4 +45,50 @@ public abstract class GenericCRUD {
         if (!rs.next()) return 0;
         return rs.getInt(1);
     }
+
+    /**
+     * Esegue un'unità di lavoro in una singola transazione.
+     *
+     * <p>
+     * La connessione viene prelevata dal pool con auto-commit disattivato:
+     * se il lavoro termina correttamente viene eseguito il commit, altrimenti
+     * il rollback e l'eccezione viene rilanciata.
+     * </p>
+     *
+     * @param work operazioni da eseguire sulla connessione
+     * @param <T> tipo del risultato
+     * @return il risultato restituito da {@code work}
+     * @throws SQLException errore durante l'accesso al database
+     */
+    protected <T> T inTransaction(Transactional<T> work) throws SQLException {
+        try (Connection conn = connMgr.getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                T result = work.run(conn);
+                conn.commit();
+                return result;
+            } catch (SQLException | RuntimeException e) {
+                conn.rollback();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Unità di lavoro eseguita da {@link #inTransaction(Transactional)}.
+     *
+     * @param <T> tipo del risultato
+     */
+    @FunctionalInterface
+    protected interface Transactional<T> {
+
+        /**
+         * Esegue le operazioni sulla connessione transazionale.
+         *
+         * @param conn connessione con auto-commit disattivato
+         * @return risultato dell'operazione
+         * @throws SQLException errore durante l'accesso al database
+         */
+        T run(Connection conn) throws SQLException;
+    }
 }
@@ -0,0 +1,120 @@
+package com.theknife.app.Server;
+
+/**
+ * Funzioni geografiche di supporto alla ricerca per distanza.
+ *
+ * <p>
+ * La ricerca entro un raggio avviene in due passi:
+ * </p>
+ * <ol>
+ *     <li>un prefiltro sul rettangolo di latitudine/longitudine che contiene
+ *         il cerchio di ricerca, servito dall'indice su
+ *         {@code (latitudine, longitudine)}</li>
+ *     <li>il calcolo esatto della distanza con la formula dell'haversine,
+ *         eseguito solo sui ristoranti interni al rettangolo</li>
+ * </ol>
+ *
+ * <p>
+ * Il rettangolo tiene conto dei poli (il cerchio li contiene: si usano
+ * tutte le longitudini) e dell'antimeridiano (l'intervallo di longitudini
+ * viene spezzato in due).
+ * </p>
+ */
+final class GeoUtils {
+
+    /** Raggio medio terrestre in chilometri. */
+    static final double EARTH_RADIUS_KM = 6371.0;
+
+    private GeoUtils() { }
+
+    /**
+     * Calcola il rettangolo minimo che contiene il cerchio di ricerca.
+     *
+     * @param lat latitudine del centro in gradi
+     * @param lon longitudine del centro in gradi
+     * @param rangeKm raggio in chilometri
+     * @return rettangolo di latitudini e longitudini in gradi
+     */
+    static BoundingBox boundingBox(double lat, double lon, double rangeKm) {
+        double angular = rangeKm / EARTH_RADIUS_KM;
+
+        double latR = Math.toRadians(lat);
+        double minLatR = latR - angular;
+        double maxLatR = latR + angular;
+
+        double halfPi = Math.PI / 2;
+
+        // cerchio che contiene un polo, oppure raggio oltre mezzo globo
+        if (maxLatR >= halfPi || minLatR <= -halfPi || angular >= Math.PI) {
+            return new BoundingBox(
+                    Math.toDegrees(Math.max(minLatR, -halfPi)),
+                    Math.toDegrees(Math.min(maxLatR, halfPi)),
+                    -180, 180);
+        }
+
+        double deltaLon = Math.toDegrees(Math.asin(Math.sin(angular) / Math.cos(latR)));
+
+        return new BoundingBox(
+                Math.toDegrees(minLatR),
+                Math.toDegrees(maxLatR),
+                normalizeLon(lon - deltaLon),
+                normalizeLon(lon + deltaLon));
+    }
+
+    /**
+     * Calcola la distanza ortodromica tra due punti con la formula dell'haversine.
+     *
+     * @param lat1 latitudine del primo punto in gradi
+     * @param lon1 longitudine del primo punto in gradi
+     * @param lat2 latitudine del secondo punto in gradi
+     * @param lon2 longitudine del secondo punto in gradi
+     * @return distanza in chilometri
+     */
+    static double distanceKm(double lat1, double lon1, double lat2, double lon2) {
+        double sinLat = Math.sin(Math.toRadians(lat2 - lat1) / 2);
+        double sinLon = Math.sin(Math.toRadians(lon2 - lon1) / 2);
+        double h = sinLat * sinLat
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * sinLon * sinLon;
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1, Math.sqrt(h)));
+    }
+
+    /**
+     * Riporta una longitudine nell'intervallo [-180, 180].
+     *
+     * @param lon longitudine in gradi
+     * @return longitudine normalizzata
+     */
+    private static double normalizeLon(double lon) {
+        if (lon < -180) return lon + 360;
+        if (lon > 180) return lon - 360;
+        return lon;
+    }
+
+    /**
+     * Rettangolo di coordinate in gradi.
+     *
+     * <p>
+     * Se {@code minLon > maxLon} il rettangolo attraversa l'antimeridiano
+     * e le longitudini valide sono {@code [minLon, 180] ∪ [-180, maxLon]}.
+     * </p>
+     */
+    static final class BoundingBox {
+
+        final double minLat;
+        final double maxLat;
+        final double minLon;
+        final double maxLon;
+
+        private BoundingBox(double minLat, double maxLat, double minLon, double maxLon) {
+            this.minLat = minLat;
+            this.maxLat = maxLat;
+            this.minLon = minLon;
+            this.maxLon = maxLon;
+        }
+
+        /** @return {@code true} se l'intervallo di longitudini attraversa l'antimeridiano */
+        boolean crossesAntimeridian() {
+            return minLon > maxLon;
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package com.theknife.app.Server;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * Cache in memoria di dimensione limitata con scadenza temporale.
+ *
+ * <p>
+ * Le voci sono mantenute in ordine di accesso: superato il numero massimo
+ * di voci viene espulsa la meno usata di recente. Ogni voce scade inoltre
+ * dopo un tempo fisso dall'inserimento, così da limitare l'effetto di
+ * modifiche al database non passate da questo server.
+ * </p>
+ *
+ * <p>
+ * Per evitare che un risultato letto dal database prima di una modifica
+ * venga memorizzato dopo l'invalidazione corrispondente, ogni invalidazione
+ * incrementa una generazione: il chiamante la legge con {@link #generation()}
+ * prima della query e memorizza il risultato con {@link #put(Object, Object, long)},
+ * che lo scarta se nel frattempo è avvenuta un'invalidazione.
+ * </p>
+ *
+ * <p>
+ * Le operazioni sono sincronizzate sull'istanza; hit, miss, espulsioni e
+ * invalidazioni sono conteggiati per le statistiche.
+ * </p>
+ *
+ * @param <K> tipo della chiave
+ * @param <V> tipo del valore
+ */
+final class LruCache<K, V> {
+
+    private final int maxEntries;
+    private final long ttlNanos;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    /** Generazione corrente, incrementata a ogni invalidazione. */
+    private long generation = 0;
+
+    /** Voci in ordine di accesso (la prima è la meno recente). */
+    private final LinkedHashMap<K, Entry<V>> entries;
+
+    /**
+     * Crea una cache.
+     *
+     * @param maxEntries numero massimo di voci; {@code 0} disattiva la cache
+     * @param ttlMillis durata di una voce in millisecondi
+     */
+    LruCache(int maxEntries, long ttlMillis) {
+        this.maxEntries = maxEntries;
+        this.ttlNanos = ttlMillis * 1_000_000L;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                if (size() > LruCache.this.maxEntries) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Restituisce il valore associato a una chiave, se presente e non scaduto.
+     *
+     * @param key chiave
+     * @return valore in cache, oppure {@code null}
+     */
+    synchronized V get(K key) {
+        Entry<V> e = entries.get(key);
+
+        if (e != null && System.nanoTime() - e.createdAt > ttlNanos) {
+            entries.remove(key);
+            evictions.increment();
+            e = null;
+        }
+
+        if (e == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return e.value;
+    }
+
+    /**
+     * Restituisce la generazione corrente, da leggere prima di calcolare
+     * un valore da memorizzare con {@link #put(Object, Object, long)}.
+     *
+     * @return generazione corrente
+     */
+    synchronized long generation() {
+        return generation;
+    }
+
+    /**
+     * Memorizza un valore se dalla generazione indicata non è avvenuta
+     * alcuna invalidazione.
+     *
+     * @param key chiave
+     * @param value valore
+     * @param expectedGeneration generazione letta prima del calcolo del valore
+     * @return {@code true} se il valore è stato memorizzato
+     */
+    synchronized boolean put(K key, V value, long expectedGeneration) {
+        if (maxEntries <= 0 || generation != expectedGeneration) {
+            return false;
+        }
+        entries.put(key, new Entry<>(value, System.nanoTime()));
+        return true;
+    }
+
+    /**
+     * Rimuove la voce associata a una chiave.
+     *
+     * @param key chiave da invalidare
+     */
+    synchronized void invalidate(K key) {
+        generation++;
+        if (entries.remove(key) != null) {
+            invalidations.increment();
+        }
+    }
+
+    /**
+     * Rimuove tutte le voci la cui chiave soddisfa un predicato.
+     *
+     * @param predicate condizione sulle chiavi da invalidare
+     * @return numero di voci rimosse
+     */
+    synchronized int invalidateIf(Predicate<? super K> predicate) {
+        generation++;
+        int removed = 0;
+        Iterator<K> it = entries.keySet().iterator();
+        while (it.hasNext()) {
+            if (predicate.test(it.next())) {
+                it.remove();
+                removed++;
+            }
+        }
+        invalidations.add(removed);
+        return removed;
+    }
+
+    /**
+     * Rimuove tutte le voci.
+     */
+    synchronized void clear() {
+        generation++;
+        invalidations.add(entries.size());
+        entries.clear();
+    }
+
+    /** @return numero di voci attualmente in cache */
+    synchronized int size() {
+        return entries.size();
+    }
+
+    /** @return numero di letture servite dalla cache */
+    long getHits() {
+        return hits.sum();
+    }
+
+    /** @return numero di letture non servite dalla cache */
+    long getMisses() {
+        return misses.sum();
+    }
+
+    /** @return numero di voci espulse per capacità o scadenza */
+    long getEvictions() {
+        return evictions.sum();
+    }
+
+    /** @return numero di voci rimosse da invalidazioni */
+    long getInvalidations() {
+        return invalidations.sum();
+    }
+
+    /**
+     * Riassume le statistiche della cache in una riga di testo.
+     *
+     * @return statistiche leggibili (voci, hit, miss, percentuale di hit, espulsioni, invalidazioni)
+     */
+    String describe() {
+        long h = getHits();
+        long m = getMisses();
+        double rate = h + m == 0 ? 0 : 100.0 * h / (h + m);
+        return String.format(Locale.ROOT,
+                "voci=%d/%d hit=%d miss=%d hit-rate=%.1f%% espulse=%d invalidate=%d",
+                size(), maxEntries, h, m, rate, getEvictions(), getInvalidations());
+    }
+
+    /**
+     * Valore memorizzato con il relativo istante di inserimento.
+     *
+     * @param <V> tipo del valore
+     */
+    private static final class Entry<V> {
+
+        private final V value;
+        private final long createdAt;
+
+        private Entry(V value, long createdAt) {
+            this.value = value;
+            this.createdAt = createdAt;
+        }
+    }
+}
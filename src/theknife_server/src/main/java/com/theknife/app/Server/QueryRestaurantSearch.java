@@ -60,4 +60,46 @@ public interface QueryRestaurantSearch {
             int favouriteUserId,
             String category
     ) throws Exception;
+
+    /**
+     * Esegue una ricerca avanzata di ristoranti con i filtri già raggruppati.
+     *
+     * @param page indice della pagina richiesta (0-based)
+     * @param filter filtri della ricerca
+     * @return matrice contenente i ristoranti risultanti dalla ricerca
+     * @throws Exception in caso di errore durante l'accesso ai dati
+     */
+    String[][] getRestaurantsWithFilter(int page, RestaurantFilter filter) throws Exception;
+
+    /**
+     * Restituisce la pagina di ristoranti successiva a una posizione,
+     * secondo l'ordinamento per nome e id (paginazione a cursore).
+     *
+     * @param filter filtri della ricerca
+     * @param afterName nome dell'ultimo ristorante ricevuto oppure {@code null}
+     *                  per la prima pagina
+     * @param afterId id dell'ultimo ristorante ricevuto
+     *
+     * @return matrice con intestazione (altre pagine {@code y/n}, dimensione)
+     *         seguita dai ristoranti della pagina
+     * @throws Exception in caso di errore durante l'accesso ai dati
+     */
+    String[][] getRestaurantsAfter(RestaurantFilter filter, String afterName, int afterId)
+            throws Exception;
+
+    /**
+     * Restituisce una pagina di ristoranti ordinati per distanza crescente
+     * da un punto.
+     *
+     * @param page indice della pagina richiesta (0-based)
+     * @param filter filtri della ricerca
+     * @param lat latitudine del punto di riferimento
+     * @param lon longitudine del punto di riferimento
+     *
+     * @return matrice con intestazione (altre pagine {@code y/n}, dimensione)
+     *         seguita da id, nome e distanza in km dei ristoranti
+     * @throws Exception in caso di errore durante l'accesso ai dati
+     */
+    String[][] getRestaurantsByDistance(int page, RestaurantFilter filter, double lat, double lon)
+            throws Exception;
 }
@@ -81,4 +81,12 @@ public interface QueryReview {
      * @throws Exception in caso di errore durante l'accesso ai dati
      */
     boolean removeReview(int userId, int restId) throws Exception;
+
+    /**
+     * Ricalcola le statistiche delle recensioni di tutti i ristoranti.
+     *
+     * @return numero di ristoranti con almeno una recensione
+     * @throws Exception in caso di errore durante l'accesso ai dati
+     */
+    int rebuildRestaurantStats() throws Exception;
 }
@@ -2,6 +2,8 @@ package com.theknife.app.Server;
 
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
 
 /**
  * CRUD dedicato alla gestione dei ristoranti.
@@ -18,6 +20,8 @@ import java.util.ArrayList;
  *     <li>creazione, modifica e rimozione dei ristoranti</li>
  *     <li>recupero delle informazioni dettagliate di un ristorante</li>
  *     <li>ricerca avanzata dei ristoranti con filtri multipli</li>
+ *     <li>mantenimento dei tag di cucina normalizzati
+ *         ({@code tag_cucina}, {@code ristoranti_tag})</li>
  * </ul>
  *
  * <p>
@@ -42,6 +46,10 @@ import java.util.ArrayList;
 public class RestaurantCRUD
         extends RestaurateurCRUD
         implements QueryRestaurant, QueryRestaurantSearch{
+
+    /** Numero di ristoranti per pagina nelle ricerche. */
+    private static final int PAGE_SIZE = 10;
+
     /**
      * Costruttore 
      */
@@ -77,36 +85,117 @@ public class RestaurantCRUD
                                  boolean delivery, boolean online)
             throws SQLException, InterruptedException {
 
+        return insertRestaurant(ownerId, name, nation, city, address,
+                lat, lon, price, tipoCucina, delivery, online) > 0;
+    }
+
+    /**
+     * Inserisce un nuovo ristorante e ne restituisce l'id generato.
+     *
+     * <p>
+     * Nella stessa transazione vengono registrati i tag di cucina
+     * ottenuti da {@code tipoCucina}.
+     * </p>
+     *
+     * @param ownerId id del ristoratore proprietario
+     * @param name nome del ristorante
+     * @param nation nazione
+     * @param city città
+     * @param address indirizzo
+     * @param lat latitudine geografica
+     * @param lon longitudine geografica
+     * @param price fascia di prezzo
+     * @param tipoCucina categoria / tipo di cucina
+     * @param delivery indica se è disponibile il servizio delivery
+     * @param online indica se è disponibile la prenotazione online
+     *
+     * @return id del nuovo ristorante, oppure {@code -1} se l'inserimento non è avvenuto
+     *
+     * @throws SQLException errori di accesso al database
+     * @throws InterruptedException gestione concorrenza
+     */
+    public int insertRestaurant(int ownerId, String name, String nation, String city,
+                                String address, double lat, double lon,
+                                int price, String tipoCucina,
+                                boolean delivery, boolean online)
+            throws SQLException, InterruptedException {
+
         String sql = """
             INSERT INTO "RistorantiTheKnife"
                 (proprietario, nome, nazione, citta, indirizzo,
                  latitudine, longitudine, fascia_prezzo,
                  tipo_cucina, servizio_delivery, prenotazione_online)
             VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)
+            RETURNING id
+        """;
+
+        return inTransaction(conn -> {
+            int id;
+            try (PreparedStatement ps = conn.prepareStatement(sql)) {
+
+                ps.setInt(1, ownerId);
+                ps.setString(2, name);
+                ps.setString(3, nation);
+                ps.setString(4, city);
+                ps.setString(5, address);
+                ps.setDouble(6, lat);
+                ps.setDouble(7, lon);
+                ps.setInt(8, price);
+                ps.setString(9, tipoCucina);
+                ps.setBoolean(10, delivery);
+                ps.setBoolean(11, online);
+
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (!rs.next()) return -1;
+                    id = rs.getInt(1);
+                }
+            }
+
+            saveCuisineTags(conn, id, CuisineTagIndex.parse(tipoCucina));
+            return id;
+        });
+    }
+
+    /**
+     * Carica nell'indice spaziale le coordinate di tutti i ristoranti.
+     *
+     * @param index indice da popolare
+     * @return numero di ristoranti caricati
+     *
+     * @throws SQLException errori di accesso al database
+     * @throws InterruptedException gestione concorrenza
+     */
+    int loadCoordinates(RestaurantGeoIndex index)
+            throws SQLException, InterruptedException {
+
+        String sql = """
+            SELECT id, latitudine, longitudine
+            FROM "RistorantiTheKnife"
         """;
 
+        int count = 0;
         try (Connection conn = connMgr.getConnection();
              PreparedStatement ps = conn.prepareStatement(sql)) {
 
-            ps.setInt(1, ownerId);
-            ps.setString(2, name);
-            ps.setString(3, nation);
-            ps.setString(4, city);
-            ps.setString(5, address);
-            ps.setDouble(6, lat);
-            ps.setDouble(7, lon);
-            ps.setInt(8, price);
-            ps.setString(9, tipoCucina);
-            ps.setBoolean(10, delivery);
-            ps.setBoolean(11, online);
-
-            return ps.executeUpdate() == 1;
+            ps.setFetchSize(1000);
+
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    index.put(rs.getInt(1), rs.getDouble(2), rs.getDouble(3));
+                    count++;
+                }
+            }
         }
+        return count;
     }
 
     /**
      * Modifica i dati di un ristorante esistente.
      *
+     * <p>
+     * Delega a {@link #updateRestaurant}.
+     * </p>
+     *
      * @param restId id del ristorante
      * @param name nuovo nome
      * @param nation nuova nazione
@@ -133,6 +222,51 @@ public class RestaurantCRUD
                                   boolean delivery, boolean online)
             throws SQLException, InterruptedException {
 
+        return updateRestaurant(restId, name, nation, city, address,
+                lat, lon, price, tipoCucina, delivery, online) != null;
+    }
+
+    /**
+     * Modifica i dati di un ristorante e ne restituisce la località precedente.
+     *
+     * <p>
+     * La riga viene bloccata con {@code FOR UPDATE} prima della lettura,
+     * così che la località restituita sia quella effettivamente sostituita.
+     * Nella stessa transazione i tag di cucina del ristorante vengono
+     * sostituiti con quelli ottenuti da {@code tipoCucina}.
+     * </p>
+     *
+     * @param restId id del ristorante
+     * @param name nuovo nome
+     * @param nation nuova nazione
+     * @param city nuova città
+     * @param address nuovo indirizzo
+     * @param lat nuova latitudine
+     * @param lon nuova longitudine
+     * @param price nuova fascia di prezzo
+     * @param tipoCucina nuova categoria
+     * @param delivery nuovo stato delivery
+     * @param online nuovo stato prenotazione online
+     *
+     * @return coppia {nazione, città} precedente alla modifica,
+     *         oppure {@code null} se il ristorante non esiste
+     *
+     * @throws SQLException errori di accesso al database
+     * @throws InterruptedException gestione concorrenza
+     */
+    String[] updateRestaurant(int restId, String name, String nation, String city,
+                              String address, double lat, double lon,
+                              int price, String tipoCucina,
+                              boolean delivery, boolean online)
+            throws SQLException, InterruptedException {
+
+        String selectSql = """
+            SELECT nazione, citta
+            FROM "RistorantiTheKnife"
+            WHERE id = ?
+            FOR UPDATE
+        """;
+
         String sql = """
             UPDATE "RistorantiTheKnife"
             SET nome = ?, nazione = ?, citta = ?, indirizzo = ?,
@@ -141,23 +275,123 @@ public class RestaurantCRUD
             WHERE id = ?
         """;
 
+        return inTransaction(conn -> {
+            String[] previous;
+
+            try (PreparedStatement ps = conn.prepareStatement(selectSql)) {
+                ps.setInt(1, restId);
+
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (!rs.next()) return null;
+                    previous = new String[]{ rs.getString(1), rs.getString(2) };
+                }
+            }
+
+            try (PreparedStatement ps = conn.prepareStatement(sql)) {
+
+                ps.setString(1, name);
+                ps.setString(2, nation);
+                ps.setString(3, city);
+                ps.setString(4, address);
+                ps.setDouble(5, lat);
+                ps.setDouble(6, lon);
+                ps.setInt(7, price);
+                ps.setString(8, tipoCucina);
+                ps.setBoolean(9, delivery);
+                ps.setBoolean(10, online);
+                ps.setInt(11, restId);
+
+                if (ps.executeUpdate() != 1) return null;
+            }
+
+            saveCuisineTags(conn, restId, CuisineTagIndex.parse(tipoCucina));
+            return previous;
+        });
+    }
+
+    /**
+     * Sostituisce i tag di cucina di un ristorante, aggiungendo al
+     * dizionario quelli non ancora presenti.
+     * Va invocato all'interno di una transazione.
+     *
+     * @param conn connessione transazionale
+     * @param restId id del ristorante
+     * @param tags tag normalizzati
+     * @throws SQLException errori di accesso al database
+     */
+    private void saveCuisineTags(Connection conn, int restId, List<String> tags) throws SQLException {
+
+        String deleteSql = """
+            DELETE FROM ristoranti_tag
+            WHERE id_ristorante = ?
+        """;
+
+        String dictSql = """
+            INSERT INTO tag_cucina (nome)
+            SELECT unnest(?::varchar[])
+            ON CONFLICT (nome) DO NOTHING
+        """;
+
+        String linkSql = """
+            INSERT INTO ristoranti_tag (id_ristorante, id_tag)
+            SELECT ?, id
+            FROM tag_cucina
+            WHERE nome = ANY(?)
+        """;
+
+        try (PreparedStatement ps = conn.prepareStatement(deleteSql)) {
+            ps.setInt(1, restId);
+            ps.executeUpdate();
+        }
+
+        if (tags.isEmpty()) return;
+
+        Array names = conn.createArrayOf("varchar", tags.toArray());
+
+        try (PreparedStatement ps = conn.prepareStatement(dictSql)) {
+            ps.setArray(1, names);
+            ps.executeUpdate();
+        }
+
+        try (PreparedStatement ps = conn.prepareStatement(linkSql)) {
+            ps.setInt(1, restId);
+            ps.setArray(2, names);
+            ps.executeUpdate();
+        }
+    }
+
+    /**
+     * Carica nell'indice dei tag le cucine di tutti i ristoranti.
+     *
+     * @param index indice da popolare
+     * @return numero di associazioni ristorante/tag caricate
+     *
+     * @throws SQLException errori di accesso al database
+     * @throws InterruptedException gestione concorrenza
+     */
+    int loadCuisineTags(CuisineTagIndex index)
+            throws SQLException, InterruptedException {
+
+        String sql = """
+            SELECT rt.id_ristorante, t.nome
+            FROM ristoranti_tag rt
+            JOIN tag_cucina t ON t.id = rt.id_tag
+        """;
+
+        int count = 0;
         try (Connection conn = connMgr.getConnection();
              PreparedStatement ps = conn.prepareStatement(sql)) {
 
-            ps.setString(1, name);
-            ps.setString(2, nation);
-            ps.setString(3, city);
-            ps.setString(4, address);
-            ps.setDouble(5, lat);
-            ps.setDouble(6, lon);
-            ps.setInt(7, price);
-            ps.setString(8, tipoCucina);
-            ps.setBoolean(9, delivery);
-            ps.setBoolean(10, online);
-            ps.setInt(11, restId);
-
-            return ps.executeUpdate() == 1;
+            ps.setFetchSize(1000);
+
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    index.add(rs.getInt(1), rs.getString(2));
+                    count++;
+                }
+            }
         }
+        return count;
     }
 
     /**
@@ -174,16 +408,36 @@ public class RestaurantCRUD
     public boolean deleteRestaurant(int restId)
             throws SQLException, InterruptedException {
 
+        return removeRestaurant(restId) != null;
+    }
+
+    /**
+     * Elimina un ristorante e ne restituisce la località.
+     *
+     * @param restId id del ristorante da eliminare
+     * @return coppia {nazione, città} del ristorante eliminato,
+     *         oppure {@code null} se il ristorante non esiste
+     *
+     * @throws SQLException errori di accesso al database
+     * @throws InterruptedException gestione concorrenza
+     */
+    String[] removeRestaurant(int restId)
+            throws SQLException, InterruptedException {
+
         String sql = """
             DELETE FROM "RistorantiTheKnife"
             WHERE id = ?
+            RETURNING nazione, citta
         """;
 
         try (Connection conn = connMgr.getConnection();
              PreparedStatement ps = conn.prepareStatement(sql)) {
 
             ps.setInt(1, restId);
-            return ps.executeUpdate() == 1;
+
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? new String[]{ rs.getString(1), rs.getString(2) } : null;
+            }
         }
     }
 
@@ -216,9 +470,10 @@ public class RestaurantCRUD
                    r.latitudine, r.longitudine,
                    r.fascia_prezzo, r.tipo_cucina,
                    r.servizio_delivery, r.prenotazione_online,
-                   COALESCE((SELECT AVG(stelle) FROM recensioni WHERE id_ristorante = r.id), 0),
-                   COALESCE((SELECT COUNT(*) FROM recensioni WHERE id_ristorante = r.id), 0)
+                   COALESCE(s.media_stelle, 0),
+                   COALESCE(s.num_recensioni, 0)
             FROM "RistorantiTheKnife" r
+            LEFT JOIN statistiche_ristoranti s ON s.id_ristorante = r.id
             WHERE r.id = ?
         """;
 
@@ -310,7 +565,36 @@ public class RestaurantCRUD
             String category
     ) throws SQLException, InterruptedException {
 
-        final int PAGE_SIZE = 10;
+        return getRestaurantsWithFilter(page, new RestaurantFilter(
+                nation, city,
+                lat, lon, rangeKm,
+                priceMin, priceMax,
+                delivery, online,
+                starsMin, starsMax,
+                favouriteUserId, category
+        ));
+    }
+
+    /**
+     * Recupera una pagina di ristoranti che soddisfano i filtri indicati.
+     *
+     * <p>
+     * Variante di {@link #getRestaurantsWithFilter(int, String, String, Double, Double, Double,
+     * Integer, Integer, boolean, boolean, Double, Double, int, String)} che riceve
+     * i filtri già raggruppati; il formato del risultato è lo stesso.
+     * </p>
+     *
+     * @param page numero della pagina richiesta
+     * @param filter filtri della ricerca
+     * @return matrice di stringhe contenente paginazione e risultati
+     *
+     * @throws SQLException errori di accesso al database
+     * @throws InterruptedException gestione concorrenza
+     */
+    @Override
+    public String[][] getRestaurantsWithFilter(int page, RestaurantFilter filter)
+            throws SQLException, InterruptedException {
+
         int offset = page * PAGE_SIZE;
 
         StringBuilder sql = new StringBuilder("""
@@ -319,125 +603,381 @@ public class RestaurantCRUD
                 r.nome,
                 COUNT(*) OVER() AS total_count
             FROM "RistorantiTheKnife" r
-            LEFT JOIN recensioni rec ON rec.id_ristorante = r.id
         """);
 
-        if (favouriteUserId > 0) {
+        appendFilter(sql, filter);
+
+        sql.append("""
+            ORDER BY r.nome, r.id
+            LIMIT ? OFFSET ?
+        """);
+
+        try (Connection conn = connMgr.getConnection();
+            PreparedStatement ps = conn.prepareStatement(sql.toString())) {
+
+            int idx = bindFilter(ps, 1, filter);
+
+            ps.setInt(idx++, PAGE_SIZE);
+            ps.setInt(idx, offset);
+
+            try (ResultSet rs = ps.executeQuery()) {
+
+                if (!rs.next()) {
+                    return new String[][] { { "0", "0" } };
+                }
+
+                int total = rs.getInt("total_count");
+                int pages = (int) Math.ceil((double) total / PAGE_SIZE);
+
+                ArrayList<String[]> rows = new ArrayList<>();
+                rows.add(new String[] {
+                        Integer.toString(pages),
+                        Integer.toString(Math.min(PAGE_SIZE, total - offset))
+                });
+
+                do {
+                    rows.add(new String[] {
+                            Integer.toString(rs.getInt("id")),
+                            rs.getString("nome")
+                    });
+                } while (rs.next());
+
+                return rows.toArray(new String[0][]);
+            }
+        }
+    }
+
+    /**
+     * Recupera la pagina di ristoranti successiva a una posizione data,
+     * secondo l'ordinamento per nome e id (paginazione a cursore).
+     *
+     * <p>
+     * A differenza di {@link #getRestaurantsWithFilter}, la query non usa
+     * {@code OFFSET} né il conteggio totale: la posizione viene raggiunta
+     * con un confronto {@code (nome, id) > (?, ?)} servito dall'indice,
+     * quindi il costo non cresce con la profondità della pagina.
+     * </p>
+     *
+     * <p>
+     * La prima riga del risultato contiene:
+     * </p>
+     * <ul>
+     *     <li>{@code "y"} se esistono ulteriori ristoranti dopo la pagina, {@code "n"} altrimenti</li>
+     *     <li>numero di elementi nella pagina corrente</li>
+     * </ul>
+     *
+     * @param filter filtri della ricerca
+     * @param afterName nome dell'ultimo ristorante già ricevuto, {@code null} per la prima pagina
+     * @param afterId id dell'ultimo ristorante già ricevuto (ignorato se {@code afterName} è {@code null})
+     *
+     * @return matrice di stringhe contenente l'intestazione e i risultati (id, nome)
+     *
+     * @throws SQLException errori di accesso al database
+     * @throws InterruptedException gestione concorrenza
+     */
+    @Override
+    public String[][] getRestaurantsAfter(RestaurantFilter filter, String afterName, int afterId)
+            throws SQLException, InterruptedException {
+
+        StringBuilder sql = new StringBuilder("""
+            SELECT
+                r.id,
+                r.nome
+            FROM "RistorantiTheKnife" r
+        """);
+
+        appendFilter(sql, filter);
+
+        if (afterName != null)
+            sql.append(" AND (r.nome, r.id) > (?, ?) ");
+
+        sql.append("""
+            ORDER BY r.nome, r.id
+            LIMIT ?
+        """);
+
+        try (Connection conn = connMgr.getConnection();
+            PreparedStatement ps = conn.prepareStatement(sql.toString())) {
+
+            int idx = bindFilter(ps, 1, filter);
+
+            if (afterName != null) {
+                ps.setString(idx++, afterName);
+                ps.setInt(idx++, afterId);
+            }
+
+            // una riga in più per sapere se esiste la pagina successiva
+            ps.setInt(idx, PAGE_SIZE + 1);
+
+            ArrayList<String[]> rows = new ArrayList<>();
+            rows.add(null);
+
+            boolean hasMore = false;
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    if (rows.size() > PAGE_SIZE) {
+                        hasMore = true;
+                        break;
+                    }
+                    rows.add(new String[] {
+                            Integer.toString(rs.getInt("id")),
+                            rs.getString("nome")
+                    });
+                }
+            }
+
+            rows.set(0, new String[] {
+                    hasMore ? "y" : "n",
+                    Integer.toString(rows.size() - 1)
+            });
+
+            return rows.toArray(new String[0][]);
+        }
+    }
+
+    /**
+     * Recupera una pagina di ristoranti ordinati per distanza crescente
+     * da un punto (ricerca dei più vicini).
+     *
+     * <p>
+     * Se i filtri contengono già gli id candidati risolti dall'indice
+     * spaziale in memoria, la distanza viene calcolata e ordinata solo su
+     * quelli; altrimenti su tutti i ristoranti che soddisfano i filtri.
+     * </p>
+     *
+     * <p>
+     * La prima riga del risultato contiene:
+     * </p>
+     * <ul>
+     *     <li>{@code "y"} se esistono ulteriori ristoranti dopo la pagina, {@code "n"} altrimenti</li>
+     *     <li>numero di elementi nella pagina corrente</li>
+     * </ul>
+     * <p>
+     * Le righe successive contengono id, nome e distanza in chilometri.
+     * </p>
+     *
+     * @param page numero della pagina richiesta
+     * @param filter filtri della ricerca
+     * @param lat latitudine del punto di riferimento
+     * @param lon longitudine del punto di riferimento
+     *
+     * @return matrice di stringhe contenente l'intestazione e i risultati
+     *
+     * @throws SQLException errori di accesso al database
+     * @throws InterruptedException gestione concorrenza
+     */
+    @Override
+    public String[][] getRestaurantsByDistance(int page, RestaurantFilter filter, double lat, double lon)
+            throws SQLException, InterruptedException {
+
+        StringBuilder sql = new StringBuilder("""
+            SELECT
+                r.id,
+                r.nome,
+                2 * 6371 * asin(LEAST(1, sqrt(
+                    power(sin(radians(r.latitudine - ?) / 2), 2) +
+                    cos(radians(?)) * cos(radians(r.latitudine)) *
+                    power(sin(radians(r.longitudine - ?) / 2), 2)
+                ))) AS distanza
+            FROM "RistorantiTheKnife" r
+        """);
+
+        appendFilter(sql, filter);
+
+        sql.append("""
+            ORDER BY distanza, r.id
+            LIMIT ? OFFSET ?
+        """);
+
+        try (Connection conn = connMgr.getConnection();
+            PreparedStatement ps = conn.prepareStatement(sql.toString())) {
+
+            ps.setDouble(1, lat);
+            ps.setDouble(2, lat);
+            ps.setDouble(3, lon);
+
+            int idx = bindFilter(ps, 4, filter);
+
+            // una riga in più per sapere se esiste la pagina successiva
+            ps.setInt(idx++, PAGE_SIZE + 1);
+            ps.setInt(idx, page * PAGE_SIZE);
+
+            ArrayList<String[]> rows = new ArrayList<>();
+            rows.add(null);
+
+            boolean hasMore = false;
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    if (rows.size() > PAGE_SIZE) {
+                        hasMore = true;
+                        break;
+                    }
+                    rows.add(new String[] {
+                            Integer.toString(rs.getInt("id")),
+                            rs.getString("nome"),
+                            String.format(Locale.ROOT, "%.2f", rs.getDouble("distanza"))
+                    });
+                }
+            }
+
+            rows.set(0, new String[] {
+                    hasMore ? "y" : "n",
+                    Integer.toString(rows.size() - 1)
+            });
+
+            return rows.toArray(new String[0][]);
+        }
+    }
+
+    /**
+     * Aggiunge alla query le JOIN e le condizioni corrispondenti ai filtri attivi.
+     *
+     * <p>
+     * La query termina con una clausola {@code WHERE} a cui il chiamante
+     * può aggiungere ulteriori condizioni in {@code AND}.
+     * I parametri vanno valorizzati con {@link #bindFilter} nello stesso ordine.
+     * </p>
+     *
+     * @param sql query in costruzione
+     * @param f filtri della ricerca
+     */
+    private void appendFilter(StringBuilder sql, RestaurantFilter f) {
+
+        if (f.hasFavourites()) {
             sql.append("""
                 INNER JOIN preferiti f
                     ON f.id_ristorante = r.id AND f.id_utente = ?
             """);
         }
 
+        if (f.hasStars()) {
+            sql.append(" INNER JOIN statistiche_ristoranti s ON s.id_ristorante = r.id ");
+        }
+
         sql.append(" WHERE 1=1 ");
 
-        if (nation != null && city != null) {
+        if (f.hasLocation()) {
             sql.append(" AND r.nazione = ? AND r.citta = ? ");
         }
 
-        if (delivery)
+        if (f.isDelivery())
             sql.append(" AND r.servizio_delivery = true ");
 
-        if (online)
+        if (f.isOnline())
             sql.append(" AND r.prenotazione_online = true ");
 
-        if (priceMin != null)
+        if (f.getPriceMin() != null)
             sql.append(" AND r.fascia_prezzo >= ? ");
 
-        if (priceMax != null)
+        if (f.getPriceMax() != null)
             sql.append(" AND r.fascia_prezzo <= ? ");
 
-        if (category != null)
-            sql.append(" AND r.tipo_cucina ILIKE ? ");
-
-        if (starsMin != null)
-            sql.append(" AND (SELECT AVG(stelle) FROM recensioni WHERE id_ristorante = r.id) >= ? ");
-
-        if (starsMax != null)
-            sql.append(" AND (SELECT AVG(stelle) FROM recensioni WHERE id_ristorante = r.id) <= ? ");
-
-        if (lat != null && lon != null && rangeKm != null) {
+        if (f.hasCuisines() && !f.isCuisinesResolved()) {
+            // ristoranti che possiedono tutti i tag richiesti
             sql.append("""
-                AND (
-                    6371 * acos(
-                        cos(radians(?)) *
-                        cos(radians(r.latitudine)) *
-                        cos(radians(r.longitudine) - radians(?)) +
-                        sin(radians(?)) *
-                        sin(radians(r.latitudine))
-                    )
-                ) <= ?
+                AND r.id IN (
+                    SELECT rt.id_ristorante
+                    FROM ristoranti_tag rt
+                    JOIN tag_cucina t ON t.id = rt.id_tag
+                    WHERE t.nome = ANY(?)
+                    GROUP BY rt.id_ristorante
+                    HAVING COUNT(*) = ?
+                )
             """);
         }
 
-        sql.append("""
-            GROUP BY r.id, r.nome
-            ORDER BY r.nome
-            LIMIT ? OFFSET ?
-        """);
+        if (f.hasStars())
+            sql.append(" AND s.num_recensioni > 0 ");
 
-        try (Connection conn = connMgr.getConnection();
-            PreparedStatement ps = conn.prepareStatement(sql.toString())) {
+        if (f.getStarsMin() != null)
+            sql.append(" AND s.media_stelle >= ? ");
 
-            int idx = 1;
+        if (f.getStarsMax() != null)
+            sql.append(" AND s.media_stelle <= ? ");
 
-            if (favouriteUserId > 0)
-                ps.setInt(idx++, favouriteUserId);
-
-            if (nation != null && city != null) {
-                ps.setString(idx++, nation);
-                ps.setString(idx++, city);
-            }
+        if (f.getCandidateIds() != null) {
+            // raggio e/o cucine già risolti dagli indici in memoria
+            sql.append(" AND r.id = ANY(?) ");
+        }
 
-            if (priceMin != null)
-                ps.setInt(idx++, priceMin);
+        if (f.hasRange() && !f.isRangeResolved()) {
+            // prefiltro sul rettangolo, servito dall'indice (latitudine, longitudine)
+            sql.append(" AND r.latitudine BETWEEN ? AND ? ");
 
-            if (priceMax != null)
-                ps.setInt(idx++, priceMax);
+            GeoUtils.BoundingBox box = f.getBoundingBox();
+            if (box.crossesAntimeridian())
+                sql.append(" AND (r.longitudine >= ? OR r.longitudine <= ?) ");
+            else
+                sql.append(" AND r.longitudine BETWEEN ? AND ? ");
 
-            if (category != null)
-                ps.setString(idx++, "%" + category + "%");
+            // distanza esatta (haversine) sui soli candidati del rettangolo
+            sql.append("""
+                AND 2 * 6371 * asin(LEAST(1, sqrt(
+                        power(sin(radians(r.latitudine - ?) / 2), 2) +
+                        cos(radians(?)) * cos(radians(r.latitudine)) *
+                        power(sin(radians(r.longitudine - ?) / 2), 2)
+                    ))) <= ?
+            """);
+        }
+    }
 
-            if (starsMin != null)
-                ps.setDouble(idx++, starsMin);
+    /**
+     * Valorizza i parametri generati da {@link #appendFilter}.
+     *
+     * @param ps statement da valorizzare
+     * @param idx indice del primo parametro
+     * @param f filtri della ricerca
+     * @return indice del primo parametro libero dopo i filtri
+     * @throws SQLException errori di accesso al database
+     */
+    private int bindFilter(PreparedStatement ps, int idx, RestaurantFilter f) throws SQLException {
 
-            if (starsMax != null)
-                ps.setDouble(idx++, starsMax);
+        if (f.hasFavourites())
+            ps.setInt(idx++, f.getFavouriteUserId());
 
-            if (lat != null && lon != null && rangeKm != null) {
-                ps.setDouble(idx++, lat);
-                ps.setDouble(idx++, lon);
-                ps.setDouble(idx++, lat);
-                ps.setDouble(idx++, rangeKm);
-            }
+        if (f.hasLocation()) {
+            ps.setString(idx++, f.getNation());
+            ps.setString(idx++, f.getCity());
+        }
 
-            ps.setInt(idx++, PAGE_SIZE);
-            ps.setInt(idx, offset);
+        if (f.getPriceMin() != null)
+            ps.setInt(idx++, f.getPriceMin());
 
-            try (ResultSet rs = ps.executeQuery()) {
+        if (f.getPriceMax() != null)
+            ps.setInt(idx++, f.getPriceMax());
 
-                if (!rs.next()) {
-                    return new String[][] { { "0", "0" } };
-                }
+        if (f.hasCuisines() && !f.isCuisinesResolved()) {
+            List<String> tags = f.getCuisines();
+            ps.setArray(idx++, ps.getConnection().createArrayOf("varchar", tags.toArray()));
+            ps.setInt(idx++, tags.size());
+        }
 
-                int total = rs.getInt("total_count");
-                int pages = (int) Math.ceil((double) total / PAGE_SIZE);
+        if (f.getStarsMin() != null)
+            ps.setDouble(idx++, f.getStarsMin());
 
-                ArrayList<String[]> rows = new ArrayList<>();
-                rows.add(new String[] {
-                        Integer.toString(pages),
-                        Integer.toString(Math.min(PAGE_SIZE, total - offset))
-                });
+        if (f.getStarsMax() != null)
+            ps.setDouble(idx++, f.getStarsMax());
 
-                do {
-                    rows.add(new String[] {
-                            Integer.toString(rs.getInt("id")),
-                            rs.getString("nome")
-                    });
-                } while (rs.next());
+        if (f.getCandidateIds() != null) {
+            int[] ids = f.getCandidateIds();
+            Integer[] boxed = new Integer[ids.length];
+            for (int i = 0; i < ids.length; i++) boxed[i] = ids[i];
+            ps.setArray(idx++, ps.getConnection().createArrayOf("integer", boxed));
+        }
 
-                return rows.toArray(new String[0][]);
-            }
+        if (f.hasRange() && !f.isRangeResolved()) {
+            GeoUtils.BoundingBox box = f.getBoundingBox();
+            ps.setDouble(idx++, box.minLat);
+            ps.setDouble(idx++, box.maxLat);
+            ps.setDouble(idx++, box.minLon);
+            ps.setDouble(idx++, box.maxLon);
+
+            ps.setDouble(idx++, f.getLat());
+            ps.setDouble(idx++, f.getLat());
+            ps.setDouble(idx++, f.getLon());
+            ps.setDouble(idx++, f.getRangeKm());
         }
+
+        return idx;
     }
 }
\ No newline at end of file
@@ -0,0 +1,234 @@
+package com.theknife.app.Server;
+
+import java.util.List;
+
+/**
+ * Insieme immutabile dei filtri di una ricerca di ristoranti.
+ *
+ * <p>
+ * Raggruppa i parametri accettati da
+ * {@link RestaurantCRUD#getRestaurantsWithFilter} così che la stessa
+ * combinazione di filtri possa essere condivisa tra la paginazione per
+ * numero di pagina e quella a cursore
+ * ({@link RestaurantCRUD#getRestaurantsAfter}).
+ * </p>
+ *
+ * <p>
+ * I valori {@code null} indicano un filtro non attivo.
+ * Nazione e città vengono applicate solo se presenti entrambe,
+ * così come latitudine, longitudine e raggio.
+ * </p>
+ *
+ * <p>
+ * La categoria è un elenco di cucine separate da virgola: un ristorante
+ * la soddisfa se possiede tutti i tag indicati ({@link CuisineTagIndex#parse}).
+ * </p>
+ */
+public final class RestaurantFilter {
+
+    private final String nation;
+    private final String city;
+    private final Double lat;
+    private final Double lon;
+    private final Double rangeKm;
+    private final Integer priceMin;
+    private final Integer priceMax;
+    private final boolean delivery;
+    private final boolean online;
+    private final Double starsMin;
+    private final Double starsMax;
+    private final int favouriteUserId;
+    private final String category;
+
+    /** Rettangolo che contiene il cerchio di ricerca, {@code null} se il raggio non è attivo. */
+    private final GeoUtils.BoundingBox box;
+
+    /** Tag di cucina normalizzati richiesti dalla categoria; vuota se non attiva. */
+    private final List<String> cuisines;
+
+    /**
+     * Id dei ristoranti già selezionati dagli indici in memoria;
+     * {@code null} se tutti i filtri vanno valutati dal database.
+     */
+    private final int[] candidateIds;
+
+    /** {@code true} se {@link #candidateIds} soddisfano già il filtro per raggio. */
+    private final boolean rangeResolved;
+
+    /** {@code true} se {@link #candidateIds} soddisfano già il filtro per cucina. */
+    private final boolean cuisinesResolved;
+
+    /**
+     * Crea un insieme di filtri.
+     *
+     * @param nation nazione (opzionale)
+     * @param city città (opzionale)
+     * @param lat latitudine (opzionale)
+     * @param lon longitudine (opzionale)
+     * @param rangeKm raggio in chilometri (opzionale)
+     * @param priceMin prezzo minimo (opzionale)
+     * @param priceMax prezzo massimo (opzionale)
+     * @param delivery filtro servizio delivery
+     * @param online filtro prenotazione online
+     * @param starsMin valutazione minima (opzionale)
+     * @param starsMax valutazione massima (opzionale)
+     * @param favouriteUserId id utente per filtro preferiti, {@code <= 0} se non attivo
+     * @param category cucine separate da virgola (opzionale)
+     */
+    public RestaurantFilter(String nation, String city,
+                            Double lat, Double lon, Double rangeKm,
+                            Integer priceMin, Integer priceMax,
+                            boolean delivery, boolean online,
+                            Double starsMin, Double starsMax,
+                            int favouriteUserId,
+                            String category) {
+        this.nation = nation;
+        this.city = city;
+        this.lat = lat;
+        this.lon = lon;
+        this.rangeKm = rangeKm;
+        this.priceMin = priceMin;
+        this.priceMax = priceMax;
+        this.delivery = delivery;
+        this.online = online;
+        this.starsMin = starsMin;
+        this.starsMax = starsMax;
+        this.favouriteUserId = favouriteUserId;
+        this.category = category;
+        this.cuisines = CuisineTagIndex.parse(category);
+        this.box = hasRange() ? GeoUtils.boundingBox(lat, lon, rangeKm) : null;
+        this.candidateIds = null;
+        this.rangeResolved = false;
+        this.cuisinesResolved = false;
+    }
+
+    /**
+     * Crea una copia dei filtri con parte dei filtri già risolta in un insieme di id.
+     *
+     * @param base filtri di partenza
+     * @param candidateIds id dei ristoranti che soddisfano i filtri risolti
+     * @param rangeResolved {@code true} se gli id soddisfano il raggio
+     * @param cuisinesResolved {@code true} se gli id soddisfano le cucine
+     */
+    private RestaurantFilter(RestaurantFilter base, int[] candidateIds,
+                             boolean rangeResolved, boolean cuisinesResolved) {
+        this.nation = base.nation;
+        this.city = base.city;
+        this.lat = base.lat;
+        this.lon = base.lon;
+        this.rangeKm = base.rangeKm;
+        this.priceMin = base.priceMin;
+        this.priceMax = base.priceMax;
+        this.delivery = base.delivery;
+        this.online = base.online;
+        this.starsMin = base.starsMin;
+        this.starsMax = base.starsMax;
+        this.favouriteUserId = base.favouriteUserId;
+        this.category = base.category;
+        this.cuisines = base.cuisines;
+        this.box = base.box;
+        this.candidateIds = candidateIds;
+        this.rangeResolved = rangeResolved;
+        this.cuisinesResolved = cuisinesResolved;
+    }
+
+    /** @return nazione richiesta, o {@code null} */
+    public String getNation() { return nation; }
+
+    /** @return città richiesta, o {@code null} */
+    public String getCity() { return city; }
+
+    /** @return latitudine del centro di ricerca, o {@code null} */
+    public Double getLat() { return lat; }
+
+    /** @return longitudine del centro di ricerca, o {@code null} */
+    public Double getLon() { return lon; }
+
+    /** @return raggio di ricerca in chilometri, o {@code null} */
+    public Double getRangeKm() { return rangeKm; }
+
+    /** @return fascia di prezzo minima, o {@code null} */
+    public Integer getPriceMin() { return priceMin; }
+
+    /** @return fascia di prezzo massima, o {@code null} */
+    public Integer getPriceMax() { return priceMax; }
+
+    /** @return {@code true} se è richiesto il servizio delivery */
+    public boolean isDelivery() { return delivery; }
+
+    /** @return {@code true} se è richiesta la prenotazione online */
+    public boolean isOnline() { return online; }
+
+    /** @return valutazione media minima, o {@code null} */
+    public Double getStarsMin() { return starsMin; }
+
+    /** @return valutazione media massima, o {@code null} */
+    public Double getStarsMax() { return starsMax; }
+
+    /** @return id dell'utente per il filtro preferiti, {@code <= 0} se non attivo */
+    public int getFavouriteUserId() { return favouriteUserId; }
+
+    /** @return categoria di cucina, o {@code null} */
+    public String getCategory() { return category; }
+
+    /** @return tag di cucina normalizzati richiesti, vuota se il filtro non è attivo */
+    public List<String> getCuisines() { return cuisines; }
+
+    /** @return {@code true} se è attivo il filtro per nazione e città */
+    boolean hasLocation() {
+        return nation != null && city != null;
+    }
+
+    /** @return {@code true} se è attivo il filtro per distanza */
+    boolean hasRange() {
+        return lat != null && lon != null && rangeKm != null;
+    }
+
+    /** @return rettangolo di prefiltro del raggio, {@code null} se non attivo */
+    GeoUtils.BoundingBox getBoundingBox() {
+        return box;
+    }
+
+    /** @return {@code true} se è attivo il filtro per cucina */
+    boolean hasCuisines() {
+        return !cuisines.isEmpty();
+    }
+
+    /**
+     * Restituisce una copia dei filtri in cui il raggio e/o le cucine sono
+     * sostituiti dall'elenco degli id che li soddisfano.
+     *
+     * @param ids id dei ristoranti selezionati in memoria
+     * @param range {@code true} se gli id soddisfano già il raggio
+     * @param cuisines {@code true} se gli id soddisfano già le cucine
+     * @return nuovi filtri
+     */
+    RestaurantFilter withCandidateIds(int[] ids, boolean range, boolean cuisines) {
+        return new RestaurantFilter(this, ids, range, cuisines);
+    }
+
+    /** @return id dei ristoranti selezionati in memoria, {@code null} se non risolti */
+    int[] getCandidateIds() {
+        return candidateIds;
+    }
+
+    /** @return {@code true} se il raggio è già soddisfatto dagli id candidati */
+    boolean isRangeResolved() {
+        return rangeResolved;
+    }
+
+    /** @return {@code true} se le cucine sono già soddisfatte dagli id candidati */
+    boolean isCuisinesResolved() {
+        return cuisinesResolved;
+    }
+
+    /** @return {@code true} se è attivo almeno un filtro sulle stelle */
+    boolean hasStars() {
+        return starsMin != null || starsMax != null;
+    }
+
+    /** @return {@code true} se è attivo il filtro sui preferiti */
+    boolean hasFavourites() {
+        return favouriteUserId > 0;
+    }
+}
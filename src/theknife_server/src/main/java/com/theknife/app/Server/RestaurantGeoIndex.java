@@ -0,0 +1,348 @@
+package com.theknife.app.Server;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Indice spaziale in memoria delle coordinate dei ristoranti.
+ *
+ * <p>
+ * Le coordinate sono memorizzate in array primitivi paralleli
+ * ({@code ids}, {@code lats}, {@code lons}) e distribuite su una griglia
+ * uniforme di celle di {@value #CELL_DEG} gradi. Una ricerca per raggio
+ * visita solo le celle che intersecano il rettangolo del cerchio
+ * ({@link GeoUtils#boundingBox}) e calcola la distanza esatta sui
+ * ristoranti che contengono.
+ * </p>
+ *
+ * <p>
+ * La ricerca dei più vicini ({@link #nearest}) allarga progressivamente
+ * il raggio finché non trova abbastanza ristoranti, così da visitare
+ * solo le celle attorno al punto invece di ordinare l'intero insieme.
+ * </p>
+ *
+ * <p>
+ * L'indice viene caricato all'avvio da {@link DBHandler} e aggiornato da
+ * quest'ultimo dopo ogni inserimento, modifica o eliminazione di un
+ * ristorante. Letture concorrenti sono ammesse; le scritture sono esclusive.
+ * </p>
+ */
+final class RestaurantGeoIndex {
+
+    /** Lato di una cella della griglia, in gradi. */
+    static final double CELL_DEG = 0.25;
+
+    private static final int LAT_CELLS = (int) Math.ceil(180 / CELL_DEG);
+    private static final int LON_CELLS = (int) Math.ceil(360 / CELL_DEG);
+
+    /** Raggio iniziale della ricerca dei più vicini, in chilometri. */
+    private static final double NEAREST_START_KM = 2.0;
+
+    /** Distanza oltre la quale ogni punto del globo è incluso (mezza circonferenza). */
+    private static final double MAX_DISTANCE_KM = Math.PI * GeoUtils.EARTH_RADIUS_KM;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /** Id del ristorante per ogni slot. */
+    private int[] ids = new int[1024];
+
+    /** Latitudine per ogni slot. */
+    private double[] lats = new double[1024];
+
+    /** Longitudine per ogni slot. */
+    private double[] lons = new double[1024];
+
+    /** Numero di slot occupati. */
+    private int size = 0;
+
+    /** Slot occupato da ciascun ristorante. */
+    private final Map<Integer, Integer> slotById = new HashMap<>();
+
+    /** Slot dei ristoranti contenuti in ciascuna cella non vuota. */
+    private final Map<Integer, IntBag> cells = new HashMap<>();
+
+    /**
+     * Inserisce o aggiorna la posizione di un ristorante.
+     *
+     * @param id id del ristorante
+     * @param lat latitudine in gradi
+     * @param lon longitudine in gradi
+     */
+    void put(int id, double lat, double lon) {
+        lock.writeLock().lock();
+        try {
+            Integer slot = slotById.get(id);
+
+            if (slot != null) {
+                int oldCell = cellOf(lats[slot], lons[slot]);
+                int newCell = cellOf(lat, lon);
+                if (oldCell != newCell) {
+                    removeFromCell(oldCell, slot);
+                    cells.computeIfAbsent(newCell, k -> new IntBag()).add(slot);
+                }
+                lats[slot] = lat;
+                lons[slot] = lon;
+                return;
+            }
+
+            if (size == ids.length) {
+                int cap = size * 2;
+                ids  = Arrays.copyOf(ids, cap);
+                lats = Arrays.copyOf(lats, cap);
+                lons = Arrays.copyOf(lons, cap);
+            }
+
+            ids[size] = id;
+            lats[size] = lat;
+            lons[size] = lon;
+            cells.computeIfAbsent(cellOf(lat, lon), k -> new IntBag()).add(size);
+            slotById.put(id, size);
+            size++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Rimuove un ristorante dall'indice.
+     *
+     * @param id id del ristorante
+     */
+    void remove(int id) {
+        lock.writeLock().lock();
+        try {
+            Integer slot = slotById.remove(id);
+            if (slot == null) {
+                return;
+            }
+
+            removeFromCell(cellOf(lats[slot], lons[slot]), slot);
+
+            // l'ultimo slot prende il posto di quello liberato
+            int last = --size;
+            if (slot != last) {
+                cells.get(cellOf(lats[last], lons[last])).replace(last, slot);
+                ids[slot] = ids[last];
+                lats[slot] = lats[last];
+                lons[slot] = lons[last];
+                slotById.put(ids[slot], slot);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Restituisce gli id dei ristoranti entro un raggio da un punto.
+     *
+     * @param lat latitudine del centro in gradi
+     * @param lon longitudine del centro in gradi
+     * @param rangeKm raggio in chilometri
+     * @return id dei ristoranti trovati, in ordine non specificato
+     */
+    int[] withinRadius(double lat, double lon, double rangeKm) {
+        lock.readLock().lock();
+        try {
+            IntBag slots = slotsWithin(lat, lon, rangeKm);
+
+            int[] out = new int[slots.size];
+            for (int i = 0; i < slots.size; i++) {
+                out[i] = ids[slots.items[i]];
+            }
+            return out;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Restituisce gli id dei {@code k} ristoranti più vicini a un punto,
+     * ordinati per distanza crescente.
+     *
+     * <p>
+     * Il raggio di ricerca parte da {@value #NEAREST_START_KM} km e viene
+     * quadruplicato finché non contiene almeno {@code k} ristoranti o non
+     * raggiunge {@code maxKm}. Tutti i ristoranti entro il raggio finale
+     * sono stati esaminati, quindi i primi {@code k} sono esattamente i più vicini.
+     * </p>
+     *
+     * @param lat latitudine del centro in gradi
+     * @param lon longitudine del centro in gradi
+     * @param k numero massimo di ristoranti richiesti
+     * @param maxKm distanza massima ammessa in chilometri
+     * @return id dei ristoranti trovati (al più {@code k}), dal più vicino
+     */
+    int[] nearest(double lat, double lon, int k, double maxKm) {
+        double limit = Math.min(maxKm, MAX_DISTANCE_KM);
+
+        lock.readLock().lock();
+        try {
+            double radius = Math.min(NEAREST_START_KM, limit);
+            IntBag slots = slotsWithin(lat, lon, radius);
+
+            while (slots.size < k && radius < limit) {
+                radius = Math.min(radius * 4, limit);
+                slots = slotsWithin(lat, lon, radius);
+            }
+
+            // chiave ordinabile: distanza (float, non negativa) nei 32 bit alti, slot nei bassi
+            long[] keys = new long[slots.size];
+            for (int i = 0; i < slots.size; i++) {
+                int slot = slots.items[i];
+                float d = (float) GeoUtils.distanceKm(lat, lon, lats[slot], lons[slot]);
+                keys[i] = ((long) Float.floatToIntBits(d) << 32) | slot;
+            }
+            Arrays.sort(keys);
+
+            int n = Math.min(k, keys.length);
+            int[] out = new int[n];
+            for (int i = 0; i < n; i++) {
+                out[i] = ids[(int) keys[i]];
+            }
+            return out;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Individua gli slot dei ristoranti entro un raggio.
+     * Va invocato con il lock in lettura acquisito.
+     *
+     * @param lat latitudine del centro in gradi
+     * @param lon longitudine del centro in gradi
+     * @param rangeKm raggio in chilometri
+     * @return slot dei ristoranti trovati
+     */
+    private IntBag slotsWithin(double lat, double lon, double rangeKm) {
+        GeoUtils.BoundingBox box = GeoUtils.boundingBox(lat, lon, rangeKm);
+
+        int minRow = row(box.minLat);
+        int maxRow = row(box.maxLat);
+
+        IntBag out = new IntBag();
+
+        int rows = maxRow - minRow + 1;
+        int cols = box.crossesAntimeridian()
+                ? (LON_CELLS - col(box.minLon)) + col(box.maxLon) + 1
+                : col(box.maxLon) - col(box.minLon) + 1;
+
+        if ((long) rows * cols > cells.size()) {
+            // rettangolo più ampio delle celle occupate: si visitano queste ultime
+            for (IntBag bag : cells.values()) {
+                collect(bag, lat, lon, rangeKm, out);
+            }
+            return out;
+        }
+
+        for (int r = minRow; r <= maxRow; r++) {
+            if (box.crossesAntimeridian()) {
+                scanRow(r, col(box.minLon), LON_CELLS - 1, lat, lon, rangeKm, out);
+                scanRow(r, 0, col(box.maxLon), lat, lon, rangeKm, out);
+            } else {
+                scanRow(r, col(box.minLon), col(box.maxLon), lat, lon, rangeKm, out);
+            }
+        }
+        return out;
+    }
+
+    /** @return numero di ristoranti indicizzati */
+    int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void scanRow(int row, int fromCol, int toCol,
+                         double lat, double lon, double rangeKm, IntBag out) {
+        for (int c = fromCol; c <= toCol; c++) {
+            IntBag bag = cells.get(row * LON_CELLS + c);
+            if (bag != null) {
+                collect(bag, lat, lon, rangeKm, out);
+            }
+        }
+    }
+
+    private void collect(IntBag bag, double lat, double lon, double rangeKm, IntBag out) {
+        for (int i = 0; i < bag.size; i++) {
+            int slot = bag.items[i];
+            if (GeoUtils.distanceKm(lat, lon, lats[slot], lons[slot]) <= rangeKm) {
+                out.add(slot);
+            }
+        }
+    }
+
+    private void removeFromCell(int cell, int slot) {
+        IntBag bag = cells.get(cell);
+        if (bag != null && bag.remove(slot) && bag.size == 0) {
+            cells.remove(cell);
+        }
+    }
+
+    private static int cellOf(double lat, double lon) {
+        return row(lat) * LON_CELLS + col(lon);
+    }
+
+    private static int row(double lat) {
+        int r = (int) Math.floor((lat + 90) / CELL_DEG);
+        return Math.max(0, Math.min(LAT_CELLS - 1, r));
+    }
+
+    private static int col(double lon) {
+        int c = (int) Math.floor((lon + 180) / CELL_DEG);
+        return Math.max(0, Math.min(LON_CELLS - 1, c));
+    }
+
+    /**
+     * Lista di interi primitivi senza boxing.
+     */
+    private static final class IntBag {
+
+        private int[] items = new int[4];
+        private int size = 0;
+
+        private void add(int v) {
+            if (size == items.length) {
+                items = Arrays.copyOf(items, size * 2);
+            }
+            items[size++] = v;
+        }
+
+        /**
+         * Rimuove un valore spostando al suo posto l'ultimo elemento.
+         *
+         * @param v valore da rimuovere
+         * @return {@code true} se il valore era presente
+         */
+        private boolean remove(int v) {
+            for (int i = 0; i < size; i++) {
+                if (items[i] == v) {
+                    items[i] = items[--size];
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Sostituisce un valore con un altro.
+         *
+         * @param from valore da sostituire
+         * @param to nuovo valore
+         */
+        private void replace(int from, int to) {
+            for (int i = 0; i < size; i++) {
+                if (items[i] == from) {
+                    items[i] = to;
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -15,6 +15,8 @@ import java.util.List;
  *     <li>paginazione delle recensioni di un ristorante</li>
  *     <li>recupero della recensione dell'utente corrente</li>
  *     <li>inserimento, modifica e rimozione delle recensioni</li>
+ *     <li>aggiornamento delle statistiche del ristorante
+ *         ({@code statistiche_ristoranti}) nella stessa transazione</li>
  * </ul>
  *
  * <p>
@@ -177,11 +179,17 @@ public class ReviewCRUD
     /**
      * Inserisce una nuova recensione per un ristorante.
      *
+     * <p>
+     * Ogni utente può recensire un ristorante una sola volta:
+     * se la recensione esiste già l'inserimento viene ignorato.
+     * </p>
+     *
      * @param userId ID dell'utente autore della recensione
      * @param restId ID del ristorante
      * @param stars numero di stelle assegnate
      * @param text testo della recensione
-     * @return {@code true} se l'inserimento è avvenuto correttamente
+     * @return {@code true} se l'inserimento è avvenuto correttamente,
+     *         {@code false} se l'utente aveva già recensito il ristorante
      *
      * @throws SQLException errore SQL
      * @throws InterruptedException thread interrotto
@@ -193,23 +201,34 @@ public class ReviewCRUD
         String sql = """
             INSERT INTO recensioni (id_utente, id_ristorante, stelle, testo)
             VALUES (?, ?, ?, ?)
+            ON CONFLICT (id_utente, id_ristorante) DO NOTHING
         """;
 
-        try (Connection conn = connMgr.getConnection();
-             PreparedStatement ps = conn.prepareStatement(sql)) {
+        return inTransaction(conn -> {
+            try (PreparedStatement ps = conn.prepareStatement(sql)) {
 
-            ps.setInt(1, userId);
-            ps.setInt(2, restId);
-            ps.setInt(3, stars);
-            ps.setString(4, text);
+                ps.setInt(1, userId);
+                ps.setInt(2, restId);
+                ps.setInt(3, stars);
+                ps.setString(4, text);
 
-            return ps.executeUpdate() == 1;
-        }
+                if (ps.executeUpdate() != 1) return false;
+            }
+
+            applyStatsDelta(conn, restId, 1, stars, 0, stars);
+            return true;
+        });
     }
 
     /**
      * Modifica una recensione esistente dell'utente per un ristorante.
      *
+     * <p>
+     * La vecchia valutazione viene letta con {@code FOR UPDATE}, così che
+     * le statistiche del ristorante ricevano la variazione corretta anche
+     * in presenza di modifiche concorrenti.
+     * </p>
+     *
      * @param userId ID dell'utente autore
      * @param restId ID del ristorante
      * @param stars nuovo numero di stelle
@@ -223,22 +242,47 @@ public class ReviewCRUD
     public boolean editReview(int userId, int restId, int stars, String text)
             throws SQLException, InterruptedException {
 
-        String sql = """
+        String selectSql = """
+            SELECT stelle
+            FROM recensioni
+            WHERE id_utente = ? AND id_ristorante = ?
+            FOR UPDATE
+        """;
+
+        String updateSql = """
             UPDATE recensioni
             SET stelle = ?, testo = ?
             WHERE id_utente = ? AND id_ristorante = ?
         """;
 
-        try (Connection conn = connMgr.getConnection();
-             PreparedStatement ps = conn.prepareStatement(sql)) {
+        return inTransaction(conn -> {
+            int oldStars;
 
-            ps.setInt(1, stars);
-            ps.setString(2, text);
-            ps.setInt(3, userId);
-            ps.setInt(4, restId);
+            try (PreparedStatement ps = conn.prepareStatement(selectSql)) {
+                ps.setInt(1, userId);
+                ps.setInt(2, restId);
 
-            return ps.executeUpdate() == 1;
-        }
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (!rs.next()) return false;
+                    oldStars = rs.getInt(1);
+                }
+            }
+
+            try (PreparedStatement ps = conn.prepareStatement(updateSql)) {
+
+                ps.setInt(1, stars);
+                ps.setString(2, text);
+                ps.setInt(3, userId);
+                ps.setInt(4, restId);
+
+                if (ps.executeUpdate() != 1) return false;
+            }
+
+            if (oldStars != stars) {
+                applyStatsDelta(conn, restId, 0, stars - oldStars, oldStars, stars);
+            }
+            return true;
+        });
     }
 
     /**
@@ -246,7 +290,7 @@ public class ReviewCRUD
      *
      * @param userId ID dell'utente autore
      * @param restId ID del ristorante
-     * @return {@code true} se la modifica è avvenuta correttamente     *
+     * @return {@code true} se la modifica è avvenuta correttamente
      * @throws SQLException errore SQL
      * @throws InterruptedException thread interrotto
      */
@@ -257,15 +301,114 @@ public class ReviewCRUD
         String sql = """
             DELETE FROM recensioni
             WHERE id_utente = ? AND id_ristorante = ?
+            RETURNING stelle
         """;
 
-        try (Connection conn = connMgr.getConnection();
-             PreparedStatement ps = conn.prepareStatement(sql)) {
+        return inTransaction(conn -> {
+            int oldStars;
 
-            ps.setInt(1, userId);
-            ps.setInt(2, restId);
+            try (PreparedStatement ps = conn.prepareStatement(sql)) {
+
+                ps.setInt(1, userId);
+                ps.setInt(2, restId);
 
-            return ps.executeUpdate() == 1;
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (!rs.next()) return false;
+                    oldStars = rs.getInt(1);
+                }
+            }
+
+            applyStatsDelta(conn, restId, -1, -oldStars, oldStars, 0);
+            return true;
+        });
+    }
+
+    /**
+     * Ricalcola da zero le statistiche di tutti i ristoranti a partire
+     * dalla tabella {@code recensioni}.
+     *
+     * <p>
+     * Serve a correggere eventuali derive dei contatori incrementali
+     * (ad esempio dopo modifiche manuali al database). Durante il ricalcolo
+     * le scritture sulle recensioni restano in attesa.
+     * </p>
+     *
+     * @return numero di ristoranti con almeno una recensione
+     *
+     * @throws SQLException errore SQL
+     * @throws InterruptedException thread interrotto
+     */
+    @Override
+    public int rebuildRestaurantStats()
+            throws SQLException, InterruptedException {
+
+        String sql = """
+            INSERT INTO statistiche_ristoranti
+                (id_ristorante, num_recensioni, somma_stelle,
+                 stelle_1, stelle_2, stelle_3, stelle_4, stelle_5)
+            SELECT id_ristorante,
+                   COUNT(*),
+                   SUM(stelle),
+                   COUNT(*) FILTER (WHERE stelle = 1),
+                   COUNT(*) FILTER (WHERE stelle = 2),
+                   COUNT(*) FILTER (WHERE stelle = 3),
+                   COUNT(*) FILTER (WHERE stelle = 4),
+                   COUNT(*) FILTER (WHERE stelle = 5)
+            FROM recensioni
+            WHERE id_ristorante IS NOT NULL
+            GROUP BY id_ristorante
+        """;
+
+        return inTransaction(conn -> {
+            try (Statement st = conn.createStatement()) {
+                st.execute("LOCK TABLE recensioni IN SHARE MODE");
+                st.execute("DELETE FROM statistiche_ristoranti");
+                return st.executeUpdate(sql);
+            }
+        });
+    }
+
+    /**
+     * Applica una variazione alle statistiche di un ristorante,
+     * creandone la riga se non esiste.
+     *
+     * @param conn connessione della transazione in corso
+     * @param restId ID del ristorante
+     * @param countDelta variazione del numero di recensioni
+     * @param sumDelta variazione della somma delle stelle
+     * @param removedStars valutazione da togliere dall'istogramma (0 se nessuna)
+     * @param addedStars valutazione da aggiungere all'istogramma (0 se nessuna)
+     * @throws SQLException errore SQL
+     */
+    private void applyStatsDelta(Connection conn, int restId, int countDelta, int sumDelta,
+                                 int removedStars, int addedStars) throws SQLException {
+
+        String sql = """
+            INSERT INTO statistiche_ristoranti AS s
+                (id_ristorante, num_recensioni, somma_stelle,
+                 stelle_1, stelle_2, stelle_3, stelle_4, stelle_5)
+            VALUES (?, ?, ?, ?, ?, ?, ?, ?)
+            ON CONFLICT (id_ristorante) DO UPDATE SET
+                num_recensioni = s.num_recensioni + EXCLUDED.num_recensioni,
+                somma_stelle   = s.somma_stelle + EXCLUDED.somma_stelle,
+                stelle_1       = s.stelle_1 + EXCLUDED.stelle_1,
+                stelle_2       = s.stelle_2 + EXCLUDED.stelle_2,
+                stelle_3       = s.stelle_3 + EXCLUDED.stelle_3,
+                stelle_4       = s.stelle_4 + EXCLUDED.stelle_4,
+                stelle_5       = s.stelle_5 + EXCLUDED.stelle_5
+        """;
+
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setInt(1, restId);
+            ps.setInt(2, countDelta);
+            ps.setInt(3, sumDelta);
+            for (int star = 1; star <= 5; star++) {
+                int delta = 0;
+                if (star == addedStars) delta++;
+                if (star == removedStars) delta--;
+                ps.setInt(3 + star, delta);
+            }
+            ps.executeUpdate();
         }
     }
 }
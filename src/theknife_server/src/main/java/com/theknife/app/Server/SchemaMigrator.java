@@ -0,0 +1,314 @@
+package com.theknife.app.Server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import com.theknife.app.ServerLogger;
+
+/**
+ * Esecutore delle migrazioni versionate dello schema del database.
+ *
+ * <p>
+ * All'avvio del server confronta gli script presenti in
+ * {@code src/main/resources/db/migration} con quelli già registrati nella
+ * tabella {@code schema_migrazioni} e applica, in ordine di versione,
+ * quelli mancanti. Ogni script viene eseguito in una singola transazione
+ * insieme alla sua registrazione: in caso di errore lo schema resta
+ * alla versione precedente.
+ * </p>
+ *
+ * <p>
+ * Per ogni versione applicata viene memorizzato lo SHA-256 dello script.
+ * Se uno script già applicato viene modificato, l'avvio viene interrotto:
+ * le modifiche allo schema vanno sempre introdotte con una nuova versione.
+ * Fanno eccezione le correzioni che non cambiano lo schema risultante, per
+ * le quali la migrazione elenca i checksum delle versioni sostituite.
+ * </p>
+ *
+ * <p>
+ * Più istanze del server avviate insieme non applicano due volte la stessa
+ * migrazione: l'esecuzione è serializzata da un advisory lock PostgreSQL.
+ * </p>
+ *
+ * <p>
+ * Pattern architetturale adottato: <b>Singleton</b>.
+ * </p>
+ */
+public final class SchemaMigrator extends GenericCRUD {
+
+    /** Istanza singleton del migratore. */
+    private static SchemaMigrator instance;
+
+    /** Chiave dell'advisory lock che serializza le migrazioni. */
+    private static final long LOCK_KEY = 0x7468656b6e696665L; // "theknife"
+
+    /** Cartella del classpath che contiene gli script. */
+    private static final String BASE_PATH = "/db/migration/";
+
+    /**
+     * Elenco ordinato delle migrazioni note.
+     * Le nuove versioni vanno aggiunte in coda, senza modificare le precedenti.
+     */
+    private static final Migration[] MIGRATIONS = {
+            new Migration(1, "schema iniziale", "V1__schema_iniziale.sql"),
+            new Migration(2, "indici prestazioni", "V2__indici_prestazioni.sql",
+                    // prima versione, che rimuoveva i duplicati invece di segnalarli
+                    "e19485956f2563494dbbc8fa9961eeb8a8720ce2441adcb8e1d6513c512871f3"),
+            new Migration(3, "statistiche ristoranti", "V3__statistiche_ristoranti.sql"),
+            new Migration(4, "indici paginazione a cursore", "V4__indici_paginazione_cursore.sql"),
+            new Migration(5, "indice coordinate", "V5__indice_coordinate.sql"),
+            new Migration(6, "tag cucina", "V6__tag_cucina.sql"),
+    };
+
+    private final ServerLogger log = ServerLogger.getInstance();
+
+    /**
+     * Costruttore privato.
+     */
+    private SchemaMigrator() { }
+
+    /**
+     * Restituisce l'unica istanza del migratore.
+     *
+     * @return istanza singleton
+     */
+    public static synchronized SchemaMigrator getInstance() {
+        if (instance == null)
+            instance = new SchemaMigrator();
+        return instance;
+    }
+
+    /**
+     * Porta lo schema del database all'ultima versione disponibile.
+     *
+     * @return numero di migrazioni applicate
+     * @throws RuntimeException se uno script manca, è stato modificato
+     *         dopo l'applicazione o la sua esecuzione fallisce
+     */
+    public int migrate() {
+        try (Connection conn = connMgr.getConnection()) {
+
+            try (PreparedStatement ps = conn.prepareStatement("SELECT pg_advisory_lock(?)")) {
+                ps.setLong(1, LOCK_KEY);
+                ps.execute();
+            }
+
+            try {
+                createVersionTable(conn);
+                Map<Integer, String> applied = loadApplied(conn);
+                verifyUnknown(applied);
+
+                int count = 0;
+                for (Migration m : MIGRATIONS) {
+                    String script = load(m.resource);
+                    String checksum = sha256(script);
+
+                    String stored = applied.get(m.version);
+                    if (stored != null) {
+                        if (!stored.equals(checksum) && !m.replaces(stored)) {
+                            throw new RuntimeException("Migrazione V" + m.version
+                                    + " modificata dopo l'applicazione (checksum diverso): "
+                                    + m.resource);
+                        }
+                        continue;
+                    }
+
+                    apply(conn, m, script, checksum);
+                    count++;
+                }
+
+                log.info("Schema database alla versione V" + MIGRATIONS[MIGRATIONS.length - 1].version
+                        + " (" + count + " migrazioni applicate)");
+                return count;
+
+            } finally {
+                try (PreparedStatement ps = conn.prepareStatement("SELECT pg_advisory_unlock(?)")) {
+                    ps.setLong(1, LOCK_KEY);
+                    ps.execute();
+                }
+            }
+
+        } catch (SQLException e) {
+            throw new RuntimeException("Errore durante la migrazione dello schema: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Crea, se assente, la tabella delle versioni applicate.
+     *
+     * @param conn connessione in uso
+     * @throws SQLException errore durante l'accesso al database
+     */
+    private void createVersionTable(Connection conn) throws SQLException {
+        String sql = """
+            CREATE TABLE IF NOT EXISTS schema_migrazioni (
+                versione INTEGER PRIMARY KEY,
+                descrizione VARCHAR(100) NOT NULL,
+                checksum CHAR(64) NOT NULL,
+                applicata_il TIMESTAMP NOT NULL DEFAULT now()
+            )
+        """;
+
+        try (Statement st = conn.createStatement()) {
+            st.execute(sql);
+        }
+    }
+
+    /**
+     * Legge le versioni già applicate con il relativo checksum.
+     *
+     * @param conn connessione in uso
+     * @return mappa versione → checksum
+     * @throws SQLException errore durante l'accesso al database
+     */
+    private Map<Integer, String> loadApplied(Connection conn) throws SQLException {
+        String sql = """
+            SELECT versione, checksum
+            FROM schema_migrazioni
+        """;
+
+        Map<Integer, String> out = new HashMap<>();
+        try (Statement st = conn.createStatement();
+             ResultSet rs = st.executeQuery(sql)) {
+            while (rs.next()) {
+                out.put(rs.getInt(1), rs.getString(2).trim());
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Segnala le versioni registrate nel database ma sconosciute a questo server,
+     * tipicamente applicate da una versione più recente dell'applicazione.
+     *
+     * @param applied versioni già applicate
+     */
+    private void verifyUnknown(Map<Integer, String> applied) {
+        Set<Integer> known = new HashSet<>();
+        for (Migration m : MIGRATIONS) {
+            known.add(m.version);
+        }
+        for (Integer v : applied.keySet()) {
+            if (!known.contains(v)) {
+                log.warning("Schema database: versione V" + v + " sconosciuta a questo server.");
+            }
+        }
+    }
+
+    /**
+     * Applica una migrazione e la registra nella stessa transazione.
+     *
+     * @param conn connessione in uso
+     * @param m migrazione da applicare
+     * @param script testo SQL dello script
+     * @param checksum SHA-256 dello script
+     * @throws SQLException errore durante l'esecuzione dello script
+     */
+    private void apply(Connection conn, Migration m, String script, String checksum) throws SQLException {
+        String sql = """
+            INSERT INTO schema_migrazioni (versione, descrizione, checksum)
+            VALUES (?, ?, ?)
+        """;
+
+        log.info("Applicazione migrazione V" + m.version + " (" + m.description + ")");
+
+        conn.setAutoCommit(false);
+        try {
+            try (Statement st = conn.createStatement()) {
+                st.execute(script);
+            }
+            try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                ps.setInt(1, m.version);
+                ps.setString(2, m.description);
+                ps.setString(3, checksum);
+                ps.executeUpdate();
+            }
+            conn.commit();
+        } catch (SQLException | RuntimeException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * Carica uno script dal classpath normalizzando i fine riga,
+     * così che il checksum non dipenda dal sistema operativo del checkout.
+     *
+     * @param resource nome del file nella cartella delle migrazioni
+     * @return testo dello script
+     * @throws RuntimeException se lo script non è presente o non è leggibile
+     */
+    private static String load(String resource) {
+        try (InputStream in = SchemaMigrator.class.getResourceAsStream(BASE_PATH + resource)) {
+            if (in == null) {
+                throw new RuntimeException("Script di migrazione mancante: " + resource);
+            }
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8).replace("\r\n", "\n");
+        } catch (IOException e) {
+            throw new RuntimeException("Impossibile leggere lo script di migrazione: " + resource, e);
+        }
+    }
+
+    /**
+     * Calcola lo SHA-256 esadecimale di un testo.
+     *
+     * @param text testo da firmare
+     * @return digest in esadecimale minuscolo
+     */
+    private static String sha256(String text) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256")
+                    .digest(text.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder(64);
+            for (byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16))
+                  .append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 non disponibile", e);
+        }
+    }
+
+    /**
+     * Descrittore di una migrazione: versione, descrizione e script.
+     */
+    private static final class Migration {
+
+        private final int version;
+        private final String description;
+        private final String resource;
+
+        /** Checksum di versioni precedenti dello script, equivalenti per lo schema. */
+        private final Set<String> replaced;
+
+        private Migration(int version, String description, String resource, String... replaced) {
+            this.version = version;
+            this.description = description;
+            this.resource = resource;
+            this.replaced = Set.of(replaced);
+        }
+
+        /**
+         * @param checksum checksum registrato nel database
+         * @return {@code true} se corrisponde a una versione sostituita dello script
+         */
+        private boolean replaces(String checksum) {
+            return replaced.contains(checksum);
+        }
+    }
+}
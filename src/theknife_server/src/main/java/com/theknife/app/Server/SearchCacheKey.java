@@ -0,0 +1,133 @@
+package com.theknife.app.Server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Chiave della cache dei risultati di ricerca dei ristoranti.
+ *
+ * <p>
+ * È composta dalla pagina e dai soli filtri effettivamente applicati da
+ * {@link RestaurantCRUD#getRestaurantsWithFilter(int, RestaurantFilter)},
+ * in forma normalizzata: due richieste che producono la stessa query
+ * condividono la stessa voce. Ad esempio le coordinate senza raggio
+ * vengono ignorate, i preferiti non attivi valgono sempre {@code -1} e
+ * le cucine sono ordinate.
+ * </p>
+ *
+ * <p>
+ * Espone inoltre i criteri usati da {@link DBHandler} per invalidare solo
+ * le voci influenzate da una scrittura.
+ * </p>
+ */
+final class SearchCacheKey {
+
+    private final int page;
+    private final String nation;
+    private final String city;
+    private final Double lat;
+    private final Double lon;
+    private final Double rangeKm;
+    private final Integer priceMin;
+    private final Integer priceMax;
+    private final boolean delivery;
+    private final boolean online;
+    private final Double starsMin;
+    private final Double starsMax;
+    private final int favouriteUserId;
+    private final List<String> cuisines;
+
+    private final int hash;
+
+    /**
+     * Crea la chiave di una ricerca.
+     *
+     * @param page pagina richiesta
+     * @param f filtri della ricerca
+     */
+    SearchCacheKey(int page, RestaurantFilter f) {
+        this.page = page;
+
+        boolean location = f.hasLocation();
+        this.nation = location ? f.getNation() : null;
+        this.city = location ? f.getCity() : null;
+
+        boolean range = f.hasRange();
+        this.lat = range ? f.getLat() : null;
+        this.lon = range ? f.getLon() : null;
+        this.rangeKm = range ? f.getRangeKm() : null;
+
+        this.priceMin = f.getPriceMin();
+        this.priceMax = f.getPriceMax();
+        this.delivery = f.isDelivery();
+        this.online = f.isOnline();
+        this.starsMin = f.getStarsMin();
+        this.starsMax = f.getStarsMax();
+        this.favouriteUserId = f.hasFavourites() ? f.getFavouriteUserId() : -1;
+
+        List<String> sorted = new ArrayList<>(f.getCuisines());
+        Collections.sort(sorted);
+        this.cuisines = List.copyOf(sorted);
+
+        this.hash = Objects.hash(page, nation, city, lat, lon, rangeKm,
+                priceMin, priceMax, delivery, online,
+                starsMin, starsMax, favouriteUserId, cuisines);
+    }
+
+    /**
+     * Indica se una modifica a un ristorante della località indicata
+     * può cambiare il contenuto di questa ricerca.
+     *
+     * @param restNation nazione del ristorante modificato
+     * @param restCity città del ristorante modificato
+     * @return {@code true} se la ricerca non filtra per località
+     *         oppure filtra proprio per quella indicata
+     */
+    boolean matchesLocation(String restNation, String restCity) {
+        return nation == null
+                || (nation.equals(restNation) && city.equals(restCity));
+    }
+
+    /** @return {@code true} se la ricerca dipende dalla valutazione media */
+    boolean hasStars() {
+        return starsMin != null || starsMax != null;
+    }
+
+    /**
+     * Indica se la ricerca è limitata ai preferiti di un utente.
+     *
+     * @param userId id dell'utente
+     * @return {@code true} se la ricerca filtra per i preferiti di {@code userId}
+     */
+    boolean isFavouritesOf(int userId) {
+        return favouriteUserId == userId;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof SearchCacheKey)) return false;
+        SearchCacheKey k = (SearchCacheKey) o;
+        return page == k.page
+                && delivery == k.delivery
+                && online == k.online
+                && favouriteUserId == k.favouriteUserId
+                && Objects.equals(nation, k.nation)
+                && Objects.equals(city, k.city)
+                && Objects.equals(lat, k.lat)
+                && Objects.equals(lon, k.lon)
+                && Objects.equals(rangeKm, k.rangeKm)
+                && Objects.equals(priceMin, k.priceMin)
+                && Objects.equals(priceMax, k.priceMax)
+                && Objects.equals(starsMin, k.starsMin)
+                && Objects.equals(starsMax, k.starsMax)
+                && cuisines.equals(k.cuisines);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+}
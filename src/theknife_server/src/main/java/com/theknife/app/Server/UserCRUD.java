@@ -10,7 +10,7 @@ import java.util.ArrayList;
  * le funzionalità legate all'utente come:
  * </p>
  * <ul>
- *     <li>Registrazione</li>
+ *     <li>Registrazione e caricamento degli username per il {@link UsernameFilter}</li>
  *     <li>Recupero credenziali</li>
  *     <li>Recupero informazioni utente</li>
  *     <li>Lettura posizione geografica utente</li>
@@ -28,6 +28,9 @@ import java.util.ArrayList;
 public class UserCRUD 
     extends GenericCRUD {
 
+    /** SQLSTATE di PostgreSQL per la violazione di un vincolo di unicità. */
+    private static final String UNIQUE_VIOLATION = "23505";
+
     /**
      * Costruttore 
      */
@@ -46,7 +49,8 @@ public class UserCRUD
      * @param lat latitudine del domicilio
      * @param lon longitudine del domicilio
      * @param isRist {@code true} se l'utente è ristoratore
-     * @return {@code true} se l'inserimento ha avuto successo
+     * @return {@code true} se l'inserimento ha avuto successo,
+     *         {@code false} se lo username è già registrato
      *
      * @throws SQLException problemi nella query SQL
      * @throws InterruptedException in caso l'operazione venga interrotta
@@ -81,7 +85,82 @@ public class UserCRUD
             ps.setBoolean(8, isRist);
 
             return ps.executeUpdate() == 1;
+        } catch (SQLException e) {
+            // unique_violation: username registrato nel frattempo
+            if (UNIQUE_VIOLATION.equals(e.getSQLState())) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Verifica se lo username indicato è già registrato.
+     *
+     * @param username username da controllare
+     * @return {@code true} se esiste un utente con questo username
+     *
+     * @throws SQLException problemi nella query SQL
+     * @throws InterruptedException in caso di interruzione
+     */
+    public boolean userExists(String username)
+            throws SQLException, InterruptedException {
+
+        String sql = "SELECT 1 FROM utenti WHERE username = ?";
+
+        try (Connection conn = connMgr.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+
+            ps.setString(1, username);
+
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+
+    /**
+     * Conta gli utenti registrati.
+     *
+     * @return numero di utenti
+     *
+     * @throws SQLException problemi nella query SQL
+     * @throws InterruptedException in caso di interruzione
+     */
+    int countUsers() throws SQLException, InterruptedException {
+        try (Connection conn = connMgr.getConnection();
+             PreparedStatement ps = conn.prepareStatement("SELECT COUNT(*) FROM utenti");
+             ResultSet rs = ps.executeQuery()) {
+            return extractCount(rs);
+        }
+    }
+
+    /**
+     * Carica tutti gli username nel filtro indicato.
+     *
+     * @param filter filtro da popolare
+     * @return numero di username caricati
+     *
+     * @throws SQLException problemi nella query SQL
+     * @throws InterruptedException in caso di interruzione
+     */
+    int loadUsernames(UsernameFilter filter)
+            throws SQLException, InterruptedException {
+
+        int count = 0;
+        try (Connection conn = connMgr.getConnection();
+             PreparedStatement ps = conn.prepareStatement("SELECT username FROM utenti")) {
+
+            ps.setFetchSize(1000);
+
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    filter.add(rs.getString(1));
+                    count++;
+                }
+            }
         }
+        return count;
     }
 
     /**
@@ -124,6 +203,38 @@ public class UserCRUD
         }
     }
 
+    /**
+     * Sostituisce l'hash della password di un utente, solo se quello salvato
+     * è ancora {@code oldHash}: un cambio concorrente non viene sovrascritto.
+     *
+     * @param id id dell'utente
+     * @param oldHash hash attualmente salvato
+     * @param newHash nuovo hash
+     * @return {@code true} se l'hash è stato aggiornato
+     *
+     * @throws SQLException errore nella query SQL
+     * @throws InterruptedException in caso di interruzione
+     */
+    public boolean updatePasswordHash(int id, String oldHash, String newHash)
+            throws SQLException, InterruptedException {
+
+        String sql = """
+            UPDATE utenti
+            SET password = ?
+            WHERE id = ? AND password = ?
+        """;
+
+        try (Connection conn = connMgr.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+
+            ps.setString(1, newHash);
+            ps.setInt(2, id);
+            ps.setString(3, oldHash);
+
+            return ps.executeUpdate() == 1;
+        }
+    }
+
     /**
      * Restituisce le informazioni di profilo utente.
      *
@@ -0,0 +1,134 @@
+package com.theknife.app.Server;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Filtro di Bloom in memoria degli username registrati.
+ *
+ * <p>
+ * Risponde a "questo username esiste?" con {@code false} certo oppure con
+ * {@code true} probabile: un {@code false} permette di rispondere a login
+ * e registrazioni con username inesistenti senza interrogare il database,
+ * mentre un {@code true} va sempre confermato da una query. Gli username
+ * non vengono mai rimossi, coerentemente con l'assenza di una cancellazione
+ * degli utenti.
+ * </p>
+ *
+ * <p>
+ * Il filtro è dimensionato alla costruzione per il numero di username
+ * previsto con una probabilità di falso positivo dell'1%; oltre quel numero
+ * la probabilità cresce gradualmente, senza mai produrre falsi negativi.
+ * Le letture sono senza lock; gli inserimenti impostano i bit con
+ * operazioni atomiche.
+ * </p>
+ *
+ * <p>
+ * Il filtro viene caricato all'avvio da {@link DBHandler} e aggiornato da
+ * quest'ultimo dopo ogni registrazione.
+ * </p>
+ */
+final class UsernameFilter {
+
+    /** Bit per username, per una probabilità di falso positivo dell'1%. */
+    private static final int BITS_PER_ENTRY = 10;
+
+    /** Funzioni di hash, ottimali per {@value #BITS_PER_ENTRY} bit per username. */
+    private static final int HASHES = 7;
+
+    private final AtomicLongArray words;
+    private final long bits;
+    private final int capacity;
+
+    private final LongAdder size = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * Crea un filtro vuoto.
+     *
+     * @param capacity username previsti
+     */
+    UsernameFilter(int capacity) {
+        this.capacity = Math.max(1, capacity);
+        int nWords = (int) Math.min(Integer.MAX_VALUE, ((long) this.capacity * BITS_PER_ENTRY + 63) / 64);
+        this.words = new AtomicLongArray(nWords);
+        this.bits = nWords * 64L;
+    }
+
+    /**
+     * Aggiunge uno username.
+     *
+     * @param username username registrato
+     */
+    void add(String username) {
+        long h = hash(username);
+        long h1 = mix(h);
+        long h2 = mix(h ^ 0x9E3779B97F4A7C15L) | 1;
+        for (int i = 0; i < HASHES; i++) {
+            long bit = Math.floorMod(h1 + i * h2, bits);
+            int w = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            long old;
+            do {
+                old = words.get(w);
+            } while ((old & mask) == 0 && !words.compareAndSet(w, old, old | mask));
+        }
+        size.increment();
+    }
+
+    /**
+     * Verifica se uno username potrebbe essere registrato.
+     *
+     * @param username username da verificare
+     * @return {@code false} se lo username sicuramente non esiste
+     */
+    boolean mightContain(String username) {
+        long h = hash(username);
+        long h1 = mix(h);
+        long h2 = mix(h ^ 0x9E3779B97F4A7C15L) | 1;
+        for (int i = 0; i < HASHES; i++) {
+            long bit = Math.floorMod(h1 + i * h2, bits);
+            if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                rejected.increment();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** @return ricerche risolte dal filtro senza accedere al database */
+    long getRejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * Riassume lo stato del filtro.
+     *
+     * @return username inseriti, capacità e ricerche evitate
+     */
+    String describe() {
+        return "username " + size.sum() + "/" + capacity
+                + ", " + (bits / 8 / 1024) + " KB"
+                + ", ricerche evitate " + rejected.sum();
+    }
+
+    /** FNV-1a a 64 bit sui caratteri dello username. */
+    private static long hash(String s) {
+        long h = 0xCBF29CE484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001B3L;
+        }
+        return h;
+    }
+
+    /** Finalizzatore di MurmurHash3, per distribuire i bit dell'hash. */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
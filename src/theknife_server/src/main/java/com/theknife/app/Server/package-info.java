@@ -27,6 +27,9 @@
  *
  *     <li>{@link com.theknife.app.Server.DBHandler}
  *         — punto di accesso centrale</li>
+ *
+ *     <li>{@link com.theknife.app.Server.SchemaMigrator}
+ *         — migrazioni versionate dello schema all'avvio</li>
  * </ol>
  *
  * <h2>Scopo</h2>
@@ -1,11 +1,18 @@
 package com.theknife.app;
 
+import com.theknife.app.Handler.AuthHandler;
+import com.theknife.app.Handler.LoginThrottle;
+import com.theknife.app.Handler.SessionTokens;
+import com.theknife.app.Handler.StatsHandler;
+import com.theknife.app.Server.DBHandler;
+
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -52,14 +59,28 @@ public class ServerApplication {
     /** Thread che gestisce l'accettazione indipendente dei client. */
     private Thread acceptThread;
 
-    private final List<ClientThread> clients;
+    /** Sessioni attive dei motori a thread; un set concorrente regge decine di migliaia di client. */
+    private final Set<ClientThread> clients = ConcurrentHashMap.newKeySet();
+
+    /** Builder dei thread di sessione: di piattaforma o virtuali, secondo la configurazione. */
+    private Thread.Builder sessionThreads;
+
+    /**
+     * Esecutore delle richieste multiplexate, condiviso da tutte le sessioni: un
+     * virtual thread per richiesta, oppure {@code server_workers} thread di piattaforma.
+     */
+    private ExecutorService requestExecutor;
+
+    /** Motore NIO in uso se avviato con {@code server_engine=nio}, altrimenti {@code null}. */
+    private volatile NioServerEngine nioEngine;
+
+    /** Endpoint delle metriche se configurato con {@code server_metrics_port}, altrimenti {@code null}. */
+    private MetricsHttpServer metrics;
 
     /**
      * Costruttore privato per garantire l'unicità dell'istanza.
      */
-    private ServerApplication() {
-        clients = Collections.synchronizedList(new ArrayList<>());
-    }
+    private ServerApplication() { }
 
     /**
      * Restituisce l’unica istanza del server.
@@ -85,11 +106,56 @@ public class ServerApplication {
      *         {@code false} se la porta non è disponibile o è già in run
      */
     public synchronized boolean start(int port) {
+        return start(port, ServerConfig.defaults());
+    }
+
+    /**
+     * Avvia il server sulla porta indicata con il motore di rete scelto in
+     * configurazione: un {@link ClientThread} per client, eseguito in un
+     * thread di piattaforma o in un virtual thread, oppure {@link NioServerEngine}.
+     *
+     * @param port porta TCP su cui avviare il server
+     * @param config configurazione del motore di rete
+     * @return {@code true} se l’avvio è avvenuto correttamente,
+     *         {@code false} se la porta non è disponibile o è già in run
+     */
+    public synchronized boolean start(int port, ServerConfig config) {
         if (running.get()) {
             log.warning("Start ignorato: server già avviato.");
             return false;
         }
 
+        CommandDispatcher.getInstance().setAdmission(
+                config.getMaxActiveRequests() > 0
+                        ? new AdmissionController(config.getMaxActiveRequests(),
+                                                  config.getMaxQueuedRequests(),
+                                                  config.getQueueTimeoutMs())
+                        : null);
+        StatsHandler.getInstance().setAccessToken(config.getStatsToken());
+        AuthWorkerPool.getInstance().configure(config.getAuthWorkers(), config.getAuthMaxQueued());
+        LoginThrottle.getInstance().configure(config.getAuthMaxUserFailures(),
+                config.getAuthMaxAddressFailures(), config.getAuthThrottleWindowS());
+        int strength = SecurityManager.getInstance().configure(config.getAuthBcryptCost(),
+                config.getAuthBcryptTargetMs());
+        log.info("Work factor BCrypt: " + strength
+                + (config.getAuthBcryptCost() > 0 ? " (configurato)" : " (calibrato su "
+                        + config.getAuthBcryptTargetMs() + " ms)"));
+        DBHandler.getInstance().setUsernameFilterEnabled(config.isAuthUsernameFilter());
+        SessionTokens.getInstance().configure(config.getSessionTokenSecret(), config.getSessionTokenTtlS());
+        AuthHandler.getInstance().setLeaseSeconds(config.getSessionLeaseS());
+
+        if (config.getEngine() == ServerConfig.Engine.NIO) {
+            NioServerEngine engine = new NioServerEngine(config.getWorkers(), config.getWorkerQueue());
+            if (!engine.start(port)) {
+                return false;
+            }
+            nioEngine = engine;
+            startMetrics(config.getMetricsBind(), config.getMetricsPort());
+            running.set(true);
+            log.info("Server avviato sulla porta " + port + " (motore NIO)");
+            return true;
+        }
+
         try {
             serverSocket = new ServerSocket(port);
         } catch (IOException e) {
@@ -97,15 +163,47 @@ public class ServerApplication {
             return false;
         }
 
+        boolean virtual = config.getEngine() == ServerConfig.Engine.VIRTUAL;
+        sessionThreads = virtual
+                ? Thread.ofVirtual().name("ClientVThread-", 1)
+                : Thread.ofPlatform().name("ClientThread-", 1);
+        // con i thread di piattaforma un pool limitato evita di creare un thread per
+        // richiesta; la coda resta limitata da MAX_IN_FLIGHT richieste per connessione
+        requestExecutor = virtual
+                ? Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("ClientVRequest-", 1).factory())
+                : Executors.newFixedThreadPool(config.getWorkers(),
+                        Thread.ofPlatform().name("ClientRequest-", 1).factory());
+
+        startMetrics(config.getMetricsBind(), config.getMetricsPort());
         running.set(true);
 
         acceptThread = new Thread(this::acceptLoop, "AcceptThread");
         acceptThread.start();
 
-        log.info("Server avviato sulla porta " + port);
+        log.info("Server avviato sulla porta " + port
+                + (config.getEngine() == ServerConfig.Engine.VIRTUAL ? " (virtual thread)" : ""));
         return true;
     }
 
+    /**
+     * Avvia l'endpoint delle metriche, se configurato. Un errore di bind
+     * non impedisce l'avvio del server, che resta semplicemente senza metriche.
+     *
+     * @param bind indirizzo dell'endpoint
+     * @param port porta dell'endpoint, {@code 0} se disattivato
+     */
+    private void startMetrics(String bind, int port) {
+        if (port == 0) {
+            return;
+        }
+        try {
+            metrics = new MetricsHttpServer(bind, port);
+            log.info("Metriche disponibili su http://" + bind + ":" + port + "/metrics");
+        } catch (IOException e) {
+            log.error("Errore di bind dell'endpoint delle metriche su " + bind + ":" + port + ": " + e.getMessage());
+        }
+    }
+
     /**
      * Loop continuo che accetta connessioni entranti finché {@link #running}
      * rimane {@code true}.
@@ -115,8 +213,10 @@ public class ServerApplication {
      * permettendo un arresto coerente.
      * </p>
      * <p>
-     * Per ogni connessione accettata viene creato un nuovo thread
-     * {@link ClientThread} che gestisce l’I/O client-server.
+     * Per ogni connessione accettata viene creato un nuovo
+     * {@link ClientThread} che gestisce l’I/O client-server; la sessione
+     * viene registrata prima dell'avvio, così che la sua rimozione al
+     * termine non possa precederne l'inserimento.
      * </p>
      */
     private void acceptLoop() {
@@ -128,10 +228,8 @@ public class ServerApplication {
                 log.info("Client connesso: " + clientSocket.getInetAddress());
 
                 ClientThread ct = new ClientThread(clientSocket);
-                
-                synchronized(clients){
-                    clients.add(ct);
-                }
+                clients.add(ct);
+                ct.start(sessionThreads, requestExecutor);
 
             } catch (IOException e) {
                 if (running.get()) {
@@ -169,12 +267,22 @@ public class ServerApplication {
         
         log.info("Arresto server in corso...");
         running.set(false);
+
+        if (metrics != null) {
+            metrics.stop();
+            metrics = null;
+        }
+
+        if (nioEngine != null) {
+            nioEngine.stop();
+            nioEngine = null;
+            log.info("Server arrestato correttamente.");
+            return;
+        }
         
-        synchronized(clients) {
-            log.info("Interruzione di " + clients.size() + " client...");
-            for (ClientThread ct : clients) {
-                ct.shutdown();
-            }
+        log.info("Interruzione di " + clients.size() + " client...");
+        for (ClientThread ct : clients) {
+            ct.shutdown();
         }
         
         try {
@@ -191,15 +299,17 @@ public class ServerApplication {
             Thread.currentThread().interrupt();
         }
         
-        synchronized(clients) {
-            for (ClientThread ct : clients) {
-                if (ct.isAlive()) {
-                    log.warning("Forzata interruzione di client thread rimasto vivo");
-                    ct.interrupt();
-                }
+        for (ClientThread ct : clients) {
+            if (ct.isAlive()) {
+                log.warning("Forzata interruzione di client thread rimasto vivo");
+                ct.interrupt();
             }
-            clients.clear();
         }
+        if (requestExecutor != null) {
+            requestExecutor.shutdownNow();
+            requestExecutor = null;
+        }
+        clients.clear();
         
         if (acceptThread != null) {
             try {
@@ -221,6 +331,16 @@ public class ServerApplication {
         clients.remove(client);
     }
 
+    /**
+     * Restituisce il numero di client attualmente connessi.
+     *
+     * @return client connessi, con qualunque motore di rete
+     */
+    public int getClientCount() {
+        NioServerEngine engine = nioEngine;
+        return engine != null ? engine.getConnectionCount() : clients.size();
+    }
+
     /**
      * Verifica se il server è attualmente attivo.
      *
@@ -0,0 +1,419 @@
+package com.theknife.app;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.Locale;
+import java.util.Properties;
+
+import com.theknife.app.Handler.AuthHandler;
+import com.theknife.app.Handler.LoginThrottle;
+import com.theknife.app.Handler.SessionTokens;
+
+/**
+ * Parametri del motore di rete del server, letti da {@code connection.ini}.
+ *
+ * <p>
+ * Chiavi riconosciute (tutte opzionali):
+ * </p>
+ * <ul>
+ *     <li>{@code server_engine}: {@code thread} (un thread per client, default),
+ *         {@code virtual} (un virtual thread per client)
+ *         oppure {@code nio} (selector non bloccante con pool di worker)</li>
+ *     <li>{@code server_workers}: thread worker del motore NIO e, con {@code server_engine=thread},
+ *         thread che eseguono le richieste multiplexate di tutti i client
+ *         (default {@value #DEFAULT_WORKERS})</li>
+ *     <li>{@code server_worker_queue}: richieste in attesa di un worker oltre le quali
+ *         il motore NIO smette di accodarne altre (default {@value #DEFAULT_WORKER_QUEUE})</li>
+ *     <li>{@code server_max_active_requests}: comandi che accedono al database eseguiti
+ *         contemporaneamente, {@code 0} per non limitarli (default {@code pool_max_size})</li>
+ *     <li>{@code server_max_queued_requests}: comandi in attesa oltre i quali il server
+ *         risponde {@code busy} (default {@value #DEFAULT_MAX_QUEUED_REQUESTS})</li>
+ *     <li>{@code server_queue_timeout_ms}: attesa massima in coda prima di rispondere
+ *         {@code busy} (default {@value #DEFAULT_QUEUE_TIMEOUT_MS})</li>
+ *     <li>{@code server_stats_token}: token che gli operatori inviano con il comando
+ *         {@code getStats} per leggere le latenze del server; se assente il comando è disattivato</li>
+ *     <li>{@code server_metrics_port}: porta dell'endpoint HTTP {@code /metrics} in formato
+ *         Prometheus, {@code 0} per disattivarlo (default)</li>
+ *     <li>{@code server_metrics_bind}: indirizzo su cui l'endpoint delle metriche è in ascolto
+ *         (default {@value #DEFAULT_METRICS_BIND}). L'endpoint non richiede autenticazione ed
+ *         espone latenze dei comandi, numero di utenti e login respinti, cioè gli stessi dati
+ *         protetti da {@code server_stats_token}: per default è raggiungibile solo dalla macchina
+ *         del server; {@code 0.0.0.0} lo espone su tutte le interfacce</li>
+ *     <li>{@code auth_workers}: thread dedicati a login e registrazioni, cioè a BCrypt
+ *         (default metà dei core)</li>
+ *     <li>{@code auth_max_queued}: login e registrazioni in attesa oltre i quali il server
+ *         risponde {@code busy} (default {@value AuthWorkerPool#DEFAULT_MAX_QUEUED})</li>
+ *     <li>{@code auth_max_user_failures}: login falliti per username, nella finestra, oltre i
+ *         quali il server risponde {@code throttled}; {@code 0} per nessun limite (default 5)</li>
+ *     <li>{@code auth_max_address_failures}: come il precedente, per indirizzo del client
+ *         (default 20)</li>
+ *     <li>{@code auth_throttle_window_s}: durata della finestra dei login falliti, in secondi
+ *         (default 900)</li>
+ *     <li>{@code auth_bcrypt_cost}: work factor di BCrypt (4-31); se assente viene calibrato
+ *         all'avvio con {@code auth_bcrypt_target_ms}</li>
+ *     <li>{@code auth_bcrypt_target_ms}: durata desiderata di una verifica BCrypt, in millisecondi,
+ *         usata per calibrare il work factor; {@code 0} per il default della libreria
+ *         (default {@value #DEFAULT_BCRYPT_TARGET_MS})</li>
+ *     <li>{@code auth_username_filter}: {@code false} per non usare il filtro in memoria degli
+ *         username, necessario se altre istanze del server registrano utenti sullo stesso
+ *         database (default {@code true})</li>
+ *     <li>{@code session_token_secret}: segreto con cui vengono firmati i token di sessione;
+ *         se assente viene generato all'avvio e i token non sopravvivono a un riavvio</li>
+ *     <li>{@code session_token_ttl_s}: validità dei token di sessione, in secondi
+ *         (default {@value SessionTokens#DEFAULT_TTL_SECONDS})</li>
+ *     <li>{@code session_lease_s}: inattività oltre la quale il login di una sessione può
+ *         essere riassegnato a un nuovo login (default {@value AuthHandler#DEFAULT_LEASE_SECONDS})</li>
+ *     <li>{@code log_level}: livello minimo dei messaggi di log, tra {@code debug}
+ *         (che include ogni comando ricevuto), {@code info} (default), {@code warning},
+ *         {@code error} e {@code alert}</li>
+ *     <li>{@code log_file}: file su cui copiare il log, oltre alla console; se assente
+ *         il log resta solo su console</li>
+ *     <li>{@code log_file_max_mb}: dimensione oltre la quale il file di log viene ruotato
+ *         (default {@value #DEFAULT_LOG_FILE_MAX_MB})</li>
+ *     <li>{@code log_file_count}: file di log ruotati da conservare
+ *         (default {@value #DEFAULT_LOG_FILE_COUNT})</li>
+ * </ul>
+ */
+public final class ServerConfig {
+
+    /** Thread worker di default del motore NIO. */
+    static final int DEFAULT_WORKERS = 16;
+
+    /** Capacità di default della coda dei worker del motore NIO. */
+    static final int DEFAULT_WORKER_QUEUE = 1024;
+
+    /** Comandi in attesa di default del controllo di ammissione. */
+    static final int DEFAULT_MAX_QUEUED_REQUESTS = 256;
+
+    /** Indirizzo di default dell'endpoint delle metriche: solo loopback. */
+    static final String DEFAULT_METRICS_BIND = "127.0.0.1";
+
+    /** Attesa massima di default in coda, in millisecondi. */
+    static final int DEFAULT_QUEUE_TIMEOUT_MS = 2000;
+
+    /** Durata di default di una verifica BCrypt per la calibrazione, in millisecondi. */
+    static final int DEFAULT_BCRYPT_TARGET_MS = 250;
+
+    /** Dimensione di default del file di log prima della rotazione, in MB. */
+    static final int DEFAULT_LOG_FILE_MAX_MB = 10;
+
+    /** File di log ruotati conservati per default. */
+    static final int DEFAULT_LOG_FILE_COUNT = 5;
+
+    /**
+     * Motori di rete disponibili.
+     */
+    public enum Engine {
+        /** Un {@link ClientThread} bloccante per ogni client, in un thread di piattaforma. */
+        THREAD,
+        /** Un {@link ClientThread} bloccante per ogni client, in un virtual thread. */
+        VIRTUAL,
+        /** Un selector NIO e un pool limitato di worker ({@link NioServerEngine}). */
+        NIO
+    }
+
+    private final Engine engine;
+    private final int workers;
+    private final int workerQueue;
+    private final int maxActiveRequests;
+    private final int maxQueuedRequests;
+    private final int queueTimeoutMs;
+    private final String statsToken;
+    private final int metricsPort;
+    private final String metricsBind;
+    private final int authWorkers;
+    private final int authMaxQueued;
+    private final int authMaxUserFailures;
+    private final int authMaxAddressFailures;
+    private final int authThrottleWindowS;
+    private final int authBcryptCost;
+    private final int authBcryptTargetMs;
+    private final boolean authUsernameFilter;
+    private final String sessionTokenSecret;
+    private final int sessionTokenTtlS;
+    private final int sessionLeaseS;
+    private final ServerLogger.Level logLevel;
+    private final String logFile;
+    private final int logFileMaxMb;
+    private final int logFileCount;
+
+    private ServerConfig(Engine engine, int workers, int workerQueue,
+                         int maxActiveRequests, int maxQueuedRequests, int queueTimeoutMs,
+                         String statsToken, int metricsPort, String metricsBind,
+                         int authWorkers, int authMaxQueued,
+                         int authMaxUserFailures, int authMaxAddressFailures, int authThrottleWindowS,
+                         int authBcryptCost, int authBcryptTargetMs, boolean authUsernameFilter,
+                         String sessionTokenSecret, int sessionTokenTtlS, int sessionLeaseS,
+                         ServerLogger.Level logLevel, String logFile, int logFileMaxMb, int logFileCount) {
+        this.engine = engine;
+        this.workers = workers;
+        this.workerQueue = workerQueue;
+        this.maxActiveRequests = maxActiveRequests;
+        this.maxQueuedRequests = maxQueuedRequests;
+        this.queueTimeoutMs = queueTimeoutMs;
+        this.statsToken = statsToken;
+        this.metricsPort = metricsPort;
+        this.metricsBind = metricsBind;
+        this.authWorkers = authWorkers;
+        this.authMaxQueued = authMaxQueued;
+        this.authMaxUserFailures = authMaxUserFailures;
+        this.authMaxAddressFailures = authMaxAddressFailures;
+        this.authThrottleWindowS = authThrottleWindowS;
+        this.authBcryptCost = authBcryptCost;
+        this.authBcryptTargetMs = authBcryptTargetMs;
+        this.authUsernameFilter = authUsernameFilter;
+        this.sessionTokenSecret = sessionTokenSecret;
+        this.sessionTokenTtlS = sessionTokenTtlS;
+        this.sessionLeaseS = sessionLeaseS;
+        this.logLevel = logLevel;
+        this.logFile = logFile;
+        this.logFileMaxMb = logFileMaxMb;
+        this.logFileCount = logFileCount;
+    }
+
+    /**
+     * Legge la configurazione da {@code connection.ini}; se il file non è
+     * disponibile vengono usati i valori di default.
+     *
+     * @return configurazione del server
+     * @throws RuntimeException se un parametro presente non è valido
+     */
+    public static ServerConfig load() {
+        Properties prop = new Properties();
+
+        File root = ConnectionManager.findConfigurationRoot();
+        File iniFile = root == null ? null : new File(root, "connection.ini");
+        if (iniFile != null && iniFile.exists()) {
+            try (FileInputStream fis = new FileInputStream(iniFile)) {
+                prop.load(fis);
+            } catch (Exception e) {
+                throw new RuntimeException("Errore lettura connection.ini", e);
+            }
+        }
+
+        return fromProperties(prop);
+    }
+
+    /**
+     * Restituisce la configurazione di default (motore a thread).
+     *
+     * @return configurazione di default
+     */
+    public static ServerConfig defaults() {
+        return fromProperties(new Properties());
+    }
+
+    /**
+     * Costruisce la configurazione a partire dalle proprietà indicate.
+     *
+     * @param prop proprietà lette da {@code connection.ini}
+     * @return configurazione del server
+     * @throws RuntimeException se un parametro presente non è valido
+     */
+    static ServerConfig fromProperties(Properties prop) {
+        String rawEngine = prop.getProperty("server_engine", "thread").trim();
+        Engine engine;
+        try {
+            engine = Engine.valueOf(rawEngine.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new RuntimeException("connection.ini non valido: server_engine=" + rawEngine);
+        }
+
+        String rawLevel = prop.getProperty("log_level", "info").trim();
+        ServerLogger.Level logLevel;
+        try {
+            logLevel = ServerLogger.Level.valueOf(rawLevel.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new RuntimeException("connection.ini non valido: log_level=" + rawLevel);
+        }
+
+        int bcryptCost = readInt(prop, "auth_bcrypt_cost", 0, 0);
+        if (bcryptCost != 0 && (bcryptCost < 4 || bcryptCost > 31)) {
+            throw new RuntimeException("connection.ini non valido: auth_bcrypt_cost=" + bcryptCost);
+        }
+
+        String rawFilter = prop.getProperty("auth_username_filter", "true").trim();
+        if (!rawFilter.equalsIgnoreCase("true") && !rawFilter.equalsIgnoreCase("false")) {
+            throw new RuntimeException("connection.ini non valido: auth_username_filter=" + rawFilter);
+        }
+
+        String metricsBind = prop.getProperty("server_metrics_bind", DEFAULT_METRICS_BIND).trim();
+        if (metricsBind.isEmpty()) {
+            throw new RuntimeException("connection.ini non valido: server_metrics_bind vuoto");
+        }
+
+        // per default i comandi concorrenti non superano le connessioni del pool
+        int poolMax = readInt(prop, "pool_max_size", ConnectionPool.DEFAULT_MAX_SIZE, 1);
+
+        return new ServerConfig(
+                engine,
+                readInt(prop, "server_workers", DEFAULT_WORKERS, 1),
+                readInt(prop, "server_worker_queue", DEFAULT_WORKER_QUEUE, 1),
+                readInt(prop, "server_max_active_requests", poolMax, 0),
+                readInt(prop, "server_max_queued_requests", DEFAULT_MAX_QUEUED_REQUESTS, 0),
+                readInt(prop, "server_queue_timeout_ms", DEFAULT_QUEUE_TIMEOUT_MS, 0),
+                prop.getProperty("server_stats_token", "").trim(),
+                readInt(prop, "server_metrics_port", 0, 0),
+                metricsBind,
+                readInt(prop, "auth_workers", AuthWorkerPool.DEFAULT_WORKERS, 1),
+                readInt(prop, "auth_max_queued", AuthWorkerPool.DEFAULT_MAX_QUEUED, 1),
+                readInt(prop, "auth_max_user_failures", LoginThrottle.DEFAULT_MAX_USER_FAILURES, 0),
+                readInt(prop, "auth_max_address_failures", LoginThrottle.DEFAULT_MAX_ADDRESS_FAILURES, 0),
+                readInt(prop, "auth_throttle_window_s", LoginThrottle.DEFAULT_WINDOW_SECONDS, 1),
+                bcryptCost,
+                readInt(prop, "auth_bcrypt_target_ms", DEFAULT_BCRYPT_TARGET_MS, 0),
+                Boolean.parseBoolean(rawFilter),
+                prop.getProperty("session_token_secret", "").trim(),
+                readInt(prop, "session_token_ttl_s", SessionTokens.DEFAULT_TTL_SECONDS, 1),
+                readInt(prop, "session_lease_s", AuthHandler.DEFAULT_LEASE_SECONDS, 1),
+                logLevel,
+                prop.getProperty("log_file", "").trim(),
+                readInt(prop, "log_file_max_mb", DEFAULT_LOG_FILE_MAX_MB, 1),
+                readInt(prop, "log_file_count", DEFAULT_LOG_FILE_COUNT, 1)
+        );
+    }
+
+    /** @return motore di rete scelto */
+    public Engine getEngine() {
+        return engine;
+    }
+
+    /** @return thread worker del motore NIO o delle richieste multiplexate del motore a thread */
+    public int getWorkers() {
+        return workers;
+    }
+
+    /** @return capacità della coda dei worker del motore NIO */
+    public int getWorkerQueue() {
+        return workerQueue;
+    }
+
+    /** @return comandi che accedono al database eseguibili contemporaneamente, 0 se illimitati */
+    public int getMaxActiveRequests() {
+        return maxActiveRequests;
+    }
+
+    /** @return comandi che possono attendere un permesso di esecuzione */
+    public int getMaxQueuedRequests() {
+        return maxQueuedRequests;
+    }
+
+    /** @return attesa massima in coda, in millisecondi */
+    public int getQueueTimeoutMs() {
+        return queueTimeoutMs;
+    }
+
+    /** @return token di accesso al comando {@code getStats}, vuoto se il comando è disattivato */
+    public String getStatsToken() {
+        return statsToken;
+    }
+
+    /** @return porta dell'endpoint delle metriche, 0 se disattivato */
+    public int getMetricsPort() {
+        return metricsPort;
+    }
+
+    /** @return indirizzo su cui l'endpoint delle metriche è in ascolto */
+    public String getMetricsBind() {
+        return metricsBind;
+    }
+
+    /** @return thread del pool di autenticazione */
+    public int getAuthWorkers() {
+        return authWorkers;
+    }
+
+    /** @return login e registrazioni che possono attendere un thread del pool */
+    public int getAuthMaxQueued() {
+        return authMaxQueued;
+    }
+
+    /** @return login falliti consentiti per username nella finestra, 0 se illimitati */
+    public int getAuthMaxUserFailures() {
+        return authMaxUserFailures;
+    }
+
+    /** @return login falliti consentiti per indirizzo nella finestra, 0 se illimitati */
+    public int getAuthMaxAddressFailures() {
+        return authMaxAddressFailures;
+    }
+
+    /** @return durata della finestra dei login falliti, in secondi */
+    public int getAuthThrottleWindowS() {
+        return authThrottleWindowS;
+    }
+
+    /** @return work factor di BCrypt, 0 per calibrarlo */
+    public int getAuthBcryptCost() {
+        return authBcryptCost;
+    }
+
+    /** @return durata desiderata di una verifica BCrypt, in millisecondi, 0 per il default */
+    public int getAuthBcryptTargetMs() {
+        return authBcryptTargetMs;
+    }
+
+    /** @return {@code true} se il filtro in memoria degli username è attivo */
+    public boolean isAuthUsernameFilter() {
+        return authUsernameFilter;
+    }
+
+    /** @return segreto dei token di sessione, vuoto per una chiave casuale */
+    public String getSessionTokenSecret() {
+        return sessionTokenSecret;
+    }
+
+    /** @return validità dei token di sessione, in secondi */
+    public int getSessionTokenTtlS() {
+        return sessionTokenTtlS;
+    }
+
+    /** @return inattività oltre la quale il login di una sessione può essere riassegnato, in secondi */
+    public int getSessionLeaseS() {
+        return sessionLeaseS;
+    }
+
+    /** @return livello minimo dei messaggi di log */
+    public ServerLogger.Level getLogLevel() {
+        return logLevel;
+    }
+
+    /** @return file su cui copiare il log, vuoto per la sola console */
+    public String getLogFile() {
+        return logFile;
+    }
+
+    /** @return dimensione del file di log oltre la quale viene ruotato, in MB */
+    public int getLogFileMaxMb() {
+        return logFileMaxMb;
+    }
+
+    /** @return file di log ruotati da conservare */
+    public int getLogFileCount() {
+        return logFileCount;
+    }
+
+    /**
+     * Legge un parametro intero opzionale.
+     *
+     * @param prop proprietà lette
+     * @param key chiave del parametro
+     * @param def valore di default se la chiave è assente
+     * @param min valore minimo ammesso
+     * @return valore letto o di default
+     * @throws RuntimeException se il valore non è numerico o è inferiore al minimo
+     */
+    private static int readInt(Properties prop, String key, int def, int min) {
+        String raw = prop.getProperty(key);
+        if (raw == null || raw.isBlank()) {
+            return def;
+        }
+        try {
+            int v = Integer.parseInt(raw.trim());
+            if (v < min) throw new NumberFormatException();
+            return v;
+        } catch (NumberFormatException e) {
+            throw new RuntimeException("connection.ini non valido: " + key + "=" + raw);
+        }
+    }
+}
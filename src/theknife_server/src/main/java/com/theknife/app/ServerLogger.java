@@ -1,7 +1,15 @@
 package com.theknife.app;
 
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.io.File;
+import java.io.IOException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Implementazione singleton di un logger lato server.
@@ -11,12 +19,24 @@ import java.util.Date;
  * </p>
  * <ul>
  *     <li>consistenza nel formato dei messaggi</li>
- *     <li>thread-safety tramite sincronizzazione interna</li>
- *     <li>livelli di severità multipli (INFO, WARNING, ERROR, ALERT)</li>
+ *     <li>scrittura asincrona, senza lock sul thread chiamante</li>
+ *     <li>livelli di severità multipli (DEBUG, INFO, WARNING, ERROR, ALERT)
+ *         con una soglia sotto la quale i messaggi vengono ignorati</li>
  *     <li>timestamp associato a ogni output</li>
+ *     <li>copia opzionale su file a rotazione ({@link RollingLogFile})</li>
  * </ul>
  *
  * <p>
+ * I messaggi vengono depositati in un buffer circolare di dimensione fissa,
+ * con slot preallocati riservati tramite compare-and-set: il thread chiamante
+ * non attende né la console né il disco. Un thread dedicato svuota il buffer a
+ * blocchi, formatta le righe (il timestamp viene ricalcolato solo al cambio di
+ * secondo) e le scrive con un'unica operazione per blocco. Se il buffer è pieno
+ * i messaggi sotto {@code ERROR} vengono scartati e conteggiati, mentre errori
+ * e allarmi attendono uno slot libero.
+ * </p>
+ *
+ * <p>
  * Pattern implementato: Singleton.
  * L'accesso è sincronizzato in {@link #getInstance()} per garantire
  * la sicurezza nel caso di inizializzazioni parallele.
@@ -29,18 +49,92 @@ import java.util.Date;
  */
 public class ServerLogger implements Logger {
 
+    /**
+     * Livelli di severità, in ordine crescente.
+     */
+    public enum Level {
+        /** Tracce dettagliate, come i singoli comandi ricevuti. */
+        DEBUG,
+        /** Eventi di normale funzionamento. */
+        INFO,
+        /** Condizioni anomale non critiche. */
+        WARNING,
+        /** Errori significativi. */
+        ERROR,
+        /** Condizioni che richiedono l'intervento dell'operatore. */
+        ALERT
+    }
+
     /** Riferimento all’istanza singleton del logger. */
     private static ServerLogger instance = null;
 
+    /** Slot del buffer circolare; potenza di due. */
+    private static final int CAPACITY = 8192;
+    private static final int MASK = CAPACITY - 1;
+
     /**
      * Formatter per data e ora dei messaggi di log.
      * <p>Formato: {@code yyyy-MM-dd HH:mm:ss}</p>
      */
-    private final SimpleDateFormat sdf =
-            new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+    private static final DateTimeFormatter FORMAT =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneId.systemDefault());
+
+    /*
+     * Buffer circolare multi-produttore e singolo consumatore: lo slot i è
+     * libero per la posizione p quando sequences[i] == p e contiene un
+     * messaggio pubblicato quando sequences[i] == p + 1. I campi dello slot
+     * sono scritti prima della pubblicazione, che avviene con una scrittura
+     * volatile della sequenza.
+     */
+    private final AtomicLongArray sequences = new AtomicLongArray(CAPACITY);
+    private final long[] times = new long[CAPACITY];
+    private final Level[] levels = new Level[CAPACITY];
+    private final String[] messages = new String[CAPACITY];
+
+    /** Prossima posizione da riservare ai produttori. */
+    private final AtomicLong tail = new AtomicLong();
+
+    /** Prossima posizione da leggere; usata solo dal thread di scrittura. */
+    private long head;
+
+    /** Messaggi scartati perché il buffer era pieno. */
+    private final LongAdder dropped = new LongAdder();
+
+    /** Soglia sotto la quale i messaggi vengono ignorati. */
+    private volatile Level threshold = Level.INFO;
+
+    /**
+     * File a rotazione su cui copiare il log, {@code null} per la sola console.
+     * Usato solo dal thread di scrittura, essendo {@link RollingLogFile} non thread-safe.
+     */
+    private RollingLogFile file;
+
+    /** File impostato da {@link #setFile}, che il thread di scrittura sostituirà a {@link #file}. */
+    private final AtomicReference<RollingLogFile> pendingFile = new AtomicReference<>();
+
+    /** {@code true} mentre il thread di scrittura è sospeso in attesa di messaggi. */
+    private volatile boolean idle;
+
+    /** {@code false} dopo {@link #shutdown()}: i messaggi vengono scritti direttamente. */
+    private volatile boolean running = true;
+
+    private final Thread writer;
+
+    /* Stato del thread di scrittura. */
+    private final StringBuilder batch = new StringBuilder(64 * 1024);
+    private long cachedSecond = Long.MIN_VALUE;
+    private String cachedTime;
 
     /** Costruttore privato per impedire istanzazioni esterne. */
-    private ServerLogger() {}
+    private ServerLogger() {
+        for (int i = 0; i < CAPACITY; i++) {
+            sequences.set(i, i);
+        }
+        writer = new Thread(this::writeLoop, "ServerLogWriter");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown, "ServerLogShutdown"));
+    }
 
     /**
      * Restituisce l’unica istanza del logger server.
@@ -58,19 +152,230 @@ public class ServerLogger implements Logger {
     }
 
     /**
-     * Metodo interno, thread-safe, che stampa il messaggio di log
-     * formattato secondo il seguente schema:
+     * Imposta la soglia dei messaggi da scrivere.
+     *
+     * @param level livello minimo dei messaggi registrati
+     */
+    public void setLevel(Level level) {
+        this.threshold = level;
+    }
+
+    /** @return livello minimo dei messaggi registrati */
+    public Level getLevel() {
+        return threshold;
+    }
+
+    /**
+     * Copia il log anche su file, con rotazione per dimensione. Il file
+     * viene aperto subito e usato dai messaggi scritti successivamente;
+     * il file precedente viene chiuso dal thread di scrittura.
+     *
+     * @param path percorso del file di log
+     * @param maxBytes dimensione oltre la quale il file viene ruotato
+     * @param maxFiles file ruotati da conservare
+     * @throws IOException se il file non può essere aperto
+     */
+    public void setFile(File path, long maxBytes, int maxFiles) throws IOException {
+        // la sostituzione, e la chiusura del file precedente, avvengono nel thread di scrittura
+        RollingLogFile replaced = pendingFile.getAndSet(new RollingLogFile(path, maxBytes, maxFiles));
+        if (replaced != null) {
+            // mai usato dal thread di scrittura
+            replaced.close();
+        }
+        LockSupport.unpark(writer);
+    }
+
+    /**
+     * Svuota il buffer e arresta il thread di scrittura; i messaggi
+     * successivi vengono scritti in modo sincrono sulla console.
+     */
+    public void shutdown() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(2000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Metodo interno che deposita il messaggio nel buffer; il thread di
+     * scrittura lo formatterà secondo il seguente schema:
      *
      * <pre>
      * [yyyy-MM-dd HH:mm:ss][LEVEL] messaggio
      * </pre>
      *
-     * @param level livello del messaggio (INFO, WARNING, ERROR, ALERT)
+     * @param level livello del messaggio
      * @param msg messaggio da loggare
      */
-    private synchronized void log(String level, String msg) {
-        String time = sdf.format(new Date());
-        System.out.println("[" + time + "][" + level + "] " + msg);
+    private void log(Level level, String msg) {
+        if (level.compareTo(threshold) < 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (!running) {
+            synchronized (this) {
+                System.out.println("[" + FORMAT.format(Instant.ofEpochMilli(now)) + "][" + level + "] " + msg);
+            }
+            return;
+        }
+
+        long pos = tail.get();
+        int i;
+        while (true) {
+            i = (int) (pos & MASK);
+            long diff = sequences.get(i) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    break;
+                }
+                pos = tail.get();
+            } else if (diff < 0) {
+                // buffer pieno
+                if (level.compareTo(Level.ERROR) < 0) {
+                    dropped.increment();
+                    return;
+                }
+                Thread.yield();
+                pos = tail.get();
+            } else {
+                pos = tail.get();
+            }
+        }
+
+        times[i] = now;
+        levels[i] = level;
+        messages[i] = msg;
+        sequences.set(i, pos + 1);
+
+        if (idle) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    /**
+     * Ciclo del thread di scrittura: svuota il buffer a blocchi e si
+     * sospende quando non ci sono messaggi.
+     */
+    private void writeLoop() {
+        while (true) {
+            if (drain()) {
+                continue;
+            }
+            if (!running) {
+                drain();
+                swapFile();
+                if (file != null) {
+                    file.close();
+                }
+                return;
+            }
+            idle = true;
+            // ricontrolla dopo aver segnalato l'attesa, per non perdere un unpark
+            if (!isEmpty()) {
+                idle = false;
+                continue;
+            }
+            LockSupport.parkNanos(this, 1_000_000_000L);
+            idle = false;
+        }
+    }
+
+    private boolean isEmpty() {
+        return sequences.get((int) (head & MASK)) != head + 1;
+    }
+
+    /**
+     * Scrive i messaggi pubblicati.
+     *
+     * @return {@code true} se è stato scritto almeno un messaggio
+     */
+    private boolean drain() {
+        swapFile();
+        batch.setLength(0);
+        long lost = dropped.sumThenReset();
+        if (lost > 0) {
+            appendLine(System.currentTimeMillis(), Level.WARNING,
+                    lost + " messaggi di log scartati: buffer pieno");
+        }
+        int n = 0;
+        while (n < CAPACITY && !isEmpty()) {
+            int i = (int) (head & MASK);
+            appendLine(times[i], levels[i], messages[i]);
+            messages[i] = null;
+            sequences.set(i, head + CAPACITY);
+            head++;
+            n++;
+        }
+        if (batch.length() == 0) {
+            return false;
+        }
+
+        String text = batch.toString();
+        System.out.print(text);
+        System.out.flush();
+        if (file != null) {
+            try {
+                file.write(text);
+            } catch (IOException e) {
+                file.close();
+                file = null;
+                System.err.println("[LOG] Scrittura su file disattivata: " + e.getMessage());
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adotta il file impostato con {@link #setFile}, chiudendo il precedente.
+     */
+    private void swapFile() {
+        RollingLogFile next = pendingFile.getAndSet(null);
+        if (next != null) {
+            if (file != null) {
+                file.close();
+            }
+            file = next;
+        }
+    }
+
+    private void appendLine(long millis, Level level, String msg) {
+        long second = Math.floorDiv(millis, 1000);
+        if (second != cachedSecond) {
+            cachedSecond = second;
+            cachedTime = FORMAT.format(Instant.ofEpochSecond(second));
+        }
+        batch.append('[').append(cachedTime).append("][").append(level.name()).append("] ")
+             .append(msg).append(System.lineSeparator());
+    }
+
+    /**
+     * Log di dettaglio.
+     * <p>
+     * Utilizzare per tracce ad alta frequenza, come i singoli comandi;
+     * se il messaggio va composto, verificare prima {@link #isDebugEnabled()}.
+     * </p>
+     *
+     * @param msg messaggio di dettaglio
+     */
+    @Override
+    public void debug(String msg) {
+        log(Level.DEBUG, msg);
+    }
+
+    /**
+     * Indica se i messaggi di dettaglio vengono registrati.
+     *
+     * @return {@code true} se la soglia è {@link Level#DEBUG}
+     */
+    @Override
+    public boolean isDebugEnabled() {
+        return threshold == Level.DEBUG;
     }
 
     /**
@@ -81,7 +386,7 @@ public class ServerLogger implements Logger {
      */
     @Override
     public void info(String msg) {
-        log("INFO", msg);
+        log(Level.INFO, msg);
     }
 
     /**
@@ -95,7 +400,7 @@ public class ServerLogger implements Logger {
      */
     @Override
     public void warning(String msg) {
-        log("WARNING", msg);
+        log(Level.WARNING, msg);
     }
 
     /**
@@ -109,7 +414,7 @@ public class ServerLogger implements Logger {
      */
     @Override
     public void error(String msg) {
-        log("ERROR", msg);
+        log(Level.ERROR, msg);
     }
 
     /**
@@ -123,6 +428,6 @@ public class ServerLogger implements Logger {
      */
     @Override
     public void alert(String msg) {
-        log("ALERT", msg);
+        log(Level.ALERT, msg);
     }
 }
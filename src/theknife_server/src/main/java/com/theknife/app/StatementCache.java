@@ -0,0 +1,217 @@
+package com.theknife.app;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cache LRU dei {@link PreparedStatement} di una singola connessione fisica.
+ *
+ * <p>
+ * Ogni connessione del {@link ConnectionPool} possiede la propria cache,
+ * indicizzata sul testo SQL. Quando un CRUD richiede
+ * {@link Connection#prepareStatement(String)} per una query già vista
+ * sulla stessa connessione, riceve lo statement già preparato invece di
+ * crearne uno nuovo; la chiamata a {@link PreparedStatement#close()}
+ * non chiude lo statement, ma lo ripulisce e lo rimette in cache.
+ * </p>
+ *
+ * <p>
+ * Uno statement in uso viene temporaneamente rimosso dalla cache: se la
+ * stessa query viene preparata due volte in contemporanea sulla stessa
+ * connessione, la seconda copia non viene memorizzata e viene chiusa
+ * normalmente. Gli statement espulsi per limite di capacità vengono chiusi.
+ * </p>
+ *
+ * <p>
+ * Una connessione è usata da un solo thread alla volta; la sincronizzazione
+ * protegge soltanto dalla chiusura concorrente eseguita dalla manutenzione del pool.
+ * </p>
+ */
+final class StatementCache {
+
+    private final Connection physical;
+    private final int capacity;
+
+    private final LongAdder hits;
+    private final LongAdder misses;
+
+    /** Statement inattivi, in ordine di accesso (il primo è il meno recente). */
+    private final LinkedHashMap<String, PreparedStatement> idle;
+
+    /**
+     * Crea la cache per una connessione fisica.
+     *
+     * @param physical connessione fisica proprietaria degli statement
+     * @param capacity numero massimo di statement inattivi mantenuti
+     * @param hits contatore condiviso dei riusi
+     * @param misses contatore condiviso delle nuove preparazioni
+     */
+    StatementCache(Connection physical, int capacity, LongAdder hits, LongAdder misses) {
+        this.physical = physical;
+        this.capacity = capacity;
+        this.hits = hits;
+        this.misses = misses;
+        this.idle = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() > StatementCache.this.capacity) {
+                    closeQuietly(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Restituisce uno statement per la query indicata, riusandone uno
+     * inattivo se presente.
+     *
+     * @param sql testo della query
+     * @param owner proxy della connessione da esporre tramite {@code getConnection()}
+     * @return proxy dello statement; {@code close()} lo rimette in cache
+     * @throws SQLException se la preparazione fallisce
+     */
+    PreparedStatement prepare(String sql, Connection owner) throws SQLException {
+        PreparedStatement ps;
+        synchronized (this) {
+            ps = idle.remove(sql);
+        }
+
+        if (ps != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+            ps = physical.prepareStatement(sql);
+        }
+
+        return (PreparedStatement) Proxy.newProxyInstance(
+                PreparedStatement.class.getClassLoader(),
+                new Class<?>[]{ PreparedStatement.class },
+                new CachedStatement(sql, ps, owner)
+        );
+    }
+
+    /**
+     * Rimette in cache uno statement dopo l'uso.
+     *
+     * @param sql testo della query
+     * @param ps statement fisico
+     */
+    private void giveBack(String sql, PreparedStatement ps) {
+        try {
+            if (ps.isClosed()) {
+                return;
+            }
+            ResultSet rs = ps.getResultSet();
+            if (rs != null) {
+                rs.close();
+            }
+            ps.clearParameters();
+            ps.clearWarnings();
+        } catch (SQLException e) {
+            closeQuietly(ps);
+            return;
+        }
+
+        PreparedStatement previous;
+        synchronized (this) {
+            previous = idle.putIfAbsent(sql, ps);
+        }
+        if (previous != null) {
+            closeQuietly(ps);
+        }
+    }
+
+    /**
+     * Chiude tutti gli statement inattivi.
+     */
+    synchronized void clear() {
+        Iterator<PreparedStatement> it = idle.values().iterator();
+        while (it.hasNext()) {
+            closeQuietly(it.next());
+            it.remove();
+        }
+    }
+
+    /** @return numero di statement inattivi attualmente in cache */
+    synchronized int size() {
+        return idle.size();
+    }
+
+    private static void closeQuietly(PreparedStatement ps) {
+        try { ps.close(); } catch (SQLException ignored) {}
+    }
+
+    /**
+     * Gestore del proxy di uno statement prelevato dalla cache.
+     *
+     * <p>
+     * Intercetta {@code close()} per restituire lo statement alla cache,
+     * {@code getConnection()} per non esporre la connessione fisica e
+     * impedisce l'uso del proxy dopo la chiusura.
+     * </p>
+     */
+    private final class CachedStatement implements InvocationHandler {
+
+        private final String sql;
+        private final PreparedStatement ps;
+        private final Connection owner;
+        private boolean closed = false;
+
+        private CachedStatement(String sql, PreparedStatement ps, Connection owner) {
+            this.sql = sql;
+            this.ps = ps;
+            this.owner = owner;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close" -> {
+                    if (!closed) {
+                        closed = true;
+                        giveBack(sql, ps);
+                    }
+                    return null;
+                }
+                case "isClosed" -> {
+                    if (closed) return true;
+                }
+                case "getConnection" -> {
+                    return owner;
+                }
+                case "equals" -> {
+                    return proxy == args[0];
+                }
+                case "hashCode" -> {
+                    return System.identityHashCode(proxy);
+                }
+                case "toString" -> {
+                    return "CachedStatement[" + ps + "]";
+                }
+                default -> { }
+            }
+
+            if (closed) {
+                throw new SQLException("Statement già chiuso.");
+            }
+
+            try {
+                return method.invoke(ps, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
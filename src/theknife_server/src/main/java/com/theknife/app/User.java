@@ -5,6 +5,7 @@ import java.text.ParseException;
 import java.text.SimpleDateFormat;
 
 import com.theknife.app.Server.DBHandler;
+import com.theknife.app.Server.ServerException;
 
 /**
  * Servizio singleton utilizzato lato server per la gestione degli utenti.
@@ -13,7 +14,8 @@ import com.theknife.app.Server.DBHandler;
  * </p>
  * <ul>
  *     <li>registrazione utente</li>
- *     <li>validazione credenziali per il login</li>
+ *     <li>validazione credenziali per il login, con aggiornamento degli hash
+ *         salvati con un work factor diverso da quello corrente</li>
  *     <li>recupero informazioni utente</li>
  * </ul>
  *
@@ -136,6 +138,11 @@ public class User {
             return "coordinates";
         }
 
+        // evita l'hash BCrypt per uno username già registrato; il filtro
+        // degli username risponde senza query per quelli nuovi
+        if (db.userExists(username))
+            return "credentials";
+
         boolean ok = db.addUser(
                 nome,
                 cognome,
@@ -177,10 +184,31 @@ public class User {
         if (data == null)
             return -1; // username inesistente
 
-        if (security.verifyPassword(pw, data[1]))
-            return Integer.parseInt(data[0]); // autenticato
+        if (!security.verifyPassword(pw, data[1]))
+            return -2; // password errata
+
+        int id = Integer.parseInt(data[0]);
+        if (security.needsRehash(data[1]))
+            rehash(id, pw, data[1]);
 
-        return -2; // password errata
+        return id; // autenticato
+    }
+
+    /**
+     * Aggiorna l'hash di un utente al work factor corrente. Un errore non
+     * compromette il login: l'hash verrà ricalcolato al login successivo.
+     *
+     * @param id id utente
+     * @param pw password in chiaro appena verificata
+     * @param oldHash hash attualmente salvato
+     */
+    private void rehash(int id, String pw, String oldHash) {
+        try {
+            if (db.updatePasswordHash(id, oldHash, security.hashPassword(pw)))
+                security.recordRehash();
+        } catch (ServerException e) {
+            ServerLogger.getInstance().warning("Rehash password utente " + id + " fallito: " + e.getMessage());
+        }
     }
 
     /**
@@ -0,0 +1,48 @@
+-- Indici secondari per le query dei CRUD.
+
+-- Recensioni di un ristorante, paginate per id decrescente
+-- (getReviews, getReviewsPages, medie e conteggi delle stelle).
+CREATE INDEX IF NOT EXISTS idx_recensioni_ristorante
+    ON recensioni (id_ristorante, id DESC);
+
+-- Un utente può lasciare una sola recensione per ristorante.
+-- Eventuali duplicati pregressi non vengono rimossi automaticamente, perché
+-- con le recensioni verrebbero cancellate anche le risposte dei ristoratori:
+-- la migrazione si interrompe e l'operatore deve risolverli prima del riavvio.
+DO $$
+DECLARE
+    duplicati BIGINT;
+BEGIN
+    SELECT COUNT(*) INTO duplicati
+    FROM (
+        SELECT 1
+        FROM recensioni
+        GROUP BY id_utente, id_ristorante
+        HAVING COUNT(*) > 1
+    ) d;
+
+    IF duplicati > 0 THEN
+        RAISE EXCEPTION 'recensioni: % coppie (id_utente, id_ristorante) con più recensioni; '
+            'risolvere i duplicati prima di riavviare il server, ad es. con: '
+            'SELECT id_utente, id_ristorante, array_agg(id ORDER BY id) FROM recensioni '
+            'GROUP BY id_utente, id_ristorante HAVING COUNT(*) > 1', duplicati;
+    END IF;
+END
+$$;
+
+-- Copre anche le ricerche per solo id_utente (getMyReviews, getMyReviewsPages).
+CREATE UNIQUE INDEX IF NOT EXISTS uq_recensioni_utente_ristorante
+    ON recensioni (id_utente, id_ristorante);
+
+-- Ristoranti di un ristoratore, ordinati per nome (getMyRestaurants).
+CREATE INDEX IF NOT EXISTS idx_ristoranti_proprietario
+    ON "RistorantiTheKnife" (proprietario, nome);
+
+-- Filtro per nazione e città della ricerca, ordinato per nome.
+CREATE INDEX IF NOT EXISTS idx_ristoranti_nazione_citta
+    ON "RistorantiTheKnife" (nazione, citta, nome);
+
+-- La chiave primaria di preferiti inizia con id_utente: questo indice
+-- serve alla cancellazione in cascata dei ristoranti.
+CREATE INDEX IF NOT EXISTS idx_preferiti_ristorante
+    ON preferiti (id_ristorante);
@@ -0,0 +1,42 @@
+-- Statistiche delle recensioni per ristorante, mantenute in modo
+-- incrementale da ReviewCRUD nella stessa transazione della recensione.
+-- La media è una colonna generata: i filtri sulle stelle diventano
+-- predicati di intervallo indicizzabili.
+
+CREATE TABLE IF NOT EXISTS statistiche_ristoranti (
+    id_ristorante INTEGER PRIMARY KEY REFERENCES "RistorantiTheKnife"(id) ON DELETE CASCADE,
+    num_recensioni INTEGER NOT NULL DEFAULT 0,
+    somma_stelle INTEGER NOT NULL DEFAULT 0,
+    stelle_1 INTEGER NOT NULL DEFAULT 0,
+    stelle_2 INTEGER NOT NULL DEFAULT 0,
+    stelle_3 INTEGER NOT NULL DEFAULT 0,
+    stelle_4 INTEGER NOT NULL DEFAULT 0,
+    stelle_5 INTEGER NOT NULL DEFAULT 0,
+    media_stelle DOUBLE PRECISION GENERATED ALWAYS AS (
+        CASE WHEN num_recensioni > 0
+             THEN somma_stelle::DOUBLE PRECISION / num_recensioni
+             ELSE 0
+        END
+    ) STORED
+);
+
+CREATE INDEX IF NOT EXISTS idx_statistiche_media
+    ON statistiche_ristoranti (media_stelle)
+    WHERE num_recensioni > 0;
+
+-- Popolamento iniziale a partire dalle recensioni esistenti.
+INSERT INTO statistiche_ristoranti
+    (id_ristorante, num_recensioni, somma_stelle,
+     stelle_1, stelle_2, stelle_3, stelle_4, stelle_5)
+SELECT id_ristorante,
+       COUNT(*),
+       SUM(stelle),
+       COUNT(*) FILTER (WHERE stelle = 1),
+       COUNT(*) FILTER (WHERE stelle = 2),
+       COUNT(*) FILTER (WHERE stelle = 3),
+       COUNT(*) FILTER (WHERE stelle = 4),
+       COUNT(*) FILTER (WHERE stelle = 5)
+FROM recensioni
+WHERE id_ristorante IS NOT NULL
+GROUP BY id_ristorante
+ON CONFLICT (id_ristorante) DO NOTHING;
@@ -0,0 +1,12 @@
+-- Indici per la paginazione a cursore della ricerca ristoranti
+-- (ORDER BY nome, id con confronto (nome, id) > (?, ?)).
+
+CREATE INDEX IF NOT EXISTS idx_ristoranti_nome_id
+    ON "RistorantiTheKnife" (nome, id);
+
+-- Estende l'indice per nazione e città con l'id, così che anche
+-- le ricerche per località possano posizionarsi sul cursore.
+CREATE INDEX IF NOT EXISTS idx_ristoranti_nazione_citta_nome_id
+    ON "RistorantiTheKnife" (nazione, citta, nome, id);
+
+DROP INDEX IF EXISTS idx_ristoranti_nazione_citta;
@@ -0,0 +1,5 @@
+-- Indice per il prefiltro a rettangolo della ricerca per raggio:
+-- intervallo sulla latitudine, longitudine verificata sull'indice.
+
+CREATE INDEX IF NOT EXISTS idx_ristoranti_coordinate
+    ON "RistorantiTheKnife" (latitudine, longitudine);
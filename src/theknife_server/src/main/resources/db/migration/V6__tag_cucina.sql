@@ -0,0 +1,41 @@
+-- Dizionario normalizzato delle cucine e associazione ristorante/cucina.
+-- tipo_cucina resta il testo libero mostrato al client; i filtri di
+-- ricerca usano i tag, ottenuti separando il testo sulle virgole (o sui
+-- punti e virgola), rimuovendo gli spazi superflui e convertendo in
+-- minuscolo, con la stessa regola di CuisineTagIndex.parse.
+
+CREATE TABLE IF NOT EXISTS tag_cucina (
+    id SERIAL PRIMARY KEY,
+    nome VARCHAR(100) UNIQUE NOT NULL
+);
+
+CREATE TABLE IF NOT EXISTS ristoranti_tag (
+    id_ristorante INTEGER REFERENCES "RistorantiTheKnife"(id) ON DELETE CASCADE,
+    id_tag INTEGER REFERENCES tag_cucina(id),
+    PRIMARY KEY(id_ristorante, id_tag)
+);
+
+-- Ristoranti di una cucina (filtro di ricerca sul database).
+CREATE INDEX IF NOT EXISTS idx_ristoranti_tag_tag
+    ON ristoranti_tag (id_tag, id_ristorante);
+
+-- Popolamento iniziale a partire dal testo libero esistente.
+CREATE TEMPORARY TABLE tmp_tag_ristoranti ON COMMIT DROP AS
+SELECT DISTINCT id_ristorante, nome
+FROM (
+    SELECT r.id AS id_ristorante,
+           left(lower(btrim(regexp_replace(t.nome, '\s+', ' ', 'g'))), 100) AS nome
+    FROM "RistorantiTheKnife" r,
+         regexp_split_to_table(r.tipo_cucina, '[,;]') AS t(nome)
+) x
+WHERE nome <> '';
+
+INSERT INTO tag_cucina (nome)
+SELECT DISTINCT nome FROM tmp_tag_ristoranti
+ON CONFLICT (nome) DO NOTHING;
+
+INSERT INTO ristoranti_tag (id_ristorante, id_tag)
+SELECT tr.id_ristorante, t.id
+FROM tmp_tag_ristoranti tr
+JOIN tag_cucina t ON t.nome = tr.nome
+ON CONFLICT DO NOTHING;
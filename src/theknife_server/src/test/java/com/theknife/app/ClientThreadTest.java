@@ -0,0 +1,188 @@
+package com.theknife.app;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.theknife.app.Handler.ClientContext;
+import com.theknife.app.Handler.ClientTransport;
+
+/**
+ * Verifica la pianificazione delle richieste multiplexate di
+ * {@link ClientThread}: le richieste ordinarie vengono eseguite in parallelo,
+ * quelle che modificano la sessione attendono le richieste in corso.
+ */
+class ClientThreadTest {
+
+    /** Attesa massima di ogni passo, perché un errore non blocchi i test. */
+    private static final long TIMEOUT_S = 5;
+
+    /** Richieste in arrivo; una lista vuota chiude la connessione. */
+    private final BlockingQueue<List<String>> incoming = new LinkedBlockingQueue<>();
+
+    private final ExecutorService requests = Executors.newFixedThreadPool(4);
+    private final ExecutorService reader = Executors.newSingleThreadExecutor();
+
+    private ServerSocket listener;
+    private Socket client;
+    private Socket socket;
+
+    @BeforeEach
+    void connect() throws IOException {
+        listener = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        client = new Socket(InetAddress.getLoopbackAddress(), listener.getLocalPort());
+        socket = listener.accept();
+    }
+
+    @AfterEach
+    void disconnect() throws IOException {
+        requests.shutdownNow();
+        reader.shutdownNow();
+        socket.close();
+        client.close();
+        listener.close();
+    }
+
+    /** Avvia il loop multiplexato sul thread di lettura, come farebbe la sessione. */
+    private Future<?> startLoop(ClientThread.Dispatch dispatch) {
+        ClientThread ct = new ClientThread(socket, new ClientContext(new MuxTransport()), dispatch, requests);
+        return reader.submit(() -> {
+            ct.multiplexedLoop();
+            return null;
+        });
+    }
+
+    @Test
+    void requestsRunConcurrently() throws Exception {
+        CountDownLatch started = new CountDownLatch(2);
+        CountDownLatch release = new CountDownLatch(1);
+
+        Future<?> loop = startLoop((peer, cmd, ctx) -> {
+            started.countDown();
+            release.await(TIMEOUT_S, TimeUnit.SECONDS);
+        });
+        incoming.add(List.of("getRestaurantInfo", "1"));
+        incoming.add(List.of("getRestaurantInfo", "2"));
+
+        assertTrue(started.await(TIMEOUT_S, TimeUnit.SECONDS), "le due richieste devono essere in corso insieme");
+        release.countDown();
+        incoming.add(List.of());
+        loop.get(TIMEOUT_S, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void sessionCommandWaitsForRequestsInFlight() throws Exception {
+        CountDownLatch requestStarted = new CountDownLatch(1);
+        CountDownLatch releaseRequest = new CountDownLatch(1);
+        CountDownLatch logoutStarted = new CountDownLatch(1);
+        CountDownLatch releaseLogout = new CountDownLatch(1);
+        AtomicInteger active = new AtomicInteger();
+        AtomicInteger activeAtLogout = new AtomicInteger(-1);
+        CountDownLatch laterStarted = new CountDownLatch(1);
+
+        Future<?> loop = startLoop((peer, cmd, ctx) -> {
+            switch (ctx.read()) {
+                case "lenta" -> {
+                    active.incrementAndGet();
+                    requestStarted.countDown();
+                    releaseRequest.await(TIMEOUT_S, TimeUnit.SECONDS);
+                    active.decrementAndGet();
+                }
+                case "dopo" -> laterStarted.countDown();
+                default -> {
+                    activeAtLogout.set(active.get());
+                    logoutStarted.countDown();
+                    releaseLogout.await(TIMEOUT_S, TimeUnit.SECONDS);
+                }
+            }
+        });
+        incoming.add(List.of("getRestaurantInfo", "lenta"));
+        assertTrue(requestStarted.await(TIMEOUT_S, TimeUnit.SECONDS));
+        incoming.add(List.of("logout", "logout"));
+        incoming.add(List.of("getRestaurantInfo", "dopo"));
+
+        assertFalse(logoutStarted.await(200, TimeUnit.MILLISECONDS), "logout non deve precedere la richiesta in corso");
+        releaseRequest.countDown();
+        assertTrue(logoutStarted.await(TIMEOUT_S, TimeUnit.SECONDS));
+        assertEquals(0, activeAtLogout.get());
+
+        assertFalse(laterStarted.await(200, TimeUnit.MILLISECONDS), "le richieste successive attendono il logout");
+        releaseLogout.countDown();
+        assertTrue(laterStarted.await(TIMEOUT_S, TimeUnit.SECONDS));
+
+        incoming.add(List.of());
+        loop.get(TIMEOUT_S, TimeUnit.SECONDS);
+    }
+
+    /** Connessione multiplexata che riceve le richieste da {@link #incoming}. */
+    private final class MuxTransport implements ClientTransport {
+
+        @Override
+        public String readLine() {
+            return null;
+        }
+
+        @Override
+        public void writeLine(String line) { }
+
+        @Override
+        public boolean isMultiplexed() {
+            return true;
+        }
+
+        @Override
+        public ClientTransport nextRequest() throws IOException {
+            List<String> lines;
+            try {
+                lines = incoming.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+            return lines.isEmpty() ? null : new RequestTransport(lines);
+        }
+
+        @Override
+        public void close() { }
+    }
+
+    /** Singola richiesta: il comando seguito dai suoi parametri. */
+    private static final class RequestTransport implements ClientTransport {
+
+        private final ArrayDeque<String> lines;
+
+        private RequestTransport(List<String> lines) {
+            this.lines = new ArrayDeque<>(lines);
+        }
+
+        @Override
+        public String readLine() {
+            return lines.poll();
+        }
+
+        @Override
+        public void writeLine(String line) { }
+
+        @Override
+        public void close() { }
+    }
+}
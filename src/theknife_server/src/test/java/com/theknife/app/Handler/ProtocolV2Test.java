@@ -0,0 +1,118 @@
+package com.theknife.app.Handler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Fissa byte per byte il formato v2 lato server. Il {@code ProtocolV2Test}
+ * del client verifica gli stessi vettori con la propria codifica: se uno
+ * dei due test cambia, client e server non sono più compatibili.
+ */
+class ProtocolV2Test {
+
+    private static final HexFormat HEX = HexFormat.of();
+
+    /** Comandi in ordine di identificativo, a partire da 1: non vanno mai riassegnati. */
+    private static final List<String> COMMANDS = List.of(
+            "login", "register", "logout", "getUserInfo",
+            "getRestaurants", "getRestaurantsCursor", "getRestaurantInfo",
+            "addRestaurant", "editRestaurant", "deleteRestaurant",
+            "getMyRestaurantsPages", "getMyRestaurants",
+            "getReviewsPages", "getReviewsPageCount", "getReviews", "getMyReview",
+            "addReview", "editReview", "removeReview", "getMyReviewsPages", "getMyReviews",
+            "getResponse", "addResponse", "editResponse", "removeResponse",
+            "isFavourite", "addFavourite", "removeFavourite", "getFavourites",
+            "quit", "getStats", "getSessionToken", "resumeSession");
+
+    /**
+     * Richiesta 42 di un comando sconosciuto con i campi
+     * {@code "prima\nseconda", " /$%/ ", "007", "1234", "-0", "45.4642035", ""}.
+     */
+    private static final String REQUEST = "0000002a" + "0000" + "07"
+            + "000d7072696d610a7365636f6e6461" + "0006202f24252f20" + "0003303037"
+            + "01000004d2" + "00022d30" + "024046bb6b05319829" + "0000";
+
+    /** Richiesta 7: {@code login} con {@code "mario", "2024"}. */
+    private static final String LOGIN = "00000007" + "0001" + "02" + "00056d6172696f" + "01000007e8";
+
+    /**
+     * Risposta 42 con le righe v1
+     * {@code "ok", "prima /$%/ seconda", " /$%/ ", "007", "1234", "-0", "2147483647", ""}.
+     */
+    private static final String RESPONSE = "0000002a" + "08" + "00026f6b"
+            + "000d7072696d610a7365636f6e6461" + "00010a" + "0003303037"
+            + "01000004d2" + "00022d30" + "017fffffff" + "0000";
+
+    @Test
+    void commandIdsArePinned() {
+        for (int i = 0; i < COMMANDS.size(); i++) {
+            assertEquals(COMMANDS.get(i), CommandCatalog.commandName(i + 1), "identificativo " + (i + 1));
+        }
+        assertNull(CommandCatalog.commandName(0));
+        assertNull(CommandCatalog.commandName(COMMANDS.size() + 1));
+    }
+
+    @Test
+    void requestDecodesToV1Lines() throws IOException {
+        byte[] payload = HEX.parseHex(REQUEST);
+
+        assertEquals(42, ProtocolV2.readRequestId(payload));
+        assertEquals(List.of("#0", "prima /$%/ seconda", " /$%/ ", "007", "1234", "-0", "45.4642035", ""),
+                ProtocolV2.decodeRequest(payload, 4));
+    }
+
+    @Test
+    void commandRequestDecodes() throws IOException {
+        byte[] payload = HEX.parseHex(LOGIN);
+
+        assertEquals(7, ProtocolV2.readRequestId(payload));
+        assertEquals(List.of("login", "mario", "2024"), ProtocolV2.decodeRequest(payload, 4));
+    }
+
+    @Test
+    void responseEncodesToPinnedBytes() {
+        List<String> lines = List.of("ok", "prima /$%/ seconda", " /$%/ ", "007", "1234", "-0", "2147483647", "");
+
+        assertEquals(RESPONSE, HEX.formatHex(ProtocolV2.encodeResponse(42, lines)));
+        assertEquals("0000000300", HEX.formatHex(ProtocolV2.encodeResponse(3, List.of())));
+    }
+
+    @Test
+    void lengthsUseMultiByteVarints() throws IOException {
+        // 128 byte: varint 80 01
+        String s = "x".repeat(128);
+        byte[] request = concat(HEX.parseHex("00000001" + "0007" + "01" + "008001"), s.getBytes());
+        assertEquals(List.of("getRestaurantInfo", s), ProtocolV2.decodeRequest(request, 4));
+
+        // 300 byte: varint ac 02
+        byte[] response = ProtocolV2.encodeResponse(1, List.of("x".repeat(300)));
+        assertEquals("00000001" + "01" + "00ac02", HEX.formatHex(response, 0, 8));
+        assertEquals(8 + 300, response.length);
+    }
+
+    @Test
+    void wrongParameterCountIsRejected() {
+        byte[] payload = HEX.parseHex("00000001" + "0001" + "01" + "00056d6172696f");
+        assertThrows(IOException.class, () -> ProtocolV2.decodeRequest(payload, 4));
+    }
+
+    @Test
+    void truncatedRequestIsRejected() {
+        byte[] payload = HEX.parseHex(LOGIN);
+        assertThrows(IOException.class, () -> ProtocolV2.decodeRequest(Arrays.copyOf(payload, payload.length - 1), 4));
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+        byte[] out = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, out, a.length, b.length);
+        return out;
+    }
+}